@@ -63,6 +63,9 @@ public class App {
         ApiService apiService = Singleton.getApiService();
         js.initialJobs();
 
+        // Warm the index using what people searched for last time before we start accepting requests
+        Singleton.getIndexWarmer().warm();
+
         Spark.staticFileLocation("/public");
 
         before((request, response) -> {
@@ -477,6 +480,7 @@ public class App {
         data.createTableIfMissing(); // Added data key/value table
         repo.addSourceToTable(); // Added source to repo
         repo.addBranchToTable(); // Add branch to repo
+        repo.addDataToTable(); // Add per repository settings to repo
         api.createTableIfMissing();
     }
 
@@ -88,6 +88,32 @@ public class Values {
     public static String DEFAULT_TRASH_LOCATION = "./trash/";
     public static String LOG_PATH = "log_path";
     public static String DEFAULT_LOG_PATH = "./logs/";
+    public static String NUMBER_SEARCH_THREADS = "number_search_threads";
+    public static String DEFAULT_NUMBER_SEARCH_THREADS = "4";
+    public static String NUMBER_INDEX_THREADS = "number_index_threads";
+    public static String DEFAULT_NUMBER_INDEX_THREADS = "0";
+    public static String ALT_QUERY_COUNTS = "alt_query_counts";
+    public static String DEFAULT_ALT_QUERY_COUNTS = "false";
+    public static String WARMUP_QUERY_COUNT = "warmup_query_count";
+    public static String DEFAULT_WARMUP_QUERY_COUNT = "20";
+    public static String WARMUP_FILE = "warmup_file";
+    public static String DEFAULT_WARMUP_FILE = "./searchcode.warmup";
+    public static String INDEX_STORE_SOURCE = "index_store_source";
+    public static String DEFAULT_INDEX_STORE_SOURCE = "false";
+    public static String FILE_CACHE_SIZE_MB = "file_cache_size_mb";
+    public static String DEFAULT_FILE_CACHE_SIZE_MB = "64";
+    public static String FILE_REPO_WATCH = "file_repo_watch";
+    public static String DEFAULT_FILE_REPO_WATCH = "false";
+    public static String FILE_REPO_WATCH_DEBOUNCE = "file_repo_watch_debounce";
+    public static String DEFAULT_FILE_REPO_WATCH_DEBOUNCE = "1000";
+    public static String FOLLOW_IGNORE_FILES = "follow_ignore_files";
+    public static String DEFAULT_FOLLOW_IGNORE_FILES = "true";
+    public static String GIT_BARE_CLONE = "git_bare_clone";
+    public static String DEFAULT_GIT_BARE_CLONE = "false";
+    public static String NUMBER_GIT_FETCHERS = "number_git_fetchers";
+    public static String DEFAULT_NUMBER_GIT_FETCHERS = "4";
+    public static String GIT_FETCHERS_PER_HOST = "git_fetchers_per_host";
+    public static String DEFAULT_GIT_FETCHERS_PER_HOST = "2";
 
     // Lucene stored values for indexing / searching
     public static String CONTENTS = "contents";
@@ -109,6 +135,11 @@ public class Values {
     public static String MESSAGE = "message"; // Contains git commit message
     public static String DELETED = "deleted";
     public static String CODEID = "codeid";
+    public static String SOURCE = "source"; // Compressed copy of the file used for snippets
+    public static String BLOBID = "blobid"; // Git object the file was read from when indexed from a bare clone
+    public static String VALIDFROM = "validfrom"; // Time index, when the file contents were first at the path
+    public static String VALIDTO = "validto"; // Time index, when the file contents were replaced or removed
+    public static String BRANCH = "branch"; // Every branch the file contents are on, can have many values
 
     // Random
     public static String USERSESSIONID = "admin_user";
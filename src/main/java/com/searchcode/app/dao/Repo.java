@@ -10,7 +10,10 @@
 
 package com.searchcode.app.dao;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
 import com.searchcode.app.config.IDatabaseConfig;
+import com.searchcode.app.model.RepoData;
 import com.searchcode.app.model.RepoResult;
 import com.searchcode.app.service.Singleton;
 import com.searchcode.app.util.Helpers;
@@ -38,6 +41,7 @@ public class Repo implements IRepo {
     private AbstractMap<String, Object> genericCache = Singleton.getGenericCache();
     private String repoCountCacheKey = "repo-repo-count";
     private String repoAllRepoCacheKey = "repo-all-repo-cache";
+    private Gson gson = new Gson();
 
     public Repo(IDatabaseConfig dbConfig) {
         this.dbConfig = dbConfig;
@@ -57,7 +61,7 @@ public class Repo implements IRepo {
 
         try {
             conn = this.dbConfig.getConnection();
-            stmt = conn.prepareStatement("select rowid,name,scm,url,username,password,source,branch from repo order by rowid desc;");
+            stmt = conn.prepareStatement("select rowid,name,scm,url,username,password,source,branch,data from repo order by rowid desc;");
 
             rs = stmt.executeQuery();
 
@@ -70,8 +74,11 @@ public class Repo implements IRepo {
                 String repoPassword = rs.getString("password");
                 String repoSource = rs.getString("source");
                 String repoBranch = rs.getString("branch");
+                String repoData = rs.getString("data");
 
-                repoResults.add(new RepoResult(rowId, repoName, repoScm, repoUrl, repoUsername, repoPassword, repoSource, repoBranch));
+                RepoResult repoResult = new RepoResult(rowId, repoName, repoScm, repoUrl, repoUsername, repoPassword, repoSource, repoBranch);
+                repoResult.setData(this.parseData(repoData));
+                repoResults.add(repoResult);
             }
 
             stmt.close();
@@ -130,7 +137,7 @@ public class Repo implements IRepo {
 
         try {
             conn = this.dbConfig.getConnection();
-            stmt = conn.prepareStatement("select rowid,name,scm,url,username,password,source,branch from repo order by rowid desc limit ?, ?;");
+            stmt = conn.prepareStatement("select rowid,name,scm,url,username,password,source,branch,data from repo order by rowid desc limit ?, ?;");
 
             stmt.setInt(1, offset);
             stmt.setInt(2, pageSize);
@@ -146,8 +153,11 @@ public class Repo implements IRepo {
                 String repoPassword = rs.getString("password");
                 String repoSource = rs.getString("source");
                 String repoBranch = rs.getString("branch");
+                String repoData = rs.getString("data");
 
-                repoResults.add(new RepoResult(rowId, repoName, repoScm, repoUrl, repoUsername, repoPassword, repoSource, repoBranch));
+                RepoResult repoResult = new RepoResult(rowId, repoName, repoScm, repoUrl, repoUsername, repoPassword, repoSource, repoBranch);
+                repoResult.setData(this.parseData(repoData));
+                repoResults.add(repoResult);
             }
         }
         catch(SQLException ex) {
@@ -212,7 +222,7 @@ public class Repo implements IRepo {
 
         try {
             conn = this.dbConfig.getConnection();
-            stmt = conn.prepareStatement("select rowid,name,scm,url,username,password,source,branch from repo where name=?;");
+            stmt = conn.prepareStatement("select rowid,name,scm,url,username,password,source,branch,data from repo where name=?;");
 
             stmt.setString(1, repositoryName);
 
@@ -227,8 +237,10 @@ public class Repo implements IRepo {
                 String repoPassword = rs.getString("password");
                 String repoSource = rs.getString("source");
                 String repoBranch = rs.getString("branch");
+                String repoData = rs.getString("data");
 
                 result = new RepoResult(rowId, repoName, repoScm, repoUrl, repoUsername, repoPassword, repoSource, repoBranch);
+                result.setData(this.parseData(repoData));
             }
         }
         catch(SQLException ex) {
@@ -260,7 +272,7 @@ public class Repo implements IRepo {
 
         try {
             conn = this.dbConfig.getConnection();
-            stmt = conn.prepareStatement("select rowid,name,scm,url,username,password,source,branch from repo where url=?;");
+            stmt = conn.prepareStatement("select rowid,name,scm,url,username,password,source,branch,data from repo where url=?;");
 
             stmt.setString(1, repositoryUrl);
 
@@ -275,8 +287,10 @@ public class Repo implements IRepo {
                 String repoPassword = rs.getString("password");
                 String repoSource = rs.getString("source");
                 String repoBranch = rs.getString("branch");
+                String repoData = rs.getString("data");
 
                 result = new RepoResult(rowId, repoName, repoScm, repoUrl, repoUsername, repoPassword, repoSource, repoBranch);
+                result.setData(this.parseData(repoData));
             }
         }
         catch(SQLException ex) {
@@ -336,7 +350,7 @@ public class Repo implements IRepo {
             // Update with new details
             try {
                 conn = this.dbConfig.getConnection();
-                stmt = conn.prepareStatement("UPDATE \"repo\" SET \"name\" = ?, \"scm\" = ?, \"url\" = ?, \"username\" = ?, \"password\" = ?, \"source\" = ?, \"branch\" = ? WHERE  \"name\" = ?");
+                stmt = conn.prepareStatement("UPDATE \"repo\" SET \"name\" = ?, \"scm\" = ?, \"url\" = ?, \"username\" = ?, \"password\" = ?, \"source\" = ?, \"branch\" = ?, \"data\" = ? WHERE  \"name\" = ?");
 
                 stmt.setString(1, repoResult.getName());
                 stmt.setString(2, repoResult.getScm());
@@ -345,9 +359,10 @@ public class Repo implements IRepo {
                 stmt.setString(5, repoResult.getPassword());
                 stmt.setString(6, repoResult.getSource());
                 stmt.setString(7, repoResult.getBranch());
+                stmt.setString(8, this.gson.toJson(repoResult.getData()));
 
                 // Target the row
-                stmt.setString(8, repoResult.getName());
+                stmt.setString(9, repoResult.getName());
 
                 stmt.execute();
             }
@@ -364,7 +379,7 @@ public class Repo implements IRepo {
             isNew = true;
             try {
                 conn = this.dbConfig.getConnection();
-                stmt = conn.prepareStatement("INSERT INTO repo(\"name\",\"scm\",\"url\", \"username\", \"password\",\"source\",\"branch\") VALUES (?,?,?,?,?,?,?)");
+                stmt = conn.prepareStatement("INSERT INTO repo(\"name\",\"scm\",\"url\", \"username\", \"password\",\"source\",\"branch\",\"data\") VALUES (?,?,?,?,?,?,?,?)");
 
                 stmt.setString(1, repoResult.getName());
                 stmt.setString(2, repoResult.getScm());
@@ -373,6 +388,7 @@ public class Repo implements IRepo {
                 stmt.setString(5, repoResult.getPassword());
                 stmt.setString(6, repoResult.getSource());
                 stmt.setString(7, repoResult.getBranch());
+                stmt.setString(8, this.gson.toJson(repoResult.getData()));
 
                 stmt.execute();
             }
@@ -391,6 +407,24 @@ public class Repo implements IRepo {
         return isNew;
     }
 
+    /**
+     * Settings are stored as JSON, anything missing or unreadable gets the defaults
+     */
+    private RepoData parseData(String data) {
+        if (data == null || data.trim().isEmpty()) {
+            return new RepoData();
+        }
+
+        try {
+            RepoData repoData = this.gson.fromJson(data, RepoData.class);
+            return repoData == null ? new RepoData() : repoData;
+        }
+        catch (JsonSyntaxException ex) {
+            LOGGER.severe(" caught a " + ex.getClass() + "\n with message: " + ex.getMessage());
+            return new RepoData();
+        }
+    }
+
     // Schema Migrations below
     public void addSourceToTable() {
 
@@ -482,4 +516,48 @@ public class Repo implements IRepo {
             Helpers.closeQuietly(conn);
         }
     }
+
+    public void addDataToTable() {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+
+        try {
+            conn = this.dbConfig.getConnection();
+            stmt = conn.prepareStatement("PRAGMA table_info(repo);");
+
+            boolean shouldAlter = true;
+
+            rs = stmt.executeQuery();
+            String value = "";
+            while (rs.next()) {
+                value = rs.getString("name");
+
+                if ("data".equals(value)) {
+                    shouldAlter = false;
+                }
+            }
+
+            if (shouldAlter) {
+                List<String> commands = Arrays.asList(
+                        "ALTER TABLE \"repo\" RENAME TO \"Qm3c8ZtR0pLw5xKd2sVn_repo\"",
+                        "CREATE TABLE \"repo\" (\"name\" VARCHAR PRIMARY KEY  NOT NULL ,\"scm\" VARCHAR,\"url\" VARCHAR,\"username\" VARCHAR,\"password\" VARCHAR, \"source\", \"branch\" VARCHAR, \"data\" VARCHAR)",
+                        "INSERT INTO \"repo\" SELECT \"name\",\"scm\",\"url\",\"username\",\"password\", \"source\", \"branch\", '{}' FROM \"main\".\"Qm3c8ZtR0pLw5xKd2sVn_repo\"",
+                        "DROP TABLE \"Qm3c8ZtR0pLw5xKd2sVn_repo\"");
+
+                for(String command: commands) {
+                    stmt = conn.prepareStatement(command);
+                    stmt.execute();
+                }
+            }
+        }
+        catch(SQLException ex) {
+            LOGGER.severe(" caught a " + ex.getClass() + "\n with message: " + ex.getMessage());
+        }
+        finally {
+            Helpers.closeQuietly(rs);
+            Helpers.closeQuietly(stmt);
+            Helpers.closeQuietly(conn);
+        }
+    }
 }
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2016 Boyter Online Services
+ *
+ * Use of this software is governed by the Fair Source License included
+ * in the LICENSE.TXT file, but will be eventually open under GNU General Public License Version 3
+ * see the README.md for when this clause will take effect
+ *
+ * Version 1.3.8
+ */
+
+package com.searchcode.app.dto;
+
+/**
+ * A run of consecutive lines in a file which were last changed by the same author in the same commit
+ */
+public class BlameRun {
+    private int lines;
+    private String author;
+    private int commitTime;
+
+    public BlameRun(int lines, String author, int commitTime) {
+        this.setLines(lines);
+        this.setAuthor(author);
+        this.setCommitTime(commitTime);
+    }
+
+    public int getLines() {
+        return lines;
+    }
+
+    public void setLines(int lines) {
+        this.lines = lines;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public void setAuthor(String author) {
+        this.author = author;
+    }
+
+    public int getCommitTime() {
+        return commitTime;
+    }
+
+    public void setCommitTime(int commitTime) {
+        this.commitTime = commitTime;
+    }
+}
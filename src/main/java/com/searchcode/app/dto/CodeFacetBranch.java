@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2016 Boyter Online Services
+ *
+ * Use of this software is governed by the Fair Source License included
+ * in the LICENSE.TXT file, but will be eventually open under GNU General Public License Version 3
+ * see the README.md for when this clause will take effect
+ *
+ * Version 1.3.8
+ */
+
+package com.searchcode.app.dto;
+
+import com.searchcode.app.config.Values;
+
+public class CodeFacetBranch {
+    public String branch = Values.EMPTYSTRING;
+    public int count = 0;
+    public boolean selected = false;
+
+    public CodeFacetBranch(String branch, int count) {
+        this.setBranch(branch);
+        this.setCount(count);
+    }
+
+    public String getBranch() {
+        return branch;
+    }
+
+    public void setBranch(String branch) {
+        this.branch = branch;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public boolean getSelected() {
+        return selected;
+    }
+
+    public void setSelected(boolean selected) {
+        this.selected = selected;
+    }
+}
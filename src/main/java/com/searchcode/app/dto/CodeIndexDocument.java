@@ -12,6 +12,8 @@ package com.searchcode.app.dto;
 
 import org.apache.commons.codec.digest.DigestUtils;
 
+import java.util.List;
+
 public class CodeIndexDocument {
     private String repoLocationRepoNameLocationFilename; // Primary key and full path to file relative to where application is installed
     private String repoName;
@@ -30,6 +32,10 @@ public class CodeIndexDocument {
     private String year;
     private String message;
     private String deleted; // Used for time filter to know when this entry was removed
+    private String blobId; // Set when the contents were read from a git object database rather than from disk
+    private List<String> branches = null; // Git only, every branch with these contents at the path
+    private long validFrom = 0; // Time index only, seconds since epoch from when the contents were at the path
+    private long validTo = Long.MAX_VALUE; // Time index only, when the contents were changed or removed
 
     public CodeIndexDocument() {}
 
@@ -189,4 +195,36 @@ public class CodeIndexDocument {
     public void setYear(String year) {
         this.year = year;
     }
+
+    public String getBlobId() {
+        return blobId;
+    }
+
+    public void setBlobId(String blobId) {
+        this.blobId = blobId;
+    }
+
+    public List<String> getBranches() {
+        return branches;
+    }
+
+    public void setBranches(List<String> branches) {
+        this.branches = branches;
+    }
+
+    public long getValidFrom() {
+        return validFrom;
+    }
+
+    public void setValidFrom(long validFrom) {
+        this.validFrom = validFrom;
+    }
+
+    public long getValidTo() {
+        return validTo;
+    }
+
+    public void setValidTo(long validTo) {
+        this.validTo = validTo;
+    }
 }
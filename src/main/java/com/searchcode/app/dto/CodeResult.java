@@ -34,6 +34,7 @@ public class CodeResult {
     public String deleted = "";
     public String message = "";
     public String codeId = "";
+    public List<String> branches = new ArrayList<>();
 
     public CodeResult(List<String> code, List<CodeMatchResult>matchingResults) {
         this.setCode(code);
@@ -183,4 +184,12 @@ public class CodeResult {
     public void setFilePath(String path) {
         this.filePath = path;
     }
+
+    public List<String> getBranches() {
+        return branches;
+    }
+
+    public void setBranches(List<String> branches) {
+        this.branches = branches;
+    }
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2016 Boyter Online Services
+ *
+ * Use of this software is governed by the Fair Source License included
+ * in the LICENSE.TXT file, but will be eventually open under GNU General Public License Version 3
+ * see the README.md for when this clause will take effect
+ *
+ * Version 1.3.8
+ */
+
+package com.searchcode.app.dto;
+
+import com.searchcode.app.model.RepoResult;
+
+/**
+ * A repository which has been cloned or pulled and is waiting to be indexed along with what changed
+ */
+public class FetchedRepository {
+    private final RepoResult repoResult;
+    private final String repoLocations;
+    private final boolean existingRepo;
+    private final RepositoryChanged repositoryChanged;
+
+    public FetchedRepository(RepoResult repoResult, String repoLocations, boolean existingRepo, RepositoryChanged repositoryChanged) {
+        this.repoResult = repoResult;
+        this.repoLocations = repoLocations;
+        this.existingRepo = existingRepo;
+        this.repositoryChanged = repositoryChanged;
+    }
+
+    public RepoResult getRepoResult() {
+        return repoResult;
+    }
+
+    public String getRepoLocations() {
+        return repoLocations;
+    }
+
+    public boolean isExistingRepo() {
+        return existingRepo;
+    }
+
+    public RepositoryChanged getRepositoryChanged() {
+        return repositoryChanged;
+    }
+}
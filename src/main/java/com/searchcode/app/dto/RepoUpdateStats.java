@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2016 Boyter Online Services
+ *
+ * Use of this software is governed by the Fair Source License included
+ * in the LICENSE.TXT file, but will be eventually open under GNU General Public License Version 3
+ * see the README.md for when this clause will take effect
+ *
+ * Version 1.3.8
+ */
+
+package com.searchcode.app.dto;
+
+/**
+ * Counts of how each check for changes to a repository turned out since the application started
+ */
+public class RepoUpdateStats {
+    private long unchanged = 0;
+    private long changed = 0;
+    private long failed = 0;
+    private long lastChecked = 0;
+    private long lastChanged = 0;
+    private long lastDuration = 0;
+
+    public synchronized void recordUnchanged() {
+        this.unchanged++;
+        this.lastChecked = System.currentTimeMillis();
+    }
+
+    public synchronized void recordChanged() {
+        this.changed++;
+        this.lastChecked = System.currentTimeMillis();
+        this.lastChanged = this.lastChecked;
+    }
+
+    public synchronized void recordFailed() {
+        this.failed++;
+        this.lastChecked = System.currentTimeMillis();
+    }
+
+    /**
+     * How long the last fetch and index took which is used as a measure of how large the repository is
+     */
+    public synchronized void recordDuration(long millis) {
+        this.lastDuration = millis;
+    }
+
+    public synchronized long getChecks() {
+        return this.unchanged + this.changed + this.failed;
+    }
+
+    public synchronized long getUnchanged() {
+        return this.unchanged;
+    }
+
+    public synchronized long getChanged() {
+        return this.changed;
+    }
+
+    public synchronized long getFailed() {
+        return this.failed;
+    }
+
+    public synchronized long getLastChecked() {
+        return this.lastChecked;
+    }
+
+    public synchronized long getLastChanged() {
+        return this.lastChanged;
+    }
+
+    public synchronized long getLastDuration() {
+        return this.lastDuration;
+    }
+}
@@ -11,13 +11,19 @@
 package com.searchcode.app.dto;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class RepositoryChanged {
     private boolean changed;
     private List<String> changedFiles;
     private List<String> deletedFiles;
+    private Map<String, String> renamedFiles = new LinkedHashMap<>();
+    private Map<String, String> codeOwners = new HashMap<>();
     private boolean clone;
+    private boolean failed = false;
 
     public RepositoryChanged(boolean changed) {
         this.clone = false;
@@ -45,6 +51,21 @@ public class RepositoryChanged {
         return deletedFiles;
     }
 
+    /**
+     * Files which moved without their contents changing keyed by their old path with the new path as the value
+     */
+    public Map<String, String> getRenamedFiles() {
+        return renamedFiles;
+    }
+
+    /**
+     * Owners of changed files already known from fetching the changes keyed by path, saves working them out for
+     * each file when indexing
+     */
+    public Map<String, String> getCodeOwners() {
+        return codeOwners;
+    }
+
     public boolean isClone() {
         return clone;
     }
@@ -52,4 +73,15 @@ public class RepositoryChanged {
     public void setClone(boolean clone) {
         this.clone = clone;
     }
+
+    /**
+     * True if the clone or update could not be completed, such as the remote being unreachable
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public void setFailed(boolean failed) {
+        this.failed = failed;
+    }
 }
@@ -11,18 +11,22 @@
 package com.searchcode.app.dto;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class SearchResult {
     private int totalHits = 0;
     private int page = 0;
     private String query = "";
     private List<String> altQuery = new ArrayList<>();
+    private Map<String, Integer> altQueryCounts = new LinkedHashMap<>();
     private List<CodeResult> codeResultList = new ArrayList<>();
     private List<Integer> pages = new ArrayList<>();
     private List<CodeFacetLanguage> languageFacetResults = new ArrayList<>();
     private List<CodeFacetRepo> repoFacetResults = new ArrayList<>();
     private List<CodeFacetOwner> repoOwnerResults = new ArrayList<>();
+    private List<CodeFacetBranch> branchFacetResults = new ArrayList<>();
     private List<CodeFacetYearMonthDay> repoFacetYearMonthDay = new ArrayList<>();
     private List<CodeFacetYearMonth> repoFacetYearMonth = new ArrayList<>();
     private List<CodeFacetYear> repoFacetYear = new ArrayList<>();
@@ -110,6 +114,15 @@ public class SearchResult {
         this.altQuery.add(altQuery);
     }
 
+    public void addAltQuery(String altQuery, int count) {
+        this.altQuery.add(altQuery);
+        this.altQueryCounts.put(altQuery, count);
+    }
+
+    public Map<String, Integer> getAltQueryCounts() {
+        return altQueryCounts;
+    }
+
     public List<CodeFacetOwner> getOwnerFacetResults() {
         return repoOwnerResults;
     }
@@ -118,6 +131,14 @@ public class SearchResult {
         this.repoOwnerResults = repoOwnerResults;
     }
 
+    public List<CodeFacetBranch> getBranchFacetResults() {
+        return branchFacetResults;
+    }
+
+    public void setBranchFacetResults(List<CodeFacetBranch> branchFacetResults) {
+        this.branchFacetResults = branchFacetResults;
+    }
+
     public List<CodeFacetYearMonthDay> getRepoFacetYearMonthDay() {
         return repoFacetYearMonthDay;
     }
@@ -18,7 +18,7 @@ import com.searchcode.app.service.Singleton;
 import com.searchcode.app.util.Properties;
 import com.searchcode.app.util.UniqueRepoQueue;
 import org.apache.commons.io.FileUtils;
-import org.quartz.*;
+import org.quartz.JobDataMap;
 
 import java.io.File;
 import java.util.AbstractMap;
@@ -28,16 +28,34 @@ import java.util.AbstractMap;
  * TODO fix race condition where it can start deleting while the repo has been re-added to be indexed
  * TODO add some tests for this to ensure everything such as the early return occurs correctly
  */
-@PersistJobDataAfterExecution
-@DisallowConcurrentExecution
-public class DeleteRepositoryJob implements Job {
-    public void execute(JobExecutionContext context) throws JobExecutionException {
-        if (Singleton.getBackgroundJobsEnabled() == false) {
-            return;
+public class DeleteRepositoryJob implements IWorkerJob {
+
+    private int PAUSETIME = 1000; // How long to wait before trying again when the repository is still being indexed
+
+    /**
+     * Waits for a repository to be queued for deletion and deletes it. If it is still being indexed it goes back
+     * on the queue and this waits a moment rather than trying it again straight away.
+     */
+    @Override
+    public void work(JobDataMap data) throws InterruptedException {
+        while (Singleton.getBackgroundJobsEnabled() == false) {
+            Thread.sleep(this.PAUSETIME);
+        }
+
+        if (!this.delete(Singleton.getUniqueDeleteRepoQueue().take())) {
+            Thread.sleep(this.PAUSETIME);
+        }
+    }
+
+    /**
+     * Returns false if the repository could not be deleted yet and was put back on the queue
+     */
+    public boolean delete(RepoResult rr) {
+        if (rr == null) {
+            return true;
         }
 
         UniqueRepoQueue deleteRepoQueue = Singleton.getUniqueDeleteRepoQueue();
-        RepoResult rr = null;
 
         try {
             Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
@@ -45,33 +63,32 @@ public class DeleteRepositoryJob implements Job {
             AbstractMap<String, Integer> runningProcesses = Singleton.getRunningIndexRepoJobs();
             Repo repo = Singleton.getRepo();
 
-            rr = deleteRepoQueue.poll();
-            if (rr == null) {
-                return;
-            }
-
             Singleton.getUniqueGitRepoQueue().delete(rr);
 
             if (runningProcesses.containsKey(rr.getName())) {
                 // Put back into delete queue and quit
                 deleteRepoQueue.add(rr);
-                return;
+                return false;
             }
 
             Singleton.getLogger().info("Deleting repository. " + rr.getName());
+            Singleton.getFileRepoWatcher().unwatch(rr.getName());
+            Singleton.getFetchLimiter().forget(rr.getName());
             CodeIndexer.deleteByReponame(rr.getName());
 
             // remove the directory
             String repoLocations = Properties.getProperties().getProperty(Values.REPOSITORYLOCATION, Values.DEFAULTREPOSITORYLOCATION);
+            Singleton.getGitService().close(repoLocations + rr.getName() + "/.git/");
             FileUtils.deleteDirectory(new File(repoLocations + rr.getName() + "/"));
 
             // Remove from the database
             repo.deleteRepoByName(rr.getName());
         }
         catch (Exception ex) {
-            if (rr != null) {
-                deleteRepoQueue.add(rr);
-            }
+            deleteRepoQueue.add(rr);
+            return false;
         }
+
+        return true;
     }
 }
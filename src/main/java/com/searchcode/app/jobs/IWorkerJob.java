@@ -0,0 +1,21 @@
+/*
+ * Copyright (c) 2016 Boyter Online Services
+ *
+ * Use of this software is governed by the Fair Source License included
+ * in the LICENSE.TXT file, but will be eventually open under GNU General Public License Version 3
+ * see the README.md for when this clause will take effect
+ *
+ * Version 1.3.8
+ */
+
+package com.searchcode.app.jobs;
+
+import org.quartz.JobDataMap;
+
+/**
+ * A job run over and over by a worker thread. Each call blocks until there is something to do, does it and
+ * returns, so an idle worker sleeps rather than being fired on a timer to find nothing.
+ */
+public interface IWorkerJob {
+    void work(JobDataMap data) throws InterruptedException;
+}
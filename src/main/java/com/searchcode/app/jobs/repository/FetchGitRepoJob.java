@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2016 Boyter Online Services
+ *
+ * Use of this software is governed by the Fair Source License included
+ * in the LICENSE.TXT file, but will be eventually open under GNU General Public License Version 3
+ * see the README.md for when this clause will take effect
+ *
+ * Version 1.3.8
+ */
+
+package com.searchcode.app.jobs.repository;
+
+import com.searchcode.app.dto.FetchedRepository;
+import com.searchcode.app.model.RepoResult;
+import com.searchcode.app.service.Singleton;
+import com.searchcode.app.util.FetchLimiter;
+import com.searchcode.app.util.UniqueRepoQueue;
+import org.quartz.JobDataMap;
+
+import java.util.AbstractMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This job is responsible for cloning and pulling git repositories. What changed is handed to the
+ * IndexGitRepoJob instances to be indexed so a slow remote does not hold up indexing and a large index does not
+ * hold up fetching. Clones and pulls against a single host are limited and failures are retried with a backoff.
+ * When indexing is not keeping up the hand over waits, there is no point pulling changes it cannot get to.
+ */
+public class FetchGitRepoJob extends IndexGitRepoJob {
+
+    /**
+     * Waits for a repository to be queued or for a failed one to be due for retry, then fetches it. If its host
+     * is busy waits for a fetch to finish before trying anything else.
+     */
+    @Override
+    public void work(JobDataMap data) throws InterruptedException {
+        this.awaitReady();
+
+        long retryDelay = Singleton.getFetchLimiter().getRetryDelay(System.currentTimeMillis());
+        UniqueRepoQueue repoQueue = this.getNextQueuedRepo();
+        RepoResult queued = retryDelay == -1 ? repoQueue.take() : repoQueue.poll(retryDelay, TimeUnit.MILLISECONDS);
+
+        if (!this.isReady()) {
+            repoQueue.add(queued);
+            return;
+        }
+
+        if (!this.fetch(this.nextRepository(queued), data)) {
+            Singleton.getFetchLimiter().awaitRelease(FetchLimiter.BACKOFFMILLIS);
+        }
+    }
+
+    /**
+     * Fetching is not held up by the indexer pausing, only by the hand over to it being full
+     */
+    @Override
+    public boolean isReady() {
+        return this.isEnabled() && Singleton.getBackgroundJobsEnabled();
+    }
+
+    /**
+     * Prefers a repository whose retry is due over the one taken from the queue, which goes back to wait
+     */
+    private RepoResult nextRepository(RepoResult queued) {
+        FetchLimiter fetchLimiter = Singleton.getFetchLimiter();
+        long now = System.currentTimeMillis();
+
+        RepoResult retry = fetchLimiter.pollRetry(now);
+        if (retry != null) {
+            this.getNextQueuedRepo().add(queued);
+            return retry;
+        }
+
+        if (queued != null && fetchLimiter.isBackingOff(queued.getName(), now)) {
+            // Will be picked up again once its retry is due
+            return null;
+        }
+
+        return queued;
+    }
+
+    /**
+     * Fetches the repository and hands it to the indexers. Returns false if its host was busy in which case it
+     * is put back on the queue to try again once the rest of the queue has had a turn.
+     */
+    private boolean fetch(RepoResult repoResult, JobDataMap data) throws InterruptedException {
+        AbstractMap<String, Integer> runningIndexRepoJobs = Singleton.getRunningIndexRepoJobs();
+
+        if (repoResult == null || runningIndexRepoJobs.containsKey(repoResult.getName())) {
+            return true;
+        }
+
+        FetchLimiter fetchLimiter = Singleton.getFetchLimiter();
+        String host = FetchLimiter.getHost(repoResult.getUrl());
+
+        if (!fetchLimiter.tryAcquire(host)) {
+            this.getNextQueuedRepo().add(repoResult);
+            return false;
+        }
+
+        boolean handedOver = false;
+
+        try {
+            runningIndexRepoJobs.put(repoResult.getName(), (int) (System.currentTimeMillis() / 1000));
+            Singleton.getLogger().info("Fetching " + repoResult.getName());
+
+            FetchedRepository fetchedRepository;
+            try {
+                fetchedRepository = this.fetchRepository(repoResult, data.get("REPOLOCATIONS").toString());
+            }
+            finally {
+                fetchLimiter.release(host);
+            }
+
+            if (fetchedRepository.getRepositoryChanged().isFailed()) {
+                if (fetchLimiter.recordFailure(repoResult, System.currentTimeMillis())) {
+                    Singleton.getLogger().info("Unable to fetch " + repoResult.getName() + " will retry");
+                }
+            }
+            else {
+                fetchLimiter.recordSuccess(repoResult.getName());
+            }
+
+            // Still handed over on failure as an earlier index which did not finish can be redone from disk
+            Singleton.getFetchedGitRepoQueue().put(fetchedRepository);
+            handedOver = true;
+        }
+        finally {
+            if (!handedOver) {
+                runningIndexRepoJobs.remove(repoResult.getName());
+            }
+        }
+
+        return true;
+    }
+}
@@ -15,7 +15,10 @@ import au.com.bytecode.opencsv.CSVWriter;
 import com.searchcode.app.config.Values;
 import com.searchcode.app.dto.BinaryFinding;
 import com.searchcode.app.dto.CodeIndexDocument;
+import com.searchcode.app.dto.CodeResult;
+import com.searchcode.app.dto.FetchedRepository;
 import com.searchcode.app.dto.RepositoryChanged;
+import com.searchcode.app.jobs.IWorkerJob;
 import com.searchcode.app.model.RepoResult;
 import com.searchcode.app.service.CodeIndexer;
 import com.searchcode.app.service.CodeSearcher;
@@ -26,10 +29,7 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.quartz.Job;
 import org.quartz.JobDataMap;
-import org.quartz.JobExecutionContext;
-import org.quartz.JobExecutionException;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -38,12 +38,20 @@ import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
 
-public abstract class IndexBaseRepoJob implements Job {
+public abstract class IndexBaseRepoJob implements IWorkerJob {
 
     protected boolean LOWMEMORY = true;
     protected int SLEEPTIME = 5000;
+    protected int PAUSETIME = 1000; // How long a worker waits before checking again while indexing is paused
+    public int RENAMEBATCHSIZE = 1000; // Bounds how many moved files are held in memory while being copied
     public int MAXFILELINEDEPTH = Helpers.tryParseInt(com.searchcode.app.util.Properties.getProperties().getProperty(Values.MAXFILELINEDEPTH, Values.DEFAULTMAXFILELINEDEPTH), Values.DEFAULTMAXFILELINEDEPTH);
+    public boolean FOLLOWIGNOREFILES = Boolean.parseBoolean(com.searchcode.app.util.Properties.getProperties().getProperty(Values.FOLLOW_IGNORE_FILES, Values.DEFAULT_FOLLOW_IGNORE_FILES));
     public boolean LOGINDEXED = Boolean.parseBoolean(com.searchcode.app.util.Properties.getProperties().getProperty("only_localhost", "false")); // TODO make this configurable
 
     /**
@@ -94,90 +102,192 @@ public abstract class IndexBaseRepoJob implements Job {
     }
 
     /**
-     * The main method used for finding jobs to index and actually doing the work
+     * Where a file from a change set lives on disk. This method can be implemented by extending classes which
+     * do not keep their files inside the repository locations directory
      */
-    public void execute(JobExecutionContext context) throws JobExecutionException {
-        if (isEnabled() == false) {
-            return;
-        }
+    public String getDeltaFileLocation(String fileRepoLocations, String repoName, String repoRemoteLocation, String changedFile) {
+        String location = fileRepoLocations + "/" + repoName + "/" + changedFile;
+        return location.replace("//", "/");
+    }
 
-        if (Singleton.getBackgroundJobsEnabled() == false) {
+    /**
+     * This method can be implemented by extending classes which keep track of what a previous walk of the
+     * repository saw. Returning true means the file is known to be unchanged and it will not be read again.
+     */
+    public boolean isFileUnchanged(String fileToString, BasicFileAttributes attrs) {
+        return false;
+    }
+
+    /**
+     * As above but called once the file has been read, returning true skips indexing it again
+     */
+    public boolean isFileContentUnchanged(String fileToString, String md5Hash) {
+        return false;
+    }
+
+    /**
+     * This method can be implemented by extending classes to be told about each file the walk has processed.
+     * The hash is empty if the file was excluded from the index.
+     */
+    public void fileProcessed(String fileToString, BasicFileAttributes attrs, String md5Hash) {
+    }
+
+    /**
+     * Reads the file ready to be indexed, checking the raw bytes with the prefilter before decoding. This method
+     * can be implemented by extending classes which do not read their files from disk.
+     */
+    public SourceFile loadSourceFile(String fileToString, String fileName, SearchcodeLib scl) throws IOException {
+        return SourceFile.load(fileToString, this.MAXFILELINEDEPTH, true, (sample, length, complete) -> scl.isBinaryOrMinifiedSample(sample, length, complete, fileName));
+    }
+
+    /**
+     * The git object a file was read from if it was not read from disk. This method can be implemented by
+     * extending classes which use loadSourceFile to read from a git object database.
+     */
+    public String getBlobId(String fileToString) {
+        return null;
+    }
+
+    /**
+     * Every branch the file is on if the repository has branches. This method can be implemented by extending
+     * classes which index more than one branch.
+     */
+    public List<String> getBranches(String fileToString) {
+        return null;
+    }
+
+    /**
+     * The main method used for finding jobs to index and actually doing the work, waits for a repository to be
+     * queued if there is none
+     */
+    @Override
+    public void work(JobDataMap data) throws InterruptedException {
+        this.awaitReady();
+
+        UniqueRepoQueue repoQueue = this.getNextQueuedRepo();
+        RepoResult repoResult = repoQueue.take();
+
+        if (!this.isReady()) {
+            // Turned off while waiting so leave it for when it is turned back on
+            repoQueue.add(repoResult);
             return;
         }
 
-        Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+        this.indexRepository(repoResult, data);
+    }
 
-        while (CodeIndexer.shouldPauseAdding()) {
+    /**
+     * True if background jobs are turned on and the indexer is keeping up with what has been added to it
+     */
+    public boolean isReady() {
+        if (!this.isEnabled() || !Singleton.getBackgroundJobsEnabled()) {
+            return false;
+        }
+
+        if (CodeIndexer.shouldPauseAdding()) {
             Singleton.getLogger().info("Pausing parser.");
-            return;
+            return false;
         }
 
-        // Pull the next repo to index from the queue
-        UniqueRepoQueue repoQueue = this.getNextQueuedRepo();
+        return true;
+    }
+
+    /**
+     * Waits until isReady, this only happens while work is already underway or jobs have been turned off
+     */
+    public void awaitReady() throws InterruptedException {
+        while (!this.isReady()) {
+            Thread.sleep(this.PAUSETIME);
+        }
+    }
 
-        RepoResult repoResult = repoQueue.poll();
+    /**
+     * Fetches and indexes the repository unless it is already being worked on
+     */
+    public void indexRepository(RepoResult repoResult, JobDataMap data) {
         AbstractMap<String, Integer> runningIndexRepoJobs = Singleton.getRunningIndexRepoJobs();
 
         if (repoResult != null && !runningIndexRepoJobs.containsKey(repoResult.getName())) {
-
-            String repoName = repoResult.getName();
-            String repoRemoteLocation = repoResult.getUrl();
-            String repoUserName = repoResult.getUsername();
-            String repoPassword = repoResult.getPassword();
-            String repoBranch = repoResult.getBranch();
-            Singleton.getLogger().info("Indexing " + repoName);
+            Singleton.getLogger().info("Indexing " + repoResult.getName());
+            long start = System.currentTimeMillis();
 
             try {
-                runningIndexRepoJobs.put(repoResult.getName(), (int) (System.currentTimeMillis() / 1000));
-
-                JobDataMap data = context.getJobDetail().getJobDataMap();
+                runningIndexRepoJobs.put(repoResult.getName(), (int) (start / 1000));
 
                 String repoLocations = data.get("REPOLOCATIONS").toString();
                 this.LOWMEMORY = Boolean.parseBoolean(data.get("LOWMEMORY").toString());
 
-                // Check if sucessfully cloned, and if not delete and restart
-                boolean cloneSucess = checkCloneUpdateSucess(repoLocations + repoName);
-                if (cloneSucess == false) {
-                    // Delete the folder and delete from the index
-                    try {
-                        FileUtils.deleteDirectory(new File(repoLocations + "/" + repoName + "/"));
-                        CodeIndexer.deleteByReponame(repoName);
-                    } catch (IOException ex) {
-                        Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + "\n with message: " + ex.getMessage());
-                    }
-                }
-                deleteCloneUpdateSuccess(repoLocations + "/" + repoName);
-
-                String repoGitLocation = repoLocations + "/" + repoName + "/.git/";
-
-                File file = new File(repoGitLocation);
-                boolean existingRepo = file.exists();
-                boolean useCredentials = repoUserName != null && !repoUserName.isEmpty();
-                RepositoryChanged repositoryChanged = null;
-
-                if (existingRepo) {
-                    repositoryChanged = this.updateExistingRepository(repoName, repoRemoteLocation, repoUserName, repoPassword, repoLocations, repoBranch, useCredentials);
-                } else {
-                    repositoryChanged = this.getNewRepository(repoName, repoRemoteLocation, repoUserName, repoPassword, repoLocations, repoBranch, useCredentials);
-                }
-
-                // Write file indicating we have sucessfully cloned
-                createCloneUpdateSuccess(repoLocations + "/" + repoName);
-                // If the last index was not sucessful, then trigger full index
-                boolean indexsuccess = checkIndexSucess(repoGitLocation);
-
-                if (repositoryChanged.isChanged() || indexsuccess == false) {
-                    Singleton.getLogger().info("Update found indexing " + repoRemoteLocation);
-                    this.updateIndex(repoName, repoLocations, repoRemoteLocation, existingRepo, repositoryChanged);
-                }
+                FetchedRepository fetchedRepository = this.fetchRepository(repoResult, repoLocations);
+                this.indexFetchedRepository(fetchedRepository);
             }
             finally {
                 // Clean up the job
                 runningIndexRepoJobs.remove(repoResult.getName());
+                Singleton.getStatsService().getRepoUpdateStats(repoResult.getName()).recordDuration(System.currentTimeMillis() - start);
             }
         }
     }
 
+    /**
+     * Clones the repository or updates it if it was cloned before, working out what has changed since
+     */
+    public FetchedRepository fetchRepository(RepoResult repoResult, String repoLocations) {
+        String repoName = repoResult.getName();
+        String repoRemoteLocation = repoResult.getUrl();
+        String repoUserName = repoResult.getUsername();
+        String repoPassword = repoResult.getPassword();
+        String repoBranch = repoResult.getBranch();
+
+        // Check if sucessfully cloned, and if not delete and restart
+        boolean cloneSucess = checkCloneUpdateSucess(repoLocations + repoName);
+        if (cloneSucess == false) {
+            // Delete the folder and delete from the index
+            try {
+                FileUtils.deleteDirectory(new File(repoLocations + "/" + repoName + "/"));
+                CodeIndexer.deleteByReponame(repoName);
+            } catch (IOException ex) {
+                Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + "\n with message: " + ex.getMessage());
+            }
+        }
+        deleteCloneUpdateSuccess(repoLocations + "/" + repoName);
+
+        String repoGitLocation = repoLocations + "/" + repoName + "/.git/";
+
+        File file = new File(repoGitLocation);
+        boolean existingRepo = file.exists();
+        boolean useCredentials = repoUserName != null && !repoUserName.isEmpty();
+        RepositoryChanged repositoryChanged = null;
+
+        if (existingRepo) {
+            repositoryChanged = this.updateExistingRepository(repoName, repoRemoteLocation, repoUserName, repoPassword, repoLocations, repoBranch, useCredentials);
+        } else {
+            repositoryChanged = this.getNewRepository(repoName, repoRemoteLocation, repoUserName, repoPassword, repoLocations, repoBranch, useCredentials);
+        }
+
+        // Write file indicating we have sucessfully cloned
+        createCloneUpdateSuccess(repoLocations + "/" + repoName);
+
+        return new FetchedRepository(repoResult, repoLocations, existingRepo, repositoryChanged);
+    }
+
+    /**
+     * Indexes whatever changed when the repository was fetched, or everything if the last index did not finish
+     */
+    public void indexFetchedRepository(FetchedRepository fetchedRepository) {
+        String repoName = fetchedRepository.getRepoResult().getName();
+        String repoRemoteLocation = fetchedRepository.getRepoResult().getUrl();
+        String repoLocations = fetchedRepository.getRepoLocations();
+        RepositoryChanged repositoryChanged = fetchedRepository.getRepositoryChanged();
+
+        // If the last index was not sucessful, then trigger full index
+        boolean indexsuccess = checkIndexSucess(repoLocations + "/" + repoName + "/.git/");
+
+        if (repositoryChanged.isChanged() || indexsuccess == false) {
+            Singleton.getLogger().info("Update found indexing " + repoRemoteLocation);
+            this.updateIndex(repoName, repoLocations, repoRemoteLocation, fetchedRepository.isExistingRepo(), repositoryChanged);
+        }
+    }
+
     public void updateIndex(String repoName, String repoLocations, String repoRemoteLocation, boolean existingRepo, RepositoryChanged repositoryChanged) {
         String repoGitLocation = repoLocations + "/" + repoName;
         Path docDir = Paths.get(repoGitLocation);
@@ -217,49 +327,61 @@ public abstract class IndexBaseRepoJob implements Job {
         // Used to hold the reports of what was indexed
         List<String[]> reportList = new ArrayList<>();
 
-        for(String changedFile: repositoryChanged.getChangedFiles()) {
+        // Anything moved which cannot be copied from its old document is read and indexed as a changed file
+        List<String> changedFiles = new ArrayList<>(repositoryChanged.getChangedFiles());
+        changedFiles.addAll(this.indexRenamedFiles(path, repoName, fileRepoLocations, repoRemoteLocation, repositoryChanged, reportList));
+
+        for(String changedFile: changedFiles) {
             if (this.shouldJobPauseOrTerminate() == true) {
                 return;
             }
 
             String[] split = changedFile.split("/");
             String fileName = split[split.length - 1];
-            changedFile = fileRepoLocations + "/" + repoName + "/" + changedFile;
-            changedFile = changedFile.replace("//", "/");
+            changedFile = this.getDeltaFileLocation(fileRepoLocations, repoName, repoRemoteLocation, changedFile);
 
             String md5Hash = Values.EMPTYSTRING;
             List<String> codeLines = null;
 
+            SourceFile sourceFile;
             try {
-                codeLines = Helpers.readFileLinesGuessEncoding(changedFile, this.MAXFILELINEDEPTH);
+                // Read once for both the lines and the hash, checking the raw bytes before decoding
+                sourceFile = this.loadSourceFile(changedFile, fileName, scl);
             } catch (IOException ex) {
                 Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() +  "\n with message: " + ex.getMessage());
                 reportList.add(new String[]{changedFile, "excluded", "unable to guess guess file encoding"});
-                break;
+                continue;
             }
 
+            if (sourceFile.getExclusion() != null) {
+                Singleton.getLogger().info("Will not index " + sourceFile.getExclusion().getReason() + " " + changedFile);
+                reportList.add(new String[]{changedFile, "excluded", sourceFile.getExclusion().getReason()});
+                continue;
+            }
+
+            codeLines = sourceFile.getLines();
+            md5Hash = sourceFile.getMd5Hash();
+
             if (scl.isMinified(codeLines, fileName)) {
                 Singleton.getLogger().info("Appears to be minified will not index  " + changedFile);
                 reportList.add(new String[]{changedFile, "excluded", "appears to be minified"});
-                break;
+                continue;
             }
 
             if (codeLines.isEmpty()) {
                 Singleton.getLogger().info("Unable to guess encoding type or file is empty " + changedFile);
                 reportList.add(new String[]{changedFile, "excluded", "empty file"});
-                break;
+                continue;
             }
 
             if (this.determineBinary(changedFile, fileName, codeLines, reportList)) {
-                break;
+                continue;
             }
 
-            md5Hash = this.getFileMd5(changedFile);
-
             String languageName = scl.languageGuesser(changedFile, codeLines);
 
             String fileLocation = getRelativeToProjectPath(path.toString(), changedFile);
-            String fileLocationFilename = changedFile.replace(fileRepoLocations, Values.EMPTYSTRING);
+            String fileLocationFilename = this.getFileLocationFilename(changedFile, fileRepoLocations);
             String repoLocationRepoNameLocationFilename = changedFile;
 
             String newString = this.getBlameFilePath(fileLocationFilename);
@@ -268,15 +390,19 @@ public abstract class IndexBaseRepoJob implements Job {
             reportList.add(new String[]{changedFile, "included", ""});
 
             if (codeLines != null) {
+                CodeIndexDocument codeIndexDocument = new CodeIndexDocument(repoLocationRepoNameLocationFilename, repoName, fileName, fileLocation, fileLocationFilename, md5Hash, languageName, codeLines.size(), StringUtils.join(codeLines, "\n"), repoRemoteLocation, codeOwner);
+                codeIndexDocument.setBlobId(this.getBlobId(changedFile));
+                codeIndexDocument.setBranches(this.getBranches(changedFile));
+
                 if (this.LOWMEMORY) {
                     try {
-                        CodeIndexer.indexDocument(new CodeIndexDocument(repoLocationRepoNameLocationFilename, repoName, fileName, fileLocation, fileLocationFilename, md5Hash, languageName, codeLines.size(), StringUtils.join(codeLines, " "), repoRemoteLocation, codeOwner));
+                        CodeIndexer.indexDocument(codeIndexDocument);
                     } catch (IOException ex) {
                         Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() +  "\n with message: " + ex.getMessage());
                     }
                 } else {
                     Singleton.incrementCodeIndexLinesCount(codeLines.size());
-                    codeIndexDocumentQueue.add(new CodeIndexDocument(repoLocationRepoNameLocationFilename, repoName, fileName, fileLocation, fileLocationFilename, md5Hash, languageName, codeLines.size(), StringUtils.join(codeLines, " "), repoRemoteLocation, codeOwner));
+                    codeIndexDocumentQueue.add(codeIndexDocument);
                 }
             }
         }
@@ -285,28 +411,110 @@ public abstract class IndexBaseRepoJob implements Job {
             this.logIndexed(repoName + "_delta", reportList);
         }
 
-        for(String deletedFile: repositoryChanged.getDeletedFiles()) {
-            deletedFile = fileRepoLocations + "/" + repoName + "/" + deletedFile;
-            deletedFile = deletedFile.replace("//", "/");
+        // Removed in one go as each delete on its own opens and commits the index
+        List<String> deletedFiles = new ArrayList<>(repositoryChanged.getDeletedFiles());
+        deletedFiles.addAll(repositoryChanged.getRenamedFiles().keySet());
+        List<String> codeIds = new ArrayList<>();
+
+        for(String deletedFile: deletedFiles) {
+            deletedFile = this.getDeltaFileLocation(fileRepoLocations, repoName, repoRemoteLocation, deletedFile);
             Singleton.getLogger().info("Missing from disk, removing from index " + deletedFile);
-            try {
-                CodeIndexer.deleteByCodeId(DigestUtils.sha1Hex(deletedFile));
-            } catch (IOException ex) {
-                Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() +  " indexDocsByDelta deleteByFileLocationFilename for " + repoName + " " + deletedFile + "\n with message: " + ex.getMessage());
+            codeIds.add(DigestUtils.sha1Hex(deletedFile));
+        }
+
+        try {
+            CodeIndexer.deleteByCodeIds(codeIds);
+        } catch (IOException ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() +  " indexDocsByDelta deleteByCodeIds for " + repoName + "\n with message: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Indexes files which moved without their contents changing from what is already held for them at their old
+     * path, so they are not read, checked, guessed or blamed again. Only documents whose contents are held in the
+     * index, with index_store_source turned on, or can be loaded by blob id from a bare clone are copied. Returns
+     * the new paths which had nothing held for them, such as files excluded at their old path or indexed from a
+     * checkout without their source, so they can be indexed as changed files instead.
+     */
+    public List<String> indexRenamedFiles(Path path, String repoName, String fileRepoLocations, String repoRemoteLocation, RepositoryChanged repositoryChanged, List<String[]> reportList) {
+        Queue<CodeIndexDocument> codeIndexDocumentQueue = Singleton.getCodeIndexQueue();
+        CodeSearcher codeSearcher = new CodeSearcher();
+        List<String> unresolved = new ArrayList<>();
+
+        // Changed anyway so there is nothing to save by copying
+        Set<String> changedFiles = new HashSet<>(repositoryChanged.getChangedFiles());
+        List<Map.Entry<String, String>> renamedFiles = repositoryChanged.getRenamedFiles().entrySet().stream()
+                .filter(x -> !changedFiles.contains(x.getValue()))
+                .collect(Collectors.toList());
+
+        for (int i = 0; i < renamedFiles.size(); i += this.RENAMEBATCHSIZE) {
+            if (this.shouldJobPauseOrTerminate() == true) {
+                return unresolved;
+            }
+
+            Map<String, String> locations = new LinkedHashMap<>();
+            for (Map.Entry<String, String> renamedFile: renamedFiles.subList(i, Math.min(i + this.RENAMEBATCHSIZE, renamedFiles.size()))) {
+                locations.put(this.getDeltaFileLocation(fileRepoLocations, repoName, repoRemoteLocation, renamedFile.getKey()), renamedFile.getValue());
+            }
+
+            // The new location is only what the copied lines are cached under, nothing is read from it
+            Map<String, String> newLocations = new LinkedHashMap<>();
+            for (Map.Entry<String, String> location: locations.entrySet()) {
+                newLocations.put(location.getKey(), this.getDeltaFileLocation(fileRepoLocations, repoName, repoRemoteLocation, location.getValue()));
+            }
+
+            Map<String, CodeResult> codeResults = codeSearcher.getByPaths(newLocations);
+
+            for (Map.Entry<String, String> location: newLocations.entrySet()) {
+                CodeResult codeResult = codeResults.get(location.getKey());
+
+                if (codeResult == null || codeResult.getCode().isEmpty()) {
+                    unresolved.add(locations.get(location.getKey()));
+                    continue;
+                }
+
+                String newLocation = location.getValue();
+                String[] split = newLocation.split("/");
+                String fileName = split[split.length - 1];
+                List<String> codeLines = codeResult.getCode();
+
+                String fileLocation = getRelativeToProjectPath(path.toString(), newLocation);
+                String fileLocationFilename = this.getFileLocationFilename(newLocation, fileRepoLocations);
+
+                reportList.add(new String[]{newLocation, "included", "renamed from " + location.getKey()});
+
+                CodeIndexDocument codeIndexDocument = new CodeIndexDocument(newLocation, repoName, fileName, fileLocation, fileLocationFilename, codeResult.getMd5hash(), codeResult.getLanguageName(), codeLines.size(), StringUtils.join(codeLines, "\n"), repoRemoteLocation, codeResult.getCodeOwner());
+                codeIndexDocument.setBlobId(this.getBlobId(newLocation));
+                codeIndexDocument.setBranches(this.getBranches(newLocation));
+
+                if (this.LOWMEMORY) {
+                    try {
+                        CodeIndexer.indexDocument(codeIndexDocument);
+                    } catch (IOException ex) {
+                        Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() +  "\n with message: " + ex.getMessage());
+                    }
+                } else {
+                    Singleton.incrementCodeIndexLinesCount(codeLines.size());
+                    codeIndexDocumentQueue.add(codeIndexDocument);
+                }
             }
         }
+
+        return unresolved;
     }
 
     /**
      * Indexes all the documents in the path provided. Will also remove anything from the index if not on disk
      * Generally this is a slow update used only for the initial clone of a repository
      * NB this can be used for updates but it will be much slower as it needs to to walk the contents of the disk
+     * Returns true if the whole path was walked
      */
-    public void indexDocsByPath(Path path, String repoName, String repoLocations, String repoRemoteLocation, boolean existingRepo) {
+    public boolean indexDocsByPath(Path path, String repoName, String repoLocations, String repoRemoteLocation, boolean existingRepo) {
         SearchcodeLib scl = Singleton.getSearchCodeLib();
         CodeSearcher codeSearcher = new CodeSearcher();
-        
-        Map<String, String> fileLocationsMap = new HashMap<>();
+
+        // Files are processed in parallel so these need to be safe to update from multiple threads
+        Map<String, String> fileLocationsMap = new ConcurrentHashMap<>();
 
         Queue<CodeIndexDocument> codeIndexDocumentQueue = Singleton.getCodeIndexQueue();
 
@@ -315,98 +523,201 @@ public abstract class IndexBaseRepoJob implements Job {
         boolean lowMemory = this.LOWMEMORY;
 
         // Used to hold the reports of what was indexed
-        List<String[]> reportList = new ArrayList<>();
+        List<String[]> reportList = Collections.synchronizedList(new ArrayList<>());
+
+        // The walk itself is cheap, reading, hashing and blaming each file is not so hand each file to the shared
+        // index pool. The semaphore bounds how many files can be in flight so the walk cannot run ahead of the
+        // pool and fill memory with pending work on very large repositories
+        ExecutorService executorService = Singleton.getIndexExecutor();
+        int maxInFlight = Singleton.getIndexThreadCount() * 4;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+
+        boolean[] walkComplete = {true};
+
+        // Only used by the walking thread so does not need to be safe to share
+        IgnoreRules ignoreRules = this.FOLLOWIGNOREFILES ? new IgnoreRules(path) : null;
 
         try {
             Files.walkFileTree(path, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    // Prune whole directories here so nothing below them is ever listed or read
+                    if (!dir.equals(path) && ignoreFile(FilenameUtils.separatorsToUnix(dir.toString()))) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+
+                    if (ignoreRules != null && ignoreRules.enterDirectory(dir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+                    if (ignoreRules != null) {
+                        ignoreRules.exitDirectory(dir);
+                    }
+
+                    return super.postVisitDirectory(dir, ex);
+                }
+
                 @Override
                 public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    try {
-                        if (shouldJobPauseOrTerminate()) {
-                            return FileVisitResult.TERMINATE;
-                        }
+                    if (shouldJobPauseOrTerminate()) {
+                        walkComplete[0] = false;
+                        return FileVisitResult.TERMINATE;
+                    }
 
-                        // Convert Path file to unix style that way everything is easier to reason about
-                        String fileParent = FilenameUtils.separatorsToUnix(file.getParent().toString());
-                        String fileToString = FilenameUtils.separatorsToUnix(file.toString());
-                        String fileName = file.getFileName().toString();
-                        String repoLocationRepoNameLocationFilename = fileToString;
+                    // Convert Path file to unix style that way everything is easier to reason about
+                    String fileParent = FilenameUtils.separatorsToUnix(file.getParent().toString());
+                    String fileToString = FilenameUtils.separatorsToUnix(file.toString());
 
-                        if (ignoreFile(fileParent)) {
-                            return FileVisitResult.CONTINUE;
-                        }
+                    if (ignoreFile(fileParent)) {
+                        return FileVisitResult.CONTINUE;
+                    }
 
-                        // This needs to be the primary key of the file
-                        fileLocationsMap.put(repoLocationRepoNameLocationFilename, null);
+                    if (ignoreRules != null && ignoreRules.isIgnored(file, false)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    // This needs to be the primary key of the file
+                    fileLocationsMap.put(fileToString, Values.EMPTYSTRING);
 
-                        List<String> codeLines;
-                        try {
-                            codeLines = Helpers.readFileLinesGuessEncoding(fileToString, MAXFILELINEDEPTH);
-                        } catch (IOException ex) {
-                            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " indexDocsByPath walkFileTree\n with message: " + ex.getMessage() + " for file " + file.toString() + " in path " + path +" in repo " + repoName);
-                            if (LOGINDEXED) {
-                                reportList.add(new String[]{fileToString, "excluded", "unable to guess guess file encoding"});
+                    // Only needs the attributes the walk already has so nothing is read
+                    if (isFileUnchanged(fileToString, attrs)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    try {
+                        inFlight.acquire();
+                    }
+                    catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        walkComplete[0] = false;
+                        return FileVisitResult.TERMINATE;
+                    }
+
+                    try {
+                        executorService.execute(() -> {
+                            try {
+                                if (Singleton.getBackgroundJobsEnabled()) {
+                                    String md5Hash = indexFile(file, fileToString);
+                                    fileProcessed(fileToString, attrs, md5Hash);
+                                }
                             }
-                            fileLocationsMap.remove(repoLocationRepoNameLocationFilename);
-                            return FileVisitResult.CONTINUE;
+                            catch(Exception ex) {
+                                Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " indexDocsByPath walkFileTree\n with message: " + ex.getMessage() + " for file " + file.toString() + " in path " + path +" in repo " + repoName);
+                            }
+                            finally {
+                                inFlight.release();
+                            }
+                        });
+                    }
+                    catch (RejectedExecutionException ex) {
+                        inFlight.release();
+                        Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " indexDocsByPath walkFileTree\n with message: " + ex.getMessage() + " for file " + file.toString());
+                    }
+
+                    // Continue at all costs
+                    return FileVisitResult.CONTINUE;
+                }
+
+                /**
+                 * Returns the hash of the file or empty if it was excluded
+                 */
+                private String indexFile(Path file, String fileToString) throws IOException {
+                    String fileName = file.getFileName().toString();
+                    String repoLocationRepoNameLocationFilename = fileToString;
+
+                    SourceFile sourceFile;
+                    try {
+                        // Read once for both the lines and the hash, checking the raw bytes before decoding
+                        sourceFile = loadSourceFile(fileToString, fileName, scl);
+                    } catch (IOException ex) {
+                        Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " indexDocsByPath walkFileTree\n with message: " + ex.getMessage() + " for file " + file.toString() + " in path " + path +" in repo " + repoName);
+                        if (LOGINDEXED) {
+                            reportList.add(new String[]{fileToString, "excluded", "unable to guess guess file encoding"});
                         }
+                        fileLocationsMap.remove(repoLocationRepoNameLocationFilename);
+                        return Values.EMPTYSTRING;
+                    }
 
-                        if (scl.isMinified(codeLines, fileName)) {
-                            Singleton.getLogger().info("Appears to be minified will not index " + fileToString);
-                            if (LOGINDEXED) {
-                                reportList.add(new String[]{fileToString, "excluded", "appears to be minified"});
-                            }
-                            fileLocationsMap.remove(repoLocationRepoNameLocationFilename);
-                            return FileVisitResult.CONTINUE;
+                    if (sourceFile.getExclusion() != null) {
+                        Singleton.getLogger().info("Will not index " + sourceFile.getExclusion().getReason() + " " + fileToString);
+                        if (LOGINDEXED) {
+                            reportList.add(new String[]{fileToString, "excluded", sourceFile.getExclusion().getReason()});
                         }
+                        fileLocationsMap.remove(repoLocationRepoNameLocationFilename);
+                        return Values.EMPTYSTRING;
+                    }
 
-                        if (codeLines.isEmpty()) {
-                            Singleton.getLogger().info("Unable to guess encoding type or file is empty " + fileToString);
-                            if (LOGINDEXED) {
-                                reportList.add(new String[]{fileToString, "excluded", "empty file"});
-                            }
-                            fileLocationsMap.remove(repoLocationRepoNameLocationFilename);
-                            return FileVisitResult.CONTINUE;
+                    List<String> codeLines = sourceFile.getLines();
+                    String md5Hash = sourceFile.getMd5Hash();
+
+                    // Touched but not modified so what is in the index is still correct
+                    if (isFileContentUnchanged(fileToString, md5Hash)) {
+                        return md5Hash;
+                    }
+
+                    if (scl.isMinified(codeLines, fileName)) {
+                        Singleton.getLogger().info("Appears to be minified will not index " + fileToString);
+                        if (LOGINDEXED) {
+                            reportList.add(new String[]{fileToString, "excluded", "appears to be minified"});
                         }
+                        fileLocationsMap.remove(repoLocationRepoNameLocationFilename);
+                        return Values.EMPTYSTRING;
+                    }
 
-                        if (determineBinary(fileToString, fileName, codeLines, reportList)) {
-                            fileLocationsMap.remove(repoLocationRepoNameLocationFilename);
-                            return FileVisitResult.CONTINUE;
+                    if (codeLines.isEmpty()) {
+                        Singleton.getLogger().info("Unable to guess encoding type or file is empty " + fileToString);
+                        if (LOGINDEXED) {
+                            reportList.add(new String[]{fileToString, "excluded", "empty file"});
                         }
+                        fileLocationsMap.remove(repoLocationRepoNameLocationFilename);
+                        return Values.EMPTYSTRING;
+                    }
 
-                        String md5Hash = getFileMd5(fileToString);
-                        String languageName = scl.languageGuesser(fileName, codeLines);
+                    if (determineBinary(fileToString, fileName, codeLines, reportList)) {
+                        fileLocationsMap.remove(repoLocationRepoNameLocationFilename);
+                        return Values.EMPTYSTRING;
+                    }
 
+                    String languageName = scl.languageGuesser(fileName, codeLines);
 
-                        String fileLocation = getRelativeToProjectPath(path.toString(), fileToString);
-                        String fileLocationFilename = getFileLocationFilename(fileToString, fileRepoLocations);
 
-                        String newString = getBlameFilePath(fileLocationFilename);
-                        String codeOwner = getCodeOwner(codeLines, newString, repoName, fileRepoLocations, scl);
+                    String fileLocation = getRelativeToProjectPath(path.toString(), fileToString);
+                    String fileLocationFilename = getFileLocationFilename(fileToString, fileRepoLocations);
 
-                        if (lowMemory) { // TODO this should be inside the indexer class not in here
-                            CodeIndexer.indexDocument(new CodeIndexDocument(repoLocationRepoNameLocationFilename, repoName, fileName, fileLocation, fileLocationFilename, md5Hash, languageName, codeLines.size(), StringUtils.join(codeLines, " "), repoRemoteLocation, codeOwner));
-                        } else {
-                            Singleton.incrementCodeIndexLinesCount(codeLines.size());
-                            codeIndexDocumentQueue.add(new CodeIndexDocument(repoLocationRepoNameLocationFilename, repoName, fileName, fileLocation, fileLocationFilename, md5Hash, languageName, codeLines.size(), StringUtils.join(codeLines, " "), repoRemoteLocation, codeOwner));
-                        }
+                    String newString = getBlameFilePath(fileLocationFilename);
+                    String codeOwner = getCodeOwner(codeLines, newString, repoName, fileRepoLocations, scl);
 
-                        if (LOGINDEXED) {
-                            reportList.add(new String[]{fileToString, "included", Values.EMPTYSTRING});
-                        }
+                    CodeIndexDocument codeIndexDocument = new CodeIndexDocument(repoLocationRepoNameLocationFilename, repoName, fileName, fileLocation, fileLocationFilename, md5Hash, languageName, codeLines.size(), StringUtils.join(codeLines, "\n"), repoRemoteLocation, codeOwner);
+                    codeIndexDocument.setBranches(getBranches(fileToString));
+
+                    if (lowMemory) { // TODO this should be inside the indexer class not in here
+                        CodeIndexer.indexDocument(codeIndexDocument);
+                    } else {
+                        Singleton.incrementCodeIndexLinesCount(codeLines.size());
+                        codeIndexDocumentQueue.add(codeIndexDocument);
                     }
-                    catch(Exception ex) {
-                        Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " indexDocsByPath walkFileTree\n with message: " + ex.getMessage() + " for file " + file.toString() + " in path " + path +" in repo " + repoName);
+
+                    if (LOGINDEXED) {
+                        reportList.add(new String[]{fileToString, "included", Values.EMPTYSTRING});
                     }
 
-                    // Continue at all costs
-                    return FileVisitResult.CONTINUE;
+                    return md5Hash;
                 }
             });
         } catch (IOException ex) {
             Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() +  " indexDocsByPath walkFileTree\n with message: " + ex.getMessage());
+            walkComplete[0] = false;
         }
 
+        // Wait for everything still being processed before reporting and cleaning up
+        inFlight.acquireUninterruptibly(maxInFlight);
+        inFlight.release(maxInFlight);
+
         if (this.LOGINDEXED) {
             logIndexed(repoName, reportList);
         }
@@ -414,6 +725,8 @@ public abstract class IndexBaseRepoJob implements Job {
         if (existingRepo) {
             this.cleanMissingPathFiles(codeSearcher, repoName, fileLocationsMap);
         }
+
+        return walkComplete[0];
     }
 
     /**
@@ -10,26 +10,42 @@
 
 package com.searchcode.app.jobs.repository;
 
+import com.searchcode.app.dto.CodeIndexDocument;
+import com.searchcode.app.jobs.IWorkerJob;
 import com.searchcode.app.service.CodeIndexer;
 import com.searchcode.app.service.Singleton;
 import com.searchcode.app.service.StatsService;
-import org.quartz.*;
+import org.quartz.JobDataMap;
 
 import java.io.IOException;
+import java.util.concurrent.BlockingDeque;
 
 /**
  * This job is responsible for passing the queue of documents along to be indexed. It does not do much and only exists
- * as a job to allow this to be scheduled in a background thread.
+ * as a job to allow this to be run by a background worker.
  */
-@PersistJobDataAfterExecution
-@DisallowConcurrentExecution
-public class IndexDocumentsJob implements Job {
+public class IndexDocumentsJob implements IWorkerJob {
 
-    public void execute(JobExecutionContext context) throws JobExecutionException {
-        if (Singleton.getBackgroundJobsEnabled() == false) {
-            return;
+    private int PAUSETIME = 1000; // How long to wait before checking again while background jobs are turned off
+
+    /**
+     * Waits for documents to be queued then indexes everything queued. Documents added while that is happening
+     * are picked up by the same commit.
+     */
+    @Override
+    public void work(JobDataMap data) throws InterruptedException {
+        while (Singleton.getBackgroundJobsEnabled() == false) {
+            Thread.sleep(this.PAUSETIME);
         }
-        
+
+        // Put back at the front so it is indexed in order with everything behind it
+        BlockingDeque<CodeIndexDocument> codeIndexQueue = Singleton.getCodeIndexQueue();
+        codeIndexQueue.putFirst(codeIndexQueue.takeFirst());
+
+        this.indexDocuments();
+    }
+
+    private void indexDocuments() {
         try {
             Thread.currentThread().setPriority(Thread.MIN_PRIORITY + 1);
             int codeIndexQueueSize = Singleton.getCodeIndexQueue().size();
@@ -40,6 +56,11 @@ public class IndexDocumentsJob implements Job {
                 Singleton.getLogger().info("Lines to index: " + Singleton.getCodeIndexLinesCount());
                 Singleton.getLogger().info("Memory Usage: " + statsService.getMemoryUsage(", "));
                 CodeIndexer.indexDocuments(Singleton.getCodeIndexQueue());
+
+                // Once everything queued has been committed warm the new segments before users hit them
+                if (Singleton.getCodeIndexQueue().isEmpty()) {
+                    Singleton.getIndexWarmer().warm();
+                }
             }
         } catch (Exception ex) {
             // Continue at all costs
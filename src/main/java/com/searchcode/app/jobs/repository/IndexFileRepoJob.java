@@ -12,60 +12,49 @@
 package com.searchcode.app.jobs.repository;
 
 import com.searchcode.app.config.Values;
+import com.searchcode.app.dto.RepositoryChanged;
 import com.searchcode.app.model.RepoResult;
 import com.searchcode.app.service.CodeIndexer;
+import com.searchcode.app.service.CodeSearcher;
 import com.searchcode.app.service.Singleton;
+import com.searchcode.app.util.FileRepoManifest;
 import com.searchcode.app.util.Helpers;
+import com.searchcode.app.util.IgnoreRules;
 import com.searchcode.app.util.SearchcodeLib;
 import com.searchcode.app.util.UniqueRepoQueue;
-import org.quartz.*;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.quartz.JobDataMap;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * This job is responsible for pulling and indexing file repositories which are kept upto date by some external
  * job such as cron or the like
  */
-@PersistJobDataAfterExecution
-@DisallowConcurrentExecution
 public class IndexFileRepoJob extends IndexBaseRepoJob {
 
     public String repoName;
+    private FileRepoManifest manifest = null;
 
     /**
-     * The main method used for finding jobs to index and actually doing the work
+     * Walks the repository indexing anything which changed since the last walk
      */
     @Override
-    public void execute(JobExecutionContext context) throws JobExecutionException {
-        if (isEnabled() == false) {
-            return;
-        }
-
-        if (Singleton.getBackgroundJobsEnabled() == false) {
-            return;
-        }
-
-        Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
-
-        while(CodeIndexer.shouldPauseAdding()) {
-            Singleton.getLogger().info("Pausing parser.");
-            return;
-        }
-
-        // Pull the next repo to index from the queue
-        UniqueRepoQueue repoQueue = this.getNextQueuedRepo();
-
-        RepoResult repoResult = repoQueue.poll();
+    public void indexRepository(RepoResult repoResult, JobDataMap data) {
         AbstractMap<String, Integer> runningIndexRepoJobs = Singleton.getRunningIndexRepoJobs();
 
         if (repoResult != null && !runningIndexRepoJobs.containsKey(repoResult.getName())) {
             Singleton.getLogger().info("File Indexer Indexing " + repoResult.getName());
-            try {
-                runningIndexRepoJobs.put(repoResult.getName(), (int) (System.currentTimeMillis() / 1000));
+            long start = System.currentTimeMillis();
 
-                JobDataMap data = context.getJobDetail().getJobDataMap();
+            try {
+                runningIndexRepoJobs.put(repoResult.getName(), (int) (start / 1000));
 
                 String repoName = repoResult.getName();
                 this.repoName = repoName;
@@ -76,15 +65,135 @@ public class IndexFileRepoJob extends IndexBaseRepoJob {
 
                 Path docDir = Paths.get(repoRemoteLocation);
 
-                this.indexDocsByPath(docDir, repoName, repoLocations, repoRemoteLocation, true);
+                // Start watching before walking so nothing changed during the walk is missed
+                Singleton.getFileRepoWatcher().watch(repoResult, repoLocations, this.LOWMEMORY);
+
+                // The manifest lets unchanged files be skipped using only what the walk already knows about them.
+                // If the index has nothing for this repository it was rebuilt or lost so everything must be read
+                this.manifest = new FileRepoManifest(this.getManifestLocation(repoLocations, repoName));
+                boolean hasManifest = this.manifest.load() && !new CodeSearcher().getRepoDocuments(repoName, 0).isEmpty();
+                if (!hasManifest) {
+                    this.manifest = new FileRepoManifest(this.getManifestLocation(repoLocations, repoName));
+                }
+
+                boolean walkComplete = this.indexDocsByPath(docDir, repoName, repoLocations, repoRemoteLocation, !hasManifest);
+
+                if (walkComplete && hasManifest) {
+                    this.removeMissingFiles(repoName);
+                }
+
+                this.manifest.save(walkComplete);
             }
             finally {
                 // Clean up the job
+                this.manifest = null;
                 runningIndexRepoJobs.remove(repoResult.getName());
+                Singleton.getStatsService().getRepoUpdateStats(repoResult.getName()).recordDuration(System.currentTimeMillis() - start);
             }
         }
     }
 
+    /**
+     * Indexes a change set for the repository without walking it. Used by the file watcher to push changes into
+     * the index as they happen. Paths in the change set are relative to the root of the repository. Returns false
+     * without doing anything if the repository is already being indexed.
+     */
+    public boolean indexChanges(RepoResult repoResult, String repoLocations, boolean lowMemory, RepositoryChanged repositoryChanged) {
+        AbstractMap<String, Integer> runningIndexRepoJobs = Singleton.getRunningIndexRepoJobs();
+
+        if (runningIndexRepoJobs.putIfAbsent(repoResult.getName(), (int) (System.currentTimeMillis() / 1000)) != null) {
+            return false;
+        }
+
+        try {
+            this.repoName = repoResult.getName();
+            this.LOWMEMORY = lowMemory;
+
+            // The walk skips ignored files so the changes need to as well
+            if (this.FOLLOWIGNOREFILES) {
+                Path root = Paths.get(repoResult.getUrl());
+                IgnoreRules ignoreRules = new IgnoreRules(root);
+                List<String> changedFiles = repositoryChanged.getChangedFiles().stream()
+                        .filter(x -> !ignoreRules.isIgnoredFromRoot(root.resolve(x)))
+                        .collect(Collectors.toList());
+                repositoryChanged = new RepositoryChanged(repositoryChanged.isChanged(), changedFiles, repositoryChanged.getDeletedFiles());
+            }
+
+            this.indexDocsByDelta(Paths.get(repoResult.getUrl()), repoResult.getName(), repoLocations, repoResult.getUrl(), repositoryChanged);
+        }
+        finally {
+            runningIndexRepoJobs.remove(repoResult.getName());
+        }
+
+        return true;
+    }
+
+    /**
+     * Files for file repositories live where the repository was added from rather than in the repository locations
+     */
+    @Override
+    public String getDeltaFileLocation(String fileRepoLocations, String repoName, String repoRemoteLocation, String changedFile) {
+        return FilenameUtils.separatorsToUnix(Paths.get(repoRemoteLocation).resolve(changedFile).toString());
+    }
+
+    /**
+     * Removes from the index anything in the previous manifest which the walk did not find on disk
+     */
+    private void removeMissingFiles(String repoName) {
+        for (String missing: this.manifest.getMissing()) {
+            Singleton.getLogger().info("Missing from disk, removing from index " + missing);
+            try {
+                CodeIndexer.deleteByCodeId(DigestUtils.sha1Hex(missing));
+            } catch (IOException ex) {
+                Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " removeMissingFiles for " + repoName + " " + missing + "\n with message: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The manifest lives in the repository locations directory so it is removed along with the repository
+     */
+    public String getManifestLocation(String repoLocations, String repoName) {
+        return FilenameUtils.separatorsToUnix(Paths.get(repoLocations, repoName, "searchcode.manifest.csv").toString());
+    }
+
+    @Override
+    public boolean isFileUnchanged(String fileToString, BasicFileAttributes attrs) {
+        if (this.manifest == null) {
+            return false;
+        }
+
+        return this.manifest.isUnchanged(fileToString, attrs.size(), attrs.lastModifiedTime().toMillis());
+    }
+
+    @Override
+    public boolean isFileContentUnchanged(String fileToString, String md5Hash) {
+        if (this.manifest == null || Helpers.isNullEmptyOrWhitespace(md5Hash)) {
+            return false;
+        }
+
+        return md5Hash.equals(this.manifest.getPreviousMd5Hash(fileToString));
+    }
+
+    @Override
+    public void fileProcessed(String fileToString, BasicFileAttributes attrs, String md5Hash) {
+        if (this.manifest == null) {
+            return;
+        }
+
+        // Was indexed last time but is now excluded so needs to come out of the index
+        String previousMd5Hash = this.manifest.getPreviousMd5Hash(fileToString);
+        if (Helpers.isNullEmptyOrWhitespace(md5Hash) && !Helpers.isNullEmptyOrWhitespace(previousMd5Hash)) {
+            try {
+                CodeIndexer.deleteByCodeId(DigestUtils.sha1Hex(fileToString));
+            } catch (IOException ex) {
+                Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " fileProcessed for " + fileToString + "\n with message: " + ex.getMessage());
+            }
+        }
+
+        this.manifest.record(fileToString, attrs.size(), attrs.lastModifiedTime().toMillis(), md5Hash);
+    }
+
     @Override
     public String getFileLocationFilename(String fileToString, String fileRepoLocations) {
         if (this.repoName == null) {
@@ -7,22 +7,25 @@
 
 package com.searchcode.app.jobs.repository;
 
-import com.google.common.collect.Lists;
 import com.searchcode.app.config.Values;
 import com.searchcode.app.dto.CodeIndexDocument;
+import com.searchcode.app.model.RepoResult;
 import com.searchcode.app.service.CodeIndexer;
-import com.searchcode.app.service.GitService;
 import com.searchcode.app.service.Singleton;
 import com.searchcode.app.util.Helpers;
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.diff.DiffEntry;
-import org.eclipse.jgit.internal.storage.file.FileRepository;
+import com.searchcode.app.util.HistoryState;
+import com.searchcode.app.util.SearchcodeLib;
+import com.searchcode.app.util.SourceFile;
+import org.apache.commons.io.FilenameUtils;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectReader;
-import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.quartz.DisallowConcurrentExecution;
 import org.quartz.Job;
 import org.quartz.JobDataMap;
 import org.quartz.JobExecutionContext;
@@ -30,19 +33,48 @@ import org.quartz.JobExecutionException;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Iterates through every revision of a git repository indexing the file differences between them.
  * This allows searching through time to find when some code was added to a repository or when
  * it was removed
+ *
+ * Only repositories with index history turned on are walked. Commits are followed by first parent from the
+ * oldest and worked through in batches. Commits are diffed in parallel on the shared index pool a few ahead of the
+ * one being applied and their documents written as they are applied, so only a few commits are held in memory.
+ * Once a batch is in the time index the last commit in it is saved as a checkpoint so a restart carries on from
+ * there rather than starting again.
+ *
+ * Rather than a copy of each file for every commit that touched it there is one document for each period some
+ * contents were at a path. It records when the period started and when it ended using doc values so closing it
+ * when a later commit changes or removes the file only rewrites that value.
  */
+@DisallowConcurrentExecution
 public class IndexGitHistoryJob implements Job {
 
+    public static final String STATEFILE = "searchcode.history";
+
     public int MAXFILELINEDEPTH = Helpers.tryParseInt(com.searchcode.app.util.Properties.getProperties().getProperty(Values.MAXFILELINEDEPTH, Values.DEFAULTMAXFILELINEDEPTH), Values.DEFAULTMAXFILELINEDEPTH);
+    public int HISTORYBATCHSIZE = 100; // Commits indexed between each checkpoint
+    public int HISTORYWINDOW = Singleton.getIndexThreadCount() * 2; // Commits diffed ahead of the one being applied
+    public int MAXDOCUMENTQUEUESIZE = Helpers.tryParseInt(com.searchcode.app.util.Properties.getProperties().getProperty(Values.MAXDOCUMENTQUEUESIZE, Values.DEFAULTMAXDOCUMENTQUEUESIZE), Values.DEFAULTMAXDOCUMENTQUEUESIZE);
+    private int MAXDOCUMENTQUEUELINESIZE = Helpers.tryParseInt(com.searchcode.app.util.Properties.getProperties().getProperty(Values.MAXDOCUMENTQUEUELINESIZE, Values.DEFAULTMAXDOCUMENTQUEUELINESIZE), Values.DEFAULTMAXDOCUMENTQUEUELINESIZE);
+    private int SLEEPTIME = 5000; // How long to wait before checking again while the indexer is behind
 
     public void execute(JobExecutionContext context) throws JobExecutionException {
         if (Singleton.getBackgroundJobsEnabled() == false) {
@@ -54,134 +86,311 @@ public class IndexGitHistoryJob implements Job {
         JobDataMap data = context.getJobDetail().getJobDataMap();
         String repoLocations = data.get("REPOLOCATIONS").toString();
 
-        // Get all the current change sets for the project
-        // loop through each and get the changes and index
+        for (RepoResult repoResult: Singleton.getRepo().getAllRepo()) {
+            if (!"git".equals(repoResult.getScm()) || !repoResult.getData().isIndexHistory()) {
+                continue;
+            }
 
+            if (!this.indexHistory(repoResult, repoLocations)) {
+                return;
+            }
+        }
     }
 
-    public void getGitChangeSets() throws IOException, GitAPIException {
-        //Repository localRepository = new FileRepository(new File("./repo/server/.git"));
-        Repository localRepository = new FileRepository(new File("./repo/thumbor/.git"));
+    /**
+     * Indexes every commit since the checkpoint. Returns false if it stopped early because background jobs
+     * were paused or turned off.
+     */
+    public boolean indexHistory(RepoResult repoResult, String repoLocations) {
+        String gitLocation = repoLocations + "/" + repoResult.getName() + "/.git";
 
-        Git git = new Git(localRepository);
-        Iterable<RevCommit> logs = git.log().call();
+        if (!new File(gitLocation).exists()) {
+            return true;
+        }
 
-        List<GitChangeSet> gitChangeSets = new ArrayList<>();
-        for(RevCommit rev: logs) {
-            String message = rev.getFullMessage();
-            String author = rev.getAuthorIdent().getName();
+        try {
+            HistoryState historyState = this.getHistoryState(gitLocation);
+            ObjectId checkpoint = historyState.getCheckpoint();
+            List<ObjectId> commits = this.getCommitsToIndex(gitLocation, checkpoint);
 
-            Date expiry = new Date(new Long(rev.getCommitTime()) * 1000);
-            System.out.println(expiry.toString() + " " + rev.getCommitTime() + " " + rev.getName());
+            // The checkpoint is no longer in the history such as after a force push so the ranges already in
+            // the index cannot be trusted and everything is indexed again
+            if (checkpoint != null && !commits.isEmpty() && !this.isFirstParent(gitLocation, commits.get(0), checkpoint)) {
+                CodeIndexer.deleteTimeDocumentsByReponame(repoResult.getName());
+                historyState.clear();
+            }
 
-            gitChangeSets.add(new GitChangeSet(message, author, rev.getName(), expiry));
-        }
+            if (!commits.isEmpty()) {
+                Singleton.getLogger().info("Indexing " + commits.size() + " commits of history for " + repoResult.getName());
+            }
+
+            for (int start = 0; start < commits.size(); start += this.HISTORYBATCHSIZE) {
+                if (this.shouldStop()) {
+                    return false;
+                }
 
-        gitChangeSets = Lists.reverse(gitChangeSets);
+                List<ObjectId> batch = commits.subList(start, Math.min(start + this.HISTORYBATCHSIZE, commits.size()));
+                if (!this.indexBatch(repoResult, repoLocations, gitLocation, batch, historyState)) {
+                    return false;
+                }
 
-        // TODO currently this is ignoring the very first commit changes need to include those
-        for (int i = 1; i < gitChangeSets.size(); i++) {
-            System.out.println("///////////////////////////////////////////////");
-            this.getRevisionChanges(localRepository, git, gitChangeSets.get(i - 1), gitChangeSets.get(i));
+                historyState.setCheckpoint(batch.get(batch.size() - 1));
+                historyState.save();
+            }
+        }
+        catch (IOException | InterruptedException | ExecutionException ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " indexHistory for " + repoResult.getName() + "\n with message: " + ex.getMessage());
         }
 
+        return true;
     }
 
-    public void getRevisionChanges(Repository localRepository, Git git, GitChangeSet oldRevison, GitChangeSet newRevision) throws IOException, GitAPIException {
-        ObjectId oldHead = localRepository.resolve(oldRevison.getRevision() + "^{tree}");
-        ObjectId newHead = localRepository.resolve(newRevision.getRevision() + "^{tree}");
-
-        ObjectReader reader = localRepository.newObjectReader();
-
-        CanonicalTreeParser oldTreeIter = new CanonicalTreeParser();
-        oldTreeIter.reset(reader, oldHead);
+    /**
+     * The commits on the first parent line from HEAD back to the checkpoint, oldest first. If the checkpoint is
+     * no longer in the history such as after a force push everything is returned and indexed again.
+     */
+    public List<ObjectId> getCommitsToIndex(String gitLocation, ObjectId checkpoint) throws IOException {
+        return Singleton.getGitService().withReader(gitLocation, (repository, reader) -> {
+            List<ObjectId> commits = new ArrayList<>();
+            ObjectId head = repository.resolve(Constants.HEAD);
+
+            if (head == null) {
+                return commits;
+            }
 
-        CanonicalTreeParser newTreeIter = new CanonicalTreeParser();
-        newTreeIter.reset(reader, newHead);
+            RevWalk revWalk = new RevWalk(reader);
+            RevCommit commit = revWalk.parseCommit(head);
+            boolean foundCheckpoint = false;
 
+            while (commit != null) {
+                if (commit.equals(checkpoint)) {
+                    foundCheckpoint = true;
+                    break;
+                }
 
-        List<DiffEntry> entries = git.diff()
-                .setNewTree(newTreeIter)
-                .setOldTree(oldTreeIter)
-                .call();
+                commits.add(commit.copy());
+                commit = commit.getParentCount() == 0 ? null : revWalk.parseCommit(commit.getParent(0));
+            }
 
-        GitService gs = new GitService();
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd");
+            if (checkpoint != null && !foundCheckpoint) {
+                Singleton.getLogger().info("History checkpoint " + checkpoint.getName() + " not found in " + gitLocation + " indexing all history");
+            }
 
-        for( DiffEntry entry : entries ) {
-            if ("DELETE".equals(entry.getChangeType().name())) {
-                System.out.println("DEL " + entry.getOldPath());
+            Collections.reverse(commits);
+            return commits;
+        });
+    }
 
-                String contents = gs.fetchFileRevision(localRepository.getWorkTree().toString() + "/.git", oldRevison.getRevision(), entry.getOldPath());
+    private boolean isFirstParent(String gitLocation, ObjectId commitId, ObjectId parentId) throws IOException {
+        return Singleton.getGitService().withReader(gitLocation, (repository, reader) -> {
+            RevCommit commit = new RevWalk(reader).parseCommit(commitId);
+            return commit.getParentCount() != 0 && commit.getParent(0).equals(parentId);
+        });
+    }
 
-                CodeIndexDocument cd = new CodeIndexDocument(entry.getNewPath(), "thumbor", entry.getOldPath(), entry.getOldPath(), entry.getOldPath(), "md5hash", "Java", contents.split("\\r?\\n").length, contents, "", oldRevison.getAuthor());
-                cd.setRevision(oldRevison.getRevision());
-                cd.setYearMonthDay(sdf.format(oldRevison.getExpiry()));
-                cd.setYearMonth(cd.getYearMonthDay().substring(0, 6));
-                cd.setYear(cd.getYearMonthDay().substring(0, 4));
-                cd.setMessage(oldRevison.getMessage());
-                cd.setDeleted("TRUE");
-                CodeIndexer.indexTimeDocument(cd);
+    /**
+     * Diffs the commits in the batch on the index pool, only running a few ahead of the one being applied, and
+     * applies the changes in commit order. New contents at a path get a time document and whatever was at the path
+     * before has its range closed at the commit time. Documents are written whenever as many are waiting as the
+     * index queue allows and adding waits while the indexer is behind. Returns false if it stopped early because
+     * background jobs were turned off, whatever was applied up to then is still written.
+     */
+    private boolean indexBatch(RepoResult repoResult, String repoLocations, String gitLocation, List<ObjectId> batch, HistoryState historyState) throws IOException, InterruptedException, ExecutionException {
+        ExecutorService executorService = Singleton.getIndexExecutor();
+        Deque<Future<CommitChanges>> running = new ArrayDeque<>();
+        int next = 0;
+
+        Queue<CodeIndexDocument> codeIndexDocumentQueue = new ConcurrentLinkedQueue<>();
+        int queuedLines = 0;
+        Map<String, Long> ended = new HashMap<>();
+        boolean stopped = false;
+
+        try {
+            while (next < batch.size() || !running.isEmpty()) {
+                while (next < batch.size() && running.size() < this.HISTORYWINDOW) {
+                    ObjectId commitId = batch.get(next++);
+                    running.add(executorService.submit(() -> this.getCommitChanges(repoResult, repoLocations, gitLocation, commitId)));
+                }
+
+                CommitChanges commitChanges = running.poll().get();
+
+                for (String location: commitChanges.getChanged()) {
+                    String previous = historyState.getLive(location);
+                    if (previous != null) {
+                        ended.put(location + ":" + previous, commitChanges.getCommitTime());
+                    }
+
+                    CodeIndexDocument codeIndexDocument = commitChanges.getDocuments().get(location);
+                    if (codeIndexDocument == null) {
+                        historyState.removeLive(location);
+                    }
+                    else {
+                        Singleton.incrementCodeIndexLinesCount(codeIndexDocument.getCodeLines());
+                        queuedLines += codeIndexDocument.getCodeLines();
+                        codeIndexDocumentQueue.add(codeIndexDocument);
+                        historyState.putLive(location, codeIndexDocument.getRevision());
+                    }
+                }
+
+                // The waiting documents count towards the indexer being behind so write them before waiting on it
+                boolean pause = CodeIndexer.shouldPauseAdding();
+                if (pause || codeIndexDocumentQueue.size() >= this.MAXDOCUMENTQUEUESIZE || queuedLines >= this.MAXDOCUMENTQUEUELINESIZE) {
+                    this.writeTimeDocuments(codeIndexDocumentQueue);
+                    queuedLines = 0;
+                }
+
+                if (pause && !this.waitWhileBehind()) {
+                    stopped = true;
+                    break;
+                }
             }
-            else {
-                System.out.println("ADD " + entry.getNewPath());
-                String contents = gs.fetchFileRevision(localRepository.getWorkTree().toString() + "/.git", newRevision.getRevision(), entry.getNewPath());
-
-                CodeIndexDocument cd = new CodeIndexDocument(entry.getNewPath(), "thumbor", entry.getNewPath(), entry.getNewPath(), entry.getNewPath(), "md5hash", "Java", contents.split("\\r?\\n").length, contents, "", newRevision.getAuthor());
-                cd.setRevision(newRevision.getRevision());
-                cd.setYearMonthDay(sdf.format(oldRevison.getExpiry()));
-                cd.setYearMonth(cd.getYearMonthDay().substring(0, 6));
-                cd.setYear(cd.getYearMonthDay().substring(0, 4));
-                cd.setMessage(newRevision.getMessage());
-                cd.setDeleted("FALSE");
-                CodeIndexer.indexTimeDocument(cd);
+        }
+        finally {
+            for (Future<CommitChanges> future: running) {
+                future.cancel(true);
             }
         }
+
+        this.writeTimeDocuments(codeIndexDocumentQueue);
+
+        // Ranges opened and closed in the same batch are written with the open end then closed here
+        CodeIndexer.updateTimeDocumentsValidTo(ended);
+        return !stopped;
     }
 
-    public class GitChangeSet {
-        private String message;
-        private String author;
-        private Date expiry;
-        private String revision;
-
-        public GitChangeSet(String message, String author, String revision, Date expiry) {
-            this.setMessage(message);
-            this.setAuthor(author);
-            this.setRevision(revision);
-            this.setExpiry(expiry);
+    private void writeTimeDocuments(Queue<CodeIndexDocument> codeIndexDocumentQueue) throws IOException {
+        // Each call writes up to 1000 documents with a single writer
+        while (!codeIndexDocumentQueue.isEmpty()) {
+            CodeIndexer.indexTimeDocuments(codeIndexDocumentQueue);
         }
+    }
 
-        public String getMessage() {
-            return message;
-        }
+    /**
+     * Waits while the indexer is behind or background jobs are paused. Returns false if background jobs were
+     * turned off while waiting.
+     */
+    private boolean waitWhileBehind() throws InterruptedException {
+        while (CodeIndexer.shouldPauseAdding()) {
+            if (Singleton.getBackgroundJobsEnabled() == false) {
+                return false;
+            }
 
-        public void setMessage(String message) {
-            this.message = message;
+            Thread.sleep(this.SLEEPTIME);
         }
 
-        public String getAuthor() {
-            return author;
-        }
+        return Singleton.getBackgroundJobsEnabled();
+    }
 
-        public void setAuthor(String author) {
-            this.author = author;
-        }
+    /**
+     * Every path the commit added, changed or removed compared to its first parent along with a time document
+     * for each file it left contents at. The first commit is compared to an empty tree so everything it added is
+     * included. Paths removed or whose new contents are excluded from the index have no document.
+     */
+    public CommitChanges getCommitChanges(RepoResult repoResult, String repoLocations, String gitLocation, ObjectId commitId) throws IOException {
+        SearchcodeLib scl = Singleton.getSearchCodeLib();
+
+        return Singleton.getGitService().withReader(gitLocation, (repository, reader) -> {
+            RevWalk revWalk = new RevWalk(reader);
+            RevCommit commit = revWalk.parseCommit(commitId);
+            CommitChanges commitChanges = new CommitChanges(commit.getCommitTime());
+
+            TreeWalk treeWalk = new TreeWalk(reader);
+            treeWalk.setRecursive(true);
+            if (commit.getParentCount() == 0) {
+                treeWalk.addTree(new EmptyTreeIterator());
+            }
+            else {
+                treeWalk.addTree(revWalk.parseCommit(commit.getParent(0)).getTree());
+            }
+            treeWalk.addTree(commit.getTree());
+            treeWalk.setFilter(TreeFilter.ANY_DIFF);
+
+            SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd");
+            String yearMonthDay = sdf.format(new Date(commit.getCommitTime() * 1000L));
+
+            while (treeWalk.next()) {
+                String filePath = treeWalk.getPathString();
+                String fileName = treeWalk.getNameString();
+                String location = FilenameUtils.separatorsToUnix(repoLocations + "/" + repoResult.getName() + "/" + filePath).replace("//", "/");
+                commitChanges.getChanged().add(location);
+
+                if ((treeWalk.getFileMode(1).getBits() & FileMode.TYPE_MASK) != FileMode.TYPE_FILE) {
+                    continue;
+                }
+
+                SourceFile sourceFile;
+                try (InputStream inputStream = reader.open(treeWalk.getObjectId(1), Constants.OBJ_BLOB).openStream()) {
+                    sourceFile = SourceFile.load(inputStream, this.MAXFILELINEDEPTH, true, (sample, length, complete) -> scl.isBinaryOrMinifiedSample(sample, length, complete, fileName));
+                }
+
+                if (sourceFile.getExclusion() != null || sourceFile.getLines().isEmpty()) {
+                    continue;
+                }
+
+                List<String> codeLines = sourceFile.getLines();
+                String fileLocation = FilenameUtils.getPathNoEndSeparator(filePath);
+
+                CodeIndexDocument codeIndexDocument = new CodeIndexDocument(location,
+                                                                            repoResult.getName(),
+                                                                            fileName,
+                                                                            fileLocation,
+                                                                            repoResult.getName() + "/" + filePath,
+                                                                            sourceFile.getMd5Hash(),
+                                                                            scl.languageGuesser(fileName, codeLines),
+                                                                            codeLines.size(),
+                                                                            String.join("\n", codeLines),
+                                                                            repoResult.getUrl(),
+                                                                            commit.getAuthorIdent().getName());
+
+                codeIndexDocument.setRevision(commit.getName());
+                codeIndexDocument.setYearMonthDay(yearMonthDay);
+                codeIndexDocument.setYearMonth(yearMonthDay.substring(0, 6));
+                codeIndexDocument.setYear(yearMonthDay.substring(0, 4));
+                codeIndexDocument.setMessage(commit.getFullMessage());
+                codeIndexDocument.setBlobId(treeWalk.getObjectId(1).getName());
+                codeIndexDocument.setValidFrom(commit.getCommitTime());
+                commitChanges.getDocuments().put(location, codeIndexDocument);
+            }
+
+            return commitChanges;
+        });
+    }
+
+    /**
+     * Where the history of the repository has been indexed up to
+     */
+    public HistoryState getHistoryState(String gitLocation) {
+        HistoryState historyState = new HistoryState(new File(gitLocation, STATEFILE).getAbsolutePath());
+        historyState.load();
+        return historyState;
+    }
+
+    private boolean shouldStop() {
+        return !Singleton.getBackgroundJobsEnabled() || Singleton.getPauseBackgroundJobs() || CodeIndexer.shouldPauseAdding();
+    }
+
+    /**
+     * What a single commit changed, keyed by the location of the file which is what its time documents are keyed by
+     */
+    public static class CommitChanges {
+        private final long commitTime;
+        private final List<String> changed = new ArrayList<>();
+        private final Map<String, CodeIndexDocument> documents = new HashMap<>();
 
-        public Date getExpiry() {
-            return expiry;
+        public CommitChanges(long commitTime) {
+            this.commitTime = commitTime;
         }
 
-        public void setExpiry(Date expiry) {
-            this.expiry = expiry;
+        public long getCommitTime() {
+            return commitTime;
         }
 
-        public String getRevision() {
-            return revision;
+        public List<String> getChanged() {
+            return changed;
         }
 
-        public void setRevision(String revision) {
-            this.revision = revision;
+        public Map<String, CodeIndexDocument> getDocuments() {
+            return documents;
         }
     }
 }
@@ -14,54 +14,102 @@ package com.searchcode.app.jobs.repository;
 // http://stackoverflow.com/questions/1685228/how-to-cat-a-file-in-jgit
 
 import com.searchcode.app.config.Values;
+import com.searchcode.app.dto.BlameRun;
+import com.searchcode.app.dto.CodeIndexDocument;
 import com.searchcode.app.dto.CodeOwner;
+import com.searchcode.app.dto.FetchedRepository;
+import com.searchcode.app.dto.RepoUpdateStats;
 import com.searchcode.app.dto.RepositoryChanged;
+import com.searchcode.app.model.RepoData;
+import com.searchcode.app.model.RepoResult;
+import com.searchcode.app.service.CodeIndexer;
+import com.searchcode.app.service.CodeSearcher;
 import com.searchcode.app.service.Singleton;
+import com.searchcode.app.util.BatchBlame;
+import com.searchcode.app.util.BlameCache;
+import com.searchcode.app.util.BranchState;
 import com.searchcode.app.util.Helpers;
 import com.searchcode.app.util.Properties;
 import com.searchcode.app.util.SearchcodeLib;
+import com.searchcode.app.util.SourceFile;
 import com.searchcode.app.util.UniqueRepoQueue;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.eclipse.jgit.api.BlameCommand;
 import org.eclipse.jgit.api.CloneCommand;
+import org.eclipse.jgit.api.FetchCommand;
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.LsRemoteCommand;
 import org.eclipse.jgit.api.PullCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.blame.BlameResult;
 import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.RenameDetector;
 import org.eclipse.jgit.internal.storage.file.FileRepository;
 import org.eclipse.jgit.lib.*;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 import org.eclipse.jgit.treewalk.CanonicalTreeParser;
-import org.quartz.DisallowConcurrentExecution;
-import org.quartz.PersistJobDataAfterExecution;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.quartz.JobDataMap;
 
 import java.io.*;
 import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 
 /**
  * This job is responsible for pulling and indexing git repositories
  *
  * TODO add more tests as they are lacking
  */
-@PersistJobDataAfterExecution
-@DisallowConcurrentExecution
 public class IndexGitRepoJob extends IndexBaseRepoJob {
 
+    // Credentials for the git binary are read from the environment by this helper so they are never arguments
+    private static final String GITUSERNAMEVARIABLE = "SEARCHCODE_GIT_USERNAME";
+    private static final String GITPASSWORDVARIABLE = "SEARCHCODE_GIT_PASSWORD";
+    private static final String GITCREDENTIALHELPER = "!f() { echo \"username=$" + GITUSERNAMEVARIABLE + "\"; echo \"password=$" + GITPASSWORDVARIABLE + "\"; }; f";
+
     private String GITBINARYPATH;
     private boolean USESYSTEMGIT;
+    private boolean BARECLONE;
+    private int BLAMEBATCHSIZE = 1000; // Bounds how many files are held in memory by a single history walk
+
+    // Only set while an index is running
+    private volatile BlameCache blameCache = null;
+
+    // Only set while a bare clone is being indexed, the blob for each path in the tree being indexed and where
+    // the files would be if they were checked out
+    private volatile Map<String, String> treeBlobs = null;
+    private volatile String treeRoot = null;
+    private volatile String treeGitLocation = null;
+
+    // Only set while an index is running, how the other branches differ from the one being indexed
+    private volatile BranchState branchState = null;
+    private volatile String branchRoot = null;
+    private volatile String defaultBranch = null;
 
     public IndexGitRepoJob() {
         this.GITBINARYPATH = Properties.getProperties().getProperty(Values.GITBINARYPATH, Values.DEFAULTGITBINARYPATH);
         this.USESYSTEMGIT = Boolean.parseBoolean(Properties.getProperties().getProperty(Values.USESYSTEMGIT, Values.DEFAULTUSESYSTEMGIT));
+        this.BARECLONE = Boolean.parseBoolean(Properties.getProperties().getProperty(Values.GIT_BARE_CLONE, Values.DEFAULT_GIT_BARE_CLONE));
 
         File f = new File(this.GITBINARYPATH);
         if (USESYSTEMGIT && !f.exists()) {
@@ -86,10 +134,537 @@ public class IndexGitRepoJob extends IndexBaseRepoJob {
         return Singleton.getUniqueGitRepoQueue();
     }
 
+    /**
+     * Cloning and pulling is done by FetchGitRepoJob so network waits do not hold up indexing, this waits for
+     * what it has fetched and indexes it
+     */
+    @Override
+    public void work(JobDataMap data) throws InterruptedException {
+        this.awaitReady();
+        this.indexFetched(Singleton.getFetchedGitRepoQueue().take(), data);
+    }
+
+    private void indexFetched(FetchedRepository fetchedRepository, JobDataMap data) {
+        String repoName = fetchedRepository.getRepoResult().getName();
+
+        try {
+            this.LOWMEMORY = Boolean.parseBoolean(data.get("LOWMEMORY").toString());
+            this.indexFetchedRepository(fetchedRepository);
+        }
+        finally {
+            // Marked as running by the fetch job so nothing else picks it up while it waits to be indexed
+            Integer started = Singleton.getRunningIndexRepoJobs().remove(repoName);
+
+            if (started != null) {
+                Singleton.getStatsService().getRepoUpdateStats(repoName).recordDuration(System.currentTimeMillis() - started * 1000L);
+            }
+        }
+    }
+
+    /**
+     * Works out the code owners for everything about to be indexed before indexing starts so the blame can be
+     * done in batches and served from the cache where nothing has changed
+     */
+    @Override
+    public void updateIndex(String repoName, String repoLocations, String repoRemoteLocation, boolean existingRepo, RepositoryChanged repositoryChanged) {
+        boolean fullIndex = repositoryChanged.isClone() || !this.checkIndexSucess(repoLocations + "/" + repoName);
+        RepoResult repoResult = Singleton.getRepo().getRepoByName(repoName);
+
+        try {
+            BranchState previousBranchState = new BranchState(this.getBranchStateLocation(repoName, repoLocations));
+            previousBranchState.load();
+            BranchState branchState = this.prepareBranches(repoName, repoLocations, repoResult == null ? new RepoData() : repoResult.getData());
+
+            if (!fullIndex && (!branchState.getBranches().equals(previousBranchState.getBranches()) || !branchState.getMissing().equals(previousBranchState.getMissing()))) {
+                // Every file may be on a different set of branches now
+                Singleton.getLogger().info("Branches changed for " + repoName + " performing a full index.");
+                this.deleteIndexSuccess(repoLocations + "/" + repoName);
+                fullIndex = true;
+            }
+            else if (!fullIndex) {
+                this.addDivergedChanges(previousBranchState, branchState, repositoryChanged);
+            }
+
+            this.branchState = branchState;
+            this.branchRoot = this.getDeltaFileLocation(FilenameUtils.separatorsToUnix(repoLocations), repoName, repoRemoteLocation, Values.EMPTYSTRING);
+            this.defaultBranch = repoResult == null ? null : repoResult.getBranch();
+
+            this.blameCache = this.prepareCodeOwners(repoName, repoLocations, fullIndex ? null : repositoryChanged);
+            this.prepareTree(repoName, repoLocations, repoRemoteLocation, fullIndex ? null : repositoryChanged);
+            super.updateIndex(repoName, repoLocations, repoRemoteLocation, existingRepo, repositoryChanged);
+
+            if (this.indexBranchDocuments(repoName, repoLocations, repoRemoteLocation, fullIndex ? null : previousBranchState, branchState)) {
+                branchState.save();
+            }
+            else {
+                // Stopped part way so index everything next time rather than trying to work out what was missed
+                this.deleteIndexSuccess(repoLocations + "/" + repoName);
+            }
+        }
+        finally {
+            this.blameCache = null;
+            this.treeBlobs = null;
+            this.treeRoot = null;
+            this.treeGitLocation = null;
+            this.branchState = null;
+            this.branchRoot = null;
+            this.defaultBranch = null;
+        }
+    }
+
+    /**
+     * Works out how each of the other branches differs from HEAD. Branches which cannot be found are recorded as
+     * missing so they are left off every file until they have been fetched.
+     */
+    public BranchState prepareBranches(String repoName, String repoLocations, RepoData repoData) {
+        BranchState branchState = new BranchState(this.getBranchStateLocation(repoName, repoLocations));
+        branchState.setBranches(repoData.getBranches());
+
+        if (repoData.getBranches().isEmpty()) {
+            return branchState;
+        }
+
+        Repository localRepository = null;
+
+        try {
+            localRepository = new FileRepository(new File(repoLocations + "/" + repoName + "/.git"));
+            ObjectId head = localRepository.resolve(Constants.HEAD);
+
+            if (head == null) {
+                return branchState;
+            }
+
+            try (ObjectReader reader = localRepository.newObjectReader(); RevWalk revWalk = new RevWalk(reader)) {
+                RevTree headTree = revWalk.parseCommit(head).getTree();
+
+                for (String branch: repoData.getBranches()) {
+                    ObjectId branchHead = localRepository.resolve(this.getBranchRefName(localRepository, branch));
+
+                    if (branchHead == null) {
+                        Singleton.getLogger().info("Unable to find branch " + branch + " in " + repoName);
+                        branchState.addMissing(branch);
+                        continue;
+                    }
+
+                    // Only walks into the trees which differ so unchanged directories cost nothing
+                    TreeWalk treeWalk = new TreeWalk(reader);
+                    treeWalk.setRecursive(true);
+                    treeWalk.addTree(headTree);
+                    treeWalk.addTree(revWalk.parseCommit(branchHead).getTree());
+                    treeWalk.setFilter(TreeFilter.ANY_DIFF);
+
+                    while (treeWalk.next()) {
+                        boolean onDefault = (treeWalk.getFileMode(0).getBits() & FileMode.TYPE_MASK) == FileMode.TYPE_FILE;
+                        boolean onBranch = (treeWalk.getFileMode(1).getBits() & FileMode.TYPE_MASK) == FileMode.TYPE_FILE;
+
+                        // Only the file mode changed so the contents are still shared
+                        if (onDefault && onBranch && treeWalk.idEqual(0, 1)) {
+                            continue;
+                        }
+
+                        if (onDefault) {
+                            branchState.addDiverged(treeWalk.getPathString(), branch);
+                        }
+
+                        if (onBranch) {
+                            branchState.addDocument(treeWalk.getPathString(), treeWalk.getObjectId(1).getName(), branch);
+                        }
+                    }
+                }
+            }
+        }
+        catch (IOException | RuntimeException ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " prepareBranches for " + repoName + "\n with message: " + ex.getMessage());
+        }
+        finally {
+            Helpers.closeQuietly(localRepository);
+        }
+
+        return branchState;
+    }
+
+    /**
+     * Files in HEAD which moved on or off another branch have to be indexed again to update their branches even
+     * if HEAD did not change them
+     */
+    public void addDivergedChanges(BranchState previousBranchState, BranchState branchState, RepositoryChanged repositoryChanged) {
+        Set<String> paths = new HashSet<>(previousBranchState.getDiverged().keySet());
+        paths.addAll(branchState.getDiverged().keySet());
+
+        Set<String> changed = new HashSet<>(repositoryChanged.getChangedFiles());
+        changed.addAll(repositoryChanged.getDeletedFiles());
+        changed.addAll(repositoryChanged.getRenamedFiles().keySet());
+        changed.addAll(repositoryChanged.getRenamedFiles().values());
+
+        for (String path: paths) {
+            if (!changed.contains(path) && !previousBranchState.getDiverged(path).equals(branchState.getDiverged(path))) {
+                repositoryChanged.getChangedFiles().add(path);
+            }
+        }
+    }
+
+    /**
+     * Indexes a document for each file the other branches have which differs from HEAD, shared by every branch
+     * with the same contents at the path, and removes those no branch has any more. Without a previous state
+     * everything is indexed. Returns false if it stopped early.
+     */
+    public boolean indexBranchDocuments(String repoName, String repoLocations, String repoRemoteLocation, BranchState previousBranchState, BranchState branchState) {
+        SearchcodeLib scl = Singleton.getSearchCodeLib();
+        Queue<CodeIndexDocument> codeIndexDocumentQueue = Singleton.getCodeIndexQueue();
+        String fileRepoLocations = FilenameUtils.separatorsToUnix(repoLocations);
+        String gitLocation = repoLocations + "/" + repoName + "/.git";
+        Map<String, List<String>> previousDocuments = previousBranchState == null ? new HashMap<>() : previousBranchState.getDocuments();
+
+        for (String key: previousDocuments.keySet()) {
+            if (!branchState.getDocuments().containsKey(key)) {
+                String location = this.getBranchDocumentLocation(fileRepoLocations, repoName, repoRemoteLocation, key);
+                try {
+                    CodeIndexer.deleteByCodeId(DigestUtils.sha1Hex(location));
+                } catch (IOException ex) {
+                    Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " indexBranchDocuments for " + repoName + " " + location + "\n with message: " + ex.getMessage());
+                }
+            }
+        }
+
+        List<String[]> reportList = new ArrayList<>();
+
+        for (Map.Entry<String, List<String>> entry: branchState.getDocuments().entrySet()) {
+            if (entry.getValue().equals(previousDocuments.get(entry.getKey()))) {
+                continue;
+            }
+
+            if (this.shouldJobPauseOrTerminate()) {
+                return false;
+            }
+
+            String path = BranchState.getDocumentPath(entry.getKey());
+            String blobId = BranchState.getDocumentBlobId(entry.getKey());
+            String fileName = FilenameUtils.getName(path);
+            String location = this.getBranchDocumentLocation(fileRepoLocations, repoName, repoRemoteLocation, entry.getKey());
+            String defaultLocation = this.getDeltaFileLocation(fileRepoLocations, repoName, repoRemoteLocation, path);
+
+            SourceFile sourceFile;
+            try {
+                sourceFile = Singleton.getGitService().loadBlob(gitLocation, blobId, this.MAXFILELINEDEPTH, true, (sample, length, complete) -> scl.isBinaryOrMinifiedSample(sample, length, complete, fileName));
+            }
+            catch (IOException ex) {
+                Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " indexBranchDocuments for " + repoName + " " + location + "\n with message: " + ex.getMessage());
+                continue;
+            }
+
+            List<String> codeLines = sourceFile.getLines();
+
+            if (sourceFile.getExclusion() != null || codeLines.isEmpty() || scl.isMinified(codeLines, fileName) || this.determineBinary(location, fileName, codeLines, reportList)) {
+                continue;
+            }
+
+            String fileLocation = this.getRelativeToProjectPath(repoLocations + "/" + repoName, defaultLocation);
+            String fileLocationFilename = this.getFileLocationFilename(defaultLocation, fileRepoLocations);
+
+            // The default branch blame is the best guess at who owns the file without blaming every branch
+            String codeOwner = "Unknown";
+            BlameCache blameCache = this.blameCache;
+            List<BlameRun> runs = blameCache == null ? null : blameCache.get(this.getBlameFilePath(fileLocationFilename));
+            if (runs != null) {
+                codeOwner = scl.codeOwner(BatchBlame.toCodeOwners(runs, codeLines.size()));
+            }
+
+            CodeIndexDocument codeIndexDocument = new CodeIndexDocument(location, repoName, fileName, fileLocation, fileLocationFilename, sourceFile.getMd5Hash(), scl.languageGuesser(fileName, codeLines), codeLines.size(), StringUtils.join(codeLines, "\n"), repoRemoteLocation, codeOwner);
+            codeIndexDocument.setBlobId(blobId);
+            codeIndexDocument.setBranches(entry.getValue());
+
+            if (this.LOWMEMORY) {
+                try {
+                    CodeIndexer.indexDocument(codeIndexDocument);
+                } catch (IOException ex) {
+                    Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " indexBranchDocuments\n with message: " + ex.getMessage());
+                }
+            } else {
+                Singleton.incrementCodeIndexLinesCount(codeLines.size());
+                codeIndexDocumentQueue.add(codeIndexDocument);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Files from other branches are keyed by the blob as well as where the file would be so they do not replace
+     * the default branch document for the same path
+     */
+    private String getBranchDocumentLocation(String fileRepoLocations, String repoName, String repoRemoteLocation, String key) {
+        return this.getDeltaFileLocation(fileRepoLocations, repoName, repoRemoteLocation, BranchState.getDocumentPath(key)) + "@" + BranchState.getDocumentBlobId(key);
+    }
+
+    /**
+     * The default branch and every other branch which has not changed or removed the file
+     */
+    @Override
+    public List<String> getBranches(String fileToString) {
+        BranchState branchState = this.branchState;
+        String branchRoot = this.branchRoot;
+        String defaultBranch = this.defaultBranch;
+
+        if (branchState == null || branchRoot == null || defaultBranch == null || !fileToString.startsWith(branchRoot)) {
+            return null;
+        }
+
+        List<String> diverged = branchState.getDiverged(fileToString.substring(branchRoot.length()));
+        List<String> branches = new ArrayList<>();
+        branches.add(defaultBranch);
+
+        for (String branch: branchState.getBranches()) {
+            if (!diverged.contains(branch) && !branchState.getMissing().contains(branch)) {
+                branches.add(branch);
+            }
+        }
+
+        return branches;
+    }
+
+    /**
+     * Where fetched copies of other branches are kept, a bare clone has them as local branches
+     */
+    public String getBranchRefName(Repository localRepository, String branch) {
+        return localRepository.isBare() ? Constants.R_HEADS + branch : Constants.R_REMOTES + "origin/" + branch;
+    }
+
+    private String getBranchStateLocation(String repoName, String repoLocations) {
+        return repoLocations + "/" + repoName + "/.git/searchcode.branches.csv";
+    }
+
+    /**
+     * If the repository is a bare clone records the blob for each file about to be indexed so they can be read
+     * from the object database, leaves everything unset for a normal checkout
+     */
+    public void prepareTree(String repoName, String repoLocations, String repoRemoteLocation, RepositoryChanged repositoryChanged) {
+        String repoGitLocation = repoLocations + "/" + repoName + "/.git";
+        Repository localRepository = null;
+
+        try {
+            localRepository = new FileRepository(new File(repoGitLocation));
+            ObjectId head = localRepository.resolve("HEAD");
+
+            if (!localRepository.isBare() || head == null) {
+                return;
+            }
+
+            // Moved files are not blamed so are only looked up here where their blob is needed to read them
+            if (repositoryChanged != null && !repositoryChanged.getRenamedFiles().isEmpty()) {
+                List<String> files = new ArrayList<>(repositoryChanged.getChangedFiles());
+                files.addAll(repositoryChanged.getRenamedFiles().values());
+                repositoryChanged = new RepositoryChanged(true, files, repositoryChanged.getDeletedFiles());
+            }
+
+            this.treeBlobs = this.getBlobIds(localRepository, head, repositoryChanged);
+            this.treeRoot = this.getDeltaFileLocation(FilenameUtils.separatorsToUnix(repoLocations), repoName, repoRemoteLocation, Values.EMPTYSTRING);
+            this.treeGitLocation = repoGitLocation;
+        }
+        catch (IOException | RuntimeException ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " prepareTree for " + repoName + "\n with message: " + ex.getMessage());
+        }
+        finally {
+            Helpers.closeQuietly(localRepository);
+        }
+    }
+
+    /**
+     * A bare clone has no files to walk so every file in the tree is indexed as though it had changed, reading
+     * each from the object database, then anything no longer in the tree is removed from the index
+     */
+    @Override
+    public boolean indexDocsByPath(Path path, String repoName, String repoLocations, String repoRemoteLocation, boolean existingRepo) {
+        Map<String, String> treeBlobs = this.treeBlobs;
+
+        if (treeBlobs == null) {
+            return super.indexDocsByPath(path, repoName, repoLocations, repoRemoteLocation, existingRepo);
+        }
+
+        List<String> files = new ArrayList<>(treeBlobs.keySet());
+        this.indexDocsByDelta(path, repoName, repoLocations, repoRemoteLocation, new RepositoryChanged(true, files, new ArrayList<>()));
+
+        if (existingRepo) {
+            String fileRepoLocations = FilenameUtils.separatorsToUnix(repoLocations);
+            Map<String, String> fileLocations = new HashMap<>();
+
+            for (String file: files) {
+                fileLocations.put(this.getDeltaFileLocation(fileRepoLocations, repoName, repoRemoteLocation, file), Values.EMPTYSTRING);
+            }
+
+            this.cleanMissingPathFiles(new CodeSearcher(), repoName, fileLocations);
+        }
+
+        return true;
+    }
+
+    @Override
+    public SourceFile loadSourceFile(String fileToString, String fileName, SearchcodeLib scl) throws IOException {
+        String blobId = this.getBlobId(fileToString);
+
+        if (blobId == null) {
+            return super.loadSourceFile(fileToString, fileName, scl);
+        }
+
+        return Singleton.getGitService().loadBlob(this.treeGitLocation, blobId, this.MAXFILELINEDEPTH, true, (sample, length, complete) -> scl.isBinaryOrMinifiedSample(sample, length, complete, fileName));
+    }
+
+    @Override
+    public String getBlobId(String fileToString) {
+        Map<String, String> treeBlobs = this.treeBlobs;
+        String treeRoot = this.treeRoot;
+
+        if (treeBlobs == null || treeRoot == null || !fileToString.startsWith(treeRoot)) {
+            return null;
+        }
+
+        return treeBlobs.get(fileToString.substring(treeRoot.length()));
+    }
+
+    /**
+     * Loads the blame cache for the repository and blames anything it does not have in batches, each batch
+     * using a single walk of the history. If no changes are supplied every file in HEAD is checked.
+     * Returns null if the repository could not be read in which case owners are found one file at a time.
+     */
+    public BlameCache prepareCodeOwners(String repoName, String repoLocations, RepositoryChanged repositoryChanged) {
+        Repository localRepository = null;
+
+        try {
+            localRepository = new FileRepository(new File(repoLocations + "/" + repoName + "/.git"));
+            ObjectId head = localRepository.resolve("HEAD");
+
+            if (head == null) {
+                return null;
+            }
+
+            BlameCache blameCache = new BlameCache(this.getBlameCacheLocation(repoName, repoLocations));
+            blameCache.load();
+
+            Map<String, String> blobIds = this.getBlobIds(localRepository, head, repositoryChanged);
+
+            if (repositoryChanged == null) {
+                blameCache.retainOnly(blobIds.keySet());
+            }
+            else {
+                for (String deletedFile: repositoryChanged.getDeletedFiles()) {
+                    blameCache.remove(deletedFile);
+                }
+            }
+
+            List<String> missing = new ArrayList<>();
+            for (Map.Entry<String, String> entry: blobIds.entrySet()) {
+                if (blameCache.get(entry.getKey(), entry.getValue()) == null) {
+                    missing.add(entry.getKey());
+                }
+            }
+
+            Singleton.getLogger().info("Blaming " + missing.size() + " of " + blobIds.size() + " files for " + repoName);
+            BatchBlame batchBlame = new BatchBlame(localRepository);
+
+            for (int i = 0; i < missing.size(); i += this.BLAMEBATCHSIZE) {
+                // Nothing is added to the index queue here so only stop if jobs are being shut down
+                if (Singleton.getBackgroundJobsEnabled() == false) {
+                    break;
+                }
+
+                List<String> batch = missing.subList(i, Math.min(i + this.BLAMEBATCHSIZE, missing.size()));
+                Map<String, List<BlameRun>> results = batchBlame.blame(head, batch);
+
+                for (Map.Entry<String, List<BlameRun>> result: results.entrySet()) {
+                    blameCache.put(result.getKey(), blobIds.get(result.getKey()), head.getName(), result.getValue());
+                }
+            }
+
+            blameCache.save();
+            return blameCache;
+        }
+        catch (IOException | RuntimeException ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " prepareCodeOwners for " + repoName + "\n with message: " + ex.getMessage());
+        }
+        finally {
+            Helpers.closeQuietly(localRepository);
+        }
+
+        return null;
+    }
+
+    /**
+     * The blob id of every file in the commit, or only of the changed files if changes are supplied
+     */
+    public Map<String, String> getBlobIds(Repository localRepository, ObjectId head, RepositoryChanged repositoryChanged) throws IOException {
+        Map<String, String> blobIds = new LinkedHashMap<>();
+        ObjectReader reader = localRepository.newObjectReader();
+        RevWalk revWalk = new RevWalk(reader);
+
+        try {
+            RevCommit headCommit = revWalk.parseCommit(head);
+
+            if (repositoryChanged == null) {
+                TreeWalk treeWalk = new TreeWalk(reader);
+                treeWalk.setRecursive(true);
+                treeWalk.addTree(headCommit.getTree());
+
+                while (treeWalk.next()) {
+                    if (treeWalk.getFileMode(0).getObjectType() == Constants.OBJ_BLOB) {
+                        blobIds.put(treeWalk.getPathString(), treeWalk.getObjectId(0).getName());
+                    }
+                }
+            }
+            else {
+                for (String changedFile: repositoryChanged.getChangedFiles()) {
+                    TreeWalk treeWalk = TreeWalk.forPath(reader, changedFile, headCommit.getTree());
+                    if (treeWalk != null && treeWalk.getFileMode(0).getObjectType() == Constants.OBJ_BLOB) {
+                        blobIds.put(changedFile, treeWalk.getObjectId(0).getName());
+                    }
+                }
+            }
+        }
+        finally {
+            revWalk.close();
+            reader.close();
+        }
+
+        return blobIds;
+    }
+
+    /**
+     * Moves the saved blame for the repository forward to the new HEAD using the diff of each pulled commit so
+     * changed files do not need to be blamed again when they are indexed
+     */
+    public void updateCodeOwners(Repository localRepository, String repoName, String repoLocations, ObjectId oldHead, ObjectId newHead) {
+        BlameCache blameCache = new BlameCache(this.getBlameCacheLocation(repoName, repoLocations));
+        blameCache.load();
+
+        if (blameCache.size() == 0) {
+            return;
+        }
+
+        try {
+            if (new BatchBlame(localRepository).update(blameCache, oldHead, newHead)) {
+                blameCache.save();
+            }
+        }
+        catch (IOException | RuntimeException ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " updateCodeOwners for " + repoName + "\n with message: " + ex.getMessage());
+        }
+    }
+
+    private String getBlameCacheLocation(String repoName, String repoLocations) {
+        return repoLocations + "/" + repoName + "/.git/searchcode.blame.csv";
+    }
+
     @Override
     public String getCodeOwner(List<String> codeLines, String newString, String repoName, String fileRepoLocations, SearchcodeLib scl) {
+        BlameCache blameCache = this.blameCache;
+        if (blameCache != null) {
+            List<BlameRun> runs = blameCache.get(newString);
+            if (runs != null) {
+                return scl.codeOwner(BatchBlame.toCodeOwners(runs, codeLines.size()));
+            }
+        }
+
+        // A bare clone has no working copy for the git binary to blame in
         List<CodeOwner> owners;
-        if (this.USESYSTEMGIT) {
+        if (this.USESYSTEMGIT && this.treeBlobs == null) {
             owners = this.getBlameInfoExternal(codeLines.size(), repoName, fileRepoLocations, newString);
         } else {
             owners = this.getBlameInfo(codeLines.size(), repoName, fileRepoLocations, newString);
@@ -195,17 +770,18 @@ public class IndexGitRepoJob extends IndexBaseRepoJob {
 
     /**
      * Uses the inbuilt git
-     * TODO this method appears to leak memory like crazy... need to investigate
      * TODO lots of hairy bits in here need tests to capture issues
      */
     public List<CodeOwner> getBlameInfo(int codeLinesSize, String repoName, String repoLocations, String fileName) {
         List<CodeOwner> codeOwners = new ArrayList<>(codeLinesSize);
+        Repository localRepository = null;
+
         try {
             // The / part is required due to centos bug for version 1.1.1
             // This appears to be correct
             String repoLoc = repoLocations + "/" + repoName + "/.git";
 
-            Repository localRepository = new FileRepository(new File(repoLoc));
+            localRepository = new FileRepository(new File(repoLoc));
             BlameCommand blamer = new BlameCommand(localRepository);
 
             ObjectId commitID = localRepository.resolve("HEAD");
@@ -285,8 +861,11 @@ public class IndexGitRepoJob extends IndexBaseRepoJob {
         } catch (IllegalArgumentException ex) {
             Singleton.getLogger().info("IllegalArgumentException getBlameInfo when trying to get blame for " + repoName + " " + fileName + " " + ex.toString());
         }
+        finally {
+            // Not closing the repository was what made this leak memory
+            Helpers.closeQuietly(localRepository);
+        }
 
-        System.gc(); // Try to clean up
         return codeOwners;
     }
 
@@ -298,27 +877,76 @@ public class IndexGitRepoJob extends IndexBaseRepoJob {
         boolean changed = false;
         List<String> changedFiles = new ArrayList<>();
         List<String> deletedFiles = new ArrayList<>();
+        Map<String, String> renamedFiles = new LinkedHashMap<>();
         Singleton.getLogger().info("Attempting to pull latest from " + repoRemoteLocation + " for " + repoName);
 
+        RepoUpdateStats updateStats = Singleton.getStatsService().getRepoUpdateStats(repoName);
         Repository localRepository = null;
         Git git = null;
+        boolean failed = false;
 
         try {
-            localRepository = new FileRepository(new File(repoLocations + "/" + repoName + "/.git"));
+            File gitDirectory = new File(repoLocations + "/" + repoName + "/.git");
+            localRepository = new FileRepository(gitDirectory);
+            RepoData repoData = this.getRepoData(repoName);
 
             Ref head = localRepository.getRef("HEAD");
             git = new Git(localRepository);
 
-            git.reset();
-            git.clean();
+            boolean shallow = new File(gitDirectory, "shallow").exists();
+            boolean historyWanted = shallow && !repoData.isShallow();
 
-            PullCommand pullCmd = git.pull();
+            // Branches added or removed since the last index need it to run again even if nothing moved
+            BranchState branchState = new BranchState(this.getBranchStateLocation(repoName, repoLocations));
+            branchState.load();
+            boolean branchesChanged = !branchState.getBranches().equals(repoData.getBranches());
 
-            if (useCredentials) {
-                pullCmd.setCredentialsProvider(new UsernamePasswordCredentialsProvider(repoUserName, repoPassword));
+            // Asking for the remote refs is a single small request, far cheaper than a fetch negotiating packs
+            if (!historyWanted && !branchesChanged && this.isRemoteUnchanged(localRepository, repoRemoteLocation, repoUserName, repoPassword, branch, repoData.getBranches(), useCredentials)) {
+                updateStats.recordUnchanged();
+                return new RepositoryChanged(false, changedFiles, deletedFiles);
+            }
+
+            Map<String, ObjectId> branchHeads = this.getBranchHeads(localRepository, repoData.getBranches());
+
+            if ((shallow || repoData.isShallow()) && new File(this.GITBINARYPATH).exists()) {
+                // JGit cannot fetch to a depth so the git binary keeps shallow clones shallow, or fetches the rest of
+                // the history once it is wanted
+                if (!this.fetchShallow(localRepository, repoData, repoRemoteLocation, repoUserName, repoPassword, branch, useCredentials)) {
+                    updateStats.recordFailed();
+                    RepositoryChanged repositoryChanged = new RepositoryChanged(false, changedFiles, deletedFiles);
+                    repositoryChanged.setFailed(true);
+                    return repositoryChanged;
+                }
             }
+            else if (localRepository.isBare()) {
+                // Nothing is checked out so a fetch moves the branches straight to where the remote has them
+                FetchCommand fetchCmd = git.fetch();
+
+                if (useCredentials) {
+                    fetchCmd.setCredentialsProvider(new UsernamePasswordCredentialsProvider(repoUserName, repoPassword));
+                }
+
+                fetchCmd.call();
+            }
+            else {
+                git.reset();
+                git.clean();
+
+                PullCommand pullCmd = git.pull();
+
+                if (useCredentials) {
+                    pullCmd.setCredentialsProvider(new UsernamePasswordCredentialsProvider(repoUserName, repoPassword));
+                }
+
+                pullCmd.call();
+            }
+
+            this.fetchBranches(localRepository, repoData, repoRemoteLocation, repoUserName, repoPassword, useCredentials);
+
+            // Only other branches moved, nothing in HEAD to index but their documents need updating
+            changed = branchesChanged || !branchHeads.equals(this.getBranchHeads(localRepository, repoData.getBranches()));
 
-            pullCmd.call();
             Ref newHEAD = localRepository.getRef("HEAD");
 
             if (!head.toString().equals(newHEAD.toString())) {
@@ -343,19 +971,46 @@ public class IndexGitRepoJob extends IndexBaseRepoJob {
                                             .setOldTree(oldTreeIter)
                                             .call();
 
+                // Pairs up adds and deletes so moved files can keep what was already worked out for them
+                RenameDetector renameDetector = new RenameDetector(localRepository);
+                renameDetector.addAll(entries);
+                entries = renameDetector.compute();
 
                 for( DiffEntry entry : entries ) {
-                    if ("DELETE".equals(entry.getChangeType().name())) {
-                        deletedFiles.add(FilenameUtils.separatorsToUnix(entry.getOldPath()));
-                    }
-                    else {
-                        changedFiles.add(FilenameUtils.separatorsToUnix(entry.getNewPath()));
+                    String oldPath = FilenameUtils.separatorsToUnix(entry.getOldPath());
+                    String newPath = FilenameUtils.separatorsToUnix(entry.getNewPath());
+
+                    switch (entry.getChangeType()) {
+                        case DELETE:
+                            deletedFiles.add(oldPath);
+                            break;
+                        case RENAME:
+                            // Same contents under the same name so nothing about the file itself can have changed
+                            if (entry.getOldId().equals(entry.getNewId()) && FilenameUtils.getName(oldPath).equals(FilenameUtils.getName(newPath))) {
+                                renamedFiles.put(oldPath, newPath);
+                            }
+                            else {
+                                deletedFiles.add(oldPath);
+                                changedFiles.add(newPath);
+                            }
+                            break;
+                        default:
+                            changedFiles.add(newPath);
+                            break;
                     }
                 }
+
+                this.updateCodeOwners(localRepository, repoName, repoLocations, head.getObjectId(), newHEAD.getObjectId());
+                updateStats.recordChanged();
+            }
+            else {
+                updateStats.recordUnchanged();
             }
 
         } catch (IOException | GitAPIException | InvalidPathException ex) {
             changed = false;
+            failed = true;
+            updateStats.recordFailed();
             Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() +  " updateGitRepository for " + repoName + "\n with message: " + ex.getMessage());
         }
         finally {
@@ -363,7 +1018,158 @@ public class IndexGitRepoJob extends IndexBaseRepoJob {
             Helpers.closeQuietly(git);
         }
 
-        return new RepositoryChanged(changed, changedFiles, deletedFiles);
+        RepositoryChanged repositoryChanged = new RepositoryChanged(changed, changedFiles, deletedFiles);
+        repositoryChanged.getRenamedFiles().putAll(renamedFiles);
+        repositoryChanged.setFailed(failed);
+        return repositoryChanged;
+    }
+
+    /**
+     * Compares the branch on the remote to the local HEAD without fetching anything. Returns false if they differ
+     * or the remote could not be asked so the caller goes on to fetch as normal.
+     */
+    public boolean isRemoteUnchanged(Repository localRepository, String repoRemoteLocation, String repoUserName, String repoPassword, String branch, boolean useCredentials) {
+        return this.isRemoteUnchanged(localRepository, repoRemoteLocation, repoUserName, repoPassword, branch, new ArrayList<>(), useCredentials);
+    }
+
+    /**
+     * As above but the other branches being indexed must not have moved either. A branch the remote no longer
+     * has is ignored as there is nothing to fetch for it.
+     */
+    public boolean isRemoteUnchanged(Repository localRepository, String repoRemoteLocation, String repoUserName, String repoPassword, String branch, List<String> branches, boolean useCredentials) {
+        try {
+            ObjectId localHead = localRepository.resolve(Constants.HEAD);
+
+            if (localHead == null) {
+                return false;
+            }
+
+            LsRemoteCommand lsRemoteCommand = Git.lsRemoteRepository()
+                                                 .setRemote(repoRemoteLocation)
+                                                 .setHeads(true);
+
+            if (useCredentials) {
+                lsRemoteCommand.setCredentialsProvider(new UsernamePasswordCredentialsProvider(repoUserName, repoPassword));
+            }
+
+            Map<String, ObjectId> remoteHeads = new HashMap<>();
+            for (Ref ref: lsRemoteCommand.call()) {
+                remoteHeads.put(ref.getName(), ref.getObjectId());
+            }
+
+            if (!localHead.equals(remoteHeads.get(Constants.R_HEADS + branch))) {
+                return false;
+            }
+
+            Map<String, ObjectId> branchHeads = this.getBranchHeads(localRepository, branches);
+            for (String otherBranch: branches) {
+                ObjectId remoteHead = remoteHeads.get(Constants.R_HEADS + otherBranch);
+
+                if (remoteHead != null && !remoteHead.equals(branchHeads.get(otherBranch))) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+        catch (IOException | GitAPIException ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " isRemoteUnchanged for " + repoRemoteLocation + "\n with message: " + ex.getMessage());
+        }
+
+        return false;
+    }
+
+    /**
+     * Where each of the branches is locally, missing if it has not been fetched
+     */
+    public Map<String, ObjectId> getBranchHeads(Repository localRepository, List<String> branches) throws IOException {
+        Map<String, ObjectId> branchHeads = new HashMap<>();
+
+        for (String branch: branches) {
+            ObjectId branchHead = localRepository.resolve(this.getBranchRefName(localRepository, branch));
+            if (branchHead != null) {
+                branchHeads.put(branch, branchHead);
+            }
+        }
+
+        return branchHeads;
+    }
+
+    /**
+     * Fetches the other branches being indexed by name so it works whether or not the clone is single branch.
+     * Shallow clones are kept at their depth using the git binary. A failure only leaves those branches where
+     * they were, or missing, so it does not fail the clone or update.
+     */
+    public boolean fetchBranches(Repository localRepository, RepoData repoData, String repoRemoteLocation, String repoUserName, String repoPassword, boolean useCredentials) {
+        if (repoData.getBranches().isEmpty()) {
+            return true;
+        }
+
+        List<RefSpec> refSpecs = new ArrayList<>();
+        for (String branch: repoData.getBranches()) {
+            refSpecs.add(new RefSpec("+" + Constants.R_HEADS + branch + ":" + this.getBranchRefName(localRepository, branch)));
+        }
+
+        if (repoData.isShallow() && new File(this.GITBINARYPATH).exists()) {
+            List<String> command = new ArrayList<>();
+            command.add("fetch");
+            command.add("--depth");
+            command.add(Integer.toString(repoData.getCloneDepth()));
+            command.add(repoRemoteLocation);
+            for (RefSpec refSpec: refSpecs) {
+                command.add(refSpec.toString());
+            }
+
+            File directory = localRepository.isBare() ? localRepository.getDirectory() : localRepository.getWorkTree();
+            return this.runGit(directory, this.getCredentials(repoUserName, repoPassword, useCredentials), command.toArray(new String[command.size()]));
+        }
+
+        // Wrapping the repository does not take ownership of it so there is nothing to close
+        Git git = new Git(localRepository);
+
+        try {
+            FetchCommand fetchCmd = git.fetch().setRemote(repoRemoteLocation).setRefSpecs(refSpecs);
+
+            if (useCredentials) {
+                fetchCmd.setCredentialsProvider(new UsernamePasswordCredentialsProvider(repoUserName, repoPassword));
+            }
+
+            fetchCmd.call();
+            return true;
+        }
+        catch (GitAPIException | RuntimeException ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " fetchBranches for " + repoRemoteLocation + "\n with message: " + ex.getMessage());
+        }
+
+        return false;
+    }
+
+    /**
+     * Fetches the branch using the git binary, either to the configured depth or the full history if the
+     * repository should no longer be shallow. A checkout is then moved to what was fetched.
+     */
+    public boolean fetchShallow(Repository localRepository, RepoData repoData, String repoRemoteLocation, String repoUserName, String repoPassword, String branch, boolean useCredentials) {
+        boolean bare = localRepository.isBare();
+        File directory = bare ? localRepository.getDirectory() : localRepository.getWorkTree();
+        String destination = bare ? Constants.R_HEADS + branch : Constants.R_REMOTES + "origin/" + branch;
+
+        List<String> command = new ArrayList<>();
+        command.add("fetch");
+        if (repoData.isShallow()) {
+            command.add("--depth");
+            command.add(Integer.toString(repoData.getCloneDepth()));
+        }
+        else {
+            command.add("--unshallow");
+        }
+        command.add(repoRemoteLocation);
+        command.add("+" + Constants.R_HEADS + branch + ":" + destination);
+
+        if (!this.runGit(directory, this.getCredentials(repoUserName, repoPassword, useCredentials), command.toArray(new String[command.size()]))) {
+            return false;
+        }
+
+        return bare || this.runGit(directory, "reset", "--hard", destination);
     }
 
 
@@ -374,13 +1180,56 @@ public class IndexGitRepoJob extends IndexBaseRepoJob {
         boolean successful = false;
         Singleton.getLogger().info("Attempting to clone " + repoRemoteLocation);
 
+        RepoData repoData = this.getRepoData(repoName);
+        File directory = this.BARECLONE ? new File(repoLocations + "/" + repoName + "/.git/") : new File(repoLocations + "/" + repoName + "/");
+
+        if (this.BARECLONE) {
+            // Kept where a checkout would put it so the rest of the job finds it in the same place
+            Singleton.getGitService().close(repoLocations + "/" + repoName + "/.git/");
+        }
+
+        if (repoData.isShallow()) {
+            if (new File(this.GITBINARYPATH).exists()) {
+                successful = this.cloneShallow(directory, repoData, repoRemoteLocation, repoUserName, repoPassword, branch, useCredentials);
+
+                if (successful && !repoData.getBranches().isEmpty()) {
+                    Repository localRepository = null;
+                    try {
+                        localRepository = new FileRepository(new File(repoLocations + "/" + repoName + "/.git"));
+                        this.fetchBranches(localRepository, repoData, repoRemoteLocation, repoUserName, repoPassword, useCredentials);
+                    }
+                    catch (IOException ex) {
+                        Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() +  " cloneGitRepository for " + repoName + "\n with message: " + ex.getMessage());
+                    }
+                    finally {
+                        Helpers.closeQuietly(localRepository);
+                    }
+                }
+
+                RepositoryChanged repositoryChanged = new RepositoryChanged(successful);
+                repositoryChanged.setClone(true);
+                repositoryChanged.setFailed(!successful);
+                return repositoryChanged;
+            }
+
+            Singleton.getLogger().warning("Unable to clone " + repoName + " to a depth of " + repoData.getCloneDepth() + " as property git_binary_path in properties file appears to be incorrect. Cloning full history.");
+        }
+
         Git call = null;
 
         try {
             CloneCommand cloneCommand = Git.cloneRepository();
             cloneCommand.setURI(repoRemoteLocation);
-            cloneCommand.setDirectory(new File(repoLocations + "/" + repoName + "/"));
-            cloneCommand.setCloneAllBranches(true);
+            cloneCommand.setBare(this.BARECLONE);
+            cloneCommand.setDirectory(directory);
+
+            if (repoData.isSingleBranch()) {
+                cloneCommand.setCloneAllBranches(false);
+                cloneCommand.setBranchesToClone(Collections.singletonList(Constants.R_HEADS + branch));
+            }
+            else {
+                cloneCommand.setCloneAllBranches(true);
+            }
             cloneCommand.setBranch(branch);
 
             if (useCredentials) {
@@ -388,8 +1237,18 @@ public class IndexGitRepoJob extends IndexBaseRepoJob {
             }
 
             call = cloneCommand.call();
+
+            if (repoData.isSingleBranch()) {
+                // JGit still configures the wildcard refspec so every branch would come back on the next pull
+                String destination = this.BARECLONE ? Constants.R_HEADS + branch : Constants.R_REMOTES + "origin/" + branch;
+                StoredConfig config = call.getRepository().getConfig();
+                config.setString("remote", "origin", "fetch", "+" + Constants.R_HEADS + branch + ":" + destination);
+                config.save();
+            }
+
+            this.fetchBranches(call.getRepository(), repoData, repoRemoteLocation, repoUserName, repoPassword, useCredentials);
             successful = true;
-        } catch (GitAPIException | InvalidPathException ex) {
+        } catch (GitAPIException | InvalidPathException | IOException ex) {
             successful = false;
             Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() +  " cloneGitRepository for " + repoName + "\n with message: " + ex.getMessage());
         }
@@ -399,7 +1258,126 @@ public class IndexGitRepoJob extends IndexBaseRepoJob {
 
         RepositoryChanged repositoryChanged = new RepositoryChanged(successful);
         repositoryChanged.setClone(true);
+        repositoryChanged.setFailed(!successful);
 
         return repositoryChanged;
     }
+
+    /**
+     * Clones only the most recent commits using the git binary as JGit does not support shallow clones
+     */
+    public boolean cloneShallow(File directory, RepoData repoData, String repoRemoteLocation, String repoUserName, String repoPassword, String branch, boolean useCredentials) {
+        List<String> command = new ArrayList<>();
+        command.add("clone");
+        if (this.BARECLONE) {
+            command.add("--bare");
+        }
+        command.add("--depth");
+        command.add(Integer.toString(repoData.getCloneDepth()));
+        command.add(repoData.isSingleBranch() ? "--single-branch" : "--no-single-branch");
+        command.add("--branch");
+        command.add(branch);
+        command.add(repoRemoteLocation);
+        command.add(directory.getAbsolutePath());
+
+        File parent = directory.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+
+        return this.runGit(parent, this.getCredentials(repoUserName, repoPassword, useCredentials), command.toArray(new String[command.size()]));
+    }
+
+    /**
+     * The username and password to hand to git if they are to be used, otherwise null
+     */
+    private Map<String, String> getCredentials(String repoUserName, String repoPassword, boolean useCredentials) {
+        if (!useCredentials) {
+            return null;
+        }
+
+        Map<String, String> credentials = new HashMap<>();
+        credentials.put(GITUSERNAMEVARIABLE, repoUserName);
+        credentials.put(GITPASSWORDVARIABLE, repoPassword == null ? Values.EMPTYSTRING : repoPassword);
+        return credentials;
+    }
+
+    /**
+     * Takes out anything between the scheme and an @ in URLs so credentials git echoes back are not logged
+     */
+    public static String redactCredentials(String output) {
+        if (output == null) {
+            return null;
+        }
+
+        return output.replaceAll("([a-zA-Z][a-zA-Z0-9+.-]*://)[^/@\\s]+@", "$1");
+    }
+
+    private boolean runGit(File directory, String... arguments) {
+        return this.runGit(directory, null, arguments);
+    }
+
+    /**
+     * Runs the git binary in the directory returning true if it exited cleanly. Credentials are handed over
+     * through the environment to a credential helper so they never appear in the command line where any
+     * local user could read them, and are never written to the repository config.
+     */
+    private boolean runGit(File directory, Map<String, String> credentials, String... arguments) {
+        List<String> command = new ArrayList<>();
+        command.add(this.GITBINARYPATH);
+
+        if (credentials != null) {
+            // The empty helper clears any configured ones so only these credentials are offered
+            command.add("-c");
+            command.add("credential.helper=");
+            command.add("-c");
+            command.add("credential.helper=" + GITCREDENTIALHELPER);
+        }
+
+        command.addAll(Arrays.asList(arguments));
+
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.directory(directory);
+        processBuilder.redirectErrorStream(true);
+        processBuilder.environment().put("GIT_TERMINAL_PROMPT", "0");
+
+        if (credentials != null) {
+            processBuilder.environment().putAll(credentials);
+        }
+
+        Process process = null;
+
+        try {
+            process = processBuilder.start();
+
+            StringBuilder output = new StringBuilder();
+            BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            String line;
+            while ((line = br.readLine()) != null) {
+                output.append(line).append("\n");
+            }
+
+            int exitValue = process.waitFor();
+            if (exitValue != 0) {
+                Singleton.getLogger().warning("git " + arguments[0] + " in " + directory + " exited with " + exitValue + "\n with output: " + redactCredentials(output.toString()));
+                return false;
+            }
+
+            return true;
+        }
+        catch (IOException | InterruptedException ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " runGit\n with message: " + redactCredentials(ex.getMessage()));
+        }
+        finally {
+            Helpers.closeQuietly(process);
+        }
+
+        return false;
+    }
+
+    /**
+     * Clone settings for the repository, the defaults if it is not known
+     */
+    private RepoData getRepoData(String repoName) {
+        RepoResult repoResult = Singleton.getRepo().getRepoByName(repoName);
+        return repoResult == null ? new RepoData() : repoResult.getData();
+    }
 }
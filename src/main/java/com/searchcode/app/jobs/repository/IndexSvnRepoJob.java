@@ -18,19 +18,18 @@ import com.searchcode.app.util.Helpers;
 import com.searchcode.app.util.Properties;
 import com.searchcode.app.util.SearchcodeLib;
 import com.searchcode.app.util.UniqueRepoQueue;
-import org.quartz.*;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.input.BOMInputStream;
+import org.quartz.JobDataMap;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
-import org.w3c.dom.Node;
-import org.w3c.dom.Element;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.nio.file.*;
 import java.util.*;
 
@@ -40,13 +39,14 @@ import java.util.*;
  * TODO add more tests as they are lacking
  * TODO use inheritance/template methods to combine the common stuff between this and git job then subclass
  */
-@PersistJobDataAfterExecution
-@DisallowConcurrentExecution
 public class IndexSvnRepoJob extends IndexBaseRepoJob {
 
     private String SVNBINARYPATH;
     private boolean ENABLED = true;
 
+    // Owners worked out up front for the files about to be indexed keyed by their path in the working copy
+    private Map<String, String> codeOwners = null;
+
     public IndexSvnRepoJob() {
         this.LOWMEMORY = true;
         this.SVNBINARYPATH = Properties.getProperties().getProperty(Values.SVNBINARYPATH, Values.DEFAULTSVNBINARYPATH);
@@ -75,6 +75,11 @@ public class IndexSvnRepoJob extends IndexBaseRepoJob {
 
     @Override
     public String getCodeOwner(List<String> codeLines, String newString, String repoName, String fileRepoLocations, SearchcodeLib scl) {
+        Map<String, String> codeOwners = this.codeOwners;
+        if (codeOwners != null && codeOwners.containsKey(newString)) {
+            return codeOwners.get(newString);
+        }
+
         return getInfoExternal(codeLines.size(), repoName, fileRepoLocations, newString).getName();
     }
 
@@ -104,13 +109,21 @@ public class IndexSvnRepoJob extends IndexBaseRepoJob {
             Singleton.getLogger().info("Failed to index " + repoName + " fully, performing a full index.");
         }
 
-        if (repositoryChanged.isClone() || indexsucess == false) {
-            Singleton.getLogger().info("Doing full index of files for " + repoName);
-            this.indexDocsByPath(docDir, repoName, repoLocations, repoRemoteLocation, existingRepo);
+        try {
+            if (repositoryChanged.isClone() || indexsucess == false) {
+                Singleton.getLogger().info("Doing full index of files for " + repoName);
+                // One pass over the whole working copy rather than asking svn about each file as it is indexed
+                this.codeOwners = this.getInfoExternal(repoLocations, repoName, true).getAuthors();
+                this.indexDocsByPath(docDir, repoName, repoLocations, repoRemoteLocation, existingRepo);
+            }
+            else {
+                Singleton.getLogger().info("Doing delta index of files " + repoName);
+                this.codeOwners = repositoryChanged.getCodeOwners();
+                this.indexDocsByDelta(docDir, repoName, repoLocations, repoRemoteLocation, repositoryChanged);
+            }
         }
-        else {
-            Singleton.getLogger().info("Doing delta index of files " + repoName);
-            this.indexDocsByDelta(docDir, repoName, repoLocations, repoRemoteLocation, repositoryChanged);
+        finally {
+            this.codeOwners = null;
         }
 
         // Write file indicating that the index was sucessful
@@ -128,39 +141,12 @@ public class IndexSvnRepoJob extends IndexBaseRepoJob {
 
         try {
             process = processBuilder.start();
+            String author = this.parseInfo(process.getInputStream()).getAuthors().get(fileName);
 
-            InputStream is = process.getInputStream();
-            InputStreamReader isr = new InputStreamReader(is);
-            BufferedReader br = new BufferedReader(isr);
-            String line;
-            StringBuilder bf = new StringBuilder();
-
-
-            while ((line = br.readLine()) != null) {
-                bf.append(Helpers.removeUTF8BOM(line));
+            if (author != null) {
+                owner.setName(author);
             }
-
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            Document doc = dBuilder.parse(new ByteArrayInputStream(bf.toString().getBytes()));
-            doc.getDocumentElement().normalize();
-
-            NodeList nList = doc.getElementsByTagName("entry");
-
-            for (int temp = 0; temp < nList.getLength(); temp++) {
-                Node nNode = nList.item(temp);
-
-                if (nNode.getNodeType() == Node.ELEMENT_NODE) {
-                    Element eElement = (Element) nNode;
-
-                    Node node = eElement.getElementsByTagName("commit").item(0);
-                    Element e = (Element) node;
-
-                    owner.setName(e.getElementsByTagName("author").item(0).getTextContent());
-                }
-            }
-
-        } catch (IOException | ParserConfigurationException | SAXException ex) {
+        } catch (IOException | XMLStreamException ex) {
             Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " getInfoExternal for " + repoName + " " + fileName + "\n with message: " + ex.getMessage());
         }
         finally {
@@ -170,6 +156,29 @@ public class IndexSvnRepoJob extends IndexBaseRepoJob {
         return owner;
     }
 
+    /**
+     * Runs svn info against the working copy, and everything in it if recursive which is a single process no matter
+     * how many files there are. Returns an empty result if svn could not be run.
+     */
+    public SvnInfo getInfoExternal(String repoLocations, String repoName, boolean recursive) {
+        ProcessBuilder processBuilder = recursive ?
+                new ProcessBuilder(this.SVNBINARYPATH, "info", "--xml", "-R") :
+                new ProcessBuilder(this.SVNBINARYPATH, "info", "--xml");
+        processBuilder.directory(new File(repoLocations + repoName));
+        Process process = null;
+
+        try {
+            process = processBuilder.start();
+            return this.parseInfo(process.getInputStream());
+        } catch (IOException | XMLStreamException ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() +  " getInfoExternal for " + repoName + "\n with message: " + ex.getMessage());
+        }
+        finally {
+            Helpers.closeQuietly(process);
+        }
+
+        return new SvnInfo();
+    }
 
     public RepositoryChanged updateSvnRepository(String repoName, String repoRemoteLocation, String repoUserName, String repoPassword, String repoLocations, boolean useCredentials) {
         boolean changed = false;
@@ -221,11 +230,13 @@ public class IndexSvnRepoJob extends IndexBaseRepoJob {
         return new RepositoryChanged(changed, changedFiles, deletedFiles);
     }
 
+    /**
+     * Works out what changed since the start revision and who last changed each file, using one svn diff and one
+     * svn log for the whole range however many files changed
+     */
     public RepositoryChanged getDiffBetweenRevisions(String repoLocations, String repoName, String startRevision) {
         // svn diff -r 4000:HEAD --summarize --xml
-
-        List<String> changedFiles = new ArrayList<>();
-        List<String> deletedFiles = new ArrayList<>();
+        RepositoryChanged repositoryChanged = new RepositoryChanged(true, new ArrayList<>(), new ArrayList<>());
 
         ProcessBuilder processBuilder = new ProcessBuilder(this.SVNBINARYPATH, "diff", "-r", startRevision + ":HEAD", "--summarize", "--xml");
 
@@ -234,107 +245,234 @@ public class IndexSvnRepoJob extends IndexBaseRepoJob {
 
         try {
             process = processBuilder.start();
+            repositoryChanged = this.parseDiff(process.getInputStream());
+        }
+        catch(IOException | XMLStreamException ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " getDiffBetweenRevisions for " + repoName + "\n with message: " + ex.getMessage());
+        }
+        finally {
+            Helpers.closeQuietly(process);
+        }
 
-            InputStream is = process.getInputStream();
-            InputStreamReader isr = new InputStreamReader(is);
-            BufferedReader br = new BufferedReader(isr);
-            String line;
-            StringBuffer sb = new StringBuffer();
-
-            while ((line = br.readLine()) != null) {
-                Singleton.getLogger().info("svn diff: " + line);
-                sb.append(Helpers.removeUTF8BOM(line));
-            }
-
-            Singleton.getLogger().info("Before XML parsing: " + sb.toString());
-
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            Document doc = dBuilder.parse(new ByteArrayInputStream(sb.toString().getBytes()));
-            doc.getDocumentElement().normalize();
+        Singleton.getLogger().info("SVN: " + repositoryChanged.getChangedFiles().size() + " changed and " + repositoryChanged.getDeletedFiles().size() + " deleted files for " + repoName);
+        repositoryChanged.getCodeOwners().putAll(this.getLogOwners(repoLocations, repoName, startRevision, repositoryChanged.getChangedFiles()));
 
-            Element node = (Element)doc.getElementsByTagName("diff").item(0);
-            node = (Element)node.getElementsByTagName("paths").item(0);
+        return repositoryChanged;
+    }
 
-            NodeList nList = node.getElementsByTagName("path");
+    /**
+     * Who made the most recent change to each of the paths after the start revision using a single svn log over
+     * the range. Paths not changed directly in the range, such as files copied in with their directory, are left
+     * out and found one at a time when indexed.
+     */
+    public Map<String, String> getLogOwners(String repoLocations, String repoName, String startRevision, List<String> paths) {
+        int revision = Helpers.tryParseInt(startRevision, "-1");
 
-            for (int temp = 0; temp < nList.getLength(); temp++) {
-                Node nNode = nList.item(temp);
+        if (paths.isEmpty() || revision < 0) {
+            return new HashMap<>();
+        }
 
-                if (nNode.getNodeType() == Node.ELEMENT_NODE) {
-                    Element eElement = (Element) nNode;
+        // The log lists paths from the root of the repository rather than the working copy
+        String repositoryPath = this.getInfoExternal(repoLocations, repoName, false).getRepositoryPath();
 
-                    String type = eElement.getAttribute("item");
-                    String path = eElement.getTextContent();
+        if (repositoryPath == null) {
+            return new HashMap<>();
+        }
 
-                    if ("modified".equals(type) || "added".equals(type)) {
-                        changedFiles.add(path);
-                    }
-                    else {
-                        deletedFiles.add(path);
-                    }
+        ProcessBuilder processBuilder = new ProcessBuilder(this.SVNBINARYPATH, "log", "-v", "--xml", "-r", (revision + 1) + ":HEAD");
+        processBuilder.directory(new File(repoLocations + repoName));
+        Process process = null;
 
-                }
-            }
+        try {
+            process = processBuilder.start();
+            return this.parseLog(process.getInputStream(), repositoryPath, new HashSet<>(paths));
         }
-        catch(IOException | ParserConfigurationException | SAXException ex) {
-            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " getDiffBetweenRevisions for " + repoName + "\n with message: " + ex.getMessage());
+        catch(IOException | XMLStreamException ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " getLogOwners for " + repoName + "\n with message: " + ex.getMessage());
         }
         finally {
             Helpers.closeQuietly(process);
         }
 
-        return new RepositoryChanged(true, changedFiles, deletedFiles);
+        return new HashMap<>();
     }
 
     public String getCurrentRevision(String repoLocations, String repoName) {
-        String currentRevision = "";
+        String currentRevision = this.getInfoExternal(repoLocations, repoName, false).getRevision();
+        Singleton.getLogger().info("getCurrentRevision: " + repoName + " " + currentRevision);
+        return currentRevision == null ? "" : currentRevision;
+    }
 
-        ProcessBuilder processBuilder = new ProcessBuilder(this.SVNBINARYPATH, "info", "--xml");
-        processBuilder.directory(new File(repoLocations + repoName));
-        Process process = null;
+    /**
+     * Reads the output of svn info --xml as it arrives. The revision and location come from the first entry which
+     * is the working copy itself when no paths were given.
+     */
+    public SvnInfo parseInfo(InputStream inputStream) throws XMLStreamException {
+        SvnInfo svnInfo = new SvnInfo();
+        XMLStreamReader reader = this.createXMLStreamReader(inputStream);
+        StringBuilder text = new StringBuilder();
+        String path = null;
+        boolean commit = false;
 
         try {
-            process = processBuilder.start();
-
-            InputStream is = process.getInputStream();
-            InputStreamReader isr = new InputStreamReader(is);
-            BufferedReader br = new BufferedReader(isr);
-            StringBuilder sb = new StringBuilder();
-            String line;
-
-            while ((line = br.readLine()) != null) {
-                sb.append(Helpers.removeUTF8BOM(line));
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        text.setLength(0);
+
+                        if ("entry".equals(reader.getLocalName())) {
+                            path = FilenameUtils.separatorsToUnix(reader.getAttributeValue(null, "path"));
+                            if (svnInfo.revision == null) {
+                                svnInfo.revision = reader.getAttributeValue(null, "revision");
+                            }
+                        }
+                        else if ("commit".equals(reader.getLocalName())) {
+                            commit = true;
+                        }
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                        text.append(reader.getText());
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        String name = reader.getLocalName();
+
+                        if ("url".equals(name) && svnInfo.url == null) {
+                            svnInfo.url = text.toString().trim();
+                        }
+                        else if ("root".equals(name) && svnInfo.root == null) {
+                            svnInfo.root = text.toString().trim();
+                        }
+                        else if ("author".equals(name) && commit && path != null) {
+                            svnInfo.authors.put(path, text.toString().trim());
+                        }
+                        else if ("commit".equals(name)) {
+                            commit = false;
+                        }
+                        break;
+                }
             }
+        }
+        finally {
+            reader.close();
+        }
 
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
+        return svnInfo;
+    }
 
-            Singleton.getLogger().info("getCurrentRevision: " + repoName + " " + sb.toString());
+    /**
+     * Reads the output of svn diff --summarize --xml as it arrives
+     */
+    public RepositoryChanged parseDiff(InputStream inputStream) throws XMLStreamException {
+        List<String> changedFiles = new ArrayList<>();
+        List<String> deletedFiles = new ArrayList<>();
+        XMLStreamReader reader = this.createXMLStreamReader(inputStream);
+        StringBuilder text = new StringBuilder();
+        String item = null;
+        String kind = null;
 
-            Document doc = dBuilder.parse(new ByteArrayInputStream(sb.toString().getBytes()));
-            doc.getDocumentElement().normalize();
+        try {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        text.setLength(0);
+
+                        if ("path".equals(reader.getLocalName())) {
+                            item = reader.getAttributeValue(null, "item");
+                            kind = reader.getAttributeValue(null, "kind");
+                        }
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                        text.append(reader.getText());
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if ("path".equals(reader.getLocalName())) {
+                            String path = FilenameUtils.separatorsToUnix(text.toString());
+
+                            if ("deleted".equals(item)) {
+                                deletedFiles.add(path);
+                            }
+                            else if (!"dir".equals(kind)) {
+                                // Replaced and property only changes are still there so are indexed again
+                                changedFiles.add(path);
+                            }
+                        }
+                        break;
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
 
-            NodeList nList = doc.getElementsByTagName("entry");
+        return new RepositoryChanged(true, changedFiles, deletedFiles);
+    }
 
-            for (int temp = 0; temp < nList.getLength(); temp++) {
-                Node nNode = nList.item(temp);
+    /**
+     * Reads the output of svn log -v --xml as it arrives, keeping the author of the newest change to each of the
+     * paths. The log lists paths from the root of the repository so the repository path of the working copy is
+     * removed from the front of each. Expects the log oldest first.
+     */
+    public Map<String, String> parseLog(InputStream inputStream, String repositoryPath, Set<String> paths) throws XMLStreamException {
+        Map<String, String> authors = new HashMap<>();
+        XMLStreamReader reader = this.createXMLStreamReader(inputStream);
+        StringBuilder text = new StringBuilder();
+        String prefix = repositoryPath.endsWith("/") ? repositoryPath : repositoryPath + "/";
+        String author = null;
+        List<String> entryPaths = new ArrayList<>();
 
-                if (nNode.getNodeType() == Node.ELEMENT_NODE) {
-                    Element eElement = (Element) nNode;
-                    currentRevision = eElement.getAttribute("revision");
+        try {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        text.setLength(0);
+
+                        if ("logentry".equals(reader.getLocalName())) {
+                            author = null;
+                            entryPaths.clear();
+                        }
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                        text.append(reader.getText());
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        String name = reader.getLocalName();
+
+                        if ("author".equals(name)) {
+                            author = text.toString().trim();
+                        }
+                        else if ("path".equals(name)) {
+                            String path = text.toString().trim();
+                            if (path.startsWith(prefix)) {
+                                entryPaths.add(path.substring(prefix.length()));
+                            }
+                        }
+                        else if ("logentry".equals(name) && author != null) {
+                            for (String path: entryPaths) {
+                                if (paths.contains(path)) {
+                                    authors.put(path, author);
+                                }
+                            }
+                        }
+                        break;
                 }
             }
-        } catch (IOException | ParserConfigurationException | SAXException ex) {
-            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() +  " getCurrentRevision for " + repoName + "\n with message: " + ex.getMessage());
         }
         finally {
-            Helpers.closeQuietly(process);
+            reader.close();
         }
 
-        return currentRevision;
+        return authors;
     }
 
+    /**
+     * Some builds of svn write a byte order mark before the XML which the parser will not accept
+     */
+    private XMLStreamReader createXMLStreamReader(InputStream inputStream) throws XMLStreamException {
+        XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return xmlInputFactory.createXMLStreamReader(new BOMInputStream(inputStream));
+    }
 
     public RepositoryChanged checkoutSvnRepository(String repoName, String repoRemoteLocation, String repoUserName, String repoPassword, String repoLocations, boolean useCredentials) {
         boolean successful = false;
@@ -386,4 +524,39 @@ public class IndexSvnRepoJob extends IndexBaseRepoJob {
 
         return repositoryChanged;
     }
+
+    /**
+     * What svn info reported, the author of the last commit to each entry keyed by its path
+     */
+    public static class SvnInfo {
+        private String revision;
+        private String url;
+        private String root;
+        private final Map<String, String> authors = new HashMap<>();
+
+        public String getRevision() {
+            return revision;
+        }
+
+        public Map<String, String> getAuthors() {
+            return authors;
+        }
+
+        /**
+         * Where the working copy is inside the repository such as /trunk, or null if it is not known
+         */
+        public String getRepositoryPath() {
+            if (this.url == null || this.root == null || !this.url.startsWith(this.root)) {
+                return null;
+            }
+
+            try {
+                String path = new URI(this.url).getPath().substring(new URI(this.root).getPath().length());
+                return path.isEmpty() ? "/" : path;
+            }
+            catch (URISyntaxException | IndexOutOfBoundsException ex) {
+                return null;
+            }
+        }
+    }
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016 Boyter Online Services
+ *
+ * Use of this software is governed by the Fair Source License included
+ * in the LICENSE.TXT file, but will be eventually open under GNU General Public License Version 3
+ * see the README.md for when this clause will take effect
+ *
+ * Version 1.3.8
+ */
+
+package com.searchcode.app.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per repository settings which are not needed to identify the repository. Stored as JSON in the data column of
+ * the repo table so new settings can be added without changing the schema.
+ */
+public class RepoData {
+    private int cloneDepth = 0; // Number of commits to fetch, 0 fetches the full history
+    private boolean singleBranch = false;
+    private boolean indexHistory = false;
+    private List<String> branches = new ArrayList<>(); // Indexed along with the repository branch
+
+    public RepoData() {}
+
+    public RepoData(int cloneDepth, boolean singleBranch, boolean indexHistory) {
+        this.setCloneDepth(cloneDepth);
+        this.setSingleBranch(singleBranch);
+        this.setIndexHistory(indexHistory);
+    }
+
+    public int getCloneDepth() {
+        return cloneDepth;
+    }
+
+    public void setCloneDepth(int cloneDepth) {
+        this.cloneDepth = Math.max(0, cloneDepth);
+    }
+
+    public boolean isSingleBranch() {
+        return singleBranch;
+    }
+
+    public void setSingleBranch(boolean singleBranch) {
+        this.singleBranch = singleBranch;
+    }
+
+    public boolean isIndexHistory() {
+        return indexHistory;
+    }
+
+    public void setIndexHistory(boolean indexHistory) {
+        this.indexHistory = indexHistory;
+    }
+
+    public List<String> getBranches() {
+        return branches == null ? new ArrayList<>() : branches;
+    }
+
+    /**
+     * Blank and repeated names are dropped, the repository branch should not be included
+     */
+    public void setBranches(List<String> branches) {
+        List<String> cleaned = new ArrayList<>();
+
+        for (String branch: branches) {
+            branch = branch.trim();
+
+            if (!branch.isEmpty() && !cleaned.contains(branch)) {
+                cleaned.add(branch);
+            }
+        }
+
+        this.branches = cleaned;
+    }
+
+    /**
+     * History can only be indexed if all of it has been fetched
+     */
+    public boolean isShallow() {
+        return this.cloneDepth > 0 && !this.indexHistory;
+    }
+}
@@ -21,6 +21,7 @@ public class RepoResult {
     private String password = "";
     private String source = "";
     private String branch = "";
+    private RepoData data = new RepoData();
 
     public RepoResult() {}
 
@@ -132,6 +133,17 @@ public class RepoResult {
         this.branch = branch;
     }
 
+    public RepoData getData() {
+        return data;
+    }
+
+    public void setData(RepoData data) {
+        if (data == null) {
+            data = new RepoData();
+        }
+        this.data = data;
+    }
+
     @Override
     public String toString() {
         return String.format("%s %s %s %s %s %s %s", this.getName(), this.getScm(), this.getUrl(), this.getUsername(), this.getPassword(), this.getSource(), this.getBranch());
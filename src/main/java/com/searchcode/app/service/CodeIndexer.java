@@ -33,7 +33,10 @@ import org.apache.lucene.store.FSDirectory;
 
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
@@ -114,6 +117,9 @@ public class CodeIndexer {
 
         writer.deleteDocuments(new Term(Values.REPONAME, repoName));
         writer.close();
+
+        // The cache is keyed by path so there is no cheap way to remove only this repository
+        Singleton.getFileLinesCache().invalidateAll();
     }
 
     /**
@@ -122,6 +128,18 @@ public class CodeIndexer {
      * TODO Update the record and set the facets to a value we can ignore
      */
     public static synchronized void deleteByCodeId(String codeId) throws IOException {
+        deleteByCodeIds(Collections.singletonList(codeId));
+    }
+
+    /**
+     * As above but for many files at once using a single writer, so removing a large number of files does not
+     * open and commit the index once for each of them
+     */
+    public static synchronized void deleteByCodeIds(Collection<String> codeIds) throws IOException {
+        if (codeIds.isEmpty()) {
+            return;
+        }
+
         Directory dir = FSDirectory.open(Paths.get(Properties.getProperties().getProperty(Values.INDEXLOCATION, Values.DEFAULTINDEXLOCATION)));
 
         Analyzer analyzer = new CodeAnalyzer();
@@ -132,8 +150,11 @@ public class CodeIndexer {
 
         try {
             QueryParser parser = new QueryParser(Values.CONTENTS, analyzer);
-            Query query = parser.parse(Values.CODEID + ":" + QueryParser.escape(codeId));
-            writer.deleteDocuments(query);
+
+            for (String codeId: codeIds) {
+                Query query = parser.parse(Values.CODEID + ":" + QueryParser.escape(codeId));
+                writer.deleteDocuments(query);
+            }
         }
         catch(Exception ex) {
             Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in CodeIndexer\n with message: " + ex.getMessage());
@@ -159,6 +180,7 @@ public class CodeIndexer {
         IndexWriterConfig indexWriterConfig = new IndexWriterConfig(analyzer);
         FacetsConfig facetsConfig;
         SearchcodeLib searchcodeLib = new SearchcodeLib();
+        boolean storeSource = Boolean.parseBoolean(Properties.getProperties().getProperty(Values.INDEX_STORE_SOURCE, Values.DEFAULT_INDEX_STORE_SOURCE));
 
         indexWriterConfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
 
@@ -172,6 +194,7 @@ public class CodeIndexer {
             while (codeIndexDocument != null) {
                 Singleton.getLogger().info("Indexing file " + codeIndexDocument.getRepoLocationRepoNameLocationFilename());
                 Singleton.decrementCodeIndexLinesCount(codeIndexDocument.getCodeLines());
+                Singleton.getFileLinesCache().invalidate(codeIndexDocument.getRepoLocationRepoNameLocationFilename());
 
                 Document doc = new Document();
                 // Path is the primary key for documents
@@ -184,6 +207,8 @@ public class CodeIndexer {
                 facetsConfig.setIndexFieldName(Values.LANGUAGENAME, Values.LANGUAGENAME);
                 facetsConfig.setIndexFieldName(Values.REPONAME, Values.REPONAME);
                 facetsConfig.setIndexFieldName(Values.CODEOWNER, Values.CODEOWNER);
+                facetsConfig.setIndexFieldName(Values.BRANCH, Values.BRANCH);
+                facetsConfig.setMultiValued(Values.BRANCH, true);
 
                 if (Helpers.isNullEmptyOrWhitespace(codeIndexDocument.getLanguageName()) == false) {
                     doc.add(new SortedSetDocValuesFacetField(Values.LANGUAGENAME, codeIndexDocument.getLanguageName()));
@@ -194,6 +219,12 @@ public class CodeIndexer {
                 if (Helpers.isNullEmptyOrWhitespace(codeIndexDocument.getCodeOwner()) == false) {
                     doc.add(new SortedSetDocValuesFacetField(Values.CODEOWNER, codeIndexDocument.getCodeOwner()));
                 }
+                if (codeIndexDocument.getBranches() != null) {
+                    for (String branch: codeIndexDocument.getBranches()) {
+                        doc.add(new SortedSetDocValuesFacetField(Values.BRANCH, branch));
+                        doc.add(new TextField(Values.BRANCH, branch, Field.Store.YES));
+                    }
+                }
 
                 // TODO Is this even required anymore?
                 searchcodeLib.addToSpellingCorrector(codeIndexDocument.getContents()); // Store in spelling corrector
@@ -221,6 +252,16 @@ public class CodeIndexer {
                 doc.add(new TextField(Values.CODEOWNER,            codeIndexDocument.getCodeOwner(), Field.Store.YES));
                 doc.add(new TextField(Values.CODEID,               codeIndexDocument.getHash(), Field.Store.YES));
 
+                // Keep a compressed copy of the file so search results can be built without touching the disk
+                if (storeSource && codeIndexDocument.getContents() != null) {
+                    doc.add(new StoredField(Values.SOURCE, CompressionTools.compressString(codeIndexDocument.getContents())));
+                }
+
+                // Nothing on disk to read from so results are loaded from the object database by this
+                if (codeIndexDocument.getBlobId() != null) {
+                    doc.add(new StoredField(Values.BLOBID, codeIndexDocument.getBlobId()));
+                }
+
                 // Extra metadata in this case when it was last indexed
                 doc.add(new LongField(Values.MODIFIED, new Date().getTime(), Field.Store.YES));
 
@@ -343,12 +384,20 @@ public class CodeIndexer {
                 doc.add(new TextField(Values.DATEYEARMONTH, codeIndexDocument.getYearMonth(), Field.Store.YES));
                 doc.add(new TextField(Values.DATEYEAR, codeIndexDocument.getYear(), Field.Store.YES));
                 doc.add(new TextField(Values.MESSAGE, codeIndexDocument.getMessage(), Field.Store.YES));
-                doc.add(new TextField(Values.DELETED, codeIndexDocument.isDeleted(), Field.Store.YES));
+                if (codeIndexDocument.isDeleted() != null) {
+                    doc.add(new TextField(Values.DELETED, codeIndexDocument.isDeleted(), Field.Store.YES));
+                }
+
+                // Doc values so the end of the period can be set later without indexing the contents again
+                doc.add(new NumericDocValuesField(Values.VALIDFROM, codeIndexDocument.getValidFrom()));
+                doc.add(new NumericDocValuesField(Values.VALIDTO, codeIndexDocument.getValidTo()));
+                doc.add(new StoredField(Values.VALIDFROM, codeIndexDocument.getValidFrom()));
 
                 // Extra metadata in this case when it was last indexed
                 doc.add(new LongField(Values.MODIFIED, new Date().getTime(), Field.Store.YES));
 
-                writer.updateDocument(new Term(Values.PATH, codeIndexDocument.getRepoLocationRepoNameLocationFilename()), facetsConfig.build(taxoWriter, doc));
+                // Same key as the path field so indexing a revision again replaces it rather than adding a copy
+                writer.updateDocument(new Term(Values.PATH, codeIndexDocument.getRepoLocationRepoNameLocationFilename() + ":" + codeIndexDocument.getRevision()), facetsConfig.build(taxoWriter, doc));
 
                 count++;
                 if (count >= 1000) { // Only index 1000 documents at most each time
@@ -378,6 +427,48 @@ public class CodeIndexer {
         queue = null;
     }
 
+    /**
+     * Sets when the contents of time documents stopped being live, keyed by their path field. Only the doc
+     * value is rewritten so the contents are not indexed again.
+     */
+    public static synchronized void updateTimeDocumentsValidTo(Map<String, Long> validTo) throws IOException {
+        if (validTo.isEmpty()) {
+            return;
+        }
+
+        Directory dir = FSDirectory.open(Paths.get(Properties.getProperties().getProperty(Values.TIMEINDEXLOCATION, Values.DEFAULTTIMEINDEXLOCATION)));
+
+        Analyzer analyzer = new CodeAnalyzer();
+        IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
+        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+
+        IndexWriter writer = new IndexWriter(dir, iwc);
+
+        try {
+            for (Map.Entry<String, Long> entry: validTo.entrySet()) {
+                writer.updateNumericDocValue(new Term(Values.PATH, entry.getKey()), Values.VALIDTO, entry.getValue());
+            }
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Removes everything for the repository from the time index such as when its history has been rewritten
+     */
+    public static synchronized void deleteTimeDocumentsByReponame(String repoName) throws IOException {
+        Directory dir = FSDirectory.open(Paths.get(Properties.getProperties().getProperty(Values.TIMEINDEXLOCATION, Values.DEFAULTTIMEINDEXLOCATION)));
+
+        Analyzer analyzer = new CodeAnalyzer();
+        IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
+        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+
+        IndexWriter writer = new IndexWriter(dir, iwc);
+        writer.deleteDocuments(new Term(Values.REPONAME, repoName));
+        writer.close();
+    }
+
     /**
      * Possibly better in ultra low memory environments? Reuses the above method by creating a queue with one
      * element and passes it in.
@@ -15,10 +15,14 @@ import com.searchcode.app.dao.Data;
 import com.searchcode.app.dto.CodeMatchResult;
 import com.searchcode.app.dto.CodeResult;
 import com.searchcode.app.util.Helpers;
+import com.searchcode.app.util.TermMatcher;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 /**
@@ -45,9 +49,30 @@ public class CodeMatcher {
         List<String> lstMatchTerms = splitTerms(matchTerms);
 
         List<CodeResult> results = new ArrayList<>();
+        ExecutorService executorService = Singleton.getSearchExecutor();
 
+        // Each result is independent so match them in parallel, collecting them in order keeps the ranking
+        List<Future<List<CodeMatchResult>>> futures = new ArrayList<>();
         for(CodeResult code: codeResult) {
-            List<CodeMatchResult> result = matchResults(code.getCode(), lstMatchTerms, highlightLine);
+            futures.add(executorService.submit(() -> matchResults(code.getCode(), lstMatchTerms, highlightLine)));
+        }
+
+        for(int i = 0; i < codeResult.size(); i++) {
+            CodeResult code = codeResult.get(i);
+            List<CodeMatchResult> result = null;
+
+            try {
+                result = futures.get(i).get();
+            }
+            catch (InterruptedException ex) {
+                // The remaining matches will never be collected so stop them running
+                futures.subList(i, futures.size()).forEach(x -> x.cancel(true));
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch (ExecutionException ex) {
+                Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " formatResults for " + code.getCodePath() + "\n with message: " + ex.getMessage());
+            }
 
             if (result != null) {
                 code.setMatchingResults(result);
@@ -59,94 +84,147 @@ public class CodeMatcher {
     }
 
     /**
-     * Actually does the matching for a single code result given the match terms
+     * Actually does the matching for a single code result given the match terms. Lines are looked up by
+     * line number through an array rather than searching the list and ordered by match count with a counting
+     * sort so this is linear in the number of lines returned by findMatchingLines.
      */
     public List<CodeMatchResult> matchResults(List<String> code, List<String> matchTerms, boolean highlightLine) {
         List<CodeMatchResult> resultLines = findMatchingLines(code, matchTerms, highlightLine);
-        List<CodeMatchResult> newResultLines = new ArrayList<>();
 
-        // get the top matching lines for this result
-        resultLines.sort((p1, p2) -> new Integer(p2.getLineMatches()).compareTo(p1.getLineMatches()));
+        if (resultLines.isEmpty()) {
+            return null;
+        }
 
-        // gets the best snippets based on number of matches
-        for(int i = 0; i < resultLines.size(); i++) {
-            CodeMatchResult match = resultLines.get(i);
-            match.setLineNumber(match.getLineNumber() + 1);
+        int maxLineNumber = 0;
+        int maxLineMatches = 0;
+        for (CodeMatchResult match: resultLines) {
+            maxLineNumber = Math.max(maxLineNumber, match.getLineNumber());
+            maxLineMatches = Math.max(maxLineMatches, match.getLineMatches());
+        }
 
-            if (!resultExists(newResultLines, match.getLineNumber())) {
-                newResultLines.add(match);
+        // get the top matching lines for this result
+        resultLines = this.sortByLineMatches(resultLines, maxLineMatches);
+
+        // Index the lines by their line number keeping the first, which is the best match, for any duplicates
+        CodeMatchResult[] byLineNumber = new CodeMatchResult[maxLineNumber + 1];
+        for (CodeMatchResult match: resultLines) {
+            if (byLineNumber[match.getLineNumber()] == null) {
+                byLineNumber[match.getLineNumber()] = match;
             }
+        }
+
+        // gets the best snippets based on number of matches
+        boolean[] selected = new boolean[maxLineNumber + 1];
+        int selectedCount = 0;
 
-            CodeMatchResult resultBefore = getResultByLineNumber(resultLines, match.getLineNumber() - 1);
-            CodeMatchResult resultAfter  = getResultByLineNumber(resultLines, match.getLineNumber() + 1);
+        for (CodeMatchResult match: resultLines) {
+            int lineNumber = match.getLineNumber();
 
-            if (resultBefore != null && !resultExists(newResultLines, match.getLineNumber() - 1)) {
-                newResultLines.add(resultBefore);
+            if (!selected[lineNumber]) {
+                selected[lineNumber] = true;
+                selectedCount++;
+            }
+            if (lineNumber > 0 && byLineNumber[lineNumber - 1] != null && !selected[lineNumber - 1]) {
+                selected[lineNumber - 1] = true;
+                selectedCount++;
             }
-            if (resultAfter != null && !resultExists(newResultLines, match.getLineNumber() + 1)) {
-                newResultLines.add(resultAfter);
+            if (lineNumber < maxLineNumber && byLineNumber[lineNumber + 1] != null && !selected[lineNumber + 1]) {
+                selected[lineNumber + 1] = true;
+                selectedCount++;
             }
 
-            if (newResultLines.size() >= MATCHLINES) {
+            if (selectedCount >= MATCHLINES) {
                 break;
             }
         }
 
-        newResultLines.sort((p1, p2) -> new Integer(p1.getLineNumber()).compareTo(p2.getLineNumber()));
+        // Walking the array gives the lines back in order, line numbers are displayed starting at 1
+        List<CodeMatchResult> newResultLines = new ArrayList<>(selectedCount);
+        for (int i = 0; i <= maxLineNumber; i++) {
+            if (selected[i]) {
+                CodeMatchResult match = byLineNumber[i];
+                match.setLineNumber(i + 1);
+                newResultLines.add(match);
+            }
+        }
+
+        newResultLines.get(0).addBreak = false;
+        return newResultLines;
+    }
+
+    /**
+     * Orders the lines with the most matches first keeping lines with the same number of matches in the order
+     * they were found. A line cannot match more than the number of terms so the counts are bucketed rather
+     * than compared.
+     */
+    private List<CodeMatchResult> sortByLineMatches(List<CodeMatchResult> resultLines, int maxLineMatches) {
+        int[] starts = new int[maxLineMatches + 2];
+        for (CodeMatchResult match: resultLines) {
+            starts[maxLineMatches - match.getLineMatches() + 1]++;
+        }
+
+        for (int i = 1; i < starts.length; i++) {
+            starts[i] += starts[i - 1];
+        }
 
-        if (!newResultLines.isEmpty()) {
-            newResultLines.get(0).addBreak = false;
-            return newResultLines;
+        CodeMatchResult[] sorted = new CodeMatchResult[resultLines.size()];
+        for (CodeMatchResult match: resultLines) {
+            sorted[starts[maxLineMatches - match.getLineMatches()]++] = match;
         }
 
-        return null;
+        return Arrays.asList(sorted);
     }
 
     /**
      * If changing anything in here be wary of performance issues as it is the slowest method by a long shot.
-     * Be especially careful of branch prediction issues which is why this method has been re-written several times
-     * just to avoid those issues even though the result was a LONGER method
-     * TODO wring more performance out of this method where possible
+     * The terms are compiled once into a TermMatcher which scans each line without allocating, and the matching
+     * line numbers and counts are kept in primitive arrays until we know which lines are needed.
      */
     public List<CodeMatchResult> findMatchingLines(List<String> code, List<String> matchTerms, boolean highlightLine) {
-        List<CodeMatchResult> resultLines = new LinkedList<>();
+        List<CodeMatchResult> resultLines = new ArrayList<>();
 
         int codesize = code.size();
         int searchThrough = codesize > this.MAXLINEDEPTH ? this.MAXLINEDEPTH : codesize;
-        int matching = 0;
 
-        // Go through each line finding matching lines
-        for(int i = 0; i < searchThrough; i++) {
-            String matchRes = code.get(i).toLowerCase().replaceAll("\\s+", " ");
-            matching = 0;
+        List<String> scanTerms = new ArrayList<>(matchTerms.size());
+        for (String matchTerm: matchTerms) {
+            scanTerms.add(matchTerm.replace("*", ""));
+        }
+        TermMatcher termMatcher = new TermMatcher(scanTerms);
 
-            for (String matchTerm: matchTerms) {
-                if (matchRes.contains(matchTerm.replace("*", ""))) {
-                    matching++;
-                }
-            }
+        int maxMatches = Math.min(Math.max(1, MATCHLINES), searchThrough);
+        int[] matchingLineNumbers = new int[maxMatches];
+        int[] matchingCounts = new int[maxMatches];
+        int found = 0;
+
+        // Go through each line finding matching lines
+        for(int i = 0; i < searchThrough && found < maxMatches; i++) {
+            int matching = termMatcher.countMatchingTerms(code.get(i));
 
             if (matching != 0) {
-                resultLines.add(new CodeMatchResult(code.get(i), true, false, matching, i));
+                matchingLineNumbers[found] = i;
+                matchingCounts[found] = matching;
+                found++;
             }
+        }
 
-            if (resultLines.size() >= MATCHLINES) {
-                break;
-            }
+        for(int i = 0; i < found; i++) {
+            resultLines.add(new CodeMatchResult(code.get(matchingLineNumbers[i]), true, false, matchingCounts[i], matchingLineNumbers[i]));
         }
 
-        // Get the adjacent lines
-        List<CodeMatchResult> adajacentLines = new LinkedList<>();
-        for(CodeMatchResult cmr: resultLines) {
-            int linenumber = cmr.getLineNumber();
+        // Get the adjacent lines, the matching line numbers are in ascending order so a neighbour is only
+        // a matching line if it is the one next to it in the array
+        List<CodeMatchResult> adajacentLines = new ArrayList<>();
+        for(int i = 0; i < found; i++) {
+            int linenumber = matchingLineNumbers[i];
             int previouslinenumber = linenumber - 1;
             int nextlinenumber = linenumber + 1;
 
-            if (previouslinenumber >= 0 && !this.resultExists(resultLines, previouslinenumber)) {
+            if (previouslinenumber >= 0 && !(i > 0 && matchingLineNumbers[i - 1] == previouslinenumber)) {
                 adajacentLines.add(new CodeMatchResult(code.get(previouslinenumber), false, false, 0, previouslinenumber));
             }
 
-            if (nextlinenumber < codesize && !this.resultExists(resultLines, nextlinenumber)) {
+            if (nextlinenumber < codesize && !(i + 1 < found && matchingLineNumbers[i + 1] == nextlinenumber)) {
                 adajacentLines.add(new CodeMatchResult(code.get(nextlinenumber), false, false, 0, nextlinenumber));
             }
         }
@@ -302,28 +380,4 @@ public class CodeMatcher {
 
         return StringUtils.join(returnList, " ");
     }
-
-    /**
-     * Helper to check if result exists in the collection based on line number
-     */
-    private boolean resultExists(List<CodeMatchResult> lst, int value) {
-        for(CodeMatchResult s: lst){
-            if (s.getLineNumber() == value) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    /**
-     * Helper to pull value out of the list based on line number
-     */
-    private CodeMatchResult getResultByLineNumber(List<CodeMatchResult> lst, int value) {
-        for(CodeMatchResult s: lst){
-            if (s.getLineNumber() == value) {
-                return s;
-            }
-        }
-        return null;
-    }
-}
\ No newline at end of file
+}
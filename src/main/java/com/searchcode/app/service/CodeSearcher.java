@@ -14,6 +14,7 @@ import com.searchcode.app.config.Values;
 import com.searchcode.app.dto.*;
 import com.searchcode.app.util.*;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.CompressionTools;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.facet.FacetResult;
 import org.apache.lucene.facet.Facets;
@@ -24,17 +25,27 @@ import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetCounts;
 import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 
 import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
 
 /**
  * Does all of the queries which happen against the Lucene index, including search queries and working out
@@ -87,6 +98,7 @@ public class CodeSearcher implements ICodeSearcher {
             Query query = parser.parse(queryString);
             LOGGER.info("Searching for: " + query.toString(CODEFIELD));
             LOGGER.searchLog(query.toString(CODEFIELD) + " " + page);
+            Singleton.getIndexWarmer().recordQuery(queryString);
 
             searchResult = this.doPagingSearch(reader, searcher, query, page);
             reader.close();
@@ -98,6 +110,111 @@ public class CodeSearcher implements ICodeSearcher {
         return searchResult;
     }
 
+    /**
+     * Runs each of the supplied queries through the same code path as a search without recording them so that the
+     * index and the files for the top results are pulled into memory. Used by the IndexWarmer.
+     */
+    public void warm(List<String> queryStrings) {
+        IndexReader reader = null;
+
+        try {
+            reader = DirectoryReader.open(FSDirectory.open(Paths.get(this.INDEXPATH)));
+            IndexSearcher searcher = new IndexSearcher(reader);
+            QueryParser parser = new QueryParser(CODEFIELD, new CodeAnalyzer());
+
+            for (String queryString: queryStrings) {
+                try {
+                    this.doPagingSearch(reader, searcher, parser.parse(queryString), 0);
+                }
+                catch (Exception ex) {
+                    LOGGER.info("CodeSearcher warm unable to run " + queryString + "\n with message: " + ex.getMessage());
+                }
+            }
+        }
+        catch(IOException ex) {
+            LOGGER.info(" caught a " + ex.getClass() + "\n with message: " + ex.getMessage());
+        }
+        finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                }
+                catch (IOException ex) {}
+            }
+        }
+    }
+
+    /**
+     * Returns the number of matching documents for each of the supplied queries keyed by the query. All queries are
+     * run in parallel on the shared search executor against a single reader. Counts are cached against the reader
+     * version so they are reused until something new is committed to the index.
+     */
+    public Map<String, Integer> getQueryCounts(List<String> queryStrings) {
+        Map<String, Integer> queryCounts = new LinkedHashMap<>();
+        DirectoryReader reader = null;
+
+        try {
+            reader = DirectoryReader.open(FSDirectory.open(Paths.get(this.INDEXPATH)));
+            IndexSearcher searcher = new IndexSearcher(reader);
+            ExecutorService executorService = Singleton.getSearchExecutor();
+            Map<String, Integer> queryCountCache = Singleton.getQueryCountCache();
+            String cacheKeyPrefix = reader.getVersion() + ":";
+
+            Map<String, Future<Integer>> futures = new LinkedHashMap<>();
+
+            for (String queryString: queryStrings) {
+                if (queryCountCache.containsKey(cacheKeyPrefix + queryString) || futures.containsKey(queryString)) {
+                    continue;
+                }
+
+                futures.put(queryString, executorService.submit(() -> {
+                    // Query parsers are not thread safe so each task needs its own
+                    QueryParser parser = new QueryParser(CODEFIELD, new CodeAnalyzer());
+                    return searcher.count(parser.parse(queryString));
+                }));
+            }
+
+            for (String queryString: queryStrings) {
+                Future<Integer> future = futures.get(queryString);
+
+                if (future == null) {
+                    Integer count = queryCountCache.get(cacheKeyPrefix + queryString);
+                    queryCounts.put(queryString, count == null ? 0 : count);
+                    continue;
+                }
+
+                try {
+                    int count = future.get();
+                    queryCountCache.put(cacheKeyPrefix + queryString, count);
+                    queryCounts.put(queryString, count);
+                }
+                catch (InterruptedException ex) {
+                    // The reader is closed below so nothing still counting can be left running against it
+                    futures.values().forEach(x -> x.cancel(true));
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                catch (ExecutionException ex) {
+                    LOGGER.info("CodeSearcher getQueryCounts unable to count " + queryString + "\n with message: " + ex.getMessage());
+                    queryCounts.put(queryString, 0);
+                }
+            }
+        }
+        catch(IOException ex) {
+            LOGGER.warning(" caught a " + ex.getClass() + "\n with message: " + ex.getMessage());
+        }
+        finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                }
+                catch (IOException ex) {}
+            }
+        }
+
+        return queryCounts;
+    }
+
     /**
      * Only used as fallback if getByRepoFileName fails for some reason due to what appears to be a lucene index bug
      * this should always work as the path used is sha1 and should be unique for anything the current codebase can
@@ -123,12 +240,7 @@ public class CodeSearcher implements ICodeSearcher {
 
                 String filepath = doc.get(Values.PATH);
 
-                List<String> code = new ArrayList<>();
-                try {
-                    code = Helpers.readFileLinesGuessEncoding(filepath, Helpers.tryParseInt(Properties.getProperties().getProperty(Values.MAXFILELINEDEPTH, Values.DEFAULTMAXFILELINEDEPTH), Values.DEFAULTMAXFILELINEDEPTH));
-                } catch (Exception ex) {
-                    Singleton.getLogger().info("Indexed file appears to binary: " + filepath);
-                }
+                List<String> code = this.getCodeLines(doc, filepath);
 
                 codeResult = new CodeResult(code, null);
                 codeResult.setFilePath(filepath);
@@ -142,6 +254,7 @@ public class CodeSearcher implements ICodeSearcher {
                 codeResult.setRepoLocation(doc.get(Values.REPOLOCATION));
                 codeResult.setCodeOwner(doc.get(Values.CODEOWNER));
                 codeResult.setCodeId(doc.get(Values.CODEID));
+                codeResult.setBranches(Arrays.asList(doc.getValues(Values.BRANCH)));
             }
 
             reader.close();
@@ -154,6 +267,137 @@ public class CodeSearcher implements ICodeSearcher {
     }
 
 
+    /**
+     * Looks up the document for each path using a single reader, returning what was found keyed by path. The
+     * lines only come from the copy held in the index or the git object database so nothing is read from disk,
+     * documents with neither have no lines. The location each path maps to is what the lines are cached under.
+     */
+    public Map<String, CodeResult> getByPaths(Map<String, String> paths) {
+        Map<String, CodeResult> codeResults = new LinkedHashMap<>();
+
+        if (paths.isEmpty()) {
+            return codeResults;
+        }
+
+        try {
+            IndexReader reader = DirectoryReader.open(FSDirectory.open(Paths.get(this.INDEXPATH)));
+            IndexSearcher searcher = new IndexSearcher(reader);
+
+            try {
+                for (Map.Entry<String, String> path: paths.entrySet()) {
+                    TopDocs results = searcher.search(new TermQuery(new Term(Values.PATH, path.getKey())), 1);
+
+                    if (results.scoreDocs.length == 0) {
+                        continue;
+                    }
+
+                    Document doc = searcher.doc(results.scoreDocs[0].doc);
+                    List<String> code = this.getIndexedCodeLines(doc, path.getValue());
+                    if (code == null) {
+                        code = new ArrayList<>();
+                    }
+
+                    CodeResult codeResult = new CodeResult(code, null);
+                    codeResult.setFilePath(path.getKey());
+                    codeResult.setCodePath(doc.get(Values.FILELOCATIONFILENAME));
+                    codeResult.setFileName(doc.get(Values.FILENAME));
+                    codeResult.setLanguageName(doc.get(Values.LANGUAGENAME));
+                    codeResult.setMd5hash(doc.get(Values.MD5HASH));
+                    codeResult.setCodeLines(doc.get(Values.CODELINES));
+                    codeResult.setDocumentId(results.scoreDocs[0].doc);
+                    codeResult.setRepoName(doc.get(Values.REPONAME));
+                    codeResult.setRepoLocation(doc.get(Values.REPOLOCATION));
+                    codeResult.setCodeOwner(doc.get(Values.CODEOWNER));
+                    codeResult.setCodeId(doc.get(Values.CODEID));
+                    codeResult.setBranches(Arrays.asList(doc.getValues(Values.BRANCH)));
+                    codeResults.put(path.getKey(), codeResult);
+                }
+            }
+            finally {
+                reader.close();
+            }
+        }
+        catch (IOException ex) {
+            LOGGER.warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " getByPaths\n with message: " + ex.getMessage());
+        }
+
+        return codeResults;
+    }
+
+    /**
+     * Returns the lines of the file for the supplied document limited to however deep we are meant to look into
+     * the file. If the index holds a compressed copy of the file it is used, otherwise falls back to reading
+     * the file from disk which is the case for anything indexed without index_store_source enabled, or from the git
+     * object database for files indexed from a bare clone.
+     * Recently used files are served from the file lines cache so long as they have not changed.
+     */
+    public List<String> getCodeLines(Document doc, String filepath) {
+        List<String> code = this.getIndexedCodeLines(doc, filepath);
+        if (code != null) {
+            return code;
+        }
+
+        int maxFileLineDepth = Helpers.tryParseInt(Properties.getProperties().getProperty(Values.MAXFILELINEDEPTH, Values.DEFAULTMAXFILELINEDEPTH), Values.DEFAULTMAXFILELINEDEPTH);
+        code = new ArrayList<>();
+
+        try {
+            code = Helpers.readFileLinesGuessEncoding(filepath, maxFileLineDepth);
+            Singleton.getFileLinesCache().put(filepath, doc.get(Values.MD5HASH), code);
+        }
+        catch(Exception ex) {
+            LOGGER.warning("Indexed file appears to binary or missing: " + filepath);
+        }
+
+        return code;
+    }
+
+    /**
+     * As above but only if the lines are cached, the index holds a copy of the file or it can be loaded from the
+     * git object database. Returns null if the file would have to be read from disk.
+     */
+    public List<String> getIndexedCodeLines(Document doc, String filepath) {
+        FileLinesCache fileLinesCache = Singleton.getFileLinesCache();
+        String md5hash = doc.get(Values.MD5HASH);
+
+        List<String> code = fileLinesCache.get(filepath, md5hash);
+        if (code != null) {
+            return code;
+        }
+
+        int maxFileLineDepth = Helpers.tryParseInt(Properties.getProperties().getProperty(Values.MAXFILELINEDEPTH, Values.DEFAULTMAXFILELINEDEPTH), Values.DEFAULTMAXFILELINEDEPTH);
+        code = new ArrayList<>();
+
+        BytesRef source = doc.getBinaryValue(Values.SOURCE);
+        if (source != null) {
+            try {
+                String[] lines = CompressionTools.decompressString(source).split("\n", -1);
+                for (int i = 0; i < lines.length && i < maxFileLineDepth; i++) {
+                    code.add(lines[i]);
+                }
+                fileLinesCache.put(filepath, md5hash, code);
+                return code;
+            }
+            catch (DataFormatException ex) {
+                LOGGER.warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " getIndexedCodeLines for " + filepath + "\n with message: " + ex.getMessage());
+            }
+        }
+
+        String blobId = doc.get(Values.BLOBID);
+        if (blobId != null) {
+            try {
+                String repoLocations = Properties.getProperties().getProperty(Values.REPOSITORYLOCATION, Values.DEFAULTREPOSITORYLOCATION);
+                code = Singleton.getGitService().fetchBlobLines(repoLocations + "/" + doc.get(Values.REPONAME) + "/.git", blobId, maxFileLineDepth);
+                fileLinesCache.put(filepath, md5hash, code);
+                return code;
+            }
+            catch (IOException | IllegalArgumentException ex) {
+                LOGGER.warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " getIndexedCodeLines for " + filepath + "\n with message: " + ex.getMessage());
+            }
+        }
+
+        return null;
+    }
+
     public ProjectStats getProjectStats(String repoName) {
         int totalCodeLines = 0;
         int totalFiles = 0;
@@ -249,6 +493,8 @@ public class CodeSearcher implements ICodeSearcher {
         List<Integer> pages = this.calculatePages(numTotalHits, noPages);
 
         List<CodeResult> codeResults = new ArrayList<>();
+        List<Future<List<String>>> codeFutures = new ArrayList<>();
+        ExecutorService executorService = Singleton.getSearchExecutor();
 
         for (int i = start; i < end; i++) {
             Document doc = searcher.doc(hits[i].doc);
@@ -259,17 +505,10 @@ public class CodeSearcher implements ICodeSearcher {
                 // This line is occasionally useful for debugging ranking, but not useful enough to have as log info
                 //System.out.println("doc=" + hits[i].doc + " score=" + hits[i].score);
 
-                List<String> code = new ArrayList<>();
-                try {
-                    // This should probably be limited by however deep we are meant to look into the file
-                    // or the value we use here whichever is less
-                    code = Helpers.readFileLinesGuessEncoding(filepath, Helpers.tryParseInt(Properties.getProperties().getProperty(Values.MAXFILELINEDEPTH, Values.DEFAULTMAXFILELINEDEPTH), Values.DEFAULTMAXFILELINEDEPTH));
-                }
-                catch(Exception ex) {
-                    LOGGER.warning("Indexed file appears to binary or missing: " + filepath);
-                }
+                // Loading the file is the slow part and each result is independent so load the whole page in parallel
+                codeFutures.add(executorService.submit(() -> this.getCodeLines(doc, filepath)));
 
-                CodeResult cr = new CodeResult(code, null);
+                CodeResult cr = new CodeResult(new ArrayList<>(), null);
                 cr.setCodePath(doc.get(Values.FILELOCATIONFILENAME));
                 cr.setFileName(doc.get(Values.FILENAME));
                 cr.setLanguageName(doc.get(Values.LANGUAGENAME));
@@ -280,6 +519,7 @@ public class CodeSearcher implements ICodeSearcher {
                 cr.setRepoName(doc.get(Values.REPONAME));
                 cr.setCodeOwner(doc.get(Values.CODEOWNER));
                 cr.setCodeId(doc.get(Values.CODEID));
+                cr.setBranches(Arrays.asList(doc.getValues(Values.BRANCH)));
 
                 codeResults.add(cr);
             } else {
@@ -287,11 +527,31 @@ public class CodeSearcher implements ICodeSearcher {
             }
         }
 
+        // Wait in result order so the page is ready once the slowest file has loaded
+        for (int i = 0; i < codeResults.size(); i++) {
+            try {
+                codeResults.get(i).setCode(codeFutures.get(i).get());
+            }
+            catch (InterruptedException ex) {
+                // Stop loading the rest of the page, nothing is waiting for it now
+                codeFutures.subList(i, codeFutures.size()).forEach(x -> x.cancel(true));
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch (ExecutionException ex) {
+                LOGGER.warning(" caught a " + ex.getClass() + " in " + this.getClass() + " doPagingSearch\n with message: " + ex.getMessage());
+            }
+        }
+
         List<CodeFacetLanguage> codeFacetLanguages = this.getLanguageFacetResults(searcher, reader, query);
         List<CodeFacetRepo> repoFacetLanguages = this.getRepoFacetResults(searcher, reader, query);
         List<CodeFacetOwner> repoFacetOwner= this.getOwnerFacetResults(searcher, reader, query);
+        List<CodeFacetBranch> branchFacets = this.getBranchFacetResults(searcher, reader, query);
+
+        SearchResult searchResult = new SearchResult(numTotalHits, page, query.toString(), codeResults, pages, codeFacetLanguages, repoFacetLanguages, repoFacetOwner);
+        searchResult.setBranchFacetResults(branchFacets);
 
-        return new SearchResult(numTotalHits, page, query.toString(), codeResults, pages, codeFacetLanguages, repoFacetLanguages, repoFacetOwner);
+        return searchResult;
     }
 
     public List<Integer> calculatePages(int numTotalHits, int noPages) {
@@ -408,4 +668,37 @@ public class CodeSearcher implements ICodeSearcher {
 
         return codeFacetRepo;
     }
+
+    /**
+     * Returns the matching branch facets for a given query
+     */
+    private List<CodeFacetBranch> getBranchFacetResults(IndexSearcher searcher, IndexReader reader, Query query) {
+        List<CodeFacetBranch> codeFacetBranch = new ArrayList<>();
+
+        try {
+            SortedSetDocValuesReaderState state = new DefaultSortedSetDocValuesReaderState(reader, Values.BRANCH);
+            FacetsCollector fc = new FacetsCollector();
+            FacetsCollector.search(searcher, query, 10, fc);
+            Facets facets = new SortedSetDocValuesFacetCounts(state, fc);
+            FacetResult result = facets.getTopChildren(200, Values.BRANCH);
+
+            if (result != null) {
+                int stepThru = result.childCount > 200 ? 200 : result.childCount;
+
+                for (int i = 0; i < stepThru; i++) {
+                    LabelAndValue lv = result.labelValues[i];
+
+                    if (lv != null && lv.value != null) {
+                        codeFacetBranch.add(new CodeFacetBranch(lv.label, lv.value.intValue()));
+                    }
+                }
+            }
+        }
+        catch(IOException ex) {
+        }
+        catch(Exception ex) {
+        }
+
+        return codeFacetBranch;
+    }
 }
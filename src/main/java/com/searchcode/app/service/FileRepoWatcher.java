@@ -0,0 +1,451 @@
+/*
+ * Copyright (c) 2016 Boyter Online Services
+ *
+ * Use of this software is governed by the Fair Source License included
+ * in the LICENSE.TXT file, but will be eventually open under GNU General Public License Version 3
+ * see the README.md for when this clause will take effect
+ *
+ * Version 1.3.8
+ */
+
+package com.searchcode.app.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.searchcode.app.config.Values;
+import com.searchcode.app.dto.RepositoryChanged;
+import com.searchcode.app.jobs.repository.IndexFileRepoJob;
+import com.searchcode.app.model.RepoResult;
+import com.searchcode.app.util.Helpers;
+import com.searchcode.app.util.Properties;
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches the directories of file repositories and pushes changes into the index within seconds of them
+ * happening rather than waiting for the next time the repository is walked. Events are collected per repository
+ * until no more have arrived for the debounce period and then indexed as a single change set through the delta
+ * indexing path. Anything the watcher cannot be sure about, such as dropped events or a removed directory, queues
+ * the repository for a full walk which is otherwise only run occasionally as a safety net.
+ *
+ * Change sets are indexed on a separate thread so events keep being drained while that happens. A change set
+ * which cannot be indexed yet, such as while the repository is being walked, is merged back into whatever has
+ * changed since and tried again after a delay which doubles with each attempt.
+ */
+public class FileRepoWatcher {
+
+    private boolean ENABLED = Boolean.parseBoolean(Properties.getProperties().getProperty(Values.FILE_REPO_WATCH, Values.DEFAULT_FILE_REPO_WATCH));
+    private int DEBOUNCE = Helpers.tryParseInt(Properties.getProperties().getProperty(Values.FILE_REPO_WATCH_DEBOUNCE, Values.DEFAULT_FILE_REPO_WATCH_DEBOUNCE), Values.DEFAULT_FILE_REPO_WATCH_DEBOUNCE);
+    private int MAXDELAYMULTIPLIER = 10; // Repositories that never stop changing are still indexed every so often
+    private long MAXRETRYDELAY = 60000; // Longest wait between attempts to index a change set which could not be
+
+    private WatchService watchService = null;
+    private Thread watcherThread = null;
+    private ExecutorService indexExecutor = null;
+    private final Map<WatchKey, WatchedDirectory> watchKeys = new ConcurrentHashMap<>();
+    private final Map<String, WatchedRepository> watchedRepositories = new ConcurrentHashMap<>();
+
+    // Only ever touched by the watcher thread
+    private final Map<String, PendingChanges> pendingChanges = new HashMap<>();
+
+    // Repositories with a change set being indexed and change sets handed back because they could not be
+    private final Set<String> indexing = ConcurrentHashMap.newKeySet();
+    private final Queue<PendingChanges> failedChanges = new ConcurrentLinkedQueue<>();
+
+    public FileRepoWatcher() {}
+
+    public FileRepoWatcher(boolean enabled, int debounce) {
+        this.ENABLED = enabled;
+        this.DEBOUNCE = debounce;
+    }
+
+    public boolean isEnabled() {
+        return this.ENABLED;
+    }
+
+    /**
+     * Starts watching the repository if it is not already. Safe to call every time the repository is indexed.
+     */
+    public synchronized void watch(RepoResult repoResult, String repoLocations, boolean lowMemory) {
+        if (!this.ENABLED) {
+            return;
+        }
+
+        Path root = Paths.get(repoResult.getUrl());
+        WatchedRepository existing = this.watchedRepositories.get(repoResult.getName());
+
+        if (existing != null && existing.root.equals(root)) {
+            return;
+        }
+
+        if (existing != null) {
+            this.unwatch(repoResult.getName());
+        }
+
+        try {
+            this.start();
+
+            WatchedRepository watchedRepository = new WatchedRepository(repoResult, root, repoLocations, lowMemory);
+            this.watchedRepositories.put(repoResult.getName(), watchedRepository);
+            this.registerAll(watchedRepository, root);
+            Singleton.getLogger().info("Watching file repository " + repoResult.getName() + " for changes");
+        }
+        catch (IOException ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " watch for " + repoResult.getName() + "\n with message: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Stops watching the repository, should be called when it is deleted
+     */
+    public synchronized void unwatch(String repoName) {
+        WatchedRepository watchedRepository = this.watchedRepositories.remove(repoName);
+
+        if (watchedRepository == null) {
+            return;
+        }
+
+        Iterator<Map.Entry<WatchKey, WatchedDirectory>> iterator = this.watchKeys.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<WatchKey, WatchedDirectory> entry = iterator.next();
+            if (entry.getValue().repository == watchedRepository) {
+                entry.getKey().cancel();
+                iterator.remove();
+            }
+        }
+    }
+
+    public boolean isWatching(String repoName) {
+        return this.watchedRepositories.containsKey(repoName);
+    }
+
+    /**
+     * Stops the watcher thread and releases everything being watched
+     */
+    public synchronized void stop() {
+        if (this.watcherThread != null) {
+            this.watcherThread.interrupt();
+            this.watcherThread = null;
+        }
+
+        if (this.indexExecutor != null) {
+            this.indexExecutor.shutdownNow();
+            this.indexExecutor = null;
+        }
+
+        if (this.watchService != null) {
+            try {
+                this.watchService.close();
+            } catch (IOException ex) {}
+            this.watchService = null;
+        }
+
+        this.watchKeys.clear();
+        this.watchedRepositories.clear();
+    }
+
+    /**
+     * Indexes a change set for the repository. Returns false if it could not be done right now in which case it
+     * is tried again later.
+     */
+    protected boolean indexChanges(WatchedRepository watchedRepository, RepositoryChanged repositoryChanged) {
+        // Checked here as well as by the job so nothing is logged for an attempt which will not happen
+        if (!Singleton.getBackgroundJobsEnabled() || Singleton.getRunningIndexRepoJobs().containsKey(watchedRepository.repoResult.getName())) {
+            return false;
+        }
+
+        Singleton.getLogger().info("File watcher indexing " + repositoryChanged.getChangedFiles().size() + " changed and " + repositoryChanged.getDeletedFiles().size() + " deleted files in " + watchedRepository.repoResult.getName());
+        return new IndexFileRepoJob().indexChanges(watchedRepository.repoResult, watchedRepository.repoLocations, watchedRepository.lowMemory, repositoryChanged);
+    }
+
+    /**
+     * Used when the watcher has lost track of what changed
+     */
+    protected void requestFullWalk(WatchedRepository watchedRepository) {
+        Singleton.getLogger().info("File watcher queueing full index of " + watchedRepository.repoResult.getName());
+        Singleton.getUniqueFileRepoQueue().add(watchedRepository.repoResult);
+    }
+
+    private void start() throws IOException {
+        if (this.watchService != null) {
+            return;
+        }
+
+        this.watchService = FileSystems.getDefault().newWatchService();
+        WatchService service = this.watchService;
+
+        this.indexExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("searchcode-file-watcher-index-%d")
+                .setDaemon(true)
+                .build());
+
+        this.watcherThread = new Thread(() -> this.run(service), "searchcode-file-watcher");
+        this.watcherThread.setDaemon(true);
+        this.watcherThread.start();
+    }
+
+    private void run(WatchService service) {
+        long pollTime = Math.max(50, this.DEBOUNCE / 4);
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = service.poll(pollTime, TimeUnit.MILLISECONDS);
+
+                if (key != null) {
+                    this.processEvents(key);
+                }
+
+                this.flushPending(System.currentTimeMillis());
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException ex) {
+            // Stopped
+        }
+        catch (Exception ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " run\n with message: " + ex.getMessage());
+        }
+    }
+
+    private void processEvents(WatchKey key) {
+        WatchedDirectory watchedDirectory = this.watchKeys.get(key);
+
+        if (watchedDirectory == null) {
+            key.cancel();
+            return;
+        }
+
+        WatchedRepository watchedRepository = watchedDirectory.repository;
+        PendingChanges pending = this.pendingChanges.computeIfAbsent(watchedRepository.repoResult.getName(), k -> new PendingChanges(watchedRepository));
+        pending.touch(System.currentTimeMillis());
+
+        for (WatchEvent<?> event: key.pollEvents()) {
+            WatchEvent.Kind<?> kind = event.kind();
+
+            if (kind == OVERFLOW) {
+                this.requestFullWalk(watchedRepository);
+                continue;
+            }
+
+            Path child = watchedDirectory.path.resolve((Path) event.context());
+            String relative = FilenameUtils.separatorsToUnix(watchedRepository.root.relativize(child).toString());
+
+            if (kind == ENTRY_DELETE) {
+                pending.deleted(relative);
+            }
+            else if (kind == ENTRY_CREATE && Files.isDirectory(child)) {
+                // Anything written before the directory was registered would otherwise be missed
+                try {
+                    for (String file: this.registerAll(watchedRepository, child)) {
+                        pending.changed(file);
+                    }
+                } catch (IOException ex) {
+                    Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " processEvents\n with message: " + ex.getMessage());
+                    this.requestFullWalk(watchedRepository);
+                }
+            }
+            else if (Files.isRegularFile(child)) {
+                pending.changed(relative);
+            }
+        }
+
+        // A directory that was removed or moved away, the files which were in it need to be removed from the index
+        if (!key.reset()) {
+            this.watchKeys.remove(key);
+            this.requestFullWalk(watchedRepository);
+        }
+    }
+
+    private void flushPending(long now) {
+        this.mergeFailedChanges();
+
+        Iterator<Map.Entry<String, PendingChanges>> iterator = this.pendingChanges.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            PendingChanges pending = iterator.next().getValue();
+
+            if (pending.isEmpty()) {
+                iterator.remove();
+                continue;
+            }
+
+            boolean quiet = now - pending.lastEvent >= this.DEBOUNCE;
+            boolean overdue = now - pending.firstEvent >= (long) this.DEBOUNCE * this.MAXDELAYMULTIPLIER;
+
+            if ((!quiet && !overdue) || now < pending.retryAt) {
+                continue;
+            }
+
+            String repoName = pending.repository.repoResult.getName();
+
+            if (!this.watchedRepositories.containsKey(repoName)) {
+                iterator.remove();
+                continue;
+            }
+
+            // One change set at a time per repository, anything newer waits for the one being indexed
+            if (!this.indexing.add(repoName)) {
+                continue;
+            }
+
+            iterator.remove();
+            this.indexExecutor.execute(() -> this.indexPending(pending));
+        }
+    }
+
+    /**
+     * Runs on the index executor. A change set which could not be indexed is handed back to the watcher thread.
+     */
+    private void indexPending(PendingChanges pending) {
+        try {
+            RepositoryChanged repositoryChanged = new RepositoryChanged(true, new ArrayList<>(pending.changedFiles), new ArrayList<>(pending.deletedFiles));
+
+            if (!this.indexChanges(pending.repository, repositoryChanged)) {
+                pending.attempts++;
+                long delay = Math.min((long) this.DEBOUNCE << Math.min(pending.attempts, 20), this.MAXRETRYDELAY);
+                pending.retryAt = System.currentTimeMillis() + delay;
+                this.failedChanges.add(pending);
+            }
+        }
+        catch (Exception ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " indexPending\n with message: " + ex.getMessage());
+        }
+        finally {
+            this.indexing.remove(pending.repository.repoResult.getName());
+        }
+    }
+
+    /**
+     * Puts change sets which could not be indexed back with whatever has changed since, newer events winning
+     */
+    private void mergeFailedChanges() {
+        PendingChanges failed;
+
+        while ((failed = this.failedChanges.poll()) != null) {
+            PendingChanges newer = this.pendingChanges.get(failed.repository.repoResult.getName());
+
+            if (newer != null) {
+                for (String file: newer.changedFiles) {
+                    failed.changed(file);
+                }
+                for (String file: newer.deletedFiles) {
+                    failed.deleted(file);
+                }
+                failed.firstEvent = Math.min(failed.firstEvent, newer.firstEvent);
+                failed.lastEvent = Math.max(failed.lastEvent, newer.lastEvent);
+            }
+
+            this.pendingChanges.put(failed.repository.repoResult.getName(), failed);
+        }
+    }
+
+    /**
+     * Registers the directory and everything below it returning the files found relative to the repository root
+     */
+    private List<String> registerAll(WatchedRepository watchedRepository, Path start) throws IOException {
+        List<String> files = new ArrayList<>();
+        WatchService service = this.watchService;
+
+        Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (Helpers.ignoreFiles(FilenameUtils.separatorsToUnix(dir.toString()))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                WatchKey key = dir.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                watchKeys.put(key, new WatchedDirectory(watchedRepository, dir));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.add(FilenameUtils.separatorsToUnix(watchedRepository.root.relativize(file).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return files;
+    }
+
+    protected static class WatchedRepository {
+        private final RepoResult repoResult;
+        private final Path root;
+        private final String repoLocations;
+        private final boolean lowMemory;
+
+        private WatchedRepository(RepoResult repoResult, Path root, String repoLocations, boolean lowMemory) {
+            this.repoResult = repoResult;
+            this.root = root;
+            this.repoLocations = repoLocations;
+            this.lowMemory = lowMemory;
+        }
+
+        public RepoResult getRepoResult() {
+            return this.repoResult;
+        }
+    }
+
+    private static class WatchedDirectory {
+        private final WatchedRepository repository;
+        private final Path path;
+
+        private WatchedDirectory(WatchedRepository repository, Path path) {
+            this.repository = repository;
+            this.path = path;
+        }
+    }
+
+    /**
+     * Changes seen since the repository was last indexed. A file is only ever in one of the two sets, whatever
+     * happened to it last wins.
+     */
+    private static class PendingChanges {
+        private final WatchedRepository repository;
+        private final Set<String> changedFiles = new LinkedHashSet<>();
+        private final Set<String> deletedFiles = new LinkedHashSet<>();
+        private long firstEvent = 0;
+        private long lastEvent = 0;
+        private long retryAt = 0;
+        private int attempts = 0;
+
+        private PendingChanges(WatchedRepository repository) {
+            this.repository = repository;
+        }
+
+        private void touch(long now) {
+            if (this.isEmpty()) {
+                this.firstEvent = now;
+            }
+            this.lastEvent = now;
+        }
+
+        private void changed(String file) {
+            this.deletedFiles.remove(file);
+            this.changedFiles.add(file);
+        }
+
+        private void deleted(String file) {
+            this.changedFiles.remove(file);
+            this.deletedFiles.add(file);
+        }
+
+        private boolean isEmpty() {
+            return this.changedFiles.isEmpty() && this.deletedFiles.isEmpty();
+        }
+    }
+}
@@ -7,10 +7,13 @@
 
 package com.searchcode.app.service;
 
+import com.searchcode.app.util.SourceFile;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -20,9 +23,22 @@ import org.eclipse.jgit.treewalk.TreeWalk;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class GitService {
 
+    private static final int MAXPOOLEDREADERS = 8; // Per repository, more than this are closed once finished with
+
+    // Opening a repository scans its packs so they are kept open along with readers to reuse between requests
+    private final Map<String, PooledRepository> repositories = new ConcurrentHashMap<>();
+
     /**
      * Given a repository location, revision and file path will retrieve that files contents. N.B. it returns the whole
      * file so you MAY end up running into serious memory issues, and should be aware of this
@@ -49,4 +65,123 @@ public class GitService {
             reader.close();
         }
     }
+
+    /**
+     * Reads a blob by id from the repository, such as a file indexed from a bare clone. Uses a pooled reader so
+     * repeated reads against the same repository do not need to open it again.
+     */
+    public SourceFile loadBlob(String repoLocation, String blobId, int maxFileLineDepth, boolean calculateMd5, SourceFile.Prefilter prefilter) throws IOException {
+        PooledRepository pooledRepository = this.getPooledRepository(repoLocation);
+        ObjectReader reader = pooledRepository.borrow();
+
+        try {
+            ObjectLoader loader = reader.open(ObjectId.fromString(blobId), Constants.OBJ_BLOB);
+            InputStream inputStream = loader.openStream();
+
+            try {
+                return SourceFile.load(inputStream, maxFileLineDepth, calculateMd5, prefilter);
+            }
+            finally {
+                inputStream.close();
+            }
+        }
+        finally {
+            pooledRepository.giveBack(reader);
+        }
+    }
+
+    /**
+     * Returns up to maxFileLineDepth lines of the blob guessing the encoding the same way as files on disk
+     */
+    public List<String> fetchBlobLines(String repoLocation, String blobId, int maxFileLineDepth) throws IOException {
+        return new ArrayList<>(this.loadBlob(repoLocation, blobId, maxFileLineDepth, false, null).getLines());
+    }
+
+    /**
+     * Runs the function with a pooled reader for the repository. Lets work spread over many threads share the one
+     * open repository and its cached pack data while each thread has a reader of its own.
+     */
+    public <T> T withReader(String repoLocation, ReaderFunction<T> function) throws IOException {
+        PooledRepository pooledRepository = this.getPooledRepository(repoLocation);
+        ObjectReader reader = pooledRepository.borrow();
+
+        try {
+            return function.apply(pooledRepository.repository, reader);
+        }
+        finally {
+            pooledRepository.giveBack(reader);
+        }
+    }
+
+    /**
+     * Closes the pooled repository and its readers, should be called before the repository is removed from disk
+     */
+    public void close(String repoLocation) {
+        PooledRepository pooledRepository = this.repositories.remove(this.getPoolKey(repoLocation));
+
+        if (pooledRepository != null) {
+            pooledRepository.close();
+        }
+    }
+
+    private PooledRepository getPooledRepository(String repoLocation) throws IOException {
+        String key = this.getPoolKey(repoLocation);
+        PooledRepository pooledRepository = this.repositories.get(key);
+
+        if (pooledRepository == null) {
+            PooledRepository created = new PooledRepository(new FileRepository(new File(key)));
+            pooledRepository = this.repositories.putIfAbsent(key, created);
+
+            if (pooledRepository == null) {
+                pooledRepository = created;
+            }
+            else {
+                created.close();
+            }
+        }
+
+        return pooledRepository;
+    }
+
+    private String getPoolKey(String repoLocation) {
+        return Paths.get(repoLocation).toAbsolutePath().normalize().toString();
+    }
+
+    public interface ReaderFunction<T> {
+        T apply(Repository repository, ObjectReader reader) throws IOException;
+    }
+
+    /**
+     * Readers are not safe to share between threads so each caller borrows one for as long as it needs it
+     */
+    private static class PooledRepository {
+        private final Repository repository;
+        private final Queue<ObjectReader> readers = new ConcurrentLinkedQueue<>();
+
+        private PooledRepository(Repository repository) {
+            this.repository = repository;
+        }
+
+        private ObjectReader borrow() {
+            ObjectReader reader = this.readers.poll();
+            return reader == null ? this.repository.newObjectReader() : reader;
+        }
+
+        private void giveBack(ObjectReader reader) {
+            if (this.readers.size() < MAXPOOLEDREADERS) {
+                this.readers.offer(reader);
+            }
+            else {
+                reader.close();
+            }
+        }
+
+        private void close() {
+            ObjectReader reader;
+            while ((reader = this.readers.poll()) != null) {
+                reader.close();
+            }
+            this.repository.close();
+        }
+    }
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2016 Boyter Online Services
+ *
+ * Use of this software is governed by the Fair Source License included
+ * in the LICENSE.TXT file, but will be eventually open under GNU General Public License Version 3
+ * see the README.md for when this clause will take effect
+ *
+ * Version 1.3.8
+ */
+
+package com.searchcode.app.service;
+
+import com.google.common.collect.EvictingQueue;
+import com.searchcode.app.config.Values;
+import com.searchcode.app.util.Helpers;
+import com.searchcode.app.util.Properties;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps track of the most frequently run recent queries and replays them against the index on startup and after
+ * the indexer has committed a batch of documents. This pulls the index files and the files of the most popular
+ * results into the OS page cache so the first user search after a restart or a large index run is not the slow one.
+ * The top queries are persisted along with how often they were run so a restart can warm with what users were
+ * searching for before it went down. Queries run equally often are ordered by which was run most recently.
+ */
+public class IndexWarmer {
+
+    private int WARMUPQUERYCOUNT = Helpers.tryParseInt(Properties.getProperties().getProperty(Values.WARMUP_QUERY_COUNT, Values.DEFAULT_WARMUP_QUERY_COUNT), Values.DEFAULT_WARMUP_QUERY_COUNT);
+    private String WARMUPFILE = Properties.getProperties().getProperty(Values.WARMUP_FILE, Values.DEFAULT_WARMUP_FILE);
+    private int PERSISTEVERY = 100; // How many recorded queries between writes of the top queries to disk
+
+    private EvictingQueue<String> recentQueries = EvictingQueue.create(1000);
+    private Map<String, Integer> persistedCounts = new LinkedHashMap<>(); // In the order they were saved
+    private int recordedSincePersist = 0;
+    private boolean loaded = false;
+
+    public IndexWarmer() {}
+
+    public IndexWarmer(int warmupQueryCount, String warmupFile) {
+        this.WARMUPQUERYCOUNT = warmupQueryCount;
+        this.WARMUPFILE = warmupFile;
+    }
+
+    /**
+     * Records a query which has been run against the index so that it can be considered for warming
+     */
+    public synchronized void recordQuery(String queryString) {
+        if (this.WARMUPQUERYCOUNT <= 0 || Helpers.isNullEmptyOrWhitespace(queryString)) {
+            return;
+        }
+
+        this.loadPersisted();
+        this.recentQueries.add(queryString.trim());
+        this.recordedSincePersist++;
+
+        if (this.recordedSincePersist >= this.PERSISTEVERY) {
+            this.persist();
+        }
+    }
+
+    /**
+     * Returns the most frequently run recent queries, most frequent first
+     */
+    public synchronized List<String> getTopQueries() {
+        return this.getTopQueryCounts().stream()
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * The most frequently run queries with how often they were run counting those saved by a previous run. Ties
+     * go to the most recently run, anything run since startup being more recent than anything saved and saved
+     * queries keeping the order they were saved in.
+     */
+    private List<Map.Entry<String, Integer>> getTopQueryCounts() {
+        this.loadPersisted();
+
+        Map<String, Integer> frequency = new HashMap<>();
+        Map<String, Integer> lastRun = new HashMap<>();
+
+        int position = 0;
+        for (Map.Entry<String, Integer> persisted: this.persistedCounts.entrySet()) {
+            frequency.put(persisted.getKey(), persisted.getValue());
+            lastRun.put(persisted.getKey(), --position);
+        }
+
+        position = 0;
+        for (String query: this.recentQueries) {
+            frequency.put(query, frequency.getOrDefault(query, 0) + 1);
+            lastRun.put(query, position++);
+        }
+
+        return frequency.entrySet().stream()
+                .sorted(Comparator.<Map.Entry<String, Integer>>comparingInt(x -> -x.getValue())
+                        .thenComparingInt(x -> -lastRun.get(x.getKey())))
+                .limit(this.WARMUPQUERYCOUNT)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Replays the top queries against the index. Should be called before the searchers are exposed to users such
+     * as on startup and after the indexer has finished committing.
+     */
+    public void warm() {
+        if (this.WARMUPQUERYCOUNT <= 0) {
+            return;
+        }
+
+        List<String> topQueries = this.getTopQueries();
+
+        if (topQueries.isEmpty()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        new CodeSearcher().warm(topQueries);
+        Singleton.getLogger().info("Warmed index with " + topQueries.size() + " queries in " + (System.currentTimeMillis() - start) + "ms");
+
+        synchronized (this) {
+            this.persist();
+        }
+    }
+
+    /**
+     * Seeds the query counts with those saved by a previous run. Each line is the count and query separated by a
+     * tab, a line without a count is treated as having been run once. Only happens once.
+     */
+    private void loadPersisted() {
+        if (this.loaded) {
+            return;
+        }
+
+        this.loaded = true;
+        File file = new File(this.WARMUPFILE);
+
+        if (!file.exists()) {
+            return;
+        }
+
+        try {
+            for (String line: FileUtils.readLines(file, StandardCharsets.UTF_8)) {
+                int separator = line.indexOf('\t');
+                int count = separator == -1 ? 1 : Helpers.tryParseInt(line.substring(0, separator), "1");
+                String query = separator == -1 ? line : line.substring(separator + 1);
+
+                if (!Helpers.isNullEmptyOrWhitespace(query) && count > 0) {
+                    this.persistedCounts.merge(query.trim(), count, Integer::sum);
+                }
+            }
+        }
+        catch (IOException ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " loadPersisted\n with message: " + ex.getMessage());
+        }
+    }
+
+    private void persist() {
+        this.recordedSincePersist = 0;
+        List<String> topQueries = new ArrayList<>();
+        for (Map.Entry<String, Integer> topQuery: this.getTopQueryCounts()) {
+            topQueries.add(topQuery.getValue() + "\t" + topQuery.getKey());
+        }
+
+        try {
+            FileUtils.writeLines(new File(this.WARMUPFILE), StandardCharsets.UTF_8.name(), topQueries);
+        }
+        catch (IOException ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " persist\n with message: " + ex.getMessage());
+        }
+    }
+}
@@ -15,8 +15,10 @@ import com.searchcode.app.dao.IRepo;
 import com.searchcode.app.jobs.*;
 import com.searchcode.app.jobs.enqueue.EnqueueFileRepositoryJob;
 import com.searchcode.app.jobs.enqueue.EnqueueRepositoryJob;
+import com.searchcode.app.jobs.repository.FetchGitRepoJob;
 import com.searchcode.app.jobs.repository.IndexDocumentsJob;
 import com.searchcode.app.jobs.repository.IndexFileRepoJob;
+import com.searchcode.app.jobs.repository.IndexGitHistoryJob;
 import com.searchcode.app.jobs.repository.IndexGitRepoJob;
 import com.searchcode.app.jobs.repository.IndexSvnRepoJob;
 import com.searchcode.app.model.RepoResult;
@@ -24,6 +26,7 @@ import com.searchcode.app.util.Helpers;
 import com.searchcode.app.util.Properties;
 import com.searchcode.app.util.UniqueRepoQueue;
 import org.apache.commons.io.FileUtils;
+import org.quartz.JobDataMap;
 import org.quartz.JobDetail;
 import org.quartz.Scheduler;
 import org.quartz.SchedulerException;
@@ -41,8 +44,9 @@ import static org.quartz.SimpleScheduleBuilder.simpleSchedule;
 import static org.quartz.TriggerBuilder.newTrigger;
 
 /**
- * Starts all of the quartz jobs which perform background tasks such as cloning/updating from GIT/SVN and
- * the jobs which delete repositories and which add repositories to the queue to be indexed.
+ * Starts all of the background tasks such as cloning/updating from GIT/SVN and the jobs which delete
+ * repositories and which add repositories to the queue to be indexed. Anything fed by a queue runs on its
+ * own worker thread blocking on that queue, quartz is only used for the jobs which run on a timer.
  *
  * TODO implement using below for the stopping and starting of jobs
  * http://stackoverflow.com/questions/7159080/how-to-interrupt-or-stop-currently-running-quartz-job#7159719
@@ -52,8 +56,10 @@ public class JobService implements IJobService {
     private IRepo repo = null;
     private int UPDATETIME = 600;
     private int FILEINDEXUPDATETIME = 3600;
-    private int INDEXTIME = 1; // TODO allow this to be configurable
+    private int FILEWATCHINDEXUPDATETIME = 86400; // Only a safety net when the watcher is keeping file repositories up to date
+    private int INDEXTIME = 1; // How long a worker waits after an unexpected failure before carrying on
     private int NUMBERGITPROCESSORS = Helpers.tryParseInt(Properties.getProperties().getProperty(Values.NUMBER_GIT_PROCESSORS, Values.DEFAULT_NUMBER_GIT_PROCESSORS), Values.DEFAULT_NUMBER_GIT_PROCESSORS);
+    private int NUMBERGITFETCHERS = Helpers.tryParseInt(Properties.getProperties().getProperty(Values.NUMBER_GIT_FETCHERS, Values.DEFAULT_NUMBER_GIT_FETCHERS), Values.DEFAULT_NUMBER_GIT_FETCHERS);
     private int NUMBERSVNPROCESSORS = Helpers.tryParseInt(Properties.getProperties().getProperty(Values.NUMBER_SVN_PROCESSORS, Values.DEFAULT_NUMBER_SVN_PROCESSORS), Values.DEFAULT_NUMBER_SVN_PROCESSORS);
     private int NUMBERFILEPROCESSORS = Helpers.tryParseInt(Properties.getProperties().getProperty(Values.NUMBER_FILE_PROCESSORS, Values.DEFAULT_NUMBER_FILE_PROCESSORS), Values.DEFAULT_NUMBER_FILE_PROCESSORS);;
 
@@ -61,6 +67,7 @@ public class JobService implements IJobService {
     private String TRASHLOCATION = Properties.getProperties().getProperty(Values.TRASH_LOCATION, Values.DEFAULT_TRASH_LOCATION);
     private boolean LOWMEMORY = Boolean.parseBoolean(com.searchcode.app.util.Properties.getProperties().getProperty(Values.LOWMEMORY, Values.DEFAULTLOWMEMORY));
     private boolean SVNENABLED = Boolean.parseBoolean(com.searchcode.app.util.Properties.getProperties().getProperty(Values.SVNENABLED, Values.DEFAULTSVNENABLED));
+    private boolean FILEREPOWATCH = Boolean.parseBoolean(com.searchcode.app.util.Properties.getProperties().getProperty(Values.FILE_REPO_WATCH, Values.DEFAULT_FILE_REPO_WATCH));
 
     public JobService() {
         this.repo = Singleton.getRepo();
@@ -76,101 +83,77 @@ public class JobService implements IJobService {
     }
 
     /**
-     * Creates a git repo indexer job which will pull from the list of git repositories and start
+     * Creates a git repo indexer worker which will pull from the fetched git repositories and start
      * indexing them
      */
     public void startIndexGitRepoJobs(String uniquename) {
-        try {
-            Scheduler scheduler = Singleton.getScheduler();
-
-
-            JobDetail job = newJob(IndexGitRepoJob.class)
-                    .withIdentity("updateindex-git-" + uniquename)
-                    .build();
-
-            SimpleTrigger trigger = newTrigger()
-                    .withIdentity("updateindex-git-" + uniquename)
-                    .withSchedule(simpleSchedule()
-                                    .withIntervalInSeconds(this.INDEXTIME)
-                                    .repeatForever()
-                    )
-                    .build();
+        JobDataMap data = new JobDataMap();
+        data.put("REPOLOCATIONS", this.REPOLOCATION);
+        data.put("LOWMEMORY", this.LOWMEMORY);
 
-            job.getJobDataMap().put("REPOLOCATIONS", this.REPOLOCATION);
-            job.getJobDataMap().put("LOWMEMORY", this.LOWMEMORY);
+        this.startWorker("updateindex-git-" + uniquename, new IndexGitRepoJob(), data);
+    }
 
-            scheduler.scheduleJob(job, trigger);
+    /**
+     * Creates a git repo fetcher worker which will pull from the list of git repositories, clone or update them
+     * and hand them to the git repo indexer workers
+     */
+    public void startFetchGitRepoJobs(String uniquename) {
+        JobDataMap data = new JobDataMap();
+        data.put("REPOLOCATIONS", this.REPOLOCATION);
+        data.put("LOWMEMORY", this.LOWMEMORY);
 
-            scheduler.start();
-        }
-        catch(SchedulerException ex) {
-            Singleton.getLogger().severe(" caught a " + ex.getClass() + "\n with message: " + ex.getMessage());
-        }
+        this.startWorker("fetch-git-" + uniquename, new FetchGitRepoJob(), data);
     }
 
     /**
-     * Creates a file repo indexer job which will pull from the file queue and index
+     * Creates a file repo indexer worker which will pull from the file queue and index
      */
     public void startIndexFileRepoJobs(String uniquename) {
-        try {
-            Scheduler scheduler = Singleton.getScheduler();
-
-
-            JobDetail job = newJob(IndexFileRepoJob.class)
-                    .withIdentity("updateindex-file-" + uniquename)
-                    .build();
+        JobDataMap data = new JobDataMap();
+        data.put("REPOLOCATIONS", this.REPOLOCATION);
+        data.put("LOWMEMORY", this.LOWMEMORY);
 
-            SimpleTrigger trigger = newTrigger()
-                    .withIdentity("updateindex-file-" + uniquename)
-                    .withSchedule(simpleSchedule()
-                                    .withIntervalInSeconds(this.INDEXTIME)
-                                    .repeatForever()
-                    )
-                    .build();
-
-            job.getJobDataMap().put("REPOLOCATIONS", this.REPOLOCATION);
-            job.getJobDataMap().put("LOWMEMORY", this.LOWMEMORY);
-
-            scheduler.scheduleJob(job, trigger);
-
-            scheduler.start();
-        }
-        catch(SchedulerException ex) {
-            Singleton.getLogger().severe(" caught a " + ex.getClass() + "\n with message: " + ex.getMessage());
-        }
+        this.startWorker("updateindex-file-" + uniquename, new IndexFileRepoJob(), data);
     }
 
     /**
-     * Creates a svn repo indexer job which will pull from the list of git repositories and start
+     * Creates a svn repo indexer worker which will pull from the list of svn repositories and start
      * indexing them
      */
     public void startIndexSvnRepoJobs(String uniquename) {
-        try {
-            Scheduler scheduler = Singleton.getScheduler();
-
+        JobDataMap data = new JobDataMap();
+        data.put("REPOLOCATIONS", this.REPOLOCATION);
+        data.put("LOWMEMORY", this.LOWMEMORY);
 
-            JobDetail job = newJob(IndexSvnRepoJob.class)
-                    .withIdentity("updateindex-svn-" + uniquename)
-                    .build();
-
-            SimpleTrigger trigger = newTrigger()
-                    .withIdentity("updateindex-svn-" + uniquename)
-                    .withSchedule(simpleSchedule()
-                                    .withIntervalInSeconds(this.INDEXTIME)
-                                    .repeatForever()
-                    )
-                    .build();
-
-            job.getJobDataMap().put("REPOLOCATIONS", this.REPOLOCATION);
-            job.getJobDataMap().put("LOWMEMORY", this.LOWMEMORY);
+        this.startWorker("updateindex-svn-" + uniquename, new IndexSvnRepoJob(), data);
+    }
 
-            scheduler.scheduleJob(job, trigger);
+    /**
+     * Runs the job on its own thread for as long as the application runs. The job blocks until there is work
+     * so rather than being fired every INDEXTIME seconds to find nothing the thread sleeps until something is
+     * queued and starts on it straight away.
+     */
+    public void startWorker(String name, IWorkerJob job, JobDataMap data) {
+        Thread thread = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    job.work(data);
+                }
+                catch (InterruptedException ex) {
+                    break;
+                }
+                catch (Exception ex) {
+                    // Continue at all costs but do not spin if it keeps failing
+                    Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " worker " + name + "\n with message: " + ex.getMessage());
+                    try { Thread.sleep(this.INDEXTIME * 1000); } catch (InterruptedException e) { break; }
+                }
+            }
+        }, "searchcode-" + name);
 
-            scheduler.start();
-        }
-        catch(SchedulerException ex) {
-            Singleton.getLogger().severe(" caught a " + ex.getClass() + "\n with message: " + ex.getMessage());
-        }
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
     }
 
     /**
@@ -208,7 +191,7 @@ public class JobService implements IJobService {
             SimpleTrigger trigger2 = newTrigger()
                     .withIdentity("enqueuefilejob")
                     .withSchedule(simpleSchedule()
-                                    .withIntervalInSeconds(this.FILEINDEXUPDATETIME)
+                                    .withIntervalInSeconds(this.FILEREPOWATCH ? this.FILEWATCHINDEXUPDATETIME : this.FILEINDEXUPDATETIME)
                                     .repeatForever()
                     )
                     .build();
@@ -221,25 +204,33 @@ public class JobService implements IJobService {
     }
 
     /**
-     * Starts a background job which deletes repositories from the database, index and checked out disk
+     * Starts a background worker which deletes repositories from the database, index and checked out disk
      */
     public void startDeleteJob() {
+        this.startWorker("deletejob", new DeleteRepositoryJob(), new JobDataMap());
+    }
+
+    /**
+     * Starts a background job which indexes the history of git repositories with index history turned on
+     */
+    public void startGitHistoryJob() {
         try {
             Scheduler scheduler = Singleton.getScheduler();
 
-            // Setup the indexer which runs forever adding documents to be indexed
-            JobDetail job = newJob(DeleteRepositoryJob.class)
-                    .withIdentity("deletejob")
+            JobDetail job = newJob(IndexGitHistoryJob.class)
+                    .withIdentity("githistoryjob")
                     .build();
 
             SimpleTrigger trigger = newTrigger()
-                    .withIdentity("deletejob")
+                    .withIdentity("githistoryjob")
                     .withSchedule(simpleSchedule()
-                                    .withIntervalInSeconds(1)
+                                    .withIntervalInSeconds(60)
                                     .repeatForever()
                     )
                     .build();
 
+            job.getJobDataMap().put("REPOLOCATIONS", this.REPOLOCATION);
+
             scheduler.scheduleJob(job, trigger);
             scheduler.start();
         } catch (SchedulerException ex) {
@@ -281,40 +272,29 @@ public class JobService implements IJobService {
      */
     @Override
     public void initialJobs() {
-        try {
-            startRepositoryJobs();
-            startEnqueueJob();
-            startDeleteJob();
-            startSpellingJob();
-            startIndexerJob();
-        } catch (SchedulerException ex) {
-            Singleton.getLogger().severe(" caught a " + ex.getClass() + "\n with message: " + ex.getMessage());
-        }
+        startRepositoryJobs();
+        startEnqueueJob();
+        startDeleteJob();
+        startSpellingJob();
+        startGitHistoryJob();
+        startIndexerJob();
     }
 
-    public void startIndexerJob() throws SchedulerException {
-        Scheduler scheduler = Singleton.getScheduler();
-        // Setup the indexer which runs forever indexing
-        JobDetail job = newJob(IndexDocumentsJob.class)
-                .withIdentity("indexerjob")
-                .build();
-
-        SimpleTrigger trigger = newTrigger()
-                .withIdentity("indexerjob")
-                .withSchedule(simpleSchedule()
-                                .withIntervalInSeconds(this.INDEXTIME)
-                                .repeatForever()
-                )
-                .build();
-
-        scheduler.scheduleJob(job, trigger);
-        scheduler.start();
+    /**
+     * Starts the worker which indexes documents as soon as the repository jobs queue them
+     */
+    public void startIndexerJob() {
+        this.startWorker("indexerjob", new IndexDocumentsJob(), new JobDataMap());
     }
 
     public void startRepositoryJobs() {
         List<RepoResult> repoResults = this.repo.getAllRepo();
 
         // Create a pool of crawlers which read from the queue
+        for (int i = 0; i < this.NUMBERGITFETCHERS; i++) {
+            this.startFetchGitRepoJobs("" + i);
+        }
+
         for (int i = 0; i < this.NUMBERGITPROCESSORS; i++) {
             this.startIndexGitRepoJobs("" + i);
         }
@@ -409,7 +389,7 @@ public class JobService implements IJobService {
         List<RepoResult> repoResultList = Singleton.getRepo().getAllRepo();
         Singleton.getLogger().info("Adding repositories to be indexed. " + repoResultList.size());
         for(RepoResult rr: repoResultList) {
-            enqueueRepository(rr);
+            enqueueRepository(rr, false);
         }
 
         return true;
@@ -421,29 +401,39 @@ public class JobService implements IJobService {
             return false;
         }
 
-        enqueueRepository(repoResult);
+        // Asked for by someone so goes ahead of everything waiting for its turn
+        enqueueRepository(repoResult, true);
 
         return true;
     }
 
-    private void enqueueRepository(RepoResult rr) {
-        UniqueRepoQueue repoGitQueue = Singleton.getUniqueGitRepoQueue();
-        UniqueRepoQueue repoSvnQueue = Singleton.getUniqueSvnRepoQueue();
-        UniqueRepoQueue repoFileQueue = Singleton.getUniqueFileRepoQueue();
+    private void enqueueRepository(RepoResult rr, boolean manual) {
+        UniqueRepoQueue repoQueue = null;
 
         switch (rr.getScm().toLowerCase()) {
             case "git":
                 Singleton.getLogger().info("Adding to GIT queue " + rr.getName() + " " + rr.getScm());
-                repoGitQueue.add(rr);
+                repoQueue = Singleton.getUniqueGitRepoQueue();
                 break;
             case "svn":
                 Singleton.getLogger().info("Adding to SVN queue " + rr.getName() + " " + rr.getScm());
-                repoSvnQueue.add(rr);
+                repoQueue = Singleton.getUniqueSvnRepoQueue();
                 break;
             case "file":
                 Singleton.getLogger().info("Adding to FILE queue " + rr.getName() + " " + rr.getScm());
-                repoFileQueue.add(rr);
+                repoQueue = Singleton.getUniqueFileRepoQueue();
                 break;
         }
+
+        if (repoQueue == null) {
+            return;
+        }
+
+        if (manual) {
+            repoQueue.addManual(rr);
+        }
+        else {
+            repoQueue.add(rr);
+        }
     }
 }
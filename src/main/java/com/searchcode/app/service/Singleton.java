@@ -10,12 +10,15 @@
 
 package com.searchcode.app.service;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.searchcode.app.config.IDatabaseConfig;
 import com.searchcode.app.config.SQLiteDatabaseConfig;
+import com.searchcode.app.config.Values;
 import com.searchcode.app.dao.Api;
 import com.searchcode.app.dao.Data;
 import com.searchcode.app.dao.Repo;
 import com.searchcode.app.dto.CodeIndexDocument;
+import com.searchcode.app.dto.FetchedRepository;
 import com.searchcode.app.model.ApiResult;
 import com.searchcode.app.model.RepoResult;
 import com.searchcode.app.service.route.TimeSearchRouteService;
@@ -26,9 +29,15 @@ import org.quartz.SchedulerFactory;
 import org.quartz.impl.StdSchedulerFactory;
 
 import java.util.AbstractMap;
-import java.util.Queue;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * Lazy Singleton Implementation
@@ -40,7 +49,7 @@ public final class Singleton {
 
     private static AbstractMap<String, Integer> runningIndexRepoJobs = null; // Used to know which jobs are currently running
     private static ISpellingCorrector spellingCorrectorInstance = null;
-    private static Queue<CodeIndexDocument> codeIndexQueue = null; // Documents ready to be indexed
+    private static BlockingDeque<CodeIndexDocument> codeIndexQueue = null; // Documents ready to be indexed
     private static int codeIndexLinesCount = 0; // Used to store how many lines we have ready to index for throttling
 
     private static SearchcodeLib searchcodeLib = null;
@@ -48,6 +57,10 @@ public final class Singleton {
     private static AbstractMap<String, ApiResult> apiCache = null;
     private static AbstractMap<String, RepoResult> repoCache = null;
     private static AbstractMap<String, Object> genericCache = null;
+    private static Map<String, Integer> queryCountCache = null; // Used to hold hit counts for alternate queries
+    private static ExecutorService searchExecutor = null; // Shared pool for work done in parallel during a search
+    private static FileLinesCache fileLinesCache = null; // Decoded lines of recently displayed files
+    private static ExecutorService indexExecutor = null; // Shared pool for processing files while indexing
     private static LoggerWrapper loggerWrapper = null;
     private static Scheduler scheduler = null;
     private static Repo repo = null;
@@ -57,6 +70,10 @@ public final class Singleton {
     private static TimeSearchRouteService timeSearchRouteService = null;
     private static StatsService statsService = null;
     private static JobService jobService = null;
+    private static IndexWarmer indexWarmer = null;
+    private static FileRepoWatcher fileRepoWatcher = null;
+    private static GitService gitService = null;
+    private static FetchLimiter fetchLimiter = null; // Limits concurrent git fetches per host and holds back retries
     private static IDatabaseConfig databaseConfig = null;
 
     private static boolean backgroundJobsEnabled = true; // Controls if all background queue jobs should run or not
@@ -65,6 +82,7 @@ public final class Singleton {
     private static UniqueRepoQueue uniqueFileRepoQueue = null; // Used to queue the next repository to be indexed
     private static UniqueRepoQueue uniqueSvnRepoQueue = null; // Used to queue the next repository to be indexed
     private static UniqueRepoQueue uniqueDeleteRepoQueue = null; // Used to queue the next repository to be deleted
+    private static BlockingQueue<FetchedRepository> fetchedGitRepoQueue = null; // Git repositories pulled and waiting to be indexed
 
     public static synchronized void incrementCodeIndexLinesCount(int incrementBy) {
         codeIndexLinesCount = codeIndexLinesCount + incrementBy;
@@ -88,21 +106,21 @@ public final class Singleton {
 
     public static synchronized UniqueRepoQueue getUniqueGitRepoQueue() {
         if (uniqueGitRepoQueue == null) {
-            uniqueGitRepoQueue = new UniqueRepoQueue(new ConcurrentLinkedQueue<>());
+            uniqueGitRepoQueue = new UniqueRepoQueue();
         }
         return uniqueGitRepoQueue;
     }
 
     public static synchronized UniqueRepoQueue getUniqueFileRepoQueue() {
         if (uniqueFileRepoQueue == null) {
-            uniqueFileRepoQueue = new UniqueRepoQueue(new ConcurrentLinkedQueue<>());
+            uniqueFileRepoQueue = new UniqueRepoQueue();
         }
         return uniqueFileRepoQueue;
     }
 
     public static synchronized UniqueRepoQueue getUniqueSvnRepoQueue() {
         if (uniqueSvnRepoQueue == null) {
-            uniqueSvnRepoQueue = new UniqueRepoQueue(new ConcurrentLinkedQueue<>());
+            uniqueSvnRepoQueue = new UniqueRepoQueue();
         }
 
         return uniqueSvnRepoQueue;
@@ -110,7 +128,7 @@ public final class Singleton {
 
     public static synchronized UniqueRepoQueue getUniqueDeleteRepoQueue() {
         if (uniqueDeleteRepoQueue == null) {
-            uniqueDeleteRepoQueue = new UniqueRepoQueue(new ConcurrentLinkedQueue<>());
+            uniqueDeleteRepoQueue = new UniqueRepoQueue();
         }
 
         return uniqueDeleteRepoQueue;
@@ -145,9 +163,9 @@ public final class Singleton {
         return spellingCorrectorInstance;
     }
 
-    public static synchronized Queue<CodeIndexDocument> getCodeIndexQueue() {
+    public static synchronized BlockingDeque<CodeIndexDocument> getCodeIndexQueue() {
         if (codeIndexQueue == null) {
-            codeIndexQueue = new ConcurrentLinkedQueue<CodeIndexDocument>();
+            codeIndexQueue = new LinkedBlockingDeque<CodeIndexDocument>();
         }
 
         return codeIndexQueue;
@@ -185,6 +203,62 @@ public final class Singleton {
         return genericCache;
     }
 
+    public static synchronized FileLinesCache getFileLinesCache() {
+        if (fileLinesCache == null) {
+            long maxBytes = Helpers.tryParseInt(Properties.getProperties().getProperty(Values.FILE_CACHE_SIZE_MB, Values.DEFAULT_FILE_CACHE_SIZE_MB), Values.DEFAULT_FILE_CACHE_SIZE_MB) * 1024L * 1024L;
+            fileLinesCache = new FileLinesCache(maxBytes);
+        }
+
+        return fileLinesCache;
+    }
+
+    public static synchronized Map<String, Integer> getQueryCountCache() {
+        if (queryCountCache == null) {
+            queryCountCache = Collections.synchronizedMap(new LruCache<>(1000));
+        }
+
+        return queryCountCache;
+    }
+
+    /**
+     * Pool of daemon threads shared by all searches for any work which can be done in parallel. Bounded so that
+     * a burst of searches cannot starve the indexer of CPU.
+     */
+    public static synchronized ExecutorService getSearchExecutor() {
+        if (searchExecutor == null) {
+            int threads = Helpers.tryParseInt(Properties.getProperties().getProperty(Values.NUMBER_SEARCH_THREADS, Values.DEFAULT_NUMBER_SEARCH_THREADS), Values.DEFAULT_NUMBER_SEARCH_THREADS);
+            searchExecutor = Executors.newFixedThreadPool(threads > 0 ? threads : 1, new ThreadFactoryBuilder()
+                    .setNameFormat("searchcode-search-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+
+        return searchExecutor;
+    }
+
+    /**
+     * Number of threads in the index pool, one per core unless set otherwise
+     */
+    public static int getIndexThreadCount() {
+        int threads = Helpers.tryParseInt(Properties.getProperties().getProperty(Values.NUMBER_INDEX_THREADS, Values.DEFAULT_NUMBER_INDEX_THREADS), Values.DEFAULT_NUMBER_INDEX_THREADS);
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Pool of daemon threads shared by all index jobs for reading and processing files from disk. Shared so that
+     * several repositories being indexed at once cannot use more threads than configured.
+     */
+    public static synchronized ExecutorService getIndexExecutor() {
+        if (indexExecutor == null) {
+            indexExecutor = Executors.newFixedThreadPool(getIndexThreadCount(), new ThreadFactoryBuilder()
+                    .setNameFormat("searchcode-index-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+
+        return indexExecutor;
+    }
+
     public static synchronized Scheduler getScheduler() {
 
         if (scheduler == null) {
@@ -306,6 +380,50 @@ public final class Singleton {
         return jobService;
     }
 
+    public static synchronized IndexWarmer getIndexWarmer() {
+        if (indexWarmer == null) {
+            indexWarmer = new IndexWarmer();
+        }
+
+        return indexWarmer;
+    }
+
+    public static synchronized FileRepoWatcher getFileRepoWatcher() {
+        if (fileRepoWatcher == null) {
+            fileRepoWatcher = new FileRepoWatcher();
+        }
+
+        return fileRepoWatcher;
+    }
+
+    public static synchronized GitService getGitService() {
+        if (gitService == null) {
+            gitService = new GitService();
+        }
+
+        return gitService;
+    }
+
+    public static synchronized FetchLimiter getFetchLimiter() {
+        if (fetchLimiter == null) {
+            fetchLimiter = new FetchLimiter(Helpers.tryParseInt(Properties.getProperties().getProperty(Values.GIT_FETCHERS_PER_HOST, Values.DEFAULT_GIT_FETCHERS_PER_HOST), Values.DEFAULT_GIT_FETCHERS_PER_HOST));
+        }
+
+        return fetchLimiter;
+    }
+
+    /**
+     * Bounded so fetching waits when indexing is not keeping up, there is no point pulling changes it cannot get to
+     */
+    public static synchronized BlockingQueue<FetchedRepository> getFetchedGitRepoQueue() {
+        if (fetchedGitRepoQueue == null) {
+            int processors = Helpers.tryParseInt(Properties.getProperties().getProperty(Values.NUMBER_GIT_PROCESSORS, Values.DEFAULT_NUMBER_GIT_PROCESSORS), Values.DEFAULT_NUMBER_GIT_PROCESSORS);
+            fetchedGitRepoQueue = new LinkedBlockingQueue<>(Math.max(processors, 1) * 2);
+        }
+
+        return fetchedGitRepoQueue;
+    }
+
     public static IDatabaseConfig getDatabaseConfig() {
         if (databaseConfig == null) {
             databaseConfig = new SQLiteDatabaseConfig();
@@ -12,11 +12,14 @@ package com.searchcode.app.service;
 
 
 import com.searchcode.app.config.Values;
+import com.searchcode.app.dto.RepoUpdateStats;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.OperatingSystemMXBean;
 import java.lang.management.RuntimeMXBean;
 import java.text.NumberFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Simple class used to show basic stats such ad the total number of searches and how long the application
@@ -25,6 +28,8 @@ import java.text.NumberFormat;
  */
 public class StatsService {
 
+    private final Map<String, RepoUpdateStats> repoUpdateStats = new ConcurrentHashMap<>();
+
     public void incrementSearchCount() {
         int totalCount = (Integer) Singleton.getGenericCache().getOrDefault(Values.CACHE_TOTAL_SEARCH, 0);
 
@@ -104,4 +109,15 @@ public class StatsService {
     public int getSearchCount() {
         return (Integer) Singleton.getGenericCache().getOrDefault(Values.CACHE_TOTAL_SEARCH, 0);
     }
+
+    /**
+     * Counts of how checking the repository for changes has gone, created on first use
+     */
+    public RepoUpdateStats getRepoUpdateStats(String repoName) {
+        return this.repoUpdateStats.computeIfAbsent(repoName, x -> new RepoUpdateStats());
+    }
+
+    public Map<String, RepoUpdateStats> getAllRepoUpdateStats() {
+        return this.repoUpdateStats;
+    }
 }
@@ -26,6 +26,9 @@ import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DocValuesRangeQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
@@ -77,6 +80,14 @@ public class TimeCodeSearcher {
      * Given a query and what page of results we are on return the matching results for that search
      */
     public SearchResult search(String queryString, int page) {
+        return this.search(queryString, page, -1, -1);
+    }
+
+    /**
+     * Same as above but only matches contents that were live at some point between the two times, seconds since
+     * epoch. Pass the same time for both to search as of that moment or -1 to leave either end open.
+     */
+    public SearchResult search(String queryString, int page, long liveFrom, long liveTo) {
         SearchResult searchResult = new SearchResult();
         statsService.incrementSearchCount();
 
@@ -91,6 +102,10 @@ public class TimeCodeSearcher {
             Query query = parser.parse(queryString);
             LOGGER.info("Searching for: " + query.toString(CODEFIELD));
 
+            if (liveFrom != -1 || liveTo != -1) {
+                query = this.liveBetween(query, liveFrom, liveTo);
+            }
+
             searchResult = this.doPagingSearch(reader, searcher, query, page);
             reader.close();
         }
@@ -101,6 +116,25 @@ public class TimeCodeSearcher {
         return searchResult;
     }
 
+    /**
+     * Restricts the query to documents whose period overlaps the times supplied. Started at or before the end
+     * and ended after the start. Filters on the doc values so the period does not affect scoring.
+     */
+    public Query liveBetween(Query query, long liveFrom, long liveTo) {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        builder.add(query, BooleanClause.Occur.MUST);
+
+        if (liveTo != -1) {
+            builder.add(DocValuesRangeQuery.newLongRange(Values.VALIDFROM, null, liveTo, true, true), BooleanClause.Occur.FILTER);
+        }
+
+        if (liveFrom != -1) {
+            builder.add(DocValuesRangeQuery.newLongRange(Values.VALIDTO, liveFrom, null, false, true), BooleanClause.Occur.FILTER);
+        }
+
+        return builder.build();
+    }
+
     /**
      * Attempts to find a unique file given the repository name and the path/filename however
      * it seems to randomly not find things for some files. No idea of the root cause at this point and have implemented
@@ -16,10 +16,12 @@ import com.searchcode.app.config.Values;
 import com.searchcode.app.dao.Api;
 import com.searchcode.app.dao.Data;
 import com.searchcode.app.dao.Repo;
+import com.searchcode.app.model.RepoData;
 import com.searchcode.app.model.RepoResult;
 import com.searchcode.app.service.CodeSearcher;
 import com.searchcode.app.service.Singleton;
 import com.searchcode.app.service.StatsService;
+import com.searchcode.app.util.Helpers;
 import com.searchcode.app.util.Properties;
 import org.apache.commons.io.IOUtils;
 import org.omg.CORBA.Environment;
@@ -130,6 +132,7 @@ public class AdminRouteService {
             map.put("repoResults", repo.getPagedRepo(indexOffset, 100));
         }
 
+        map.put("repoUpdateStats", Singleton.getStatsService().getAllRepoUpdateStats());
         map.put("searchQuery", searchQuery);
         map.put("hasPrevious", indexOffset > 0);
         map.put("hasNext", (indexOffset + 100) < repoCount);
@@ -308,6 +311,10 @@ public class AdminRouteService {
         String[] repopassword = request.queryParamsValues("repopassword");
         String[] reposource = request.queryParamsValues("reposource");
         String[] repobranch = request.queryParamsValues("repobranch");
+        String[] repoclonedepth = request.queryParamsValues("repoclonedepth");
+        String[] reposinglebranch = request.queryParamsValues("reposinglebranch");
+        String[] repoindexhistory = request.queryParamsValues("repoindexhistory");
+        String[] repobranches = request.queryParamsValues("repobranches");
 
         Repo repo = Singleton.getRepo();
 
@@ -319,7 +326,21 @@ public class AdminRouteService {
                     branch = "master";
                 }
 
-                repo.saveRepo(new RepoResult(-1, reponames[i], reposcms[i], repourls[i], repousername[i], repopassword[i], reposource[i], branch));
+                // Optional so older forms and scripts still work
+                int cloneDepth = repoclonedepth != null && i < repoclonedepth.length ? Helpers.tryParseInt(repoclonedepth[i], "0") : 0;
+                boolean singleBranch = reposinglebranch != null && i < reposinglebranch.length && Boolean.parseBoolean(reposinglebranch[i]);
+                boolean indexHistory = repoindexhistory != null && i < repoindexhistory.length && Boolean.parseBoolean(repoindexhistory[i]);
+
+                RepoResult repoResult = new RepoResult(-1, reponames[i], reposcms[i], repourls[i], repousername[i], repopassword[i], reposource[i], branch);
+                RepoData repoData = new RepoData(cloneDepth, singleBranch, indexHistory);
+
+                if (repobranches != null && i < repobranches.length) {
+                    repoData.setBranches(Arrays.asList(repobranches[i].split(",")));
+                    repoData.getBranches().remove(branch);
+                }
+
+                repoResult.setData(repoData);
+                repo.saveRepo(repoResult);
             }
         }
     }
@@ -16,18 +16,23 @@ import com.searchcode.app.dto.SearchResult;
 import com.searchcode.app.service.CodeMatcher;
 import com.searchcode.app.service.CodeSearcher;
 import com.searchcode.app.service.Singleton;
+import com.searchcode.app.util.Properties;
 import com.searchcode.app.util.SearchcodeLib;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import spark.Request;
 import spark.Response;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public class SearchRouteService {
 
+    private boolean ALTQUERYCOUNTS = Boolean.parseBoolean(Properties.getProperties().getProperty(Values.ALT_QUERY_COUNTS, Values.DEFAULT_ALT_QUERY_COUNTS));
+
     public SearchResult CodeSearch(Request request, Response response) {
         CodeSearcher cs = new CodeSearcher();
         CodeMatcher cm = new CodeMatcher(Singleton.getData());
@@ -51,9 +56,11 @@ public class SearchRouteService {
             String[] repos = new String[0];
             String[] langs = new String[0];
             String[] owners = new String[0];
+            String[] branches = new String[0];
             String reposFilter = Values.EMPTYSTRING;
             String langsFilter = Values.EMPTYSTRING;
             String ownersFilter = Values.EMPTYSTRING;
+            String branchesFilter = Values.EMPTYSTRING;
 
 
             if (request.queryParams().contains("repo")) {
@@ -92,19 +99,52 @@ public class SearchRouteService {
                 }
             }
 
+            if (request.queryParams().contains("br")) {
+                branches = request.queryParamsValues("br");
+
+                if (branches.length != 0) {
+                    List<String> branchesList = Arrays.asList(branches).stream()
+                            .map((s) -> Values.BRANCH + ":" + QueryParser.escape(s))
+                            .collect(Collectors.toList());
+
+                    branchesFilter = " && (" + StringUtils.join(branchesList, " || ") + ")";
+                }
+            }
+
             // Need to pass in the filters into this query
-            String cacheKey = query + page + reposFilter + langsFilter + ownersFilter;
+            String cacheKey = query + page + reposFilter + langsFilter + ownersFilter + branchesFilter;
 
             // split the query escape it and and it together
             String cleanQueryString = scl.formatQueryString(query);
 
-            SearchResult searchResult = cs.search(cleanQueryString + reposFilter + langsFilter + ownersFilter, page);
+            SearchResult searchResult = cs.search(cleanQueryString + reposFilter + langsFilter + ownersFilter + branchesFilter, page);
             searchResult.setCodeResultList(cm.formatResults(searchResult.getCodeResultList(), query, true));
 
             searchResult.setQuery(query);
 
-            for(String altQuery: scl.generateAltQueries(query)) {
-                searchResult.addAltQuery(altQuery);
+            List<String> altQueries = scl.generateAltQueries(query);
+
+            if (this.ALTQUERYCOUNTS) {
+                // Count the alternate queries with the same filters so we only suggest those that will match
+                List<String> altQueryStrings = new ArrayList<>();
+                for(String altQuery: altQueries) {
+                    altQueryStrings.add(scl.formatQueryString(altQuery) + reposFilter + langsFilter + ownersFilter + branchesFilter);
+                }
+
+                Map<String, Integer> altQueryCounts = cs.getQueryCounts(altQueryStrings);
+
+                for (int i = 0; i < altQueries.size(); i++) {
+                    int count = altQueryCounts.getOrDefault(altQueryStrings.get(i), 0);
+
+                    if (count != 0) {
+                        searchResult.addAltQuery(altQueries.get(i), count);
+                    }
+                }
+            }
+            else {
+                for(String altQuery: altQueries) {
+                    searchResult.addAltQuery(altQuery);
+                }
             }
 
             // Null out code as it isnt required and there is no point in bloating our ajax requests
@@ -23,6 +23,8 @@ import org.apache.lucene.queryparser.classic.QueryParser;
 import spark.Request;
 import spark.Response;
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -110,10 +112,27 @@ public class TimeSearchRouteService {
             deletedFilter = this.getDeleted(deleted, deletedFilter);
         }
 
+        // Dates as yyyyMMdd, as of a day or live at some point between two
+        long liveFrom = -1;
+        long liveTo = -1;
+
+        if (request.queryParams().contains("asof")) {
+            liveFrom = this.getEndOfDay(request.queryParams("asof"));
+            liveTo = liveFrom;
+        }
+
+        if (request.queryParams().contains("from")) {
+            liveFrom = this.getStartOfDay(request.queryParams("from"));
+        }
+
+        if (request.queryParams().contains("to")) {
+            liveTo = this.getEndOfDay(request.queryParams("to"));
+        }
+
         // split the query escape it and and it together
         String cleanQueryString = scl.formatQueryString(query);
 
-        SearchResult searchResult = cs.search(cleanQueryString + reposFilter + langsFilter + ownersFilter + yearFilter + yearMonthFilter + yearMonthDayFilter + revisionsFilter + deletedFilter, page);
+        SearchResult searchResult = cs.search(cleanQueryString + reposFilter + langsFilter + ownersFilter + yearFilter + yearMonthFilter + yearMonthDayFilter + revisionsFilter + deletedFilter, page, liveFrom, liveTo);
         searchResult.setCodeResultList(cm.formatResults(searchResult.getCodeResultList(), query, true));
 
         searchResult.setQuery(query);
@@ -143,6 +162,25 @@ public class TimeSearchRouteService {
         return page;
     }
 
+    /**
+     * Seconds since epoch at the start of the yyyyMMdd day or -1 if it cannot be parsed
+     */
+    private long getStartOfDay(String day) {
+        try {
+            SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd");
+            sdf.setLenient(false);
+            return sdf.parse(day.trim()).getTime() / 1000;
+        }
+        catch (ParseException ex) {
+            return -1;
+        }
+    }
+
+    private long getEndOfDay(String day) {
+        long start = this.getStartOfDay(day);
+        return start == -1 ? -1 : start + 86399;
+    }
+
     private void getAltQueries(SearchcodeLib scl, String query, SearchResult searchResult) {
         for(String altQuery: scl.generateAltQueries(query)) {
             searchResult.addAltQuery(altQuery);
@@ -0,0 +1,612 @@
+/*
+ * Copyright (c) 2016 Boyter Online Services
+ *
+ * Use of this software is governed by the Fair Source License included
+ * in the LICENSE.TXT file, but will be eventually open under GNU General Public License Version 3
+ * see the README.md for when this clause will take effect
+ *
+ * Version 1.3.8
+ */
+
+package com.searchcode.app.util;
+
+import com.searchcode.app.dto.BlameRun;
+import com.searchcode.app.dto.CodeOwner;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.errors.LargeObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Works out who last changed each line of many files using a single walk back through the history rather than
+ * running a separate blame for every file. Each commit is diffed against its parents only for the files which
+ * still have lines that have not been attributed, lines which match a parent are mapped back to their position in
+ * it and the rest are attributed to the commit. At a merge lines are matched against each parent in turn so those
+ * which came in from a merged branch are traced back through it. The walk stops as soon as every line of every
+ * file is attributed.
+ *
+ * Does not follow renames, lines which came in through one are attributed to the commit which renamed the file.
+ */
+public class BatchBlame {
+
+    private static final int MAXBLOBSIZE = 10 * 1024 * 1024; // Anything larger is unlikely to be indexed anyway
+    private static final DiffAlgorithm DIFFALGORITHM = DiffAlgorithm.getAlgorithm(DiffAlgorithm.SupportedAlgorithm.HISTOGRAM);
+
+    private final Repository repository;
+
+    public BatchBlame(Repository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Returns the blame for each path as it is in the start commit. Paths which do not exist, are not files or
+     * appear to be binary are left out of the result.
+     */
+    public Map<String, List<BlameRun>> blame(ObjectId start, Collection<String> paths) throws IOException {
+        Map<String, List<BlameRun>> results = new HashMap<>();
+        List<String> authors = new ArrayList<>();
+        List<Integer> commitTimes = new ArrayList<>();
+
+        ObjectReader reader = this.repository.newObjectReader();
+        RevWalk revWalk = new RevWalk(reader);
+
+        try {
+            RevCommit startCommit = revWalk.parseCommit(start);
+
+            List<PendingFile> files = new ArrayList<>();
+            Map<String, Candidate> candidates = new HashMap<>();
+
+            for (String path: paths) {
+                TreeWalk treeWalk = TreeWalk.forPath(reader, path, startCommit.getTree());
+                if (treeWalk == null || treeWalk.getFileMode(0).getObjectType() != Constants.OBJ_BLOB) {
+                    continue;
+                }
+
+                RawText text = this.load(reader, treeWalk.getObjectId(0));
+                if (text == null) {
+                    continue;
+                }
+
+                PendingFile pendingFile = new PendingFile(path, text.size());
+                files.add(pendingFile);
+
+                if (text.size() != 0) {
+                    candidates.put(path, new Candidate(pendingFile, text));
+                }
+            }
+
+            // Newest first so a commit reached through several children is only looked at once they all have been
+            PriorityQueue<PendingCommit> queue = new PriorityQueue<>(Comparator.<PendingCommit>comparingInt(x -> -x.commit.getCommitTime()).thenComparing(x -> x.commit));
+            Map<ObjectId, PendingCommit> queued = new HashMap<>();
+            this.enqueue(queue, queued, startCommit, candidates, null);
+
+            while (!queue.isEmpty()) {
+                PendingCommit pendingCommit = queue.poll();
+                queued.remove(pendingCommit.commit);
+
+                RevCommit commit = pendingCommit.commit;
+                int commitIndex = authors.size();
+                authors.add(commit.getAuthorIdent().getName());
+                commitTimes.add(commit.getCommitTime());
+
+                if (commit.getParentCount() == 0) {
+                    for (Candidate candidate: pendingCommit.candidates.values()) {
+                        candidate.attributeRemaining(commitIndex);
+                    }
+                    continue;
+                }
+
+                RevCommit[] parents = new RevCommit[commit.getParentCount()];
+                List<Map<String, Candidate>> toParents = new ArrayList<>();
+
+                TreeWalk treeWalk = new TreeWalk(reader);
+                treeWalk.setRecursive(true);
+                treeWalk.addTree(commit.getTree());
+
+                for (int i = 0; i < parents.length; i++) {
+                    parents[i] = revWalk.parseCommit(commit.getParent(i));
+                    treeWalk.addTree(parents[i].getTree());
+                    // Files the walk does not visit are the same in every parent and stay with the first
+                    toParents.add(i == 0 ? pendingCommit.candidates : new HashMap<>());
+                }
+
+                treeWalk.setFilter(pendingCommit.getFilter());
+
+                while (treeWalk.next()) {
+                    Candidate candidate = pendingCommit.candidates.remove(treeWalk.getPathString());
+                    if (candidate == null) {
+                        continue;
+                    }
+
+                    int unchangedIn = this.findUnchangedParent(treeWalk, parents.length);
+                    if (unchangedIn != -1) {
+                        toParents.get(unchangedIn).put(candidate.file.path, candidate);
+                        continue;
+                    }
+
+                    // Lines matching a parent are traced back through it, only those in none of them were changed
+                    // by this commit
+                    for (int i = 0; i < parents.length && candidate.remaining != 0; i++) {
+                        RawText parentText = this.isBlob(treeWalk, i + 1) ? this.load(reader, treeWalk.getObjectId(i + 1)) : null;
+                        if (parentText == null) {
+                            continue;
+                        }
+
+                        EditList edits = DIFFALGORITHM.diff(RawTextComparator.DEFAULT, parentText, candidate.text);
+                        Candidate traced = candidate.trace(edits, parentText);
+
+                        if (traced != null) {
+                            toParents.get(i).put(traced.file.path, traced);
+                        }
+                    }
+
+                    candidate.attributeRemaining(commitIndex);
+                }
+
+                for (int i = 0; i < parents.length; i++) {
+                    this.enqueue(queue, queued, parents[i], toParents.get(i), i == 0 ? pendingCommit : null);
+                }
+            }
+
+            for (PendingFile pendingFile: files) {
+                results.put(pendingFile.path, pendingFile.toRuns(authors, commitTimes));
+            }
+        }
+        finally {
+            revWalk.close();
+            reader.close();
+        }
+
+        return results;
+    }
+
+    /**
+     * Queues the lines still to be attributed against the commit, adding them to those already queued for it if it
+     * was reached through another child. The path filter of the child is reused when nothing else was added.
+     */
+    private void enqueue(PriorityQueue<PendingCommit> queue, Map<ObjectId, PendingCommit> queued, RevCommit commit, Map<String, Candidate> candidates, PendingCommit child) {
+        if (candidates.isEmpty()) {
+            return;
+        }
+
+        PendingCommit existing = queued.get(commit);
+
+        if (existing == null) {
+            PendingCommit pendingCommit = new PendingCommit(commit, candidates);
+
+            if (child != null) {
+                pendingCommit.pathFilter = child.pathFilter;
+                pendingCommit.filterSize = child.filterSize;
+            }
+
+            queue.add(pendingCommit);
+            queued.put(commit, pendingCommit);
+            return;
+        }
+
+        for (Candidate candidate: candidates.values()) {
+            existing.candidates.merge(candidate.file.path, candidate, Candidate::merge);
+        }
+        existing.pathFilter = null;
+    }
+
+    /**
+     * The first parent which has exactly the same version of the file, or -1 if it changed against all of them
+     */
+    private int findUnchangedParent(TreeWalk treeWalk, int parentCount) {
+        for (int i = 0; i < parentCount; i++) {
+            if (treeWalk.getRawMode(i + 1) == treeWalk.getRawMode(0) && treeWalk.idEqual(i + 1, 0)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Moves cached blame forward from one commit to a later one by applying the diff of each commit in between to
+     * the runs of the files it touched. Lines inside a hunk are attributed to the commit and the rest keep their
+     * owner, so the cost depends on the size of the changes rather than the history of the files. Files whose
+     * cached blob does not match the parent are dropped to be blamed again, as are files a merge commit changed
+     * since their lines may have come from the merged branch rather than the merge. Returns false without
+     * changing anything if the later commit is not reached by following first parents, such as after a force push.
+     */
+    public boolean update(BlameCache blameCache, ObjectId from, ObjectId to) throws IOException {
+        ObjectReader reader = this.repository.newObjectReader();
+        RevWalk revWalk = new RevWalk(reader);
+
+        try {
+            RevCommit fromCommit = revWalk.parseCommit(from);
+            RevCommit commit = revWalk.parseCommit(to);
+            List<RevCommit> commits = new ArrayList<>();
+
+            while (!commit.equals(fromCommit)) {
+                if (commit.getParentCount() == 0) {
+                    return false;
+                }
+
+                commits.add(commit);
+                commit = revWalk.parseCommit(commit.getParent(0));
+            }
+
+            Collections.reverse(commits);
+
+            for (RevCommit current: commits) {
+                RevCommit parent = revWalk.parseCommit(current.getParent(0));
+                String author = current.getAuthorIdent().getName();
+                int commitTime = current.getCommitTime();
+                boolean merge = current.getParentCount() > 1;
+
+                TreeWalk treeWalk = new TreeWalk(reader);
+                treeWalk.setRecursive(true);
+                treeWalk.addTree(parent.getTree());
+                treeWalk.addTree(current.getTree());
+                treeWalk.setFilter(TreeFilter.ANY_DIFF);
+
+                // A file moved without changing keeps its blame, the walk is in path order so the old path may
+                // come after the new one
+                Map<String, List<BlameRun>> removed = new HashMap<>();
+                Map<String, String> added = new HashMap<>();
+
+                while (treeWalk.next()) {
+                    String path = treeWalk.getPathString();
+                    RawText newText = this.isBlob(treeWalk, 1) ? this.load(reader, treeWalk.getObjectId(1)) : null;
+
+                    if (newText == null) {
+                        List<BlameRun> runs = this.isBlob(treeWalk, 0) ? blameCache.get(path, treeWalk.getObjectId(0).getName()) : null;
+                        if (runs != null) {
+                            removed.put(treeWalk.getObjectId(0).getName(), runs);
+                        }
+                        blameCache.remove(path);
+                        continue;
+                    }
+
+                    String newBlobId = treeWalk.getObjectId(1).getName();
+
+                    if (merge) {
+                        // Only the diff against the first parent is known here so leave it to be blamed again
+                        blameCache.remove(path);
+
+                        if (!this.isBlob(treeWalk, 0)) {
+                            added.put(path, newBlobId);
+                        }
+                        continue;
+                    }
+
+                    if (!this.isBlob(treeWalk, 0)) {
+                        // Added in this commit
+                        List<BlameRun> runs = new ArrayList<>();
+                        addRun(runs, newText.size(), author, commitTime);
+                        blameCache.put(path, newBlobId, current.getName(), runs);
+                        added.put(path, newBlobId);
+                        continue;
+                    }
+
+                    List<BlameRun> runs = blameCache.get(path, treeWalk.getObjectId(0).getName());
+                    RawText oldText = runs == null ? null : this.load(reader, treeWalk.getObjectId(0));
+
+                    if (oldText == null || countLines(runs) != oldText.size()) {
+                        blameCache.remove(path);
+                        continue;
+                    }
+
+                    EditList edits = DIFFALGORITHM.diff(RawTextComparator.DEFAULT, oldText, newText);
+                    blameCache.put(path, newBlobId, current.getName(), applyEdits(runs, edits, author, commitTime));
+                }
+
+                for (Map.Entry<String, String> entry: added.entrySet()) {
+                    List<BlameRun> runs = removed.get(entry.getValue());
+                    if (runs != null) {
+                        blameCache.put(entry.getKey(), entry.getValue(), current.getName(), runs);
+                    }
+                }
+            }
+        }
+        finally {
+            revWalk.close();
+            reader.close();
+        }
+
+        return true;
+    }
+
+    /**
+     * Totals the runs into lines per author with their most recent commit, only counting up to maxLines lines
+     * to match how many were indexed. A maxLines of 0 or less counts every line.
+     */
+    public static List<CodeOwner> toCodeOwners(List<BlameRun> runs, int maxLines) {
+        Map<String, CodeOwner> owners = new LinkedHashMap<>();
+        int counted = 0;
+
+        for (BlameRun run: runs) {
+            int lines = run.getLines();
+
+            if (maxLines > 0) {
+                lines = Math.min(lines, maxLines - counted);
+                if (lines <= 0) {
+                    break;
+                }
+            }
+
+            counted += lines;
+            CodeOwner codeOwner = owners.get(run.getAuthor());
+
+            if (codeOwner == null) {
+                owners.put(run.getAuthor(), new CodeOwner(run.getAuthor(), lines, run.getCommitTime()));
+            }
+            else {
+                codeOwner.setNoLines(codeOwner.getNoLines() + lines);
+                if (run.getCommitTime() > codeOwner.getMostRecentUnixCommitTimestamp()) {
+                    codeOwner.setMostRecentUnixCommitTimestamp(run.getCommitTime());
+                }
+            }
+        }
+
+        return new ArrayList<>(owners.values());
+    }
+
+    /**
+     * Rebuilds the runs for the new version of a file, copying the owners of unchanged lines and giving the lines
+     * added by each edit to the commit
+     */
+    private static List<BlameRun> applyEdits(List<BlameRun> runs, EditList edits, String author, int commitTime) {
+        List<BlameRun> updated = new ArrayList<>();
+        int[] cursor = {0, 0}; // Run and line within it of the next unread line of the old version
+        int position = 0;
+
+        for (Edit edit: edits) {
+            copyLines(runs, cursor, edit.getBeginA() - position, updated);
+            copyLines(runs, cursor, edit.getEndA() - edit.getBeginA(), null);
+            addRun(updated, edit.getEndB() - edit.getBeginB(), author, commitTime);
+            position = edit.getEndA();
+        }
+
+        copyLines(runs, cursor, Integer.MAX_VALUE, updated);
+        return updated;
+    }
+
+    /**
+     * Reads count lines from the runs at the cursor adding them to into, or skipping them if into is null
+     */
+    private static void copyLines(List<BlameRun> runs, int[] cursor, int count, List<BlameRun> into) {
+        while (count > 0 && cursor[0] < runs.size()) {
+            BlameRun run = runs.get(cursor[0]);
+            int taken = Math.min(run.getLines() - cursor[1], count);
+
+            if (into != null) {
+                addRun(into, taken, run.getAuthor(), run.getCommitTime());
+            }
+
+            count -= taken;
+            cursor[1] += taken;
+
+            if (cursor[1] == run.getLines()) {
+                cursor[0]++;
+                cursor[1] = 0;
+            }
+        }
+    }
+
+    private static void addRun(List<BlameRun> runs, int lines, String author, int commitTime) {
+        if (lines <= 0) {
+            return;
+        }
+
+        if (!runs.isEmpty()) {
+            BlameRun last = runs.get(runs.size() - 1);
+            if (last.getAuthor().equals(author) && last.getCommitTime() == commitTime) {
+                last.setLines(last.getLines() + lines);
+                return;
+            }
+        }
+
+        runs.add(new BlameRun(lines, author, commitTime));
+    }
+
+    private static int countLines(List<BlameRun> runs) {
+        int lines = 0;
+        for (BlameRun run: runs) {
+            lines += run.getLines();
+        }
+        return lines;
+    }
+
+    private boolean isBlob(TreeWalk treeWalk, int tree) {
+        return treeWalk.getFileMode(tree) != FileMode.MISSING && treeWalk.getFileMode(tree).getObjectType() == Constants.OBJ_BLOB;
+    }
+
+    private RawText load(ObjectReader reader, ObjectId blobId) throws IOException {
+        byte[] bytes;
+
+        try {
+            bytes = reader.open(blobId, Constants.OBJ_BLOB).getCachedBytes(MAXBLOBSIZE);
+        }
+        catch (LargeObjectException ex) {
+            return null;
+        }
+
+        if (RawText.isBinary(bytes)) {
+            return null;
+        }
+
+        return new RawText(bytes);
+    }
+
+    /**
+     * A file being blamed with the commit found to have last changed each line of the starting version
+     */
+    private static class PendingFile {
+        private final String path;
+        private final int[] owner; // Index of the commit which last changed each line of the starting version
+
+        private PendingFile(String path, int lines) {
+            this.path = path;
+            this.owner = new int[lines];
+        }
+
+        private List<BlameRun> toRuns(List<String> authors, List<Integer> commitTimes) {
+            List<BlameRun> runs = new ArrayList<>();
+            int i = 0;
+
+            while (i < this.owner.length) {
+                int j = i + 1;
+                while (j < this.owner.length && this.owner[j] == this.owner[i]) {
+                    j++;
+                }
+
+                runs.add(new BlameRun(j - i, authors.get(this.owner[i]), commitTimes.get(this.owner[i])));
+                i = j;
+            }
+
+            return runs;
+        }
+    }
+
+    /**
+     * Lines of a file still to be attributed as they are in the version of the file in one commit. Tracks where
+     * each of them is in that version, in order, and which line of the starting version it is.
+     */
+    private static class Candidate {
+        private final PendingFile file;
+        private final int[] positions;
+        private final int[] startLines;
+        private RawText text;
+        private int remaining;
+
+        private Candidate(PendingFile file, RawText text) {
+            this(file, text, new int[text.size()], new int[text.size()], text.size());
+
+            for (int i = 0; i < this.remaining; i++) {
+                this.positions[i] = i;
+                this.startLines[i] = i;
+            }
+        }
+
+        private Candidate(PendingFile file, RawText text, int[] positions, int[] startLines, int remaining) {
+            this.file = file;
+            this.text = text;
+            this.positions = positions;
+            this.startLines = startLines;
+            this.remaining = remaining;
+        }
+
+        private void attributeRemaining(int commitIndex) {
+            for (int i = 0; i < this.remaining; i++) {
+                this.file.owner[this.startLines[i]] = commitIndex;
+            }
+            this.remaining = 0;
+            this.text = null;
+        }
+
+        /**
+         * Lines outside an edit move to a new candidate at where they are in the parent, lines inside one are left
+         * as they were changed against it. Both the lines and the edits are in order so this is a single pass over
+         * each. Returns null if every line was changed.
+         */
+        private Candidate trace(EditList edits, RawText parentText) {
+            int[] tracedPositions = new int[this.remaining];
+            int[] tracedStartLines = new int[this.remaining];
+            int traced = 0;
+            int kept = 0;
+            int shift = 0;
+            int e = 0;
+
+            for (int i = 0; i < this.remaining; i++) {
+                int position = this.positions[i];
+
+                while (e < edits.size() && edits.get(e).getEndB() <= position) {
+                    Edit edit = edits.get(e);
+                    shift += (edit.getEndA() - edit.getBeginA()) - (edit.getEndB() - edit.getBeginB());
+                    e++;
+                }
+
+                if (e < edits.size() && edits.get(e).getBeginB() <= position) {
+                    this.positions[kept] = position;
+                    this.startLines[kept] = this.startLines[i];
+                    kept++;
+                }
+                else {
+                    tracedPositions[traced] = position + shift;
+                    tracedStartLines[traced] = this.startLines[i];
+                    traced++;
+                }
+            }
+
+            this.remaining = kept;
+
+            if (traced == 0) {
+                return null;
+            }
+
+            return new Candidate(this.file, parentText, tracedPositions, tracedStartLines, traced);
+        }
+
+        /**
+         * Combines the lines of the same file reached through two children of a commit keeping them in order
+         */
+        private static Candidate merge(Candidate first, Candidate second) {
+            int size = first.remaining + second.remaining;
+            int[] positions = new int[size];
+            int[] startLines = new int[size];
+            int i = 0;
+            int j = 0;
+
+            for (int k = 0; k < size; k++) {
+                if (j == second.remaining || (i < first.remaining && first.positions[i] <= second.positions[j])) {
+                    positions[k] = first.positions[i];
+                    startLines[k] = first.startLines[i++];
+                }
+                else {
+                    positions[k] = second.positions[j];
+                    startLines[k] = second.startLines[j++];
+                }
+            }
+
+            return new Candidate(first.file, first.text, positions, startLines, size);
+        }
+    }
+
+    /**
+     * A commit still to be looked at with the lines of each file to be traced through it
+     */
+    private static class PendingCommit {
+        private final RevCommit commit;
+        private final Map<String, Candidate> candidates;
+        private TreeFilter pathFilter = null;
+        private int filterSize = -1;
+
+        private PendingCommit(RevCommit commit, Map<String, Candidate> candidates) {
+            this.commit = commit;
+            this.candidates = candidates;
+        }
+
+        /**
+         * Files are only ever finished with or handed to other parents so the filter only needs rebuilding when the
+         * number of them changes
+         */
+        private TreeFilter getFilter() {
+            if (this.pathFilter == null || this.filterSize != this.candidates.size()) {
+                this.pathFilter = AndTreeFilter.create(PathFilterGroup.createFromStrings(this.candidates.keySet()), TreeFilter.ANY_DIFF);
+                this.filterSize = this.candidates.size();
+            }
+
+            return this.pathFilter;
+        }
+    }
+}
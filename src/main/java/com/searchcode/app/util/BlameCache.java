@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2016 Boyter Online Services
+ *
+ * Use of this software is governed by the Fair Source License included
+ * in the LICENSE.TXT file, but will be eventually open under GNU General Public License Version 3
+ * see the README.md for when this clause will take effect
+ *
+ * Version 1.3.8
+ */
+
+package com.searchcode.app.util;
+
+import au.com.bytecode.opencsv.CSVReader;
+import au.com.bytecode.opencsv.CSVWriter;
+import com.searchcode.app.dto.BlameRun;
+import com.searchcode.app.service.Singleton;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Blame results for a repository kept on disk between index runs. Each file's result is stored with the blob it
+ * was worked out for and the HEAD commit at the time. A file whose blob has not changed since keeps the same
+ * blame no matter how many commits have happened to other files, so it is served from here rather than walking
+ * the history again.
+ *
+ * Safe to read from the indexing threads once loaded.
+ */
+public class BlameCache {
+
+    private static final String HEADER = "searchcode-blame";
+
+    private final String cacheLocation;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public BlameCache(String cacheLocation) {
+        this.cacheLocation = cacheLocation;
+    }
+
+    /**
+     * Reads the saved results if there are any. A cache that cannot be read is treated as empty.
+     */
+    public void load() {
+        this.entries.clear();
+        File file = new File(this.cacheLocation);
+
+        if (!file.exists()) {
+            return;
+        }
+
+        CSVReader reader = null;
+        try {
+            reader = new CSVReader(new FileReader(file));
+            String[] header = reader.readNext();
+
+            if (header == null || header.length == 0 || !HEADER.equals(header[0])) {
+                return;
+            }
+
+            String[] line;
+            while ((line = reader.readNext()) != null) {
+                if (line.length < 3 || (line.length - 3) % 3 != 0) {
+                    continue;
+                }
+
+                List<BlameRun> runs = new ArrayList<>();
+                for (int i = 3; i < line.length; i += 3) {
+                    runs.add(new BlameRun(Integer.parseInt(line[i + 1]), line[i], Integer.parseInt(line[i + 2])));
+                }
+
+                this.entries.put(line[0], new Entry(line[1], line[2], runs));
+            }
+        }
+        catch (IOException | NumberFormatException ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " load\n with message: " + ex.getMessage());
+            this.entries.clear();
+        }
+        finally {
+            if (reader != null) {
+                try { reader.close(); } catch (IOException ex) {}
+            }
+        }
+    }
+
+    /**
+     * Returns the blame for the path if it was worked out for the same blob, otherwise null
+     */
+    public List<BlameRun> get(String path, String blobId) {
+        Entry entry = this.entries.get(path);
+
+        if (entry == null || !entry.blobId.equals(blobId)) {
+            return null;
+        }
+
+        return entry.runs;
+    }
+
+    /**
+     * Returns whatever blame is held for the path or null if there is none
+     */
+    public List<BlameRun> get(String path) {
+        Entry entry = this.entries.get(path);
+        return entry == null ? null : entry.runs;
+    }
+
+    public void put(String path, String blobId, String head, List<BlameRun> runs) {
+        this.entries.put(path, new Entry(blobId, head, runs));
+    }
+
+    public void remove(String path) {
+        this.entries.remove(path);
+    }
+
+    /**
+     * Drops everything for paths not in the supplied collection, used after a full index so removed files do
+     * not build up
+     */
+    public void retainOnly(Collection<String> paths) {
+        Set<String> keep = new HashSet<>(paths);
+        this.entries.keySet().retainAll(keep);
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    public void save() {
+        try {
+            File file = new File(this.cacheLocation);
+            File parent = file.getParentFile();
+            if (parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
+
+            CSVWriter writer = new CSVWriter(new FileWriter(this.cacheLocation + ".tmp"));
+            writer.writeNext(new String[]{HEADER});
+
+            for (Map.Entry<String, Entry> entry: this.entries.entrySet()) {
+                Entry value = entry.getValue();
+                String[] line = new String[3 + value.runs.size() * 3];
+                line[0] = entry.getKey();
+                line[1] = value.blobId;
+                line[2] = value.head;
+
+                int i = 3;
+                for (BlameRun run: value.runs) {
+                    line[i++] = run.getAuthor();
+                    line[i++] = Integer.toString(run.getLines());
+                    line[i++] = Integer.toString(run.getCommitTime());
+                }
+
+                writer.writeNext(line);
+            }
+
+            writer.flush();
+            writer.close();
+
+            Path source = Paths.get(this.cacheLocation + ".tmp");
+            Files.move(source, Paths.get(this.cacheLocation), StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " save\n with message: " + ex.getMessage());
+        }
+    }
+
+    private static class Entry {
+        private final String blobId;
+        private final String head;
+        private final List<BlameRun> runs;
+
+        private Entry(String blobId, String head, List<BlameRun> runs) {
+            this.blobId = blobId;
+            this.head = head;
+            this.runs = runs;
+        }
+    }
+}
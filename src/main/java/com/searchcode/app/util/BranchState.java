@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2016 Boyter Online Services
+ *
+ * Use of this software is governed by the Fair Source License included
+ * in the LICENSE.TXT file, but will be eventually open under GNU General Public License Version 3
+ * see the README.md for when this clause will take effect
+ *
+ * Version 1.3.8
+ */
+
+package com.searchcode.app.util;
+
+import au.com.bytecode.opencsv.CSVReader;
+import au.com.bytecode.opencsv.CSVWriter;
+import com.searchcode.app.service.Singleton;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How the other branches of a repository differ from the branch it was added with. Files the same on every
+ * branch are only indexed once, so this records which paths in the default branch each other branch has
+ * changed or removed, and a document for each file a branch has that the default branch does not, keyed by
+ * path and blob so branches sharing the same contents share the document. Kept between index runs so only
+ * what has moved since is indexed again.
+ */
+public class BranchState {
+
+    private static final String HEADER = "searchcode-branches";
+    private static final String DIVERGED = "D";
+    private static final String DOCUMENT = "B";
+    private static final String MISSING = "M";
+
+    private final String stateLocation;
+    private List<String> branches = new ArrayList<>();
+    private final List<String> missing = new ArrayList<>();
+    private final Map<String, List<String>> diverged = new HashMap<>();
+    private final Map<String, List<String>> documents = new HashMap<>();
+
+    public BranchState(String stateLocation) {
+        this.stateLocation = stateLocation;
+    }
+
+    /**
+     * Reads the saved state if there is any. State that cannot be read is treated as nothing indexed.
+     */
+    public void load() {
+        this.clear();
+        File file = new File(this.stateLocation);
+
+        if (!file.exists()) {
+            return;
+        }
+
+        CSVReader reader = null;
+        try {
+            reader = new CSVReader(new FileReader(file));
+            String[] header = reader.readNext();
+
+            if (header == null || header.length == 0 || !HEADER.equals(header[0])) {
+                return;
+            }
+
+            this.branches = new ArrayList<>(Arrays.asList(header).subList(1, header.length));
+
+            String[] line;
+            while ((line = reader.readNext()) != null) {
+                if (line.length == 2 && MISSING.equals(line[0])) {
+                    this.missing.add(line[1]);
+                }
+
+                if (line.length < 3) {
+                    continue;
+                }
+
+                List<String> lineBranches = new ArrayList<>(Arrays.asList(line).subList(2, line.length));
+
+                if (DIVERGED.equals(line[0])) {
+                    this.diverged.put(line[1], lineBranches);
+                }
+                else if (DOCUMENT.equals(line[0])) {
+                    this.documents.put(line[1], lineBranches);
+                }
+            }
+        }
+        catch (IOException ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " load\n with message: " + ex.getMessage());
+            this.clear();
+        }
+        finally {
+            if (reader != null) {
+                try { reader.close(); } catch (IOException ex) {}
+            }
+        }
+    }
+
+    /**
+     * The branches other than the default the state was worked out for
+     */
+    public List<String> getBranches() {
+        return this.branches;
+    }
+
+    public void setBranches(List<String> branches) {
+        this.branches = new ArrayList<>(branches);
+    }
+
+    /**
+     * Records that the branch could not be found so it is not on any file
+     */
+    public void addMissing(String branch) {
+        this.missing.add(branch);
+    }
+
+    public List<String> getMissing() {
+        return this.missing;
+    }
+
+    /**
+     * Records that the branch has different contents or nothing at a path which is a file in the default branch
+     */
+    public void addDiverged(String path, String branch) {
+        this.diverged.computeIfAbsent(path, k -> new ArrayList<>()).add(branch);
+    }
+
+    /**
+     * The branches without the default branch contents at the path, empty if they all have it
+     */
+    public List<String> getDiverged(String path) {
+        List<String> diverged = this.diverged.get(path);
+        return diverged == null ? new ArrayList<>() : diverged;
+    }
+
+    public Map<String, List<String>> getDiverged() {
+        return this.diverged;
+    }
+
+    /**
+     * Records that the branch has the blob at the path where the default branch does not
+     */
+    public void addDocument(String path, String blobId, String branch) {
+        this.documents.computeIfAbsent(getDocumentKey(path, blobId), k -> new ArrayList<>()).add(branch);
+    }
+
+    /**
+     * Branches sharing each blob keyed by getDocumentKey
+     */
+    public Map<String, List<String>> getDocuments() {
+        return this.documents;
+    }
+
+    public void clear() {
+        this.branches = new ArrayList<>();
+        this.missing.clear();
+        this.diverged.clear();
+        this.documents.clear();
+    }
+
+    public void save() {
+        try {
+            File file = new File(this.stateLocation);
+            File parent = file.getParentFile();
+            if (parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
+
+            CSVWriter writer = new CSVWriter(new FileWriter(this.stateLocation + ".tmp"));
+
+            List<String> header = new ArrayList<>();
+            header.add(HEADER);
+            header.addAll(this.branches);
+            writer.writeNext(header.toArray(new String[header.size()]));
+
+            for (String branch: this.missing) {
+                writer.writeNext(new String[]{MISSING, branch});
+            }
+
+            this.writeLines(writer, DIVERGED, this.diverged);
+            this.writeLines(writer, DOCUMENT, this.documents);
+
+            writer.flush();
+            writer.close();
+
+            Path source = Paths.get(this.stateLocation + ".tmp");
+            Files.move(source, Paths.get(this.stateLocation), StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " save\n with message: " + ex.getMessage());
+        }
+    }
+
+    private void writeLines(CSVWriter writer, String type, Map<String, List<String>> lines) {
+        for (Map.Entry<String, List<String>> entry: lines.entrySet()) {
+            List<String> line = new ArrayList<>();
+            line.add(type);
+            line.add(entry.getKey());
+            line.addAll(entry.getValue());
+            writer.writeNext(line.toArray(new String[line.size()]));
+        }
+    }
+
+    /**
+     * Blob ids are hex so the last @ always separates them from the path
+     */
+    public static String getDocumentKey(String path, String blobId) {
+        return path + "@" + blobId;
+    }
+
+    public static String getDocumentPath(String key) {
+        return key.substring(0, key.lastIndexOf('@'));
+    }
+
+    public static String getDocumentBlobId(String key) {
+        return key.substring(key.lastIndexOf('@') + 1);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2016 Boyter Online Services
+ *
+ * Use of this software is governed by the Fair Source License included
+ * in the LICENSE.TXT file, but will be eventually open under GNU General Public License Version 3
+ * see the README.md for when this clause will take effect
+ *
+ * Version 1.3.8
+ */
+
+package com.searchcode.app.util;
+
+import com.searchcode.app.model.RepoResult;
+import org.eclipse.jgit.transport.URIish;
+
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the clones and pulls against any one host under a limit and holds back repositories which failed to
+ * fetch until they are due to be retried. Each failure doubles the wait before the next attempt and after
+ * the last retry the repository is left until it is next added to the queue.
+ *
+ * Shared by all of the fetch jobs so every method is synchronized.
+ */
+public class FetchLimiter {
+
+    public static final int MAXRETRIES = 3;
+    public static final long BACKOFFMILLIS = 30000;
+
+    private final int perHostLimit;
+    private final Map<String, Integer> running = new HashMap<>();
+    private final Map<String, Retry> retries = new HashMap<>();
+
+    public FetchLimiter(int perHostLimit) {
+        this.perHostLimit = Math.max(1, perHostLimit);
+    }
+
+    /**
+     * The host a remote location points at, empty for local paths so they share a single limit
+     */
+    public static String getHost(String repoRemoteLocation) {
+        try {
+            String host = new URIish(repoRemoteLocation).getHost();
+            return host == null ? "" : host.toLowerCase();
+        }
+        catch (URISyntaxException | NullPointerException ex) {
+            return "";
+        }
+    }
+
+    /**
+     * Takes a slot for the host if there is one free, the caller must release it once finished
+     */
+    public synchronized boolean tryAcquire(String host) {
+        int count = this.running.getOrDefault(host, 0);
+
+        if (count >= this.perHostLimit) {
+            return false;
+        }
+
+        this.running.put(host, count + 1);
+        return true;
+    }
+
+    public synchronized void release(String host) {
+        int count = this.running.getOrDefault(host, 0) - 1;
+
+        if (count <= 0) {
+            this.running.remove(host);
+        }
+        else {
+            this.running.put(host, count);
+        }
+
+        this.notifyAll();
+    }
+
+    /**
+     * Waits up to the timeout for any host to be released, used to wait for a busy host rather than spinning
+     */
+    public synchronized void awaitRelease(long timeoutMillis) throws InterruptedException {
+        this.wait(timeoutMillis);
+    }
+
+    public synchronized int running(String host) {
+        return this.running.getOrDefault(host, 0);
+    }
+
+    /**
+     * Records a failed fetch, returning true if it will be retried
+     */
+    public synchronized boolean recordFailure(RepoResult repoResult, long now) {
+        Retry retry = this.retries.get(repoResult.getName());
+        int attempts = retry == null ? 1 : retry.attempts + 1;
+
+        if (attempts > MAXRETRIES) {
+            this.retries.remove(repoResult.getName());
+            return false;
+        }
+
+        long delay = BACKOFFMILLIS << (attempts - 1);
+        this.retries.put(repoResult.getName(), new Retry(repoResult, attempts, now + delay));
+        return true;
+    }
+
+    public synchronized void recordSuccess(String repoName) {
+        this.retries.remove(repoName);
+    }
+
+    /**
+     * True if the repository failed recently and is waiting to be retried, it should not be fetched until then
+     */
+    public synchronized boolean isBackingOff(String repoName, long now) {
+        Retry retry = this.retries.get(repoName);
+        return retry != null && retry.due > now;
+    }
+
+    /**
+     * Returns a repository whose retry is due if there is one. It stays known as retrying so another failure
+     * backs off further.
+     */
+    public synchronized RepoResult pollRetry(long now) {
+        for (Retry retry: this.retries.values()) {
+            if (retry.due <= now && !retry.taken) {
+                retry.taken = true;
+                return retry.repoResult;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * How long until the next retry is due, zero if one is due now or -1 if there are none waiting
+     */
+    public synchronized long getRetryDelay(long now) {
+        long delay = -1;
+
+        for (Retry retry: this.retries.values()) {
+            if (!retry.taken) {
+                long until = Math.max(0, retry.due - now);
+                delay = delay == -1 ? until : Math.min(delay, until);
+            }
+        }
+
+        return delay;
+    }
+
+    /**
+     * Drops any pending retry such as when the repository is deleted
+     */
+    public synchronized void forget(String repoName) {
+        this.retries.remove(repoName);
+    }
+
+    private static class Retry {
+        private final RepoResult repoResult;
+        private final int attempts;
+        private final long due;
+        private boolean taken = false;
+
+        private Retry(RepoResult repoResult, int attempts, long due) {
+            this.repoResult = repoResult;
+            this.attempts = attempts;
+            this.due = due;
+        }
+    }
+}
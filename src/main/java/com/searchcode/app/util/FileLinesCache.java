@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2016 Boyter Online Services
+ *
+ * Use of this software is governed by the Fair Source License included
+ * in the LICENSE.TXT file, but will be eventually open under GNU General Public License Version 3
+ * see the README.md for when this clause will take effect
+ *
+ * Version 1.3.8
+ */
+
+package com.searchcode.app.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Holds the decoded lines of recently displayed files so that popular files are served from memory rather than
+ * being read from disk with charset detection for every search and file view. Entries are keyed by path and
+ * only returned if the MD5 hash still matches what was indexed. Size is limited by the approximate number of
+ * bytes the lines take in memory with the least recently used evicted first.
+ */
+public class FileLinesCache {
+
+    private static final int LINEOVERHEAD = 40; // Rough size of a String object and its reference in the list
+
+    private final Cache<String, CachedFile> cache;
+
+    public FileLinesCache(long maxBytes) {
+        if (maxBytes > 0) {
+            this.cache = CacheBuilder.newBuilder()
+                    .maximumWeight(maxBytes)
+                    .weigher((String path, CachedFile cachedFile) -> cachedFile.weight)
+                    .build();
+        }
+        else {
+            this.cache = null;
+        }
+    }
+
+    /**
+     * Returns the cached lines for the path if they are for the supplied hash, otherwise null
+     */
+    public List<String> get(String path, String md5hash) {
+        if (this.cache == null || path == null) {
+            return null;
+        }
+
+        CachedFile cachedFile = this.cache.getIfPresent(path);
+
+        if (cachedFile == null || !cachedFile.md5hash.equals(md5hash)) {
+            return null;
+        }
+
+        return cachedFile.lines;
+    }
+
+    /**
+     * Stores the lines for the path and hash. The lines returned from get are read only.
+     */
+    public void put(String path, String md5hash, List<String> lines) {
+        if (this.cache == null || path == null || md5hash == null) {
+            return;
+        }
+
+        long weight = 0;
+        for (String line: lines) {
+            weight += (line.length() * 2) + LINEOVERHEAD;
+        }
+
+        this.cache.put(path, new CachedFile(md5hash, Collections.unmodifiableList(new ArrayList<>(lines)), (int)Math.min(weight, Integer.MAX_VALUE)));
+    }
+
+    /**
+     * Called by the indexer when the file at the path has changed
+     */
+    public void invalidate(String path) {
+        if (this.cache != null && path != null) {
+            this.cache.invalidate(path);
+        }
+    }
+
+    public void invalidateAll() {
+        if (this.cache != null) {
+            this.cache.invalidateAll();
+        }
+    }
+
+    private static class CachedFile {
+        private final String md5hash;
+        private final List<String> lines;
+        private final int weight;
+
+        private CachedFile(String md5hash, List<String> lines, int weight) {
+            this.md5hash = md5hash;
+            this.lines = lines;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2016 Boyter Online Services
+ *
+ * Use of this software is governed by the Fair Source License included
+ * in the LICENSE.TXT file, but will be eventually open under GNU General Public License Version 3
+ * see the README.md for when this clause will take effect
+ *
+ * Version 1.3.8
+ */
+
+package com.searchcode.app.util;
+
+import au.com.bytecode.opencsv.CSVReader;
+import au.com.bytecode.opencsv.CSVWriter;
+import com.searchcode.app.service.Singleton;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Record of the path, size, modified time and hash of every file seen the last time a file repository was walked.
+ * Lets the indexer stat files and only read those which have changed since, and work out which files have been
+ * removed without asking the index. Updates are made from multiple threads during the walk and written out once
+ * it is finished.
+ */
+public class FileRepoManifest {
+
+    private static final String HEADER = "searchcode-manifest";
+    private static final long RACYMILLIS = 2000; // Coarsest modified time resolution we expect from a file system
+
+    private final String manifestLocation;
+    private final Map<String, Entry> previous = new HashMap<>();
+    private final Map<String, Entry> current = new ConcurrentHashMap<>();
+    private long previousScanStart = 0;
+    private final long scanStart = System.currentTimeMillis();
+
+    public FileRepoManifest(String manifestLocation) {
+        this.manifestLocation = manifestLocation;
+    }
+
+    /**
+     * Reads the manifest written by the previous walk. Returns false if there was none or it could not be read
+     * in which case every file is treated as changed.
+     */
+    public boolean load() {
+        this.previous.clear();
+        File file = new File(this.manifestLocation);
+
+        if (!file.exists()) {
+            return false;
+        }
+
+        CSVReader reader = null;
+        try {
+            reader = new CSVReader(new FileReader(file));
+            String[] header = reader.readNext();
+
+            if (header == null || header.length != 2 || !HEADER.equals(header[0])) {
+                return false;
+            }
+
+            this.previousScanStart = Long.parseLong(header[1]);
+
+            String[] line;
+            while ((line = reader.readNext()) != null) {
+                if (line.length == 4) {
+                    this.previous.put(line[0], new Entry(Long.parseLong(line[1]), Long.parseLong(line[2]), line[3]));
+                }
+            }
+        }
+        catch (IOException | NumberFormatException ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " load\n with message: " + ex.getMessage());
+            this.previous.clear();
+            return false;
+        }
+        finally {
+            if (reader != null) {
+                try { reader.close(); } catch (IOException ex) {}
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * True if the file has the same size and modified time as when it was last processed. Files modified close
+     * to when the previous walk started are never trusted as a second change inside the file system timestamp
+     * resolution would otherwise be missed. Unchanged files are carried over to the new manifest.
+     */
+    public boolean isUnchanged(String path, long size, long lastModified) {
+        Entry entry = this.previous.get(path);
+
+        if (entry == null || entry.size != size || entry.lastModified != lastModified) {
+            return false;
+        }
+
+        if (lastModified >= this.previousScanStart - RACYMILLIS) {
+            return false;
+        }
+
+        this.current.put(path, entry);
+        return true;
+    }
+
+    /**
+     * The hash recorded for the file by the previous walk, empty if it was excluded or null if it was not seen
+     */
+    public String getPreviousMd5Hash(String path) {
+        Entry entry = this.previous.get(path);
+        return entry == null ? null : entry.md5Hash;
+    }
+
+    /**
+     * Records a processed file. The hash should be empty if the file was not indexed.
+     */
+    public void record(String path, long size, long lastModified, String md5Hash) {
+        this.current.put(path, new Entry(size, lastModified, md5Hash));
+    }
+
+    /**
+     * Files in the previous manifest which have not been seen by this walk
+     */
+    public List<String> getMissing() {
+        List<String> missing = new ArrayList<>();
+
+        for (String path: this.previous.keySet()) {
+            if (!this.current.containsKey(path)) {
+                missing.add(path);
+            }
+        }
+
+        return missing;
+    }
+
+    /**
+     * Writes out the manifest. If the walk did not complete the previous entries for files not reached are kept
+     * so they are not seen as deleted next time.
+     */
+    public void save(boolean walkComplete) {
+        Map<String, Entry> toSave = new HashMap<>();
+        if (!walkComplete) {
+            toSave.putAll(this.previous);
+        }
+        toSave.putAll(this.current);
+
+        long savedScanStart = walkComplete || this.previous.isEmpty() ? this.scanStart : Math.min(this.scanStart, this.previousScanStart);
+
+        try {
+            File file = new File(this.manifestLocation);
+            File parent = file.getParentFile();
+            if (parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
+
+            CSVWriter writer = new CSVWriter(new FileWriter(this.manifestLocation + ".tmp"));
+            writer.writeNext(new String[]{HEADER, Long.toString(savedScanStart)});
+            for (Map.Entry<String, Entry> entry: toSave.entrySet()) {
+                Entry value = entry.getValue();
+                writer.writeNext(new String[]{entry.getKey(), Long.toString(value.size), Long.toString(value.lastModified), value.md5Hash});
+            }
+            writer.flush();
+            writer.close();
+
+            Path source = Paths.get(this.manifestLocation + ".tmp");
+            Files.move(source, Paths.get(this.manifestLocation), StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " save\n with message: " + ex.getMessage());
+        }
+    }
+
+    public int previousSize() {
+        return this.previous.size();
+    }
+
+    private static class Entry {
+        private final long size;
+        private final long lastModified;
+        private final String md5Hash;
+
+        private Entry(long size, long lastModified, String md5Hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.md5Hash = md5Hash;
+        }
+    }
+}
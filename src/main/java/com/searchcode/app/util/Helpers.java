@@ -97,29 +97,7 @@ public class Helpers {
     }
 
     public static List<String> readFileLinesGuessEncoding(String filePath, int maxFileLineDepth) throws IOException {
-        List<String> fileLines = new ArrayList<>();
-        BufferedReader bufferedReader = null;
-        String line;
-
-        try {
-            bufferedReader = new BufferedReader(new InputStreamReader(new FileInputStream(filePath), guessCharset(new File(filePath))));
-
-            int lineCount = 0;
-            while ((line = bufferedReader.readLine()) != null) {
-                lineCount++;
-
-                fileLines.add(line);
-
-                if (lineCount == maxFileLineDepth) {
-                    return fileLines;
-                }
-            }
-        }
-        finally {
-            IOUtils.closeQuietly(bufferedReader);
-        }
-
-        return fileLines;
+        return SourceFile.load(filePath, maxFileLineDepth, false).getLines();
     }
 
     public static Charset guessCharset(File file) throws IOException {
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2016 Boyter Online Services
+ *
+ * Use of this software is governed by the Fair Source License included
+ * in the LICENSE.TXT file, but will be eventually open under GNU General Public License Version 3
+ * see the README.md for when this clause will take effect
+ *
+ * Version 1.3.8
+ */
+
+package com.searchcode.app.util;
+
+import au.com.bytecode.opencsv.CSVReader;
+import au.com.bytecode.opencsv.CSVWriter;
+import com.searchcode.app.service.Singleton;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Where indexing the history of a repository got to. Holds the last commit whose changes are in the time index
+ * and for every path live at that commit the commit its contents were first seen at, which is what the time
+ * document for those contents is keyed by. When a later commit changes or removes the path that document has
+ * its end set rather than a new copy of the file being indexed.
+ */
+public class HistoryState {
+
+    private static final String HEADER = "searchcode-history";
+
+    private final String stateLocation;
+    private ObjectId checkpoint = null;
+    private final Map<String, String> live = new HashMap<>();
+
+    public HistoryState(String stateLocation) {
+        this.stateLocation = stateLocation;
+    }
+
+    /**
+     * Reads the saved state if there is any. State that cannot be read is treated as nothing indexed.
+     */
+    public void load() {
+        this.clear();
+        File file = new File(this.stateLocation);
+
+        if (!file.exists()) {
+            return;
+        }
+
+        CSVReader reader = null;
+        try {
+            reader = new CSVReader(new FileReader(file));
+            String[] header = reader.readNext();
+
+            if (header == null || header.length != 2 || !HEADER.equals(header[0]) || !ObjectId.isId(header[1])) {
+                return;
+            }
+
+            String[] line;
+            while ((line = reader.readNext()) != null) {
+                if (line.length == 2) {
+                    this.live.put(line[0], line[1]);
+                }
+            }
+
+            this.checkpoint = ObjectId.fromString(header[1]);
+        }
+        catch (IOException ex) {
+            Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " load\n with message: " + ex.getMessage());
+            this.clear();
+        }
+        finally {
+            if (reader != null) {
+                try { reader.close(); } catch (IOException ex) {}
+            }
+        }
+    }
+
+    public ObjectId getCheckpoint() {
+        return this.checkpoint;
+    }
+
+    public void setCheckpoint(ObjectId checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * The commit the contents currently at the path were first seen at or null if nothing is there
+     */
+    public String getLive(String path) {
+        return this.live.get(path);
+    }
+
+    public void putLive(String path, String revision) {
+        this.live.put(path, revision);
+    }
+
+    public void removeLive(String path) {
+        this.live.remove(path);
+    }
+
+    public int size() {
+        return this.live.size();
+    }
+
+    public void clear() {
+        this.checkpoint = null;
+        this.live.clear();
+    }
+
+    public void save() throws IOException {
+        File file = new File(this.stateLocation);
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+
+        CSVWriter writer = new CSVWriter(new FileWriter(this.stateLocation + ".tmp"));
+        writer.writeNext(new String[]{HEADER, this.checkpoint == null ? "" : this.checkpoint.getName()});
+        for (Map.Entry<String, String> entry: this.live.entrySet()) {
+            writer.writeNext(new String[]{entry.getKey(), entry.getValue()});
+        }
+        writer.flush();
+        writer.close();
+
+        Path source = Paths.get(this.stateLocation + ".tmp");
+        Files.move(source, Paths.get(this.stateLocation), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
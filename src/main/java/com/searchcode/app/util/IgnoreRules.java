@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2016 Boyter Online Services
+ *
+ * Use of this software is governed by the Fair Source License included
+ * in the LICENSE.TXT file, but will be eventually open under GNU General Public License Version 3
+ * see the README.md for when this clause will take effect
+ *
+ * Version 1.3.8
+ */
+
+package com.searchcode.app.util;
+
+import com.searchcode.app.service.Singleton;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jgit.ignore.FastIgnoreRule;
+import org.eclipse.jgit.ignore.IgnoreNode;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies .gitignore style files found while walking a directory tree. Each directory's ignore files apply to
+ * everything below it with rules closer to the path taking priority, the same as git. The rules are compiled once
+ * when their directory is entered using the JGit matchers and dropped again when the walk leaves it, so only the
+ * rules for the directories currently being walked are held in memory.
+ *
+ * Not thread safe, should only be used from the thread doing the walk.
+ */
+public class IgnoreRules {
+
+    // Later files take priority over earlier ones in the same directory
+    public static final String[] IGNOREFILES = {".gitignore", ".ignore", ".searchcodeignore"};
+
+    private final Path root;
+    private final Map<Path, FastIgnoreRule[]> nodes = new HashMap<>();
+
+    // Only used when checking paths outside of a walk
+    private final Set<Path> entered = new HashSet<>();
+    private final Set<Path> ignoredDirectories = new HashSet<>();
+
+    public IgnoreRules(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * Called as the walk enters a directory. Returns true if the directory is ignored and should be skipped,
+     * otherwise loads any ignore files it contains.
+     */
+    public boolean enterDirectory(Path directory) {
+        if (!directory.equals(this.root) && this.isIgnored(directory, true)) {
+            return true;
+        }
+
+        List<String> ignoreFiles = new ArrayList<>();
+        for (String ignoreFile: IGNOREFILES) {
+            Path path = directory.resolve(ignoreFile);
+            if (Files.isRegularFile(path)) {
+                ignoreFiles.add(path.toString());
+            }
+        }
+
+        if (!ignoreFiles.isEmpty()) {
+            IgnoreNode ignoreNode = new IgnoreNode();
+
+            for (String ignoreFile: ignoreFiles) {
+                InputStream inputStream = null;
+                try {
+                    inputStream = new FileInputStream(ignoreFile);
+                    ignoreNode.parse(inputStream);
+                }
+                catch (IOException ex) {
+                    Singleton.getLogger().warning("ERROR - caught a " + ex.getClass() + " in " + this.getClass() + " enterDirectory for " + ignoreFile + "\n with message: " + ex.getMessage());
+                }
+                finally {
+                    IOUtils.closeQuietly(inputStream);
+                }
+            }
+
+            if (!ignoreNode.getRules().isEmpty()) {
+                this.nodes.put(directory, ignoreNode.getRules().toArray(new FastIgnoreRule[0]));
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Called as the walk leaves a directory
+     */
+    public void exitDirectory(Path directory) {
+        this.nodes.remove(directory);
+    }
+
+    /**
+     * For checking individual files without walking to them such as when indexing a set of changes. Loads the
+     * rules for each directory between the root and the file the first time it is seen.
+     */
+    public boolean isIgnoredFromRoot(Path file) {
+        Path parent = file.getParent();
+
+        if (parent == null || !parent.startsWith(this.root)) {
+            return false;
+        }
+
+        Path directory = this.root;
+        Iterator<Path> names = this.root.relativize(parent).iterator();
+
+        while (true) {
+            if (this.entered.add(directory) && this.enterDirectory(directory)) {
+                this.ignoredDirectories.add(directory);
+            }
+
+            if (this.ignoredDirectories.contains(directory)) {
+                return true;
+            }
+
+            if (!names.hasNext()) {
+                break;
+            }
+
+            Path name = names.next();
+            if (!name.toString().isEmpty()) {
+                directory = directory.resolve(name);
+            }
+        }
+
+        return this.isIgnored(file, false);
+    }
+
+    /**
+     * Checks the path against the rules of each directory above it, nearest first, until one of them matches
+     */
+    public boolean isIgnored(Path path, boolean isDirectory) {
+        if (this.nodes.isEmpty()) {
+            return false;
+        }
+
+        Path directory = path.getParent();
+
+        while (directory != null) {
+            FastIgnoreRule[] rules = this.nodes.get(directory);
+
+            if (rules != null) {
+                String relative = FilenameUtils.separatorsToUnix(directory.relativize(path).toString());
+
+                // Last matching rule wins, a negated rule means the path is included
+                for (int i = rules.length - 1; i >= 0; i--) {
+                    if (rules[i].isMatch(relative, isDirectory)) {
+                        return rules[i].getResult();
+                    }
+                }
+            }
+
+            if (directory.equals(this.root)) {
+                break;
+            }
+
+            directory = directory.getParent();
+        }
+
+        return false;
+    }
+}
@@ -302,6 +302,136 @@ public class SearchcodeLib {
         return new BinaryFinding(false, Values.EMPTYSTRING);
     }
 
+    /**
+     * Cheap check run against a sample of the raw bytes at the start of a file before it is decoded so that
+     * images, archives and bundles can be thrown away without decoding them. Makes the same extension checks as
+     * isMinified and isBinary. The line length and non-ascii checks assume every non-ascii byte could be part of
+     * a four byte character, which is the fewest characters the bytes could decode to, so a sample is only
+     * excluded here if the checks on its decoded lines would also exclude it. Files containing
+     * null bytes are also excluded unless they start with a UTF-16 or UTF-32 byte order mark. Both the line
+     * length and character checks are only made when the sample is the complete file, for anything larger the
+     * checks on the decoded lines decide.
+     * Returns a finding marked as binary with the reason if the file should not be indexed.
+     */
+    public BinaryFinding isBinaryOrMinifiedSample(byte[] sample, int length, boolean complete, String fileName) {
+        String lowerFileName = fileName.toLowerCase();
+
+        for (String extension: this.WHITELIST) {
+            if (lowerFileName.endsWith("." + extension)) {
+                return new BinaryFinding(false, "appears in extension whitelist");
+            }
+        }
+
+        if (length == 0) {
+            return new BinaryFinding(false, Values.EMPTYSTRING);
+        }
+
+        // Lower bound on the average trimmed line length without spaces
+        double lineTotal = 0;
+        double currentLine = 0;
+        int lineCount = 0;
+        int asciiCount = 0;
+        int nonAsciiCount = 0;
+        boolean nullByte = false;
+
+        for (int i = 0; i < length; i++) {
+            int b = sample[i] & 0xFF;
+
+            if (b == '\n' || b == '\r') {
+                lineTotal += currentLine;
+                currentLine = 0;
+                lineCount++;
+
+                if (b == '\r' && i + 1 < length && sample[i + 1] == '\n') {
+                    i++;
+                }
+                continue;
+            }
+
+            if (b >= 0x80) {
+                nonAsciiCount++;
+                currentLine += 0.25;
+            }
+            else {
+                asciiCount++;
+                if (b > ' ') {
+                    currentLine++;
+                }
+                if (b == 0) {
+                    nullByte = true;
+                }
+            }
+        }
+
+        // The average is only known if we have the whole file, even a sample which is one long line could be
+        // followed by enough short ones to bring the average down
+        if (currentLine != 0 && complete) {
+            lineTotal += currentLine;
+            lineCount++;
+        }
+
+        if (complete && lineCount != 0 && (lineTotal / lineCount) > this.MINIFIEDLENGTH) {
+            return new BinaryFinding(true, "appears to be minified");
+        }
+
+        for (String extention: this.BLACKLIST) {
+            if (lowerFileName.endsWith("." + extention)) {
+                return new BinaryFinding(true, "appears in extension blacklist");
+            }
+        }
+
+        for (Classifier classifier: this.classifier) {
+            for (String extention: classifier.extensions) {
+                if (lowerFileName.endsWith("." + extention)) {
+                    return new BinaryFinding(false, "appears in internal extension whitelist");
+                }
+            }
+        }
+
+        if (this.GUESSBINARY == false || hasWideByteOrderMark(sample, length)) {
+            return new BinaryFinding(false, Values.EMPTYSTRING);
+        }
+
+        // The start of a file says nothing about the characters in the rest of it so unless this is the whole file
+        // leave it to the check on the decoded lines
+        if (!complete) {
+            return new BinaryFinding(false, Values.EMPTYSTRING);
+        }
+
+        if (nullByte) {
+            return new BinaryFinding(true, "contains null bytes");
+        }
+
+        if (nonAsciiCount == 0) {
+            return new BinaryFinding(false, Values.EMPTYSTRING);
+        }
+
+        if (asciiCount == 0) {
+            return new BinaryFinding(true, "all characters found non-ascii");
+        }
+
+        double percent = asciiCount / (asciiCount + (nonAsciiCount / 4.0));
+
+        if (percent < 0.30) {
+            return new BinaryFinding(true, "only 30% of characters are non-ascii");
+        }
+
+        return new BinaryFinding(false, Values.EMPTYSTRING);
+    }
+
+    private boolean hasWideByteOrderMark(byte[] sample, int length) {
+        if (length >= 2) {
+            int first = sample[0] & 0xFF;
+            int second = sample[1] & 0xFF;
+
+            if ((first == 0xFE && second == 0xFF) || (first == 0xFF && second == 0xFE)) {
+                return true;
+            }
+        }
+
+        return length >= 4 && sample[0] == 0 && sample[1] == 0 && (sample[2] & 0xFF) == 0xFE && (sample[3] & 0xFF) == 0xFF;
+    }
+
     /**
      * Determines who owns a piece of code weighted by time based on current second (IE time now)
      * NB if a commit is very close to this time it will always win
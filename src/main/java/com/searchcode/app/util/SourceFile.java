@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2016 Boyter Online Services
+ *
+ * Use of this software is governed by the Fair Source License included
+ * in the LICENSE.TXT file, but will be eventually open under GNU General Public License Version 3
+ * see the README.md for when this clause will take effect
+ *
+ * Version 1.3.8
+ */
+
+package com.searchcode.app.util;
+
+import com.glaforge.i18n.io.CharsetToolkit;
+import com.searchcode.app.dto.BinaryFinding;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Loads a file from disk in a single pass. The encoding is guessed from the first bytes read rather than opening
+ * the file a second time, only as many bytes as are needed for the requested number of lines are kept and the
+ * lines are exposed as a view over the decoded text using line offsets so strings are only created for the
+ * lines actually used. Optionally calculates the MD5 of the whole file during the same pass which saves the
+ * indexer reading every file a third time.
+ *
+ * Lines are split the same way as BufferedReader.readLine so results match what was read previously.
+ */
+public class SourceFile {
+
+    private static final int SNIFFLENGTH = 4096; // Same number of bytes previously used to guess the encoding
+    private static final int BUFFERSIZE = 8192;
+    private static final int SAMPLELENGTH = 8192; // How much of the file the prefilter gets to look at
+
+    private final Charset charset;
+    private final String md5Hash;
+    private final String content;
+    private final int[] lineStarts;
+    private final int[] lineEnds;
+    private BinaryFinding exclusion = null;
+
+    /**
+     * Check made against the first bytes of a file before it is decoded. Returning a finding marked as binary
+     * stops the file being read any further.
+     */
+    public interface Prefilter {
+        BinaryFinding check(byte[] sample, int length, boolean complete);
+    }
+
+    private SourceFile(Charset charset, String md5Hash, String content, int[] lineStarts, int[] lineEnds) {
+        this.charset = charset;
+        this.md5Hash = md5Hash;
+        this.content = content;
+        this.lineStarts = lineStarts;
+        this.lineEnds = lineEnds;
+    }
+
+    /**
+     * Reads up to maxFileLineDepth lines from the file, a value of 0 or less reads every line. If calculateMd5
+     * is set the rest of the file is still read to hash it but is not kept in memory.
+     */
+    public static SourceFile load(String filePath, int maxFileLineDepth, boolean calculateMd5) throws IOException {
+        return load(filePath, maxFileLineDepth, calculateMd5, null);
+    }
+
+    /**
+     * As above but runs the prefilter against a sample from the start of the file first. If it excludes the file
+     * nothing is decoded, no hash is calculated and getExclusion returns the reason.
+     */
+    public static SourceFile load(String filePath, int maxFileLineDepth, boolean calculateMd5, Prefilter prefilter) throws IOException {
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(filePath);
+            return load(inputStream, maxFileLineDepth, calculateMd5, prefilter);
+        }
+        finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * As above but reads from a stream such as a blob in a git object database. The stream is not closed.
+     */
+    public static SourceFile load(InputStream inputStream, int maxFileLineDepth, boolean calculateMd5, Prefilter prefilter) throws IOException {
+        MessageDigest messageDigest = calculateMd5 ? DigestUtils.getMd5Digest() : null;
+        byte[] kept = new byte[BUFFERSIZE];
+        int keptLength = 0;
+        int newLines = 0;
+        boolean keeping = true;
+        Charset charset = null;
+
+        byte[] buffer = new byte[BUFFERSIZE];
+        int read;
+
+        while ((read = inputStream.read(buffer)) != -1) {
+            if (messageDigest != null) {
+                messageDigest.update(buffer, 0, read);
+            }
+
+            if (keeping) {
+                if (keptLength + read > kept.length) {
+                    kept = Arrays.copyOf(kept, Math.max(kept.length * 2, keptLength + read));
+                }
+                System.arraycopy(buffer, 0, kept, keptLength, read);
+                keptLength += read;
+
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        newLines++;
+                    }
+                }
+
+                if (prefilter != null && keptLength >= SAMPLELENGTH) {
+                    BinaryFinding binaryFinding = prefilter.check(kept, SAMPLELENGTH, false);
+                    prefilter = null;
+
+                    if (binaryFinding.isBinary()) {
+                        return excluded(binaryFinding);
+                    }
+                }
+
+                // Counting newline bytes only works for encodings where a newline is a single byte and
+                // the encoding can only be guessed once we have enough bytes to sniff
+                if (maxFileLineDepth > 0 && newLines >= maxFileLineDepth && keptLength >= SNIFFLENGTH) {
+                    charset = guessCharset(kept, keptLength);
+                    keeping = !isSingleByteNewLine(charset);
+                }
+            }
+
+            if (!keeping && messageDigest == null) {
+                break;
+            }
+        }
+
+        if (prefilter != null) {
+            BinaryFinding binaryFinding = prefilter.check(kept, keptLength, true);
+
+            if (binaryFinding.isBinary()) {
+                return excluded(binaryFinding);
+            }
+        }
+
+        if (charset == null) {
+            charset = guessCharset(kept, keptLength);
+        }
+
+        String content = new String(kept, 0, keptLength, charset);
+        String md5Hash = messageDigest == null ? "" : Hex.encodeHexString(messageDigest.digest());
+
+        return split(charset, md5Hash, content, maxFileLineDepth);
+    }
+
+    public Charset getCharset() {
+        return this.charset;
+    }
+
+    /**
+     * MD5 of the whole file or empty if it was not requested when loading
+     */
+    public String getMd5Hash() {
+        return this.md5Hash;
+    }
+
+    /**
+     * The reason the prefilter excluded the file or null if it was loaded
+     */
+    public BinaryFinding getExclusion() {
+        return this.exclusion;
+    }
+
+    public int getLineCount() {
+        return this.lineStarts.length;
+    }
+
+    public String getLine(int lineNumber) {
+        return this.content.substring(this.lineStarts[lineNumber], this.lineEnds[lineNumber]);
+    }
+
+    /**
+     * Read only view of the lines, each line is only turned into a string when asked for
+     */
+    public List<String> getLines() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return getLine(index);
+            }
+
+            @Override
+            public int size() {
+                return getLineCount();
+            }
+        };
+    }
+
+    private static SourceFile excluded(BinaryFinding binaryFinding) {
+        SourceFile sourceFile = new SourceFile(StandardCharsets.UTF_8, "", "", new int[0], new int[0]);
+        sourceFile.exclusion = binaryFinding;
+        return sourceFile;
+    }
+
+    private static SourceFile split(Charset charset, String md5Hash, String content, int maxFileLineDepth) {
+        int capacity = maxFileLineDepth > 0 ? Math.min(maxFileLineDepth, 1024) : 1024;
+        int[] lineStarts = new int[capacity];
+        int[] lineEnds = new int[capacity];
+        int lineCount = 0;
+
+        int length = content.length();
+        int start = 0;
+        int i = 0;
+
+        while (i < length && (maxFileLineDepth <= 0 || lineCount < maxFileLineDepth)) {
+            char c = content.charAt(i);
+
+            if (c == '\n' || c == '\r') {
+                if (lineCount == lineStarts.length) {
+                    lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+                    lineEnds = Arrays.copyOf(lineEnds, lineCount * 2);
+                }
+
+                lineStarts[lineCount] = start;
+                lineEnds[lineCount] = i;
+                lineCount++;
+
+                if (c == '\r' && i + 1 < length && content.charAt(i + 1) == '\n') {
+                    i++;
+                }
+
+                start = i + 1;
+            }
+
+            i++;
+        }
+
+        // Last line without a line terminator
+        if (start < length && (maxFileLineDepth <= 0 || lineCount < maxFileLineDepth)) {
+            if (lineCount == lineStarts.length) {
+                lineStarts = Arrays.copyOf(lineStarts, lineCount + 1);
+                lineEnds = Arrays.copyOf(lineEnds, lineCount + 1);
+            }
+
+            lineStarts[lineCount] = start;
+            lineEnds[lineCount] = length;
+            lineCount++;
+        }
+
+        return new SourceFile(charset, md5Hash, content, Arrays.copyOf(lineStarts, lineCount), Arrays.copyOf(lineEnds, lineCount));
+    }
+
+    /**
+     * Guesses the encoding from the start of the file padded out the same way CharsetToolkit.guessEncoding
+     * does when given a file shorter than the sniff length
+     */
+    private static Charset guessCharset(byte[] bytes, int length) {
+        byte[] sniff = new byte[SNIFFLENGTH];
+        System.arraycopy(bytes, 0, sniff, 0, Math.min(length, SNIFFLENGTH));
+
+        CharsetToolkit charsetToolkit = new CharsetToolkit(sniff);
+        charsetToolkit.setDefaultCharset(StandardCharsets.UTF_8);
+        return charsetToolkit.guessEncoding();
+    }
+
+    private static boolean isSingleByteNewLine(Charset charset) {
+        byte[] newLine = "\n".getBytes(charset);
+        return newLine.length == 1 && newLine[0] == '\n';
+    }
+}
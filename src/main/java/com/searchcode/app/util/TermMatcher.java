@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2016 Boyter Online Services
+ *
+ * Use of this software is governed by the Fair Source License included
+ * in the LICENSE.TXT file, but will be eventually open under GNU General Public License Version 3
+ * see the README.md for when this clause will take effect
+ *
+ * Version 1.3.8
+ */
+
+package com.searchcode.app.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton used to count how many of a set of terms appear in a line in a single pass over its
+ * characters. The terms are compiled once and then each line is scanned lower cased with runs of whitespace
+ * treated as a single space, which is the same as calling line.toLowerCase().replaceAll("\\s+", " ") and then
+ * contains for every term, but without allocating anything per line.
+ *
+ * Not thread safe as the scan reuses internal state, create one per thread.
+ */
+public class TermMatcher {
+
+    private final int termCount;
+    private final int alwaysMatching; // Empty terms are contained in every line
+
+    // Flattened automaton, transitions for each state are sorted by character so they can be binary searched
+    private final char[][] transitionChars;
+    private final int[][] transitionStates;
+    private final int[] failure;
+    private final int[][] output;
+
+    // Line stamp per term used to count each term once per line without clearing an array every line
+    private final int[] seen;
+    private int stamp = 0;
+
+    public TermMatcher(List<String> terms) {
+        this.termCount = terms.size();
+        this.seen = new int[this.termCount];
+
+        List<Map<Character, Integer>> trie = new ArrayList<>();
+        List<List<Integer>> termsAtState = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        termsAtState.add(new ArrayList<>());
+
+        int empty = 0;
+        for (int i = 0; i < this.termCount; i++) {
+            String term = terms.get(i);
+
+            if (term.isEmpty()) {
+                empty++;
+                continue;
+            }
+
+            int state = 0;
+            for (int j = 0; j < term.length(); j++) {
+                Integer next = trie.get(state).get(term.charAt(j));
+
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    termsAtState.add(new ArrayList<>());
+                    trie.get(state).put(term.charAt(j), next);
+                }
+
+                state = next;
+            }
+
+            termsAtState.get(state).add(i);
+        }
+
+        this.alwaysMatching = empty;
+
+        int stateCount = trie.size();
+        this.transitionChars = new char[stateCount][];
+        this.transitionStates = new int[stateCount][];
+        this.failure = new int[stateCount];
+        this.output = new int[stateCount][];
+
+        for (int state = 0; state < stateCount; state++) {
+            Map<Character, Integer> transitions = trie.get(state);
+            this.transitionChars[state] = new char[transitions.size()];
+            this.transitionStates[state] = new int[transitions.size()];
+
+            int j = 0;
+            for (Map.Entry<Character, Integer> entry: transitions.entrySet()) {
+                this.transitionChars[state][j] = entry.getKey();
+                this.transitionStates[state][j] = entry.getValue();
+                j++;
+            }
+        }
+
+        // Breadth first so the failure state of every state is resolved before its children
+        this.output[0] = new int[0];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int child: this.transitionStates[0]) {
+            this.failure[child] = 0;
+            queue.add(child);
+        }
+
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+
+            List<Integer> own = termsAtState.get(state);
+            int[] inherited = this.output[this.failure[state]];
+            int[] merged = Arrays.copyOf(inherited, inherited.length + own.size());
+            for (int j = 0; j < own.size(); j++) {
+                merged[inherited.length + j] = own.get(j);
+            }
+            this.output[state] = merged;
+
+            for (int j = 0; j < this.transitionChars[state].length; j++) {
+                char c = this.transitionChars[state][j];
+                int child = this.transitionStates[state][j];
+
+                int fallback = this.failure[state];
+                int next = this.transition(fallback, c);
+                while (fallback != 0 && next == -1) {
+                    fallback = this.failure[fallback];
+                    next = this.transition(fallback, c);
+                }
+
+                this.failure[child] = next == -1 ? 0 : next;
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Returns how many of the terms are contained in the line. Duplicate terms are counted once each.
+     */
+    public int countMatchingTerms(String line) {
+        if (this.stamp == Integer.MAX_VALUE) {
+            Arrays.fill(this.seen, 0);
+            this.stamp = 0;
+        }
+        this.stamp++;
+
+        int matching = this.alwaysMatching;
+        int state = 0;
+        boolean previousWhitespace = false;
+        int length = line.length();
+
+        for (int i = 0; i < length && matching < this.termCount; i++) {
+            char c = line.charAt(i);
+
+            if (isWhitespace(c)) {
+                if (previousWhitespace) {
+                    continue;
+                }
+                previousWhitespace = true;
+                c = ' ';
+            }
+            else {
+                previousWhitespace = false;
+                c = Character.toLowerCase(c);
+            }
+
+            int next = this.transition(state, c);
+            while (state != 0 && next == -1) {
+                state = this.failure[state];
+                next = this.transition(state, c);
+            }
+            state = next == -1 ? 0 : next;
+
+            int[] terms = this.output[state];
+            for (int j = 0; j < terms.length; j++) {
+                if (this.seen[terms[j]] != this.stamp) {
+                    this.seen[terms[j]] = this.stamp;
+                    matching++;
+                }
+            }
+        }
+
+        return matching;
+    }
+
+    private int transition(int state, char c) {
+        char[] chars = this.transitionChars[state];
+        int low = 0;
+        int high = chars.length - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+
+            if (chars[mid] < c) {
+                low = mid + 1;
+            }
+            else if (chars[mid] > c) {
+                high = mid - 1;
+            }
+            else {
+                return this.transitionStates[state][mid];
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Same set of characters as \s in a Java regular expression
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
@@ -10,47 +10,165 @@
 
 package com.searchcode.app.util;
 
+import com.searchcode.app.dto.RepoUpdateStats;
 import com.searchcode.app.model.RepoResult;
+import com.searchcode.app.service.Singleton;
 
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 
 /**
  * As named this is a queue where the elements are guranteed to be unique even if you add
- * the repoResult multiple times there will only ever be a single copy in the queue.
- * Adding the same value will also not adjust its position in the queue which is
- * by default FIFO.
+ * the repoResult multiple times there will only ever be a single copy in the queue. Repositories
+ * are keyed by name so checking for one already queued does not depend on the size of the queue.
+ *
+ * Repositories asked for manually come out first. Everything else comes out in order of when it was last
+ * checked for changes, with repositories which took longer to update last time treated as checked that much
+ * later so a few large repositories do not hold up many small ones. Ties are FIFO. Adding the same value again
+ * will not adjust its position unless it is now being asked for manually.
+ *
+ * Workers block in take or poll with a timeout rather than polling on a timer so they cost nothing while idle.
  */
 public class UniqueRepoQueue {
-    private Queue<RepoResult> repoIndexQueue;
 
+    public static final long MANUALPRIORITY = Long.MIN_VALUE;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final TreeSet<Entry> ordered = new TreeSet<>(Comparator.<Entry>comparingLong(x -> x.priority).thenComparingLong(x -> x.sequence));
+    private long sequence = 0;
+
+    public UniqueRepoQueue() {}
+
+    /**
+     * Anything already in the supplied queue is added in order
+     */
     public UniqueRepoQueue(Queue<RepoResult> repoResultQueue) {
-        this.repoIndexQueue = repoResultQueue;
+        for (RepoResult repoResult: repoResultQueue) {
+            this.add(repoResult);
+        }
     }
 
-    public synchronized void add(RepoResult repoResult) {
+    public void add(RepoResult repoResult) {
+        if (repoResult == null) {
+            return;
+        }
+
+        this.add(repoResult, this.getPriority(repoResult));
+    }
 
+    /**
+     * Adds a repository someone asked to be reindexed so it is picked up ahead of the scheduled ones
+     */
+    public void addManual(RepoResult repoResult) {
         if (repoResult == null) {
             return;
         }
 
-        if (!repoIndexQueue.contains(repoResult)) {
-            repoIndexQueue.add(repoResult);
+        this.add(repoResult, MANUALPRIORITY);
+    }
+
+    private synchronized void add(RepoResult repoResult, long priority) {
+        Entry existing = this.entries.get(repoResult.getName());
+
+        if (existing != null) {
+            // Keep the latest details in case the repository was edited while it waited
+            existing.repoResult = repoResult;
+
+            if (priority == MANUALPRIORITY && existing.priority != MANUALPRIORITY) {
+                this.ordered.remove(existing);
+                existing.priority = priority;
+                existing.sequence = this.sequence++;
+                this.ordered.add(existing);
+            }
+
+            return;
         }
+
+        Entry entry = new Entry(repoResult, priority, this.sequence++);
+        this.entries.put(repoResult.getName(), entry);
+        this.ordered.add(entry);
+        this.notifyAll();
+    }
+
+    /**
+     * Lower comes out first. Repositories never checked since startup have nothing recorded and go first.
+     */
+    public long getPriority(RepoResult repoResult) {
+        RepoUpdateStats repoUpdateStats = Singleton.getStatsService().getRepoUpdateStats(repoResult.getName());
+        return repoUpdateStats.getLastChecked() + repoUpdateStats.getLastDuration();
     }
 
     public synchronized void delete(RepoResult repoResult) {
-        repoIndexQueue.remove(repoResult);
+        Entry entry = this.entries.remove(repoResult.getName());
+
+        if (entry != null) {
+            this.ordered.remove(entry);
+        }
     }
 
     public synchronized RepoResult poll() {
-        return repoIndexQueue.poll();
+        Entry entry = this.ordered.pollFirst();
+
+        if (entry == null) {
+            return null;
+        }
+
+        this.entries.remove(entry.repoResult.getName());
+        return entry.repoResult;
+    }
+
+    /**
+     * Waits for a repository to be added if there is none
+     */
+    public synchronized RepoResult take() throws InterruptedException {
+        while (this.ordered.isEmpty()) {
+            this.wait();
+        }
+
+        return this.poll();
+    }
+
+    /**
+     * Waits up to the timeout for a repository to be added if there is none, returning null if none was
+     */
+    public synchronized RepoResult poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+
+        while (this.ordered.isEmpty()) {
+            long remaining = deadline - System.currentTimeMillis();
+
+            if (remaining <= 0) {
+                return null;
+            }
+
+            this.wait(remaining);
+        }
+
+        return this.poll();
     }
 
     public synchronized int size() {
-        return repoIndexQueue.size();
+        return this.entries.size();
     }
 
     public synchronized void clear() {
-        this.repoIndexQueue.clear();
+        this.entries.clear();
+        this.ordered.clear();
+    }
+
+    private static class Entry {
+        private RepoResult repoResult;
+        private long priority;
+        private long sequence;
+
+        private Entry(RepoResult repoResult, long priority, long sequence) {
+            this.repoResult = repoResult;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
     }
 }
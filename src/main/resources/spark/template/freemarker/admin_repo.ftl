@@ -33,6 +33,16 @@
         <input type="password" value="" name="repopassword" placeholder="Repo Password" />
         <input type="text" value="" name="reposource" placeholder="Repo Source" />
         <input type="text" value="master" name="repobranch" placeholder="Repo Branch" />
+        <input type="text" value="0" name="repoclonedepth" placeholder="Clone Depth" title="Git only. Number of commits to clone, 0 clones the full history" />
+        <select name="reposinglebranch" title="Git only. Clone and fetch only the branch above">
+            <option value="false">All Branches</option>
+            <option value="true">Single Branch</option>
+        </select>
+        <select name="repoindexhistory" title="Git only. Keep the full history so it can be indexed, overrides the clone depth">
+            <option value="false">No History</option>
+            <option value="true">Index History</option>
+        </select>
+        <input type="text" value="" name="repobranches" placeholder="Other Branches" title="Git only. Comma separated branches to index as well as the branch above" />
         
         <input class="btn btn-sm btn-primary" tabindex="1" type="submit" name="Add Repo" value="Add Repository" />
     </form>
@@ -74,6 +84,7 @@
                 <input type="password" value="${result.password?html}" name="repopassword" readonly="true">
                 <input type="text" value="${result.source?html}" name="reposource" readonly="true">
                 <input type="text" value="${result.branch?html}" name="repobranch" readonly="true">
+                <#if repoUpdateStats[result.name]??><span title="Checks for changes since startup that found nothing new, found changes and failed">${repoUpdateStats[result.name].unchanged} unchanged / ${repoUpdateStats[result.name].changed} changed / ${repoUpdateStats[result.name].failed} failed</span></#if>
                 <button class="btn btn-sm btn-danger delete" data-id="${result.name?html}" name="delete" type="submit"><span class="glyphicon glyphicon-remove" aria-hidden="true"></span> delete</button>
             </div>
         </#items>
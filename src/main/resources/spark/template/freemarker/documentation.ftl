@@ -534,6 +534,7 @@ String myHmac = HmacUtils.hmacSha512Hex(MYPRIVATEKEY, PARAMSTOHMAC);</textarea>
     "page": 0,
     "query": "test",
     "altQuery": ["tests", "testing"],
+    "altQueryCounts": {"tests": 12, "testing": 3},
     "codeResultList": [{
         "matchingResults": [{
             "line": "",
@@ -684,7 +685,7 @@ String myHmac = HmacUtils.hmacSha512Hex(MYPRIVATEKEY, PARAMSTOHMAC);</textarea>
               <dt>binary_extension_black_list</dt>
               <dd>A black list of file extensions that if match will never be added to the index. The black list has a lower priority then the whitelist and so if an extension appears in both it will be indexed.</dd>
               <dt>number_git_processors</dt>
-              <dd>Number of background threads to spawn to deal with pulling from and indexing git repositories. Servers with many CPU's should have this value changed to half the number of CPU's. Defaults to 2.</dd>
+              <dd>Number of background threads to spawn to deal with indexing git repositories once they have been pulled. Servers with many CPU's should have this value changed to half the number of CPU's. Defaults to 2.</dd>
               <dt>number_svn_processors</dt>
               <dd>Number of background threads to spawn to deal with pulling from and indexing svn repositories. Servers with many CPU's should have this value changed to half the number of CPU's. Defaults to 2.</dd>
               <dt>number_file_processors</dt>
@@ -693,8 +694,46 @@ String myHmac = HmacUtils.hmacSha512Hex(MYPRIVATEKEY, PARAMSTOHMAC);</textarea>
               <dd>Should the matching logic default to AND matching where nothing is specified. If set to true all queries will be similar to "import AND junit". If set to false all queries will be similar to "import OR junit". Default logic can be overridden by explicitly adding search operators. Defaults to true.</dd>
               <dt>log_indexed</dt>
               <dd>If set to true a csv containing the results of the last index run will be written to the log directory with the repository name as the filename. Can be used to determine why files are being indexed or not. Defaults to false.</dd>
+              <dt>number_search_threads</dt>
+              <dd>Number of background threads shared by searches for work that can be done in parallel such as loading and highlighting the files for a page of results and counting the matches for alternate queries. Defaults to 4.</dd>
+              <dt>number_index_threads</dt>
+              <dd>Number of background threads used to read, hash and work out the owner of files when indexing a repository. Set to 0 to use one thread for each CPU core. Defaults to 0.</dd>
+              <dt>alt_query_counts</dt>
+              <dd>If set to true the alternate queries suggested for a search will be run in the background and only those which return results will be suggested along with their number of matches. Counts are cached until the index changes. Defaults to false.</dd>
+              <dt>warmup_query_count</dt>
+              <dd>Number of the most frequent recent searches to replay against the index on startup and after indexing has finished. This loads the index into memory so the first searches after a restart are not slow. Set to 0 to disable. Defaults to 20.</dd>
+              <dt>warmup_file</dt>
+              <dd>File used to remember the most frequent recent searches between restarts for warmup_query_count. By default set to ./searchcode.warmup</dd>
+              <dt>index_store_source</dt>
+              <dd>Boolean value true or false. If set to true a compressed copy of each file is stored in the index and search results are built from it rather than by reading the file from disk. This makes searches faster and means result pages work even if the repository on disk is being updated, at the cost of a larger index. Files indexed before this was enabled are still read from disk until they are reindexed. Defaults to false.</dd>
+              <dt>file_cache_size_mb</dt>
+              <dd>Approximate amount of memory in megabytes used to keep the lines of recently displayed files so popular files do not need to be read from disk for every search or file view. Files are removed from the cache when they are reindexed with changes. Set to 0 to disable. Defaults to 64.</dd>
+              <dt>file_repo_watch</dt>
+              <dd>Boolean value true or false. If set to true searchcode server watches the directories of file repositories and indexes changes to them within seconds. When enabled the full scan of file repositories only runs once a day to catch anything the watcher missed. Watching very large directory trees may require raising the operating system limit on watched directories. Defaults to false.</dd>
+              <dt>file_repo_watch_debounce</dt>
+              <dd>Number of milliseconds with no further changes to a watched file repository before the changes are indexed. Lets a burst of changes such as a checkout or build be indexed together. Defaults to 1000.</dd>
+              <dt>follow_ignore_files</dt>
+              <dd>Boolean value true or false. If set to true any .gitignore, .ignore or .searchcodeignore files found while walking a repository are followed and the files and directories they match are not indexed. Ignored directories are skipped entirely which saves reading directories such as node_modules or build output. A .searchcodeignore can be used to exclude files from searchcode server only. Defaults to true.</dd>
+              <dt>git_bare_clone</dt>
+              <dd>Boolean value true or false. If set to true new git repositories are cloned without a working copy and files are indexed and displayed directly from the git object database, roughly halving the disk space used and the time taken to clone. Only applies to repositories cloned after it is changed, delete and re-add a repository to change how it is stored. Defaults to false.</dd>
+              <dt>number_git_fetchers</dt>
+              <dd>Number of background threads to spawn to clone and pull git repositories. These spend most of their time waiting on the network so can be higher than number_git_processors. Pulled repositories are handed to the number_git_processors threads to be indexed. Defaults to 4.</dd>
+              <dt>git_fetchers_per_host</dt>
+              <dd>The most clones or pulls that will run against a single host at the same time, so a server with many repositories on the same host does not overload it. A failed clone or pull is retried up to 3 times waiting longer between each attempt. Defaults to 2.</dd>
             </dl>
+        </p>
 
+        <p>
+            Git repositories added through the admin page can also be given a clone depth, whether to clone a single branch and whether their history should be indexed.
+            A clone depth above 0 clones only that many of the most recent commits and keeps the clone at that depth when it is updated, which saves disk space and time for large repositories. This requires git_binary_path to be correct as the internal git implementation cannot make shallow clones.
+            Single branch clones and fetches only the branch the repository was added with. Turning on index history fetches the full history on the next update even if a clone depth was set, then adds the changes made by every commit on the branch to the time index in the background. Progress is saved as it goes so a restart carries on from where it stopped.
+            Each version of a file is stored once along with the period it was in the repository, so the time search API can be limited to code that was present as of a day with the asof parameter, or at any point between two days with the from and to parameters. All take dates in the form yyyyMMdd.
+        </p>
+
+        <p>
+            Other branches can be listed against a git repository as a comma separated list and are fetched alongside the branch it was added with.
+            Only files whose contents differ from that branch are indexed again for each other branch, and files which are the same in several branches are indexed once and marked with every branch they appear in.
+            Search results include a branch facet and can be filtered to a branch with the br parameter of the search API. Changing the list of branches reindexes the repository in full on its next update.
         </p>
 
         <h3 id="settings">Settings</h3>
@@ -1,5 +1,6 @@
 package com.searchcode.app.dao;
 
+import com.searchcode.app.model.RepoData;
 import com.searchcode.app.model.RepoResult;
 import com.searchcode.app.service.Singleton;
 import junit.framework.TestCase;
@@ -8,6 +9,12 @@ import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
 
 public class RepoTest extends TestCase {
 
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Singleton.getRepo().addDataToTable();
+    }
+
     public void testRepoSaveDelete() {
         Repo repo = Singleton.getRepo();
 
@@ -140,5 +147,23 @@ public class RepoTest extends TestCase {
         RepoResult repoResult = repo.getRepoByName(null);
         assertThat(repoResult).isNull();
     }
-}
 
+    public void testRepoSaveData() {
+        Repo repo = Singleton.getRepo();
+
+        RepoResult repoResult = new RepoResult(-1, "mydataname", "git", "myurl", "username", "password", "mysource", "mybranch");
+        repoResult.setData(new RepoData(1, true, false));
+        repo.saveRepo(repoResult);
+
+        RepoResult result = repo.getRepoByName("mydataname");
+        assertThat(result.getData().getCloneDepth()).isEqualTo(1);
+        assertThat(result.getData().isSingleBranch()).isTrue();
+        assertThat(result.getData().isShallow()).isTrue();
+
+        result.getData().setIndexHistory(true);
+        repo.saveRepo(result);
+        assertThat(repo.getRepoByName("mydataname").getData().isShallow()).isFalse();
+
+        repo.deleteRepoByName("mydataname");
+    }
+}
@@ -23,4 +23,23 @@ public class IndexFileRepoJobTest extends TestCase {
         String codeOwner = fileRepoJob.getCodeOwner(null, null, null, null, null);
         assertThat(codeOwner).isEqualTo("File System");
     }
+
+    public void testGetManifestLocation() {
+        IndexFileRepoJob fileRepoJob = new IndexFileRepoJob();
+        String manifestLocation = fileRepoJob.getManifestLocation("./repo/", "myrepo");
+        assertThat(manifestLocation).isEqualTo("./repo/myrepo/searchcode.manifest.csv");
+    }
+
+    public void testHooksWithoutManifest() {
+        IndexFileRepoJob fileRepoJob = new IndexFileRepoJob();
+        assertThat(fileRepoJob.isFileUnchanged("/some/file", null)).isFalse();
+        assertThat(fileRepoJob.isFileContentUnchanged("/some/file", "abc")).isFalse();
+        fileRepoJob.fileProcessed("/some/file", null, "abc");
+    }
+
+    public void testGetDeltaFileLocation() {
+        IndexFileRepoJob fileRepoJob = new IndexFileRepoJob();
+        String location = fileRepoJob.getDeltaFileLocation("./repo/", "myrepo", "/tmp/source/", "sub/file.java");
+        assertThat(location).isEqualTo("/tmp/source/sub/file.java");
+    }
 }
@@ -1,18 +1,165 @@
 package com.searchcode.app.jobs;
 
+import com.searchcode.app.dto.CodeIndexDocument;
+import com.searchcode.app.dto.SearchResult;
 import com.searchcode.app.jobs.repository.IndexGitHistoryJob;
+import com.searchcode.app.model.RepoResult;
+import com.searchcode.app.service.CodeIndexer;
+import com.searchcode.app.service.Singleton;
+import com.searchcode.app.service.TimeCodeSearcher;
+import com.searchcode.app.util.HistoryState;
 import junit.framework.TestCase;
-import org.eclipse.jgit.api.errors.GitAPIException;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
 
-import java.io.IOException;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
 
 public class IndexGitHistoryJobTest extends TestCase {
-    public void testGetBlameFilePath() throws IOException, GitAPIException {
-        IndexGitHistoryJob gitRepoJob = new IndexGitHistoryJob();
 
-        //String repoName, String repoRemoteLocation, String repoUserName, String repoPassword, String repoLocations, String branch, boolean useCredentials
-        //gitRepoJob.cloneGitRepository("test", "/Users/boyter/Desktop/searchcode-server", "", "", "./repo/.timelord/", "master", false);
-        //gitRepoJob.getGitChangeSets(); // does the indexing currently
-        //gitRepoJob.getRevisionChanges();
+    private File repoLocations;
+    private Git git;
+    private RevCommit first;
+    private RevCommit second;
+    private RevCommit third;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.repoLocations = Files.createTempDirectory("searchcode").toFile();
+        File repo = new File(this.repoLocations, "historyrepo");
+        this.git = Git.init().setDirectory(repo).call();
+
+        FileUtils.writeStringToFile(new File(repo, "one.txt"), "first\n");
+        this.git.add().addFilepattern("one.txt").call();
+        this.first = this.git.commit().setMessage("first").call();
+
+        FileUtils.writeStringToFile(new File(repo, "two.txt"), "second\n");
+        this.git.add().addFilepattern("two.txt").call();
+        this.second = this.git.commit().setMessage("second").call();
+
+        this.git.rm().addFilepattern("one.txt").call();
+        this.third = this.git.commit().setMessage("third").call();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.git.close();
+        Singleton.getGitService().close(this.repoLocations.getAbsolutePath() + "/historyrepo/.git");
+        FileUtils.deleteDirectory(this.repoLocations);
+        super.tearDown();
+    }
+
+    public void testGetCommitsToIndexOldestFirst() throws Exception {
+        IndexGitHistoryJob historyJob = new IndexGitHistoryJob();
+        String gitLocation = this.repoLocations.getAbsolutePath() + "/historyrepo/.git";
+
+        List<ObjectId> commits = historyJob.getCommitsToIndex(gitLocation, null);
+        assertThat(commits).containsExactly(this.first, this.second, this.third);
+
+        commits = historyJob.getCommitsToIndex(gitLocation, this.second);
+        assertThat(commits).containsExactly(this.third);
+
+        // Checkpoint not in the history so everything again
+        commits = historyJob.getCommitsToIndex(gitLocation, ObjectId.zeroId());
+        assertThat(commits).hasSize(3);
+    }
+
+    public void testGetCommitChangesIncludesFirstCommitAndDeletes() throws Exception {
+        IndexGitHistoryJob historyJob = new IndexGitHistoryJob();
+        String gitLocation = this.repoLocations.getAbsolutePath() + "/historyrepo/.git";
+        RepoResult repoResult = new RepoResult(-1, "historyrepo", "git", "url", "", "", "source", "master");
+
+        String location = this.repoLocations.getAbsolutePath() + "/historyrepo/one.txt";
+
+        IndexGitHistoryJob.CommitChanges commitChanges = historyJob.getCommitChanges(repoResult, this.repoLocations.getAbsolutePath(), gitLocation, this.first);
+        assertThat(commitChanges.getChanged()).containsExactly(location);
+        CodeIndexDocument codeIndexDocument = commitChanges.getDocuments().get(location);
+        assertThat(codeIndexDocument.getFileName()).isEqualTo("one.txt");
+        assertThat(codeIndexDocument.getRevision()).isEqualTo(this.first.getName());
+        assertThat(codeIndexDocument.getValidFrom()).isEqualTo(this.first.getCommitTime());
+        assertThat(codeIndexDocument.getValidTo()).isEqualTo(Long.MAX_VALUE);
+
+        // Removed so nothing to index only a range to close
+        commitChanges = historyJob.getCommitChanges(repoResult, this.repoLocations.getAbsolutePath(), gitLocation, this.third);
+        assertThat(commitChanges.getChanged()).containsExactly(location);
+        assertThat(commitChanges.getDocuments()).isEmpty();
+        assertThat(commitChanges.getCommitTime()).isEqualTo(this.third.getCommitTime());
+    }
+
+    public void testIndexHistoryCheckpointsAndRanges() throws Exception {
+        boolean backgroundJobsEnabled = Singleton.getBackgroundJobsEnabled();
+        boolean pauseBackgroundJobs = Singleton.getPauseBackgroundJobs();
+        Singleton.setBackgroundJobsEnabled(true);
+        Singleton.setPauseBackgroundJobs(false);
+
+        try {
+            CodeIndexer.deleteTimeDocumentsByReponame("historyrepo");
+
+            IndexGitHistoryJob historyJob = new IndexGitHistoryJob();
+            historyJob.HISTORYBATCHSIZE = 2;
+            String gitLocation = this.repoLocations.getAbsolutePath() + "/historyrepo/.git";
+            RepoResult repoResult = new RepoResult(-1, "historyrepo", "git", "url", "", "", "source", "master");
+
+            assertThat(historyJob.getHistoryState(gitLocation).getCheckpoint()).isNull();
+            assertThat(historyJob.indexHistory(repoResult, this.repoLocations.getAbsolutePath())).isTrue();
+
+            HistoryState historyState = historyJob.getHistoryState(gitLocation);
+            assertThat(historyState.getCheckpoint()).isEqualTo(this.third);
+            assertThat(historyState.getLive(this.repoLocations.getAbsolutePath() + "/historyrepo/one.txt")).isNull();
+            assertThat(historyState.getLive(this.repoLocations.getAbsolutePath() + "/historyrepo/two.txt")).isEqualTo(this.second.getName());
+            assertThat(historyJob.getCommitsToIndex(gitLocation, historyState.getCheckpoint())).isEmpty();
+
+            // One document for each file, the removed one closed so it is not live now
+            TimeCodeSearcher timeCodeSearcher = new TimeCodeSearcher();
+            long now = System.currentTimeMillis() / 1000;
+            assertThat(timeCodeSearcher.search("reponame:historyrepo", 0).getTotalHits()).isEqualTo(2);
+            SearchResult searchResult = timeCodeSearcher.search("reponame:historyrepo", 0, now, now);
+            assertThat(searchResult.getTotalHits()).isEqualTo(1);
+            assertThat(searchResult.getCodeResultList().get(0).getFileName()).isEqualTo("two.txt");
+        }
+        finally {
+            CodeIndexer.deleteTimeDocumentsByReponame("historyrepo");
+            Singleton.setBackgroundJobsEnabled(backgroundJobsEnabled);
+            Singleton.setPauseBackgroundJobs(pauseBackgroundJobs);
+        }
+    }
+
+    public void testIndexHistoryWritesAsCommitsAreApplied() throws Exception {
+        boolean backgroundJobsEnabled = Singleton.getBackgroundJobsEnabled();
+        boolean pauseBackgroundJobs = Singleton.getPauseBackgroundJobs();
+        Singleton.setBackgroundJobsEnabled(true);
+        Singleton.setPauseBackgroundJobs(false);
+
+        try {
+            CodeIndexer.deleteTimeDocumentsByReponame("historyrepo");
+            int codeIndexLinesCount = Singleton.getCodeIndexLinesCount();
+
+            // One commit diffed at a time and every document written as soon as its commit is applied
+            IndexGitHistoryJob historyJob = new IndexGitHistoryJob();
+            historyJob.HISTORYWINDOW = 1;
+            historyJob.MAXDOCUMENTQUEUESIZE = 1;
+            RepoResult repoResult = new RepoResult(-1, "historyrepo", "git", "url", "", "", "source", "master");
+
+            assertThat(historyJob.indexHistory(repoResult, this.repoLocations.getAbsolutePath())).isTrue();
+            assertThat(Singleton.getCodeIndexLinesCount()).isEqualTo(codeIndexLinesCount);
+
+            TimeCodeSearcher timeCodeSearcher = new TimeCodeSearcher();
+            long now = System.currentTimeMillis() / 1000;
+            assertThat(timeCodeSearcher.search("reponame:historyrepo", 0).getTotalHits()).isEqualTo(2);
+            SearchResult searchResult = timeCodeSearcher.search("reponame:historyrepo", 0, now, now);
+            assertThat(searchResult.getTotalHits()).isEqualTo(1);
+            assertThat(searchResult.getCodeResultList().get(0).getFileName()).isEqualTo("two.txt");
+        }
+        finally {
+            CodeIndexer.deleteTimeDocumentsByReponame("historyrepo");
+            Singleton.setBackgroundJobsEnabled(backgroundJobsEnabled);
+            Singleton.setPauseBackgroundJobs(pauseBackgroundJobs);
+        }
     }
 }
@@ -1,76 +1,32 @@
 package com.searchcode.app.jobs;
 
+import com.searchcode.app.dto.RepositoryChanged;
 import com.searchcode.app.jobs.repository.IndexSvnRepoJob;
 import junit.framework.TestCase;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
 import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
 
 public class IndexSvnRepoJobTest extends TestCase {
 
-    // TODO most of whats in here is just copied into the SVNRepoJob, so we need to test it properly
     public void testSomething() {
         IndexSvnRepoJob svnRepoJob = new IndexSvnRepoJob();
         //svnRepoJob.checkoutSvnRepository("test", "https://moreterra.svn.codeplex.com/svn", "", "", "/tmp/", false);
         //svnRepoJob.updateSvnRepository("test", "https://moreterra.svn.codeplex.com/svn", "", "", "/tmp/", false);
     }
 
-    public void testGetCurrentRevision() {
-        try {
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-
-            String test = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
-                    "<info>\n" +
-                    "    <entry kind=\"dir\" path=\".\" revision=\"44458\">\n" +
-                    "        <url>https://moreterra.svn.codeplex.com/svn</url>\n" +
-                    "        <relative-url>^/</relative-url>\n" +
-                    "        <repository>\n" +
-                    "            <root>https://moreterra.svn.codeplex.com/svn</root>\n" +
-                    "            <uuid>8ac85a5f-fc25-4b94-8d5e-fa21b7f00f96</uuid>\n" +
-                    "        </repository>\n" +
-                    "        <wc-info>\n" +
-                    "            <wcroot-abspath>/private/tmp/test</wcroot-abspath>\n" +
-                    "            <schedule>normal</schedule>\n" +
-                    "            <depth>infinity</depth>\n" +
-                    "        </wc-info>\n" +
-                    "        <commit revision=\"38053\">\n" +
-                    "            <author>unknown</author>\n" +
-                    "            <date>2014-10-30T18:28:31.610000Z</date>\n" +
-                    "        </commit>\n" +
-                    "    </entry>\n" +
-                    "</info>";
-
-            Document doc = dBuilder.parse(new ByteArrayInputStream(test.getBytes()));
-            doc.getDocumentElement().normalize();
-
-            NodeList nList = doc.getElementsByTagName("entry");
-
-            for (int temp = 0; temp < nList.getLength(); temp++) {
-                Node nNode = nList.item(temp);
-
-                if (nNode.getNodeType() == Node.ELEMENT_NODE) {
-                    Element eElement = (Element) nNode;
-                    String something = "Current Revision: " + eElement.getAttribute("revision");
-                }
-            }
-        } catch (Exception ex) {
-            ex.printStackTrace();
-        }
-    }
-
-    public void testGetFileAuthor() {
-
+    public void testGetCurrentRevision() throws XMLStreamException {
         String test = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
                 "<info>\n" +
-                "    <entry kind=\"file\" path=\"MoreTerra.sln\" revision=\"44458\">\n" +
-                "        <url>https://moreterra.svn.codeplex.com/svn/MoreTerra/MoreTerra.sln</url>\n" +
-                "        <relative-url>^/MoreTerra/MoreTerra.sln</relative-url>\n" +
+                "    <entry kind=\"dir\" path=\".\" revision=\"44458\">\n" +
+                "        <url>https://moreterra.svn.codeplex.com/svn</url>\n" +
+                "        <relative-url>^/</relative-url>\n" +
                 "        <repository>\n" +
                 "            <root>https://moreterra.svn.codeplex.com/svn</root>\n" +
                 "            <uuid>8ac85a5f-fc25-4b94-8d5e-fa21b7f00f96</uuid>\n" +
@@ -79,7 +35,37 @@ public class IndexSvnRepoJobTest extends TestCase {
                 "            <wcroot-abspath>/private/tmp/test</wcroot-abspath>\n" +
                 "            <schedule>normal</schedule>\n" +
                 "            <depth>infinity</depth>\n" +
-                "            <text-updated>2016-05-16T22:18:53.000000Z</text-updated>\n" +
+                "        </wc-info>\n" +
+                "        <commit revision=\"38053\">\n" +
+                "            <author>unknown</author>\n" +
+                "            <date>2014-10-30T18:28:31.610000Z</date>\n" +
+                "        </commit>\n" +
+                "    </entry>\n" +
+                "</info>";
+
+        IndexSvnRepoJob.SvnInfo svnInfo = new IndexSvnRepoJob().parseInfo(new ByteArrayInputStream(test.getBytes()));
+        assertThat(svnInfo.getRevision()).isEqualTo("44458");
+        assertThat(svnInfo.getRepositoryPath()).isEqualTo("/");
+    }
+
+    public void testGetFileAuthor() throws XMLStreamException {
+        String test = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<info>\n" +
+                "    <entry kind=\"dir\" path=\".\" revision=\"44458\">\n" +
+                "        <url>https://moreterra.svn.codeplex.com/svn/My%20Project/trunk</url>\n" +
+                "        <repository>\n" +
+                "            <root>https://moreterra.svn.codeplex.com/svn</root>\n" +
+                "        </repository>\n" +
+                "        <commit revision=\"38053\">\n" +
+                "            <author>unknown</author>\n" +
+                "        </commit>\n" +
+                "    </entry>\n" +
+                "    <entry kind=\"file\" path=\"MoreTerra/MoreTerra.sln\" revision=\"44458\">\n" +
+                "        <url>https://moreterra.svn.codeplex.com/svn/My%20Project/trunk/MoreTerra/MoreTerra.sln</url>\n" +
+                "        <repository>\n" +
+                "            <root>https://moreterra.svn.codeplex.com/svn</root>\n" +
+                "        </repository>\n" +
+                "        <wc-info>\n" +
                 "            <checksum>602b3b9386d05c99e4f3b577e777afc810627e35</checksum>\n" +
                 "        </wc-info>\n" +
                 "        <commit revision=\"31664\">\n" +
@@ -89,69 +75,79 @@ public class IndexSvnRepoJobTest extends TestCase {
                 "    </entry>\n" +
                 "</info>";
 
-        try {
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            Document doc = dBuilder.parse(new ByteArrayInputStream(test.getBytes()));
-            doc.getDocumentElement().normalize();
-
-            NodeList nList = doc.getElementsByTagName("entry");
-
-            for (int temp = 0; temp < nList.getLength(); temp++) {
-                Node nNode = nList.item(temp);
-
-                if (nNode.getNodeType() == Node.ELEMENT_NODE) {
-                    Element eElement = (Element) nNode;
-
-                    Node node = eElement.getElementsByTagName("commit").item(0);
-                    Element e = (Element) node;
-
-                    String something = e.getElementsByTagName("author").item(0).getTextContent();
-
-                }
-            }
-        } catch (Exception ex) {
-            ex.printStackTrace();
-        }
+        IndexSvnRepoJob.SvnInfo svnInfo = new IndexSvnRepoJob().parseInfo(new ByteArrayInputStream(test.getBytes()));
+        assertThat(svnInfo.getAuthors()).containsEntry("MoreTerra/MoreTerra.sln", "Steve Calzone").containsEntry(".", "unknown");
+        assertThat(svnInfo.getRepositoryPath()).isEqualTo("/My Project/trunk");
     }
 
-    public void testGetDifferences() {
-
+    public void testGetDifferences() throws XMLStreamException {
         String test = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
                 "<diff>\n" +
                 "    <paths>\n" +
                 "        <path item=\"modified\" kind=\"file\" props=\"none\">WorldView/SettingsManager.cs</path>\n" +
-                "        <path item=\"modified\" kind=\"file\" props=\"none\">WorldView/Program.cs</path>\n" +
-                "        <path item=\"modified\" kind=\"file\" props=\"none\">WorldView/Structures/World.cs</path>\n" +
-                "        <path item=\"modified\" kind=\"file\" props=\"none\">WorldView/WorldMapper.cs</path>\n" +
-                "        <path item=\"modified\" kind=\"file\" props=\"none\">WorldView/FormWorldView.cs</path>\n" +
+                "        <path item=\"added\" kind=\"file\" props=\"none\">WorldView/Program.cs</path>\n" +
+                "        <path item=\"none\" kind=\"file\" props=\"modified\">WorldView/Structures/World.cs</path>\n" +
+                "        <path item=\"deleted\" kind=\"file\" props=\"none\">WorldView/WorldMapper.cs</path>\n" +
+                "        <path item=\"added\" kind=\"dir\" props=\"none\">WorldView/New</path>\n" +
+                "        <path item=\"modified\" kind=\"file\" props=\"none\">WorldView/Fish &amp; Chips.cs</path>\n" +
                 "    </paths>\n" +
                 "</diff>";
 
-        try {
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            Document doc = dBuilder.parse(new ByteArrayInputStream(test.getBytes()));
-            doc.getDocumentElement().normalize();
-
-            Element node = (Element)doc.getElementsByTagName("diff").item(0);
-            node = (Element)node.getElementsByTagName("paths").item(0);
-
-            NodeList nList = node.getElementsByTagName("path");
+        RepositoryChanged repositoryChanged = new IndexSvnRepoJob().parseDiff(new ByteArrayInputStream(test.getBytes()));
+        assertThat(repositoryChanged.isChanged()).isTrue();
+        assertThat(repositoryChanged.getChangedFiles()).containsExactly("WorldView/SettingsManager.cs", "WorldView/Program.cs", "WorldView/Structures/World.cs", "WorldView/Fish & Chips.cs");
+        assertThat(repositoryChanged.getDeletedFiles()).containsExactly("WorldView/WorldMapper.cs");
+    }
 
-            for (int temp = 0; temp < nList.getLength(); temp++) {
-                Node nNode = nList.item(temp);
+    public void testGetLogOwnersNewestWins() throws XMLStreamException {
+        String test = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<log>\n" +
+                "    <logentry revision=\"101\">\n" +
+                "        <author>alice</author>\n" +
+                "        <date>2016-05-16T22:18:53.000000Z</date>\n" +
+                "        <paths>\n" +
+                "            <path action=\"M\" kind=\"file\">/trunk/src/one.c</path>\n" +
+                "            <path action=\"A\" kind=\"file\">/trunk/src/two.c</path>\n" +
+                "            <path action=\"M\" kind=\"file\">/branches/other/src/one.c</path>\n" +
+                "        </paths>\n" +
+                "        <msg>first</msg>\n" +
+                "    </logentry>\n" +
+                "    <logentry revision=\"102\">\n" +
+                "        <author>bob</author>\n" +
+                "        <paths>\n" +
+                "            <path action=\"M\" kind=\"file\">/trunk/src/one.c</path>\n" +
+                "            <path action=\"M\" kind=\"file\">/trunk/unwanted.c</path>\n" +
+                "        </paths>\n" +
+                "        <msg>second</msg>\n" +
+                "    </logentry>\n" +
+                "    <logentry revision=\"103\">\n" +
+                "        <paths>\n" +
+                "            <path action=\"M\" kind=\"file\">/trunk/src/two.c</path>\n" +
+                "        </paths>\n" +
+                "    </logentry>\n" +
+                "</log>";
+
+        Map<String, String> owners = new IndexSvnRepoJob().parseLog(new ByteArrayInputStream(test.getBytes()), "/trunk", new HashSet<>(Arrays.asList("src/one.c", "src/two.c")));
+        assertThat(owners).hasSize(2).containsEntry("src/one.c", "bob").containsEntry("src/two.c", "alice");
+    }
 
-                if (nNode.getNodeType() == Node.ELEMENT_NODE) {
-                    Element eElement = (Element) nNode;
+    public void testParseInfoSkipsByteOrderMark() throws XMLStreamException {
+        byte[] bom = new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+        byte[] xml = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<info>\n" +
+                "    <entry kind=\"dir\" path=\".\" revision=\"44458\">\n" +
+                "        <url>https://moreterra.svn.codeplex.com/svn</url>\n" +
+                "        <repository>\n" +
+                "            <root>https://moreterra.svn.codeplex.com/svn</root>\n" +
+                "        </repository>\n" +
+                "    </entry>\n" +
+                "</info>").getBytes(StandardCharsets.UTF_8);
 
-                    String something = eElement.getAttribute("item") + " " +eElement.getTextContent();
+        byte[] test = new byte[bom.length + xml.length];
+        System.arraycopy(bom, 0, test, 0, bom.length);
+        System.arraycopy(xml, 0, test, bom.length, xml.length);
 
-                }
-            }
-        } catch (Exception ex) {
-            ex.printStackTrace();
-        }
+        IndexSvnRepoJob.SvnInfo svnInfo = new IndexSvnRepoJob().parseInfo(new ByteArrayInputStream(test));
+        assertThat(svnInfo.getRevision()).isEqualTo("44458");
     }
-
 }
@@ -28,6 +28,28 @@ public class CodeMatcherTest extends TestCase {
         cm.formatResults(codeResults, "List<String> test = *p;", true);
     }
 
+    public void testFormatResultsPreservesOrder() {
+        CodeMatcher cm = new CodeMatcher();
+
+        List<CodeResult> codeResults = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            List<String> code = new ArrayList<>();
+            code.add("result " + i + " matching line");
+
+            CodeResult codeResult = new CodeResult(code, null);
+            codeResult.setCodePath("path" + i);
+            codeResults.add(codeResult);
+        }
+
+        List<CodeResult> results = cm.formatResults(codeResults, "matching", true);
+
+        assertEquals(50, results.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals("path" + i, results.get(i).getCodePath());
+            assertTrue(results.get(i).getMatchingResults().get(0).isMatching());
+        }
+    }
+
     public void testMatchResults() {
         CodeMatcher cm = new CodeMatcher();
         List<String> matchTerms = new ArrayList<String>();
@@ -42,6 +64,73 @@ public class CodeMatcherTest extends TestCase {
         cm.matchResults(code, matchTerms, true);
     }
 
+    public void testMatchResultsIncludesSurroundingLines() {
+        CodeMatcher cm = new CodeMatcher();
+        List<String> matchTerms = new ArrayList<String>();
+        matchTerms.add("match");
+
+        List<String> code = new ArrayList<>();
+        code.add("zero");
+        code.add("one");
+        code.add("two match");
+        code.add("three");
+        code.add("four");
+
+        List<CodeMatchResult> result = cm.matchResults(code, matchTerms, false);
+
+        assertEquals(3, result.size());
+        assertEquals(2, result.get(0).getLineNumber());
+        assertEquals(3, result.get(1).getLineNumber());
+        assertEquals(4, result.get(2).getLineNumber());
+        assertTrue(result.get(1).isMatching());
+        assertFalse(result.get(0).isAddBreak());
+    }
+
+    public void testMatchResultsPrefersMostMatchingLines() {
+        CodeMatcher cm = new CodeMatcher();
+        cm.MATCHLINES = 3;
+        List<String> matchTerms = new ArrayList<String>();
+        matchTerms.add("this");
+        matchTerms.add("code");
+
+        List<String> code = new ArrayList<>();
+        code.add("this");
+        code.add("nothing");
+        code.add("nothing");
+        code.add("nothing");
+        code.add("this code");
+        code.add("nothing");
+
+        List<CodeMatchResult> result = cm.matchResults(code, matchTerms, false);
+
+        assertEquals(3, result.size());
+        assertEquals(4, result.get(0).getLineNumber());
+        assertEquals(5, result.get(1).getLineNumber());
+        assertEquals(6, result.get(2).getLineNumber());
+    }
+
+    /**
+     * Large generated files can have thousands of matching lines which used to make snippet selection quadratic
+     */
+    public void testMatchResultsManyMatchesPerformance() {
+        CodeMatcher cm = new CodeMatcher();
+        cm.MATCHLINES = 100000;
+        cm.MAXLINEDEPTH = 100000;
+        List<String> matchTerms = new ArrayList<String>();
+        matchTerms.add("code");
+
+        List<String> code = new ArrayList<>();
+        for (int i = 0; i < 50000; i++) {
+            code.add(i % 2 == 0 ? "some code" : "other");
+        }
+
+        Instant start = Instant.now();
+        List<CodeMatchResult> result = cm.matchResults(code, matchTerms, false);
+
+        assertEquals(50000, result.size());
+        assertTrue(Duration.between(start, Instant.now()).getSeconds() <= 1);
+    }
+
     public void testMatchResultsBadCase() {
         CodeMatcher cm = new CodeMatcher();
         List<String> matchTerms = new ArrayList<String>();
@@ -295,6 +384,76 @@ public class CodeMatcherTest extends TestCase {
         assertTrue(Duration.between(start, Instant.now()).getSeconds() <= 1);
     }
 
+    /**
+     * Times finding matching lines with many terms against the lower case, replaceAll and contains approach it
+     * replaced, whose cost grew with every term for every line. Both run over the same lines with the match right
+     * at the end and the best of a few runs is taken so the ratio does not depend on how fast the machine is.
+     */
+    public void testFindMatchingLinesManyTermsFasterThanContains() {
+        CodeMatcher cm = new CodeMatcher();
+        // None of the terms are in the filler lines so every line has to be checked for every term
+        List<String> matchTerms = cm.splitTerms("this code java.util.List<String> another-term foo(bar) import public static void return");
+
+        List<String> code = new ArrayList<>();
+        for (int i = 0; i < 1999; i++) {
+            String addString = "some additional stuff that random stuff that should not match but force it to work a bit harder then it normally would";
+
+            for(int j = 0; j< 5; j++) {
+                addString += addString;
+            }
+
+            code.add(addString);
+        }
+        code.add("this is some code");
+
+        long best = Long.MAX_VALUE;
+        long bestContains = Long.MAX_VALUE;
+
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            List<CodeMatchResult> result = cm.findMatchingLines(code, matchTerms, true);
+            best = Math.min(best, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            int matching = this.countMatchingLinesContains(code, matchTerms, cm.MATCHLINES);
+            bestContains = Math.min(bestContains, System.nanoTime() - start);
+
+            // Also forces no optimisations by the JVM
+            assertEquals(matching, result.stream().filter(CodeMatchResult::isMatching).count());
+        }
+
+        double ratio = (double) bestContains / best;
+        assertTrue("expected to be faster than contains but was " + String.format("%.2f", ratio) + "x", ratio > 1);
+    }
+
+    /**
+     * How findMatchingLines used to find matching lines
+     */
+    private int countMatchingLinesContains(List<String> code, List<String> matchTerms, int matchLines) {
+        int matchingLines = 0;
+
+        for (String line: code) {
+            String matchRes = line.toLowerCase().replaceAll("\\s+", " ");
+            int matching = 0;
+
+            for (String matchTerm: matchTerms) {
+                if (matchRes.contains(matchTerm.replace("*", ""))) {
+                    matching++;
+                }
+            }
+
+            if (matching != 0) {
+                matchingLines++;
+            }
+
+            if (matchingLines >= matchLines) {
+                break;
+            }
+        }
+
+        return matchingLines;
+    }
+
     public void testFindMatchingLines() {
         CodeMatcher cm = new CodeMatcher();
         List<String> matchTerms = new ArrayList<String>();
@@ -1,12 +1,16 @@
 package com.searchcode.app.service;
 
+import com.searchcode.app.config.Values;
 import com.searchcode.app.dto.CodeIndexDocument;
 import com.searchcode.app.dto.CodeResult;
 import com.searchcode.app.dto.ProjectStats;
+import com.searchcode.app.util.Properties;
 import junit.framework.TestCase;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
 
@@ -54,4 +58,38 @@ public class CodeSearcherTest extends TestCase {
         assertThat(projectStats.getRepoFacetOwner().get(0).getOwner()).isEqualTo("/");
         assertThat(projectStats.getRepoFacetOwner().get(0).getCount()).isEqualTo(1);
     }
+
+    public void testGetQueryCounts() throws IOException {
+        CodeIndexDocument codeIndexDocument = new CodeIndexDocument("/testGetQueryCounts", "testGetQueryCounts", "/", "/", "/", "md5hash", "Java", 10, "querycountunique", "/", "/");
+        CodeIndexer.indexDocument(codeIndexDocument);
+        CodeSearcher cs = new CodeSearcher();
+
+        Map<String, Integer> queryCounts = cs.getQueryCounts(Arrays.asList("querycountunique", "querycountmissing", "querycountunique"));
+
+        assertThat(queryCounts).hasSize(2);
+        assertThat(queryCounts.get("querycountunique")).isEqualTo(1);
+        assertThat(queryCounts.get("querycountmissing")).isEqualTo(0);
+
+        // Second call should be served from the cache and return the same values
+        queryCounts = cs.getQueryCounts(Arrays.asList("querycountmissing", "querycountunique"));
+        assertThat(queryCounts.get("querycountunique")).isEqualTo(1);
+        assertThat(queryCounts.get("querycountmissing")).isEqualTo(0);
+    }
+
+    public void testGetByCodeIdUsesStoredSource() throws IOException {
+        Properties.getProperties().setProperty(Values.INDEX_STORE_SOURCE, "true");
+
+        try {
+            CodeIndexDocument codeIndexDocument = new CodeIndexDocument("/testGetByCodeIdUsesStoredSource", "testGetByCodeIdUsesStoredSource", "/", "/", "/", "md5hash", "Java", 2, "storedsourceunique\n    second line", "/", "/");
+            CodeIndexer.indexDocument(codeIndexDocument);
+            CodeSearcher cs = new CodeSearcher();
+
+            // The path does not exist on disk so the lines can only have come from the index
+            CodeResult codeResult = cs.getByCodeId(codeIndexDocument.getHash());
+            assertThat(codeResult.getCode()).containsExactly("storedsourceunique", "    second line");
+        }
+        finally {
+            Properties.getProperties().setProperty(Values.INDEX_STORE_SOURCE, Values.DEFAULT_INDEX_STORE_SOURCE);
+        }
+    }
 }
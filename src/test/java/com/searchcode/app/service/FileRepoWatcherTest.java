@@ -0,0 +1,183 @@
+package com.searchcode.app.service;
+
+import com.searchcode.app.dto.RepositoryChanged;
+import com.searchcode.app.model.RepoResult;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+
+public class FileRepoWatcherTest extends TestCase {
+
+    private class RecordingWatcher extends FileRepoWatcher {
+        private final List<RepositoryChanged> indexed = Collections.synchronizedList(new ArrayList<>());
+
+        private RecordingWatcher(int debounce) {
+            super(true, debounce);
+        }
+
+        @Override
+        protected boolean indexChanges(WatchedRepository watchedRepository, RepositoryChanged repositoryChanged) {
+            this.indexed.add(repositoryChanged);
+            return true;
+        }
+
+        @Override
+        protected void requestFullWalk(WatchedRepository watchedRepository) {
+        }
+    }
+
+    private RepoResult getRepoResult(File directory) {
+        return new RepoResult(0, "watched", "file", directory.getAbsolutePath(), "", "", "", "");
+    }
+
+    private void waitFor(List<?> list, int size) throws InterruptedException {
+        for (int i = 0; i < 200 && list.size() < size; i++) {
+            Thread.sleep(50);
+        }
+    }
+
+    public void testDisabledWatchesNothing() throws IOException {
+        File directory = Files.createTempDirectory("searchcode").toFile();
+        FileRepoWatcher watcher = new FileRepoWatcher(false, 100);
+
+        watcher.watch(this.getRepoResult(directory), "./repo/", true);
+        assertThat(watcher.isWatching("watched")).isFalse();
+
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testUnwatch() throws IOException {
+        File directory = Files.createTempDirectory("searchcode").toFile();
+        FileRepoWatcher watcher = new RecordingWatcher(100);
+
+        watcher.watch(this.getRepoResult(directory), "./repo/", true);
+        assertThat(watcher.isWatching("watched")).isTrue();
+
+        watcher.unwatch("watched");
+        assertThat(watcher.isWatching("watched")).isFalse();
+
+        watcher.stop();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testChangesAreBatched() throws IOException, InterruptedException {
+        File directory = Files.createTempDirectory("searchcode").toFile();
+        RecordingWatcher watcher = new RecordingWatcher(500);
+        watcher.watch(this.getRepoResult(directory), "./repo/", true);
+
+        FileUtils.writeStringToFile(new File(directory, "one.java"), "one");
+        FileUtils.writeStringToFile(new File(directory, "two.java"), "two");
+        FileUtils.writeStringToFile(new File(directory, "one.java"), "one again");
+
+        this.waitFor(watcher.indexed, 1);
+        Thread.sleep(200);
+
+        assertThat(watcher.indexed).hasSize(1);
+        assertThat(watcher.indexed.get(0).getChangedFiles()).containsOnly("one.java", "two.java");
+        assertThat(watcher.indexed.get(0).getDeletedFiles()).isEmpty();
+
+        watcher.stop();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testDeletedAfterChangeIsOnlyDeleted() throws IOException, InterruptedException {
+        File directory = Files.createTempDirectory("searchcode").toFile();
+        File file = new File(directory, "one.java");
+        FileUtils.writeStringToFile(file, "one");
+
+        RecordingWatcher watcher = new RecordingWatcher(500);
+        watcher.watch(this.getRepoResult(directory), "./repo/", true);
+
+        FileUtils.writeStringToFile(file, "changed");
+        file.delete();
+
+        this.waitFor(watcher.indexed, 1);
+
+        assertThat(watcher.indexed).hasSize(1);
+        assertThat(watcher.indexed.get(0).getChangedFiles()).isEmpty();
+        assertThat(watcher.indexed.get(0).getDeletedFiles()).containsExactly("one.java");
+
+        watcher.stop();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testNewDirectoryIsWatched() throws IOException, InterruptedException {
+        File directory = Files.createTempDirectory("searchcode").toFile();
+        RecordingWatcher watcher = new RecordingWatcher(300);
+        watcher.watch(this.getRepoResult(directory), "./repo/", true);
+
+        File subDirectory = new File(directory, "sub");
+        subDirectory.mkdir();
+        FileUtils.writeStringToFile(new File(subDirectory, "first.java"), "first");
+
+        this.waitFor(watcher.indexed, 1);
+        assertThat(watcher.indexed.get(0).getChangedFiles()).contains("sub/first.java");
+
+        FileUtils.writeStringToFile(new File(subDirectory, "second.java"), "second");
+        this.waitFor(watcher.indexed, 2);
+        assertThat(watcher.indexed).hasSize(2);
+        assertThat(watcher.indexed.get(1).getChangedFiles()).containsExactly("sub/second.java");
+
+        watcher.stop();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testIgnoredDirectoriesAreNotWatched() throws IOException, InterruptedException {
+        File directory = Files.createTempDirectory("searchcode").toFile();
+        File gitDirectory = new File(directory, ".git");
+        gitDirectory.mkdir();
+
+        RecordingWatcher watcher = new RecordingWatcher(200);
+        watcher.watch(this.getRepoResult(directory), "./repo/", true);
+
+        FileUtils.writeStringToFile(new File(gitDirectory, "HEAD"), "ref: refs/heads/master");
+        FileUtils.writeStringToFile(new File(directory, "one.java"), "one");
+
+        this.waitFor(watcher.indexed, 1);
+        Thread.sleep(400);
+
+        assertThat(watcher.indexed).hasSize(1);
+        assertThat(watcher.indexed.get(0).getChangedFiles()).containsExactly("one.java");
+
+        watcher.stop();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testFailedChangesBackOffAndMerge() throws IOException, InterruptedException {
+        File directory = Files.createTempDirectory("searchcode").toFile();
+        List<Long> attempts = Collections.synchronizedList(new ArrayList<>());
+
+        RecordingWatcher watcher = new RecordingWatcher(100) {
+            @Override
+            protected boolean indexChanges(WatchedRepository watchedRepository, RepositoryChanged repositoryChanged) {
+                attempts.add(System.currentTimeMillis());
+                return attempts.size() > 2 && super.indexChanges(watchedRepository, repositoryChanged);
+            }
+        };
+        watcher.watch(this.getRepoResult(directory), "./repo/", true);
+
+        FileUtils.writeStringToFile(new File(directory, "one.java"), "one");
+        this.waitFor(attempts, 1);
+        FileUtils.writeStringToFile(new File(directory, "two.java"), "two");
+
+        this.waitFor(watcher.indexed, 1);
+
+        // Waits twice the debounce after the first failure and four times after the second
+        assertThat(attempts).hasSize(3);
+        assertThat(attempts.get(1) - attempts.get(0)).isGreaterThanOrEqualTo(200);
+        assertThat(attempts.get(2) - attempts.get(1)).isGreaterThanOrEqualTo(400);
+        assertThat(watcher.indexed).hasSize(1);
+        assertThat(watcher.indexed.get(0).getChangedFiles()).containsOnly("one.java", "two.java");
+
+        watcher.stop();
+        FileUtils.deleteDirectory(directory);
+    }
+}
@@ -0,0 +1,33 @@
+package com.searchcode.app.service;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+
+public class GitServiceTest extends TestCase {
+    public void testFetchBlobLines() throws Exception {
+        File directory = Files.createTempDirectory("searchcode").toFile();
+        Git git = Git.init().setDirectory(directory).call();
+        FileUtils.writeStringToFile(new File(directory, "one.txt"), "a\nb\nc\n");
+        git.add().addFilepattern("one.txt").call();
+        git.commit().setMessage("first").call();
+        ObjectId blobId = git.getRepository().resolve("HEAD:one.txt");
+        git.close();
+
+        GitService gitService = new GitService();
+        String repoLocation = directory.getAbsolutePath() + "/.git";
+
+        assertThat(gitService.fetchBlobLines(repoLocation, blobId.getName(), 0)).containsExactly("a", "b", "c");
+        // Second read reuses the pooled reader
+        assertThat(gitService.fetchBlobLines(repoLocation + "/", blobId.getName(), 2)).containsExactly("a", "b");
+
+        gitService.close(repoLocation);
+        FileUtils.deleteDirectory(directory);
+    }
+}
@@ -0,0 +1,118 @@
+package com.searchcode.app.service;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+
+public class IndexWarmerTest extends TestCase {
+
+    public void testGetTopQueriesOrderedByFrequency() throws IOException {
+        File file = File.createTempFile("searchcode", ".warmup");
+        file.delete();
+
+        IndexWarmer indexWarmer = new IndexWarmer(2, file.getAbsolutePath());
+        indexWarmer.recordQuery("import");
+        indexWarmer.recordQuery("junit");
+        indexWarmer.recordQuery("junit");
+        indexWarmer.recordQuery("test");
+        indexWarmer.recordQuery("test");
+        indexWarmer.recordQuery("test");
+
+        List<String> topQueries = indexWarmer.getTopQueries();
+        assertThat(topQueries).containsExactly("test", "junit");
+    }
+
+    public void testRecordQueryIgnoresEmpty() throws IOException {
+        File file = File.createTempFile("searchcode", ".warmup");
+        file.delete();
+
+        IndexWarmer indexWarmer = new IndexWarmer(10, file.getAbsolutePath());
+        indexWarmer.recordQuery(null);
+        indexWarmer.recordQuery("   ");
+
+        assertThat(indexWarmer.getTopQueries()).isEmpty();
+    }
+
+    public void testDisabledRecordsNothing() throws IOException {
+        File file = File.createTempFile("searchcode", ".warmup");
+        file.delete();
+
+        IndexWarmer indexWarmer = new IndexWarmer(0, file.getAbsolutePath());
+        indexWarmer.recordQuery("test");
+        indexWarmer.warm();
+
+        assertThat(indexWarmer.getTopQueries()).isEmpty();
+    }
+
+    public void testTopQueriesPersistedAcrossInstances() throws IOException {
+        File file = File.createTempFile("searchcode", ".warmup");
+        file.delete();
+
+        IndexWarmer indexWarmer = new IndexWarmer(5, file.getAbsolutePath());
+        indexWarmer.recordQuery("persisted");
+        indexWarmer.warm();
+
+        assertThat(file.exists()).isTrue();
+
+        IndexWarmer restarted = new IndexWarmer(5, file.getAbsolutePath());
+        assertThat(restarted.getTopQueries()).containsExactly("persisted");
+
+        file.delete();
+    }
+
+    public void testGetTopQueriesTiesGoToMostRecent() throws IOException {
+        File file = File.createTempFile("searchcode", ".warmup");
+        file.delete();
+
+        IndexWarmer indexWarmer = new IndexWarmer(3, file.getAbsolutePath());
+        indexWarmer.recordQuery("first");
+        indexWarmer.recordQuery("second");
+        indexWarmer.recordQuery("third");
+        indexWarmer.recordQuery("first");
+        indexWarmer.recordQuery("second");
+
+        assertThat(indexWarmer.getTopQueries()).containsExactly("second", "first", "third");
+    }
+
+    public void testTopQueriesPersistedWithCounts() throws IOException {
+        File file = File.createTempFile("searchcode", ".warmup");
+        file.delete();
+
+        IndexWarmer indexWarmer = new IndexWarmer(5, file.getAbsolutePath());
+        indexWarmer.recordQuery("popular");
+        indexWarmer.recordQuery("popular");
+        indexWarmer.recordQuery("popular");
+        indexWarmer.recordQuery("rare");
+        indexWarmer.warm();
+
+        assertThat(FileUtils.readLines(file, StandardCharsets.UTF_8)).containsExactly("3\tpopular", "1\trare");
+
+        // The saved counts carry over so a couple of new queries do not push out what was popular before
+        IndexWarmer restarted = new IndexWarmer(5, file.getAbsolutePath());
+        restarted.recordQuery("new");
+        restarted.recordQuery("new");
+
+        assertThat(restarted.getTopQueries()).containsExactly("popular", "new", "rare");
+
+        file.delete();
+    }
+
+    public void testLoadPersistedSeedsCountsAndKeepsSavedOrderForTies() throws IOException {
+        File file = File.createTempFile("searchcode", ".warmup");
+        FileUtils.writeLines(file, StandardCharsets.UTF_8.name(), Arrays.asList("2\tsaved first", "2\tsaved second", "legacy", "notanumber\tbroken"));
+
+        IndexWarmer indexWarmer = new IndexWarmer(5, file.getAbsolutePath());
+        indexWarmer.recordQuery("legacy");
+
+        assertThat(indexWarmer.getTopQueries()).containsExactly("legacy", "saved first", "saved second", "broken");
+
+        file.delete();
+    }
+}
@@ -0,0 +1,290 @@
+package com.searchcode.app.util;
+
+import com.searchcode.app.dto.BlameRun;
+import com.searchcode.app.dto.CodeOwner;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.blame.BlameResult;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+
+public class BatchBlameTest extends TestCase {
+
+    private void commit(Git git, File directory, String author, String file, String contents) throws IOException, GitAPIException {
+        FileUtils.writeStringToFile(new File(directory, file), contents);
+        git.add().addFilepattern(file).call();
+        PersonIdent personIdent = new PersonIdent(author, author + "@example.com");
+        git.commit().setMessage("change " + file).setAuthor(personIdent).setCommitter(personIdent).call();
+    }
+
+    private List<String> expandRuns(List<BlameRun> runs) {
+        List<String> authors = new ArrayList<>();
+        for (BlameRun run: runs) {
+            for (int i = 0; i < run.getLines(); i++) {
+                authors.add(run.getAuthor());
+            }
+        }
+        return authors;
+    }
+
+    public void testBlameMultipleFiles() throws IOException, GitAPIException {
+        File directory = Files.createTempDirectory("searchcode").toFile();
+        Git git = Git.init().setDirectory(directory).call();
+
+        this.commit(git, directory, "alice", "one.txt", "a\nb\nc\n");
+        this.commit(git, directory, "bob", "two.txt", "x\ny\n");
+        this.commit(git, directory, "bob", "one.txt", "a\nB\nc\nd\n");
+        this.commit(git, directory, "carol", "one.txt", "a\nB\nd\n");
+
+        ObjectId head = git.getRepository().resolve("HEAD");
+        Map<String, List<BlameRun>> results = new BatchBlame(git.getRepository()).blame(head, Arrays.asList("one.txt", "two.txt", "missing.txt"));
+
+        assertThat(results).containsOnlyKeys("one.txt", "two.txt");
+        assertThat(this.expandRuns(results.get("one.txt"))).containsExactly("alice", "bob", "bob");
+        assertThat(this.expandRuns(results.get("two.txt"))).containsExactly("bob", "bob");
+
+        git.close();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testBlameMatchesBlameCommand() throws IOException, GitAPIException {
+        File directory = Files.createTempDirectory("searchcode").toFile();
+        Git git = Git.init().setDirectory(directory).call();
+        Random random = new Random(42);
+        String[] authors = {"alice", "bob", "carol", "dave"};
+
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            lines.add("line " + i);
+        }
+        this.commit(git, directory, "alice", "file.txt", String.join("\n", lines) + "\n");
+
+        for (int commit = 0; commit < 40; commit++) {
+            int changes = 1 + random.nextInt(4);
+            for (int c = 0; c < changes; c++) {
+                int action = random.nextInt(3);
+                int position = random.nextInt(lines.size() + 1);
+
+                if (action == 0 || lines.size() < 5) {
+                    lines.add(position, "added " + commit + " " + c);
+                }
+                else if (action == 1 && position < lines.size()) {
+                    lines.remove(position);
+                }
+                else if (position < lines.size()) {
+                    lines.set(position, "changed " + commit + " " + c);
+                }
+            }
+
+            this.commit(git, directory, authors[random.nextInt(authors.length)], "file.txt", String.join("\n", lines) + "\n");
+        }
+
+        ObjectId head = git.getRepository().resolve("HEAD");
+        Map<String, List<BlameRun>> results = new BatchBlame(git.getRepository()).blame(head, Arrays.asList("file.txt"));
+        List<String> actual = this.expandRuns(results.get("file.txt"));
+
+        BlameResult blameResult = git.blame().setFilePath("file.txt").setStartCommit(head).call();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < blameResult.getResultContents().size(); i++) {
+            expected.add(blameResult.getSourceAuthor(i).getName());
+        }
+
+        assertThat(actual).isEqualTo(expected);
+
+        git.close();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testBlameFollowsMergedBranch() throws IOException, GitAPIException {
+        File directory = Files.createTempDirectory("searchcode").toFile();
+        Git git = Git.init().setDirectory(directory).call();
+
+        this.commit(git, directory, "alice", "file.txt", "a\nb\nc\n");
+        String master = git.getRepository().getBranch();
+        git.branchCreate().setName("feature").call();
+
+        this.commit(git, directory, "carol", "file.txt", "A\nb\nc\n");
+
+        git.checkout().setName("feature").call();
+        this.commit(git, directory, "bob", "file.txt", "a\nb\nc\nd\ne\n");
+
+        git.checkout().setName(master).call();
+        PersonIdent personIdent = new PersonIdent("dave", "dave@example.com");
+        git.merge().include(git.getRepository().exactRef("refs/heads/feature")).setFastForward(MergeCommand.FastForwardMode.NO_FF).setCommit(false).call();
+        git.commit().setMessage("merge feature").setAuthor(personIdent).setCommitter(personIdent).call();
+
+        ObjectId head = git.getRepository().resolve("HEAD");
+        RevWalk revWalk = new RevWalk(git.getRepository());
+        assertThat(revWalk.parseCommit(head).getParentCount()).isEqualTo(2);
+        revWalk.close();
+
+        Map<String, List<BlameRun>> results = new BatchBlame(git.getRepository()).blame(head, Arrays.asList("file.txt"));
+        assertThat(this.expandRuns(results.get("file.txt"))).containsExactly("carol", "alice", "alice", "bob", "bob");
+
+        BlameResult blameResult = git.blame().setFilePath("file.txt").setStartCommit(head).call();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < blameResult.getResultContents().size(); i++) {
+            expected.add(blameResult.getSourceAuthor(i).getName());
+        }
+        assertThat(this.expandRuns(results.get("file.txt"))).isEqualTo(expected);
+
+        git.close();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testUpdateMatchesBlame() throws IOException, GitAPIException {
+        File directory = Files.createTempDirectory("searchcode").toFile();
+        Git git = Git.init().setDirectory(directory).call();
+        Random random = new Random(7);
+        String[] authors = {"alice", "bob", "carol", "dave"};
+
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            lines.add("line " + i);
+        }
+        this.commit(git, directory, "alice", "file.txt", String.join("\n", lines) + "\n");
+        this.commit(git, directory, "bob", "removed.txt", "x\n");
+
+        BatchBlame batchBlame = new BatchBlame(git.getRepository());
+        ObjectId start = git.getRepository().resolve("HEAD");
+        BlameCache blameCache = new BlameCache(new File(directory, "blame.csv").getAbsolutePath());
+        for (Map.Entry<String, List<BlameRun>> entry: batchBlame.blame(start, Arrays.asList("file.txt", "removed.txt")).entrySet()) {
+            blameCache.put(entry.getKey(), git.getRepository().resolve("HEAD:" + entry.getKey()).getName(), start.getName(), entry.getValue());
+        }
+
+        for (int commit = 0; commit < 30; commit++) {
+            int changes = 1 + random.nextInt(4);
+            for (int c = 0; c < changes; c++) {
+                int action = random.nextInt(3);
+                int position = random.nextInt(lines.size() + 1);
+
+                if (action == 0 || lines.size() < 5) {
+                    lines.add(position, "added " + commit + " " + c);
+                }
+                else if (action == 1 && position < lines.size()) {
+                    lines.remove(position);
+                }
+                else if (position < lines.size()) {
+                    lines.set(position, "changed " + commit + " " + c);
+                }
+            }
+
+            this.commit(git, directory, authors[random.nextInt(authors.length)], "file.txt", String.join("\n", lines) + "\n");
+        }
+
+        this.commit(git, directory, "carol", "added.txt", "y\nz\n");
+        git.rm().addFilepattern("removed.txt").call();
+        git.commit().setMessage("remove").call();
+
+        ObjectId head = git.getRepository().resolve("HEAD");
+        assertThat(batchBlame.update(blameCache, start, head)).isTrue();
+
+        Map<String, List<BlameRun>> expected = batchBlame.blame(head, Arrays.asList("file.txt", "added.txt"));
+        assertThat(this.expandRuns(blameCache.get("file.txt", git.getRepository().resolve("HEAD:file.txt").getName()))).isEqualTo(this.expandRuns(expected.get("file.txt")));
+        assertThat(this.expandRuns(blameCache.get("added.txt"))).containsExactly("carol", "carol");
+        assertThat(blameCache.get("removed.txt")).isNull();
+
+        // Going backwards is not possible
+        assertThat(batchBlame.update(blameCache, head, start)).isFalse();
+
+        git.close();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testUpdateKeepsBlameForMovedFiles() throws IOException, GitAPIException {
+        File directory = Files.createTempDirectory("searchcode").toFile();
+        Git git = Git.init().setDirectory(directory).call();
+
+        this.commit(git, directory, "alice", "old/moved.txt", "a\nb\n");
+        this.commit(git, directory, "bob", "old/moved.txt", "a\nB\n");
+
+        BatchBlame batchBlame = new BatchBlame(git.getRepository());
+        ObjectId start = git.getRepository().resolve("HEAD");
+        BlameCache blameCache = new BlameCache(new File(directory, "blame.csv").getAbsolutePath());
+        blameCache.put("old/moved.txt", git.getRepository().resolve("HEAD:old/moved.txt").getName(), start.getName(), batchBlame.blame(start, Arrays.asList("old/moved.txt")).get("old/moved.txt"));
+
+        FileUtils.moveFile(new File(directory, "old/moved.txt"), new File(directory, "new/moved.txt"));
+        git.add().addFilepattern("new/moved.txt").call();
+        git.rm().addFilepattern("old/moved.txt").call();
+        PersonIdent personIdent = new PersonIdent("carol", "carol@example.com");
+        git.commit().setMessage("move").setAuthor(personIdent).setCommitter(personIdent).call();
+
+        ObjectId head = git.getRepository().resolve("HEAD");
+        assertThat(batchBlame.update(blameCache, start, head)).isTrue();
+
+        assertThat(blameCache.get("old/moved.txt")).isNull();
+        assertThat(this.expandRuns(blameCache.get("new/moved.txt"))).containsExactly("alice", "bob");
+
+        git.close();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testUpdateDropsFilesChangedByMerge() throws IOException, GitAPIException {
+        File directory = Files.createTempDirectory("searchcode").toFile();
+        Git git = Git.init().setDirectory(directory).call();
+
+        this.commit(git, directory, "alice", "file.txt", "a\nb\nc\n");
+        this.commit(git, directory, "alice", "other.txt", "x\n");
+        String master = git.getRepository().getBranch();
+        git.branchCreate().setName("feature").call();
+
+        BatchBlame batchBlame = new BatchBlame(git.getRepository());
+        ObjectId start = git.getRepository().resolve("HEAD");
+        BlameCache blameCache = new BlameCache(new File(directory, "blame.csv").getAbsolutePath());
+        for (Map.Entry<String, List<BlameRun>> entry: batchBlame.blame(start, Arrays.asList("file.txt", "other.txt")).entrySet()) {
+            blameCache.put(entry.getKey(), git.getRepository().resolve("HEAD:" + entry.getKey()).getName(), start.getName(), entry.getValue());
+        }
+
+        this.commit(git, directory, "carol", "file.txt", "A\nb\nc\n");
+
+        git.checkout().setName("feature").call();
+        this.commit(git, directory, "bob", "file.txt", "a\nb\nc\nd\ne\n");
+
+        git.checkout().setName(master).call();
+        PersonIdent personIdent = new PersonIdent("dave", "dave@example.com");
+        git.merge().include(git.getRepository().exactRef("refs/heads/feature")).setFastForward(MergeCommand.FastForwardMode.NO_FF).setCommit(false).call();
+        git.commit().setMessage("merge feature").setAuthor(personIdent).setCommitter(personIdent).call();
+
+        ObjectId head = git.getRepository().resolve("HEAD");
+        assertThat(batchBlame.update(blameCache, start, head)).isTrue();
+
+        // The merge author must not take over the lines from the feature branch so it has to be blamed again
+        assertThat(blameCache.get("file.txt")).isNull();
+        assertThat(this.expandRuns(blameCache.get("other.txt"))).containsExactly("alice");
+
+        git.close();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testToCodeOwners() {
+        List<BlameRun> runs = Arrays.asList(new BlameRun(3, "alice", 100), new BlameRun(2, "bob", 200), new BlameRun(4, "alice", 300));
+
+        List<CodeOwner> codeOwners = BatchBlame.toCodeOwners(runs, 0);
+        assertThat(codeOwners).hasSize(2);
+        assertThat(codeOwners.get(0).getName()).isEqualTo("alice");
+        assertThat(codeOwners.get(0).getNoLines()).isEqualTo(7);
+        assertThat(codeOwners.get(0).getMostRecentUnixCommitTimestamp()).isEqualTo(300);
+        assertThat(codeOwners.get(1).getNoLines()).isEqualTo(2);
+
+        codeOwners = BatchBlame.toCodeOwners(runs, 4);
+        assertThat(codeOwners).hasSize(2);
+        assertThat(codeOwners.get(0).getNoLines()).isEqualTo(3);
+        assertThat(codeOwners.get(0).getMostRecentUnixCommitTimestamp()).isEqualTo(100);
+        assertThat(codeOwners.get(1).getNoLines()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,77 @@
+package com.searchcode.app.util;
+
+import com.searchcode.app.dto.BlameRun;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+
+public class BlameCacheTest extends TestCase {
+
+    private File getCacheFile() throws IOException {
+        File file = File.createTempFile("searchcode", ".blame");
+        file.delete();
+        return file;
+    }
+
+    public void testSaveAndLoad() throws IOException {
+        File file = this.getCacheFile();
+
+        BlameCache blameCache = new BlameCache(file.getAbsolutePath());
+        blameCache.load();
+        blameCache.put("src/one.java", "blob1", "head1", Arrays.asList(new BlameRun(3, "Smith, John", 100), new BlameRun(2, "bob", 200)));
+        blameCache.put("two.java", "blob2", "head1", Arrays.asList(new BlameRun(1, "alice", 300)));
+        blameCache.save();
+
+        BlameCache loaded = new BlameCache(file.getAbsolutePath());
+        loaded.load();
+        assertThat(loaded.size()).isEqualTo(2);
+
+        List<BlameRun> runs = loaded.get("src/one.java", "blob1");
+        assertThat(runs).hasSize(2);
+        assertThat(runs.get(0).getAuthor()).isEqualTo("Smith, John");
+        assertThat(runs.get(0).getLines()).isEqualTo(3);
+        assertThat(runs.get(0).getCommitTime()).isEqualTo(100);
+
+        file.delete();
+    }
+
+    public void testChangedBlobIsMiss() throws IOException {
+        File file = this.getCacheFile();
+
+        BlameCache blameCache = new BlameCache(file.getAbsolutePath());
+        blameCache.put("one.java", "blob1", "head1", Arrays.asList(new BlameRun(3, "alice", 100)));
+
+        assertThat(blameCache.get("one.java", "blob2")).isNull();
+        assertThat(blameCache.get("one.java", "blob1")).hasSize(1);
+        assertThat(blameCache.get("one.java")).hasSize(1);
+        assertThat(blameCache.get("other.java")).isNull();
+    }
+
+    public void testRetainOnly() throws IOException {
+        File file = this.getCacheFile();
+
+        BlameCache blameCache = new BlameCache(file.getAbsolutePath());
+        blameCache.put("one.java", "blob1", "head1", Arrays.asList(new BlameRun(3, "alice", 100)));
+        blameCache.put("two.java", "blob2", "head1", Arrays.asList(new BlameRun(3, "alice", 100)));
+        blameCache.retainOnly(Arrays.asList("two.java"));
+
+        assertThat(blameCache.size()).isEqualTo(1);
+        assertThat(blameCache.get("two.java")).isNotNull();
+    }
+
+    public void testCorruptCacheIsEmpty() throws IOException {
+        File file = this.getCacheFile();
+        org.apache.commons.io.FileUtils.writeStringToFile(file, "something else\n");
+
+        BlameCache blameCache = new BlameCache(file.getAbsolutePath());
+        blameCache.load();
+        assertThat(blameCache.size()).isEqualTo(0);
+
+        file.delete();
+    }
+}
@@ -0,0 +1,58 @@
+package com.searchcode.app.util;
+
+import com.searchcode.app.model.RepoResult;
+import junit.framework.TestCase;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+
+public class FetchLimiterTest extends TestCase {
+    public void testGetHost() {
+        assertThat(FetchLimiter.getHost("https://GitHub.com/boyter/searchcode-server.git")).isEqualTo("github.com");
+        assertThat(FetchLimiter.getHost("git@github.com:boyter/searchcode-server.git")).isEqualTo("github.com");
+        assertThat(FetchLimiter.getHost("/tmp/somerepo")).isEqualTo("");
+        assertThat(FetchLimiter.getHost(null)).isEqualTo("");
+    }
+
+    public void testPerHostLimit() {
+        FetchLimiter fetchLimiter = new FetchLimiter(2);
+
+        assertThat(fetchLimiter.tryAcquire("github.com")).isTrue();
+        assertThat(fetchLimiter.tryAcquire("github.com")).isTrue();
+        assertThat(fetchLimiter.tryAcquire("github.com")).isFalse();
+        assertThat(fetchLimiter.tryAcquire("bitbucket.org")).isTrue();
+
+        fetchLimiter.release("github.com");
+        assertThat(fetchLimiter.running("github.com")).isEqualTo(1);
+        assertThat(fetchLimiter.tryAcquire("github.com")).isTrue();
+    }
+
+    public void testRetryBacksOff() {
+        FetchLimiter fetchLimiter = new FetchLimiter(1);
+        RepoResult repoResult = new RepoResult(-1, "name", "git", "url", "", "", "source", "master");
+
+        assertThat(fetchLimiter.recordFailure(repoResult, 0)).isTrue();
+        assertThat(fetchLimiter.isBackingOff("name", 1)).isTrue();
+        assertThat(fetchLimiter.pollRetry(FetchLimiter.BACKOFFMILLIS - 1)).isNull();
+        assertThat(fetchLimiter.pollRetry(FetchLimiter.BACKOFFMILLIS)).isSameAs(repoResult);
+        assertThat(fetchLimiter.pollRetry(FetchLimiter.BACKOFFMILLIS)).isNull();
+
+        // Each failure waits twice as long as the last
+        assertThat(fetchLimiter.recordFailure(repoResult, 0)).isTrue();
+        assertThat(fetchLimiter.pollRetry(FetchLimiter.BACKOFFMILLIS * 2 - 1)).isNull();
+        assertThat(fetchLimiter.pollRetry(FetchLimiter.BACKOFFMILLIS * 2)).isSameAs(repoResult);
+
+        assertThat(fetchLimiter.recordFailure(repoResult, 0)).isTrue();
+        assertThat(fetchLimiter.recordFailure(repoResult, 0)).isFalse();
+        assertThat(fetchLimiter.isBackingOff("name", 1)).isFalse();
+    }
+
+    public void testSuccessClearsRetry() {
+        FetchLimiter fetchLimiter = new FetchLimiter(1);
+        RepoResult repoResult = new RepoResult(-1, "name", "git", "url", "", "", "source", "master");
+
+        fetchLimiter.recordFailure(repoResult, 0);
+        fetchLimiter.recordSuccess("name");
+        assertThat(fetchLimiter.isBackingOff("name", 1)).isFalse();
+        assertThat(fetchLimiter.pollRetry(Long.MAX_VALUE)).isNull();
+    }
+}
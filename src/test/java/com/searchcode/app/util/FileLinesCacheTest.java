@@ -0,0 +1,64 @@
+package com.searchcode.app.util;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+
+public class FileLinesCacheTest extends TestCase {
+
+    public void testGetReturnsCachedLines() {
+        FileLinesCache fileLinesCache = new FileLinesCache(1024 * 1024);
+        fileLinesCache.put("/some/path", "md5", Arrays.asList("one", "two"));
+
+        assertThat(fileLinesCache.get("/some/path", "md5")).containsExactly("one", "two");
+    }
+
+    public void testGetDifferentHashMisses() {
+        FileLinesCache fileLinesCache = new FileLinesCache(1024 * 1024);
+        fileLinesCache.put("/some/path", "md5", Arrays.asList("one", "two"));
+
+        assertThat(fileLinesCache.get("/some/path", "changed")).isNull();
+        assertThat(fileLinesCache.get("/other/path", "md5")).isNull();
+    }
+
+    public void testInvalidate() {
+        FileLinesCache fileLinesCache = new FileLinesCache(1024 * 1024);
+        fileLinesCache.put("/some/path", "md5", Arrays.asList("one", "two"));
+        fileLinesCache.invalidate("/some/path");
+
+        assertThat(fileLinesCache.get("/some/path", "md5")).isNull();
+    }
+
+    public void testDisabled() {
+        FileLinesCache fileLinesCache = new FileLinesCache(0);
+        fileLinesCache.put("/some/path", "md5", Arrays.asList("one", "two"));
+
+        assertThat(fileLinesCache.get("/some/path", "md5")).isNull();
+    }
+
+    public void testEvictsWhenOverWeight() {
+        FileLinesCache fileLinesCache = new FileLinesCache(10 * 1024);
+
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            lines.add("some line of code which takes up some space");
+        }
+
+        for (int i = 0; i < 100; i++) {
+            fileLinesCache.put("/some/path" + i, "md5", lines);
+        }
+
+        int cached = 0;
+        for (int i = 0; i < 100; i++) {
+            if (fileLinesCache.get("/some/path" + i, "md5") != null) {
+                cached++;
+            }
+        }
+
+        assertThat(cached).isLessThan(10);
+    }
+}
@@ -0,0 +1,121 @@
+package com.searchcode.app.util;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+
+public class FileRepoManifestTest extends TestCase {
+
+    private File getManifestFile() throws IOException {
+        File file = File.createTempFile("searchcode", ".manifest");
+        file.delete();
+        return file;
+    }
+
+    public void testLoadMissingManifest() throws IOException {
+        File file = this.getManifestFile();
+        FileRepoManifest manifest = new FileRepoManifest(file.getAbsolutePath());
+
+        assertThat(manifest.load()).isFalse();
+        assertThat(manifest.isUnchanged("/some/file", 10, 1000)).isFalse();
+        assertThat(manifest.getPreviousMd5Hash("/some/file")).isNull();
+    }
+
+    public void testUnchangedFilesSurviveSave() throws IOException {
+        File file = this.getManifestFile();
+        FileRepoManifest manifest = new FileRepoManifest(file.getAbsolutePath());
+        manifest.record("/repo/a.java", 10, 1000, "abc");
+        manifest.record("/repo/b.min.js", 20, 1000, "");
+        manifest.save(true);
+
+        FileRepoManifest next = new FileRepoManifest(file.getAbsolutePath());
+        assertThat(next.load()).isTrue();
+        assertThat(next.previousSize()).isEqualTo(2);
+        assertThat(next.isUnchanged("/repo/a.java", 10, 1000)).isTrue();
+        assertThat(next.isUnchanged("/repo/b.min.js", 20, 1000)).isTrue();
+        assertThat(next.getPreviousMd5Hash("/repo/a.java")).isEqualTo("abc");
+        assertThat(next.getPreviousMd5Hash("/repo/b.min.js")).isEmpty();
+        assertThat(next.getMissing()).isEmpty();
+
+        file.delete();
+    }
+
+    public void testChangedSizeOrTimeIsChanged() throws IOException {
+        File file = this.getManifestFile();
+        FileRepoManifest manifest = new FileRepoManifest(file.getAbsolutePath());
+        manifest.record("/repo/a.java", 10, 1000, "abc");
+        manifest.save(true);
+
+        FileRepoManifest next = new FileRepoManifest(file.getAbsolutePath());
+        next.load();
+        assertThat(next.isUnchanged("/repo/a.java", 11, 1000)).isFalse();
+        assertThat(next.isUnchanged("/repo/a.java", 10, 2000)).isFalse();
+        assertThat(next.isUnchanged("/repo/other.java", 10, 1000)).isFalse();
+
+        file.delete();
+    }
+
+    public void testModifiedDuringPreviousWalkIsNotTrusted() throws IOException {
+        File file = this.getManifestFile();
+        long now = System.currentTimeMillis();
+
+        FileRepoManifest manifest = new FileRepoManifest(file.getAbsolutePath());
+        manifest.record("/repo/a.java", 10, now, "abc");
+        manifest.save(true);
+
+        FileRepoManifest next = new FileRepoManifest(file.getAbsolutePath());
+        next.load();
+        assertThat(next.isUnchanged("/repo/a.java", 10, now)).isFalse();
+
+        file.delete();
+    }
+
+    public void testMissingFiles() throws IOException {
+        File file = this.getManifestFile();
+        FileRepoManifest manifest = new FileRepoManifest(file.getAbsolutePath());
+        manifest.record("/repo/a.java", 10, 1000, "abc");
+        manifest.record("/repo/b.java", 10, 1000, "def");
+        manifest.save(true);
+
+        FileRepoManifest next = new FileRepoManifest(file.getAbsolutePath());
+        next.load();
+        assertThat(next.isUnchanged("/repo/a.java", 10, 1000)).isTrue();
+        assertThat(next.getMissing()).containsExactly("/repo/b.java");
+
+        file.delete();
+    }
+
+    public void testIncompleteWalkKeepsUnseenFiles() throws IOException {
+        File file = this.getManifestFile();
+        FileRepoManifest manifest = new FileRepoManifest(file.getAbsolutePath());
+        manifest.record("/repo/a.java", 10, 1000, "abc");
+        manifest.record("/repo/b.java", 10, 1000, "def");
+        manifest.save(true);
+
+        FileRepoManifest partial = new FileRepoManifest(file.getAbsolutePath());
+        partial.load();
+        partial.record("/repo/a.java", 12, 1500, "ghi");
+        partial.save(false);
+
+        FileRepoManifest next = new FileRepoManifest(file.getAbsolutePath());
+        next.load();
+        assertThat(next.previousSize()).isEqualTo(2);
+        assertThat(next.getPreviousMd5Hash("/repo/a.java")).isEqualTo("ghi");
+        assertThat(next.getPreviousMd5Hash("/repo/b.java")).isEqualTo("def");
+
+        file.delete();
+    }
+
+    public void testCorruptManifestIgnored() throws IOException {
+        File file = this.getManifestFile();
+        org.apache.commons.io.FileUtils.writeStringToFile(file, "not a manifest\n");
+
+        FileRepoManifest manifest = new FileRepoManifest(file.getAbsolutePath());
+        assertThat(manifest.load()).isFalse();
+
+        file.delete();
+    }
+}
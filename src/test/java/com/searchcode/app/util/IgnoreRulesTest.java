@@ -0,0 +1,103 @@
+package com.searchcode.app.util;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+
+public class IgnoreRulesTest extends TestCase {
+
+    private Path createTree() throws IOException {
+        Path root = Files.createTempDirectory("searchcode");
+        FileUtils.writeStringToFile(root.resolve(".gitignore").toFile(), "node_modules/\n*.log\n/build\n");
+        FileUtils.writeStringToFile(root.resolve(".searchcodeignore").toFile(), "secret/\n");
+        FileUtils.writeStringToFile(root.resolve("main.java").toFile(), "main");
+        FileUtils.writeStringToFile(root.resolve("debug.log").toFile(), "log");
+        FileUtils.writeStringToFile(root.resolve("node_modules/lib/index.js").toFile(), "lib");
+        FileUtils.writeStringToFile(root.resolve("build/out.java").toFile(), "out");
+        FileUtils.writeStringToFile(root.resolve("src/build/kept.java").toFile(), "kept");
+        FileUtils.writeStringToFile(root.resolve("src/secret/key.java").toFile(), "key");
+        FileUtils.writeStringToFile(root.resolve("src/logs/.gitignore").toFile(), "!keep.log\n");
+        FileUtils.writeStringToFile(root.resolve("src/logs/keep.log").toFile(), "keep");
+        FileUtils.writeStringToFile(root.resolve("src/logs/drop.log").toFile(), "drop");
+        return root;
+    }
+
+    private List<String> walk(Path root, IgnoreRules ignoreRules) throws IOException {
+        List<String> files = new ArrayList<>();
+        List<String> visitedDirectories = new ArrayList<>();
+
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (ignoreRules.enterDirectory(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                visitedDirectories.add(root.relativize(dir).toString());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException ex) {
+                ignoreRules.exitDirectory(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (!ignoreRules.isIgnored(file, false)) {
+                    files.add(root.relativize(file).toString().replace("\\", "/"));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        assertThat(visitedDirectories).doesNotContain("node_modules", "node_modules/lib", "build");
+        return files;
+    }
+
+    public void testWalkPrunesIgnored() throws IOException {
+        Path root = this.createTree();
+
+        List<String> files = this.walk(root, new IgnoreRules(root));
+        assertThat(files).containsOnly(".gitignore", ".searchcodeignore", "main.java", "src/build/kept.java", "src/logs/.gitignore", "src/logs/keep.log");
+
+        FileUtils.deleteDirectory(root.toFile());
+    }
+
+    public void testNoIgnoreFiles() throws IOException {
+        Path root = Files.createTempDirectory("searchcode");
+        FileUtils.writeStringToFile(root.resolve("a/b/c.java").toFile(), "c");
+
+        List<String> files = this.walk(root, new IgnoreRules(root));
+        assertThat(files).containsExactly("a/b/c.java");
+
+        FileUtils.deleteDirectory(root.toFile());
+    }
+
+    public void testIsIgnoredFromRoot() throws IOException {
+        Path root = this.createTree();
+        IgnoreRules ignoreRules = new IgnoreRules(root);
+
+        assertThat(ignoreRules.isIgnoredFromRoot(root.resolve("main.java"))).isFalse();
+        assertThat(ignoreRules.isIgnoredFromRoot(root.resolve("debug.log"))).isTrue();
+        assertThat(ignoreRules.isIgnoredFromRoot(root.resolve("node_modules/lib/index.js"))).isTrue();
+        assertThat(ignoreRules.isIgnoredFromRoot(root.resolve("build/out.java"))).isTrue();
+        assertThat(ignoreRules.isIgnoredFromRoot(root.resolve("src/build/kept.java"))).isFalse();
+        assertThat(ignoreRules.isIgnoredFromRoot(root.resolve("src/secret/key.java"))).isTrue();
+        assertThat(ignoreRules.isIgnoredFromRoot(root.resolve("src/logs/keep.log"))).isFalse();
+        assertThat(ignoreRules.isIgnoredFromRoot(root.resolve("src/logs/drop.log"))).isTrue();
+
+        FileUtils.deleteDirectory(root.toFile());
+    }
+}
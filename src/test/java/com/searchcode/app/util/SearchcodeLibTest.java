@@ -4,8 +4,13 @@ import com.searchcode.app.dto.*;
 import com.searchcode.app.service.Singleton;
 import junit.framework.TestCase;
 import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.StringUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
@@ -180,6 +185,98 @@ public class SearchcodeLibTest extends TestCase {
         assertFalse(sl.isBinary(codeLines, "").isBinary());
     }
 
+    public void testIsBinaryOrMinifiedSampleCode() {
+        SearchcodeLib sl = new SearchcodeLib();
+        byte[] sample = "public class Test {\n    int i = 0;\n}\n".getBytes(StandardCharsets.UTF_8);
+
+        assertThat(sl.isBinaryOrMinifiedSample(sample, sample.length, true, "Test.java").isBinary()).isFalse();
+        assertThat(sl.isBinaryOrMinifiedSample(sample, sample.length, true, "test.unknown").isBinary()).isFalse();
+    }
+
+    public void testIsBinaryOrMinifiedSampleEmpty() {
+        SearchcodeLib sl = new SearchcodeLib();
+        assertThat(sl.isBinaryOrMinifiedSample(new byte[0], 0, true, "test.unknown").isBinary()).isFalse();
+    }
+
+    public void testIsBinaryOrMinifiedSampleMinified() {
+        SearchcodeLib sl = new SearchcodeLib();
+        byte[] sample = StringUtils.repeat("a", 256).getBytes(StandardCharsets.UTF_8);
+
+        BinaryFinding binaryFinding = sl.isBinaryOrMinifiedSample(sample, sample.length, true, "something.js");
+        assertThat(binaryFinding.isBinary()).isTrue();
+        assertThat(binaryFinding.getReason()).isEqualTo("appears to be minified");
+    }
+
+    public void testIsBinaryOrMinifiedSampleIncompleteNotMinified() {
+        // Only part of the file so the long first line may not be representative
+        SearchcodeLib sl = new SearchcodeLib();
+        byte[] sample = (StringUtils.repeat("a", 1000) + "\nshort\n").getBytes(StandardCharsets.UTF_8);
+
+        assertThat(sl.isBinaryOrMinifiedSample(sample, sample.length, false, "something.js").isBinary()).isFalse();
+    }
+
+    public void testIsBinaryOrMinifiedSampleIncompleteOneLineNotMinified() {
+        // No newline in the sample but the rest of the file may be short lines
+        SearchcodeLib sl = new SearchcodeLib();
+        byte[] sample = StringUtils.repeat("a", 8192).getBytes(StandardCharsets.UTF_8);
+
+        assertThat(sl.isBinaryOrMinifiedSample(sample, sample.length, false, "something.js").isBinary()).isFalse();
+    }
+
+    public void testIsBinaryOrMinifiedSampleIncompleteNonAsciiStartNotBinary() throws IOException {
+        // The first 8KB is all non-ascii but the file as a whole is mostly ascii
+        SearchcodeLib sl = new SearchcodeLib();
+        sl.classifier = new ArrayList<>();
+        String contents = StringUtils.repeat("\u00fc", 5000) + "\n" + StringUtils.repeat("int i = 0; // plain ascii code line\n", 200);
+        byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+
+        assertThat(sl.isBinaryOrMinifiedSample(bytes, 8192, false, "something.unknown").isBinary()).isFalse();
+
+        SourceFile sourceFile = SourceFile.load(new ByteArrayInputStream(bytes), 0, false, (sample, length, complete) -> sl.isBinaryOrMinifiedSample(sample, length, complete, "something.unknown"));
+        assertThat(sourceFile.getExclusion()).isNull();
+        assertThat(sl.isBinary(sourceFile.getLines(), "something.unknown").isBinary()).isFalse();
+    }
+
+    public void testIsBinaryOrMinifiedSampleNullBytes() {
+        SearchcodeLib sl = new SearchcodeLib();
+        sl.classifier = new ArrayList<>();
+        byte[] sample = new byte[] { 'P', 'K', 3, 4, 0, 0, 'a' };
+
+        BinaryFinding binaryFinding = sl.isBinaryOrMinifiedSample(sample, sample.length, true, "something.unknown");
+        assertThat(binaryFinding.isBinary()).isTrue();
+        assertThat(binaryFinding.getReason()).isEqualTo("contains null bytes");
+    }
+
+    public void testIsBinaryOrMinifiedSampleUtf16NotBinary() {
+        SearchcodeLib sl = new SearchcodeLib();
+        sl.classifier = new ArrayList<>();
+        byte[] sample = "hello world\n".getBytes(StandardCharsets.UTF_16);
+
+        assertThat(sl.isBinaryOrMinifiedSample(sample, sample.length, true, "something.unknown").isBinary()).isFalse();
+    }
+
+    /**
+     * Anything the byte level check excludes should also be excluded once decoded
+     */
+    public void testIsBinaryOrMinifiedSampleAgreesWithDecodedFuzz() {
+        SearchcodeLib sl = new SearchcodeLib();
+        sl.classifier = new ArrayList<>();
+        Random rand = new Random();
+
+        for (int i = 0; i < 1000; i++) {
+            String contents = RandomStringUtils.random(rand.nextInt(500) + 1, "abc {};\n你好ü");
+            byte[] sample = contents.getBytes(StandardCharsets.UTF_8);
+            String fileName = "something.unknown";
+
+            BinaryFinding binaryFinding = sl.isBinaryOrMinifiedSample(sample, sample.length, true, fileName);
+
+            if (binaryFinding.isBinary()) {
+                List<String> codeLines = Arrays.asList(contents.split("\n"));
+                assertThat(sl.isMinified(codeLines, fileName) || sl.isBinary(codeLines, fileName).isBinary()).isTrue();
+            }
+        }
+    }
+
     public void testIsMinifiedTrue() {
         SearchcodeLib sl = new SearchcodeLib();
 
@@ -0,0 +1,129 @@
+package com.searchcode.app.util;
+
+import com.searchcode.app.dto.BinaryFinding;
+import junit.framework.TestCase;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+
+public class SourceFileTest extends TestCase {
+
+    public void testLoadSplitsLikeReadLine() throws IOException {
+        File file = this.createFile("one\ntwo\r\nthree\rfour");
+
+        SourceFile sourceFile = SourceFile.load(file.getAbsolutePath(), 100, false);
+
+        assertThat(sourceFile.getLines()).containsExactly("one", "two", "three", "four");
+        file.delete();
+    }
+
+    public void testLoadTrailingNewLine() throws IOException {
+        File file = this.createFile("one\n\ntwo\n");
+
+        SourceFile sourceFile = SourceFile.load(file.getAbsolutePath(), 100, false);
+
+        assertThat(sourceFile.getLines()).containsExactly("one", "", "two");
+        file.delete();
+    }
+
+    public void testLoadEmptyFile() throws IOException {
+        File file = this.createFile("");
+
+        SourceFile sourceFile = SourceFile.load(file.getAbsolutePath(), 100, true);
+
+        assertThat(sourceFile.getLines()).isEmpty();
+        assertThat(sourceFile.getMd5Hash()).isEqualTo(DigestUtils.md5Hex(""));
+        file.delete();
+    }
+
+    public void testLoadLimitsLines() throws IOException {
+        StringBuilder contents = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            contents.append("line ").append(i).append("\n");
+        }
+        File file = this.createFile(contents.toString());
+
+        SourceFile sourceFile = SourceFile.load(file.getAbsolutePath(), 10, true);
+
+        assertThat(sourceFile.getLineCount()).isEqualTo(10);
+        assertThat(sourceFile.getLine(9)).isEqualTo("line 9");
+        // The hash is still for the whole file even though only some lines were kept
+        assertThat(sourceFile.getMd5Hash()).isEqualTo(DigestUtils.md5Hex(contents.toString().getBytes(StandardCharsets.UTF_8)));
+        file.delete();
+    }
+
+    public void testLoadPrefilterExcludes() throws IOException {
+        File file = this.createFile("some contents");
+
+        SourceFile sourceFile = SourceFile.load(file.getAbsolutePath(), 100, true, (sample, length, complete) -> new BinaryFinding(true, "excluded by test"));
+
+        assertThat(sourceFile.getExclusion().getReason()).isEqualTo("excluded by test");
+        assertThat(sourceFile.getLines()).isEmpty();
+        file.delete();
+    }
+
+    public void testLoadPrefilterOnlySeesSample() throws IOException {
+        File file = this.createFile(StringUtils.repeat("a\n", 100000));
+        List<Integer> sampleLengths = new ArrayList<>();
+
+        SourceFile sourceFile = SourceFile.load(file.getAbsolutePath(), 0, false, (sample, length, complete) -> {
+            sampleLengths.add(length);
+            assertThat(complete).isFalse();
+            return new BinaryFinding(false, "");
+        });
+
+        assertThat(sampleLengths).containsExactly(8192);
+        assertThat(sourceFile.getExclusion()).isNull();
+        assertThat(sourceFile.getLineCount()).isEqualTo(100000);
+        file.delete();
+    }
+
+    public void testLoadMissingFileThrows() {
+        try {
+            SourceFile.load("/this/file/does/not/exist", 10, false);
+            fail();
+        }
+        catch (IOException ex) {}
+    }
+
+    public void testLoadMatchesBufferedReaderFuzz() throws IOException {
+        Random rand = new Random();
+
+        for (int i = 0; i < 100; i++) {
+            String contents = RandomStringUtils.random(rand.nextInt(20000), "abc \r\n\t");
+            int maxLines = rand.nextInt(200);
+            File file = this.createFile(contents);
+
+            List<String> expected = new ArrayList<>();
+            BufferedReader bufferedReader = new BufferedReader(new StringReader(contents));
+            String line;
+            while ((line = bufferedReader.readLine()) != null) {
+                expected.add(line);
+                if (expected.size() == maxLines) {
+                    break;
+                }
+            }
+
+            assertThat(SourceFile.load(file.getAbsolutePath(), maxLines, false).getLines()).isEqualTo(expected);
+            file.delete();
+        }
+    }
+
+    private File createFile(String contents) throws IOException {
+        File file = File.createTempFile("searchcode", ".source");
+        FileUtils.writeStringToFile(file, contents, StandardCharsets.UTF_8);
+        return file;
+    }
+}
@@ -0,0 +1,86 @@
+package com.searchcode.app.util;
+
+import junit.framework.TestCase;
+import org.apache.commons.lang3.RandomStringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class TermMatcherTest extends TestCase {
+
+    public void testCountMatchingTermsSimple() {
+        TermMatcher termMatcher = new TermMatcher(Arrays.asList("code", "this"));
+
+        assertEquals(2, termMatcher.countMatchingTerms("this is some code"));
+        assertEquals(1, termMatcher.countMatchingTerms("some code"));
+        assertEquals(0, termMatcher.countMatchingTerms("nothing to see"));
+    }
+
+    public void testCountMatchingTermsCountsTermOnce() {
+        TermMatcher termMatcher = new TermMatcher(Arrays.asList("code"));
+        assertEquals(1, termMatcher.countMatchingTerms("code code code"));
+    }
+
+    public void testCountMatchingTermsIgnoresCase() {
+        TermMatcher termMatcher = new TermMatcher(Arrays.asList("code"));
+        assertEquals(1, termMatcher.countMatchingTerms("CodeMatcher"));
+    }
+
+    public void testCountMatchingTermsOverlapping() {
+        TermMatcher termMatcher = new TermMatcher(Arrays.asList("she", "he", "hers", "his"));
+        assertEquals(3, termMatcher.countMatchingTerms("ushers"));
+    }
+
+    public void testCountMatchingTermsCollapsesWhitespace() {
+        TermMatcher termMatcher = new TermMatcher(Arrays.asList("a b"));
+        assertEquals(1, termMatcher.countMatchingTerms("a \t\t  b"));
+    }
+
+    public void testCountMatchingTermsEmptyTermAlwaysMatches() {
+        TermMatcher termMatcher = new TermMatcher(Arrays.asList("", "code"));
+        assertEquals(1, termMatcher.countMatchingTerms(""));
+        assertEquals(2, termMatcher.countMatchingTerms("code"));
+    }
+
+    public void testCountMatchingTermsDuplicateTerms() {
+        TermMatcher termMatcher = new TermMatcher(Arrays.asList("code", "code"));
+        assertEquals(2, termMatcher.countMatchingTerms("code"));
+    }
+
+    public void testCountMatchingTermsUpperCaseTermNeverMatches() {
+        TermMatcher termMatcher = new TermMatcher(Arrays.asList("AND", "code"));
+        assertEquals(1, termMatcher.countMatchingTerms("code AND code"));
+    }
+
+    /**
+     * Fuzz test that the matcher agrees with lower casing, collapsing whitespace and calling contains for each term
+     */
+    public void testCountMatchingTermsFuzzAgainstContains() {
+        Random rand = new Random();
+
+        for (int i = 0; i < 1000; i++) {
+            List<String> terms = new ArrayList<>();
+            for (int j = 0; j < rand.nextInt(6) + 1; j++) {
+                terms.add(RandomStringUtils.random(rand.nextInt(3) + 1, "abAB \t").toLowerCase());
+            }
+
+            TermMatcher termMatcher = new TermMatcher(terms);
+
+            for (int j = 0; j < 10; j++) {
+                String line = RandomStringUtils.random(rand.nextInt(50), "abcABC \t\n");
+                String normalised = line.toLowerCase().replaceAll("\\s+", " ");
+
+                int expected = 0;
+                for (String term: terms) {
+                    if (normalised.contains(term)) {
+                        expected++;
+                    }
+                }
+
+                assertEquals(terms + " " + line, expected, termMatcher.countMatchingTerms(line));
+            }
+        }
+    }
+}
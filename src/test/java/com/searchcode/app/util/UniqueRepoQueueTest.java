@@ -5,6 +5,8 @@ import com.searchcode.app.service.Singleton;
 import junit.framework.TestCase;
 import org.eclipse.jetty.util.ConcurrentArrayQueue;
 
+import java.util.concurrent.TimeUnit;
+
 import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
 
 public class UniqueRepoQueueTest extends TestCase {
@@ -92,4 +94,53 @@ public class UniqueRepoQueueTest extends TestCase {
         queue.clear();
         assertThat(queue.size()).isEqualTo(0);
     }
+
+    public void testManualAddGoesFirst() {
+        UniqueRepoQueue queue = new UniqueRepoQueue();
+
+        RepoResult rr1 = new RepoResult(1, "name", "scm", "url", "username", "password", "source", "branch");
+        RepoResult rr2 = new RepoResult(2, "name2", "scm", "url", "username", "password", "source", "branch");
+        RepoResult rr3 = new RepoResult(3, "name3", "scm", "url", "username", "password", "source", "branch");
+
+        queue.add(rr1);
+        queue.add(rr2);
+        queue.addManual(rr3);
+        queue.addManual(rr2);
+
+        assertThat(queue.size()).isEqualTo(3);
+        assertThat(queue.poll()).isEqualTo(rr3);
+        assertThat(queue.poll()).isEqualTo(rr2);
+        assertThat(queue.poll()).isEqualTo(rr1);
+    }
+
+    public void testStalestGoesFirst() {
+        UniqueRepoQueue queue = new UniqueRepoQueue();
+
+        RepoResult fresh = new RepoResult(1, "uniquerepoqueuefresh", "scm", "url", "username", "password", "source", "branch");
+        RepoResult stale = new RepoResult(2, "uniquerepoqueuestale", "scm", "url", "username", "password", "source", "branch");
+        Singleton.getStatsService().getRepoUpdateStats(fresh.getName()).recordChanged();
+
+        queue.add(fresh);
+        queue.add(stale);
+
+        assertThat(queue.poll()).isEqualTo(stale);
+        assertThat(queue.poll()).isEqualTo(fresh);
+    }
+
+    public void testTakeWaitsForAdd() throws Exception {
+        UniqueRepoQueue queue = new UniqueRepoQueue();
+        RepoResult rr = new RepoResult(1, "name", "scm", "url", "username", "password", "source", "branch");
+
+        assertThat(queue.poll(10, TimeUnit.MILLISECONDS)).isNull();
+
+        Thread thread = new Thread(() -> {
+            try { Thread.sleep(100); } catch (InterruptedException ex) {}
+            queue.add(rr);
+        });
+        thread.start();
+
+        assertThat(queue.take()).isEqualTo(rr);
+        assertThat(queue.size()).isEqualTo(0);
+        thread.join();
+    }
 }